@@ -45,6 +45,9 @@ public class Constants {
     public static final String PREF_RECORD_CADENCE = "PREF_RECORD_CADENCE";
     public static final boolean PREF_RECORD_CADENCE_DEFAULT = false;
 
+    public static final String PREF_TRACK_SIMPLIFICATION = "PREF_TRACK_SIMPLIFICATION";
+    public static final String PREF_TRACK_SIMPLIFICATION_DEFAULT = "0";
+
     public static final String PREF_CURRENT_RIDE_URI = "PREF_CURRENT_RIDE_URI";
 
     public static final String PREF_RIDE_MAP_TYPE = "PREF_RIDE_MAP_TYPE";
@@ -0,0 +1,164 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.cadence;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jraf.android.util.log.Log;
+
+/**
+ * Compares {@link SlidingDftCadenceEstimator} with the previous zero crossing method ({@link ZeroCrossingCadenceEstimator}), on generated rotation
+ * values: a pocket moving at the pedaling frequency (with a harmonic), sensor noise and bursts of road vibration, with sensor events at an
+ * irregular rate of about 20 Hz.
+ */
+public class TestCadenceEstimators extends TestCase {
+    private static final long DURATION_MS = 120 * 1000;
+    private static final long EVALUATION_RATE_MS = 1000;
+    private static final long WARM_UP_MS = 6 * 1000;
+
+    private static class Result {
+        int count;
+        int found;
+        float errorSum;
+        float maxError;
+        long durationNs;
+
+        void add(Float cadence, float expected) {
+            count++;
+            if (cadence == null) return;
+            found++;
+            float error = Math.abs(cadence - expected);
+            errorSum += error;
+            if (error > maxError) maxError = error;
+        }
+
+        float getMeanError() {
+            return found == 0 ? Float.NaN : errorSum / found;
+        }
+
+        @Override
+        public String toString() {
+            return "found=" + found + "/" + count + " meanError=" + getMeanError() + " maxError=" + maxError + " duration=" + durationNs / 1000
+                    + "us";
+        }
+    }
+
+    /**
+     * The cadence at the given time: ramp from 60 to 110 rpm, then steady, then a sudden drop to 80 rpm.
+     */
+    private static float getExpectedCadence(long time) {
+        if (time < 40 * 1000) return 60 + 50f * time / (40 * 1000);
+        if (time < 80 * 1000) return 110;
+        return 80;
+    }
+
+    public void testCompareEstimators() {
+        Random random = new Random(1);
+        SampleRing samples = new SampleRing(1024);
+        SlidingDftCadenceEstimator slidingDftEstimator = new SlidingDftCadenceEstimator();
+        Result slidingDftResult = new Result();
+        Result zeroCrossingResult = new Result();
+
+        // Cadence of the last 5 s, to compare with the estimates (which are over a 5 s window)
+        float[] cadenceHistory = new float[(int) (CadenceManager.LOG_SIZE_MS / 10)];
+        int cadenceHistoryCount = 0;
+
+        double phase = 0;
+        long time = 0;
+        long nextEvaluation = WARM_UP_MS;
+        while (time < DURATION_MS) {
+            long dt = 40 + random.nextInt(21);
+            time += dt;
+            float cadence = getExpectedCadence(time);
+            phase += 2 * Math.PI * cadence / 60 * dt / 1000;
+            cadenceHistory[cadenceHistoryCount++ % cadenceHistory.length] = cadence;
+
+            double vibration = .25 * Math.sin(2 * Math.PI * 4.3 * time / 1000) * ((time / 3000) % 2 == 0 ? .2 : 1);
+            float x = (float) (.1 * Math.sin(phase + 1) + .05 * random.nextGaussian());
+            float y = (float) (.4 * Math.sin(phase) + .1 * Math.sin(2 * phase) + vibration + .08 * random.nextGaussian());
+            float z = (float) (.2 * Math.sin(phase + 2) + .5 * vibration + .05 * random.nextGaussian());
+
+            samples.add(time, x, y, z);
+            long start = System.nanoTime();
+            slidingDftEstimator.add(time, x, y, z);
+            slidingDftResult.durationNs += System.nanoTime() - start;
+
+            if (time >= nextEvaluation) {
+                nextEvaluation += EVALUATION_RATE_MS;
+                float expected = getAverage(cadenceHistory, Math.min(cadenceHistoryCount, (int) (CadenceManager.LOG_SIZE_MS / 50)),
+                        cadenceHistoryCount);
+
+                long result = slidingDftEstimator.getResult();
+                float slidingDftCadence = SlidingDftCadenceEstimator.getCadence(result);
+                slidingDftResult.add(Float.isNaN(slidingDftCadence) ? null : slidingDftCadence, expected);
+
+                start = System.nanoTime();
+                Float zeroCrossingCadence = ZeroCrossingCadenceEstimator.getCadence(samples);
+                zeroCrossingResult.durationNs += System.nanoTime() - start;
+                zeroCrossingResult.add(zeroCrossingCadence, expected);
+            }
+        }
+
+        Log.d("Sliding DFT: " + slidingDftResult);
+        Log.d("Zero crossing: " + zeroCrossingResult);
+
+        assertTrue(slidingDftResult.found >= slidingDftResult.count * 9 / 10);
+        assertTrue(slidingDftResult.getMeanError() < 3);
+        assertTrue(zeroCrossingResult.found == 0 || slidingDftResult.getMeanError() < zeroCrossingResult.getMeanError());
+    }
+
+    /**
+     * Average of the last {@code n} values added to a circular array containing {@code count} values so far.
+     */
+    private static float getAverage(float[] values, int n, int count) {
+        float sum = 0;
+        for (int i = count - n; i < count; i++) {
+            sum += values[i % values.length];
+        }
+        return sum / n;
+    }
+
+    public void testSteadyCadenceConfidence() {
+        SlidingDftCadenceEstimator estimator = new SlidingDftCadenceEstimator();
+        double phase = 0;
+        for (long time = 0; time < 10 * 1000; time += 50) {
+            phase += 2 * Math.PI * 90 / 60 * .05;
+            estimator.add(time, 0, (float) (.4 * Math.sin(phase)), 0);
+        }
+        long result = estimator.getResult();
+        assertEquals(90, SlidingDftCadenceEstimator.getCadence(result), 1);
+        assertTrue(SlidingDftCadenceEstimator.getConfidence(result) > .7f);
+    }
+
+    public void testNoMovement() {
+        SlidingDftCadenceEstimator estimator = new SlidingDftCadenceEstimator();
+        for (long time = 0; time < 10 * 1000; time += 50) {
+            estimator.add(time, .1f, .2f, .3f);
+        }
+        assertTrue(Float.isNaN(SlidingDftCadenceEstimator.getCadence(estimator.getResult())));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.cadence;
+
+import junit.framework.TestCase;
+
+import org.jraf.android.util.log.Log;
+
+public class TestSampleRing extends TestCase {
+    private static final int CAPACITY = 64;
+
+    public void testCapacity() {
+        try {
+            new SampleRing(100);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testWraparound() {
+        SampleRing samples = new SampleRing(CAPACITY);
+        assertEquals(0, samples.getCount());
+        assertEquals(0, samples.getOldestIndex(0));
+
+        for (int i = 0; i < CAPACITY * 5 / 2; i++) {
+            samples.add(i, i, -i, i * 2);
+        }
+        long count = samples.getCount();
+        assertEquals(CAPACITY * 5 / 2, count);
+
+        // The slot of the oldest sample is the next one to be written
+        long oldest = samples.getOldestIndex(count);
+        assertEquals(count - CAPACITY + 1, oldest);
+        assertFalse(samples.isAvailable(oldest - 1));
+        assertTrue(samples.isAvailable(oldest));
+        assertTrue(samples.isAvailable(count - 1));
+        for (long i = oldest; i < count; i++) {
+            assertEquals(i, samples.getTimestamp(i));
+            assertEquals((float) i, samples.getValue(0, i));
+            assertEquals((float) -i, samples.getValue(1, i));
+            assertEquals((float) i * 2, samples.getValue(2, i));
+        }
+
+        samples.clear();
+        assertEquals(0, samples.getCount());
+        samples.add(42, 1, 2, 3);
+        assertEquals(42, samples.getTimestamp(0));
+        assertEquals(0, samples.getOldestIndex(1));
+    }
+
+    /**
+     * A producer adds samples as fast as possible, while the consumer copies the available ones: a copy must either contain the values that
+     * were added at these indexes, or be detected as overwritten.
+     */
+    public void testOverrun() throws InterruptedException {
+        SampleRing samples = new SampleRing(CAPACITY);
+        long total = 2000000;
+        Thread producer = new Thread(() -> {
+            for (long i = 0; i < total; i++) {
+                samples.add(i, i % 1000, i % 999, i % 998);
+            }
+        });
+        producer.start();
+
+        long[] timestamps = new long[CAPACITY];
+        float[] values = new float[CAPACITY];
+        int overrunCount = 0;
+        int checkedCount = 0;
+        boolean done;
+        do {
+            // Once the producer is done, the last pass reads all the available samples without any overrun
+            done = !producer.isAlive();
+            long end = samples.getCount();
+            long start = samples.getOldestIndex(end);
+            int len = (int) (end - start);
+            for (int i = 0; i < len; i++) {
+                timestamps[i] = samples.getTimestamp(start + i);
+                values[i] = samples.getValue(0, start + i);
+            }
+            if (!samples.isAvailable(start)) {
+                overrunCount++;
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                assertEquals(start + i, timestamps[i]);
+                assertEquals((float) ((start + i) % 1000), values[i]);
+            }
+            checkedCount++;
+        } while (!done);
+        producer.join();
+        assertTrue(checkedCount > 0);
+        Log.d("checked=" + checkedCount + " overrun=" + overrunCount);
+    }
+}
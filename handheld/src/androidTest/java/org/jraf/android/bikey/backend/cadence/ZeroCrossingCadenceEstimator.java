@@ -0,0 +1,123 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.cadence;
+
+/**
+ * The cadence estimation that was used before {@link SlidingDftCadenceEstimator}: the periods between the crossings of the average, on the axis
+ * with the highest amplitude. Kept as a reference for {@link TestCadenceEstimators}.
+ */
+class ZeroCrossingCadenceEstimator {
+    private static final long LOG_SIZE_MS = 5 * 1000;
+
+    private static final float SANITY_CHECK_MAX = 170;
+    private static final float SANITY_CHECK_MIN = 30;
+
+    private static final float MIN_AMPLITUDE = .3f;
+
+    /**
+     * @return The cadence in revolutions per minute, from the samples of the last {@link #LOG_SIZE_MS}, or {@code null} if it could not be
+     * found.
+     */
+    static Float getCadence(SampleRing samples) {
+        long end = samples.getCount();
+        if (end < 2) return null;
+        long oldest = samples.getOldestIndex(end);
+        long lastTimestamp = samples.getTimestamp(end - 1);
+        long start = end - 1;
+        while (start > oldest && lastTimestamp - samples.getTimestamp(start - 1) < LOG_SIZE_MS) {
+            start--;
+        }
+        int len = (int) (end - start);
+        if (len < 2) return null;
+
+        // Min, max and sum of each axis, in a single pass
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        float sumX = 0, sumY = 0, sumZ = 0;
+        for (long i = start; i < end; i++) {
+            float x = samples.getValue(0, i);
+            float y = samples.getValue(1, i);
+            float z = samples.getValue(2, i);
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+            if (z < minZ) minZ = z;
+            if (z > maxZ) maxZ = z;
+            sumX += x;
+            sumY += y;
+            sumZ += z;
+        }
+
+        float amplitudeX = maxX - minX;
+        float amplitudeY = maxY - minY;
+        float amplitudeZ = maxZ - minZ;
+
+        // Use the values with the highest amplitude
+        float maxAmplitude = Math.max(amplitudeX, Math.max(amplitudeY, amplitudeZ));
+
+        if (maxAmplitude < MIN_AMPLITUDE) return null;
+
+        int axis;
+        float average;
+        if (maxAmplitude == amplitudeX) {
+            axis = 0;
+            average = sumX / len;
+        } else if (maxAmplitude == amplitudeY) {
+            axis = 1;
+            average = sumY / len;
+        } else {
+            axis = 2;
+            average = sumZ / len;
+        }
+
+        // Sum of the rev per ms for each period
+        float revPerMs = 0;
+        int periodCount = 0;
+        long lastTime = -1;
+        for (long i = start + 1; i < end; i++) {
+            if (samples.getValue(axis, i - 1) < average && samples.getValue(axis, i) >= average) {
+                // Going up
+                long time = samples.getTimestamp(i);
+                if (lastTime != -1 && time > lastTime) {
+                    revPerMs += 1f / (time - lastTime);
+                    periodCount++;
+                }
+                lastTime = time;
+            }
+        }
+        if (periodCount == 0) return null;
+
+        // Average of the rev per ms for each period
+        revPerMs /= periodCount;
+
+        float revPerMin = revPerMs * 60000f;
+
+        // Sanity checks
+        if (revPerMin > SANITY_CHECK_MAX || revPerMin < SANITY_CHECK_MIN) return null;
+
+        return revPerMin;
+    }
+}
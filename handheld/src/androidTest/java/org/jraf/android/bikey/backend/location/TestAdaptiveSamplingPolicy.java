@@ -0,0 +1,159 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+/**
+ * Replays a generated ride (riding, then stopped, then moving again) through {@link AdaptiveSamplingPolicy}, and compares it to the
+ * {@link FixedSamplingPolicy} baseline.
+ */
+public class TestAdaptiveSamplingPolicy extends TestCase {
+    private static final long STATIONARY_INTERVAL = 30 * 1000;
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    private AdaptiveSamplingPolicy mPolicy;
+    private long mTime;
+    private double mLatitude;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPolicy = new AdaptiveSamplingPolicy(STATIONARY_INTERVAL);
+        mTime = 0;
+        mLatitude = 45;
+        mPolicy.reset(mTime);
+    }
+
+    /**
+     * Feed one fix per second, going north at the given speed.
+     */
+    private void ride(float speed, long duration) {
+        for (long end = mTime + duration; mTime < end; mTime += 1000) {
+            Location location = new Location("gps");
+            location.setTime(mTime);
+            location.setLatitude(mLatitude);
+            location.setLongitude(5);
+            location.setAccuracy(5);
+            location.setSpeed(speed);
+            location.setBearing(0);
+            mPolicy.onLocation(location, mTime);
+            mLatitude += speed / METERS_PER_DEGREE;
+        }
+    }
+
+    public void testMoving() {
+        assertEquals(1000, mPolicy.getInterval());
+
+        // 8 m between fixes at 6 m/s
+        ride(6, 30 * 1000);
+        assertFalse(mPolicy.isStationary());
+        assertEquals(1333, mPolicy.getInterval(), 50);
+
+        // Fast: minimum interval
+        ride(12, 30 * 1000);
+        assertEquals(1000, mPolicy.getInterval());
+
+        // Slow: maximum interval
+        ride(2, 30 * 1000);
+        assertEquals(3000, mPolicy.getInterval());
+    }
+
+    public void testStationary() {
+        ride(6, 30 * 1000);
+
+        // Stopped for less than a minute: still considered moving
+        ride(0, 50 * 1000);
+        assertFalse(mPolicy.isStationary());
+        assertEquals(1000, mPolicy.getInterval());
+
+        ride(0, 20 * 1000);
+        assertTrue(mPolicy.isStationary());
+        assertEquals(STATIONARY_INTERVAL, mPolicy.getInterval());
+
+        // Motion detected
+        mPolicy.onMotion(mTime);
+        assertFalse(mPolicy.isStationary());
+        assertEquals(1000, mPolicy.getInterval());
+
+        // Moving again
+        ride(6, 10 * 1000);
+        assertFalse(mPolicy.isStationary());
+        assertEquals(1333, mPolicy.getInterval(), 50);
+    }
+
+    /**
+     * Replay a ride (riding 5 minutes at 6 m/s, stopped 10 minutes, riding 5 minutes again) through the given policy, taking a fix each time the
+     * interval of the policy elapsed.
+     *
+     * @return the number of fixes taken.
+     */
+    private static int replay(SamplingPolicy policy) {
+        long[] phaseEnds = {5 * 60 * 1000, 15 * 60 * 1000, 20 * 60 * 1000};
+        float[] phaseSpeeds = {6, 0, 6};
+        int res = 0;
+        double latitude = 45;
+        long time = 0;
+        int phase = 0;
+        policy.reset(time);
+        while (time < phaseEnds[phaseEnds.length - 1]) {
+            Location location = new Location("gps");
+            location.setTime(time);
+            location.setLatitude(latitude);
+            location.setLongitude(5);
+            location.setAccuracy(5);
+            location.setSpeed(phaseSpeeds[phase]);
+            location.setBearing(0);
+            policy.onLocation(location, time);
+            res++;
+
+            long interval = policy.getInterval();
+            latitude += phaseSpeeds[phase] * interval / 1000d / METERS_PER_DEGREE;
+            time += interval;
+            while (phase < phaseEnds.length - 1 && time >= phaseEnds[phase]) phase++;
+        }
+        return res;
+    }
+
+    public void testCompareWithFixed() {
+        int fixedCount = replay(new FixedSamplingPolicy(1000));
+        int adaptiveCount = replay(new AdaptiveSamplingPolicy(STATIONARY_INTERVAL));
+        assertEquals(20 * 60, fixedCount);
+        // Fewer fixes while riding (8 m between fixes), and very few while stopped
+        assertTrue("adaptive=" + adaptiveCount + " fixed=" + fixedCount, adaptiveCount < fixedCount * .6);
+    }
+
+    public void testResumeWithoutMotion() {
+        ride(0, 70 * 1000);
+        assertTrue(mPolicy.isStationary());
+
+        // No motion sensor: the next fix over the threshold ends the stationary state
+        ride(6, 5 * 1000);
+        assertFalse(mPolicy.isStationary());
+        assertTrue(mPolicy.getInterval() < STATIONARY_INTERVAL);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import java.util.Random;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+/**
+ * Feeds {@link LocationKalmanFilter} and {@link Speedometer} with generated fixes: positions (and altitudes) with a gaussian noise matching their
+ * accuracy, and (optionally) a noisy speed / bearing.
+ */
+public class TestLocationKalmanFilter extends TestCase {
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+    private static final double LAT = 48.85;
+    private static final double LON = 2.35;
+    private static final float ACCURACY = 5;
+
+    private Random mRandom;
+    private long mTime;
+    // Actual position, in meters east / north of (LAT, LON)
+    private double mEast;
+    private double mNorth;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(1);
+        mTime = 0;
+        mEast = 0;
+        mNorth = 0;
+    }
+
+    /**
+     * Move east at the given speed for one second, and return the corresponding fix.
+     */
+    private Location move(float speed, boolean withSpeed, boolean withBearing) {
+        mTime += 1000;
+        mEast += speed;
+        Location res = new Location("gps");
+        res.setTime(mTime);
+        res.setLatitude(LAT + (mNorth + mRandom.nextGaussian() * ACCURACY) / METERS_PER_DEGREE);
+        res.setLongitude(LON + (mEast + mRandom.nextGaussian() * ACCURACY) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT))));
+        res.setAccuracy(ACCURACY);
+        if (withSpeed) res.setSpeed((float) Math.max(0, speed + mRandom.nextGaussian() * .5));
+        if (withBearing) res.setBearing(90);
+        return res;
+    }
+
+    /**
+     * @return The mean estimated speed over the second half of the fixes (the estimate of a single fix follows the noise of its measured speed).
+     */
+    private float ride(LocationKalmanFilter filter, float speed, int count, boolean withSpeed, boolean withBearing) {
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            filter.update(move(speed, withSpeed, withBearing));
+            if (i >= count / 2) sum += filter.getSpeed();
+        }
+        return sum / (count - count / 2);
+    }
+
+    public void testSpeed() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        assertEquals(0f, filter.getSpeed());
+        assertEquals(8, ride(filter, 8, 30, true, true), .5);
+
+        // Slowing down
+        assertEquals(3, ride(filter, 3, 20, true, true), .5);
+    }
+
+    public void testPosition() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        double errorSum = 0;
+        double rawErrorSum = 0;
+        for (int i = 0; i < 100; i++) {
+            Location location = move(8, true, true);
+            filter.update(location);
+            if (i < 10) continue;
+            errorSum += distance(filter.getLatitude(), filter.getLongitude());
+            rawErrorSum += distance(location.getLatitude(), location.getLongitude());
+        }
+        // The estimated positions are closer to the actual ones than the measured ones
+        assertTrue("error=" + errorSum / 90 + " raw=" + rawErrorSum / 90, errorSum < rawErrorSum * .75);
+    }
+
+    private double distance(double lat, double lon) {
+        double dy = (lat - LAT) * METERS_PER_DEGREE - mNorth;
+        double dx = (lon - LON) * METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)) - mEast;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    public void testHeading() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        assertEquals(0f, filter.getHeading());
+        // Moving east, without any measured bearing
+        ride(filter, 6, 60, false, false);
+        assertEquals(90, filter.getHeading(), 10);
+    }
+
+    public void testAltitude() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        double errorSum = 0;
+        double rawErrorSum = 0;
+        for (int i = 0; i < 100; i++) {
+            // Climbing 1 m every 10 m
+            Location location = move(5, true, true);
+            double altitude = 100 + mEast / 10;
+            location.setAltitude(altitude + mRandom.nextGaussian() * ACCURACY * 1.5);
+            filter.update(location);
+            if (i < 10) continue;
+            errorSum += Math.abs(filter.getAltitude() - altitude);
+            rawErrorSum += Math.abs(location.getAltitude() - altitude);
+        }
+        assertTrue("error=" + errorSum / 90 + " raw=" + rawErrorSum / 90, errorSum < rawErrorSum * .75);
+    }
+
+    public void testPositionsOnly() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        assertEquals(6, ride(filter, 6, 120, false, false), 1);
+    }
+
+    public void testSpeedWithoutBearing() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        ride(filter, 8, 20, true, true);
+        // The direction is taken from the estimate
+        assertEquals(4, ride(filter, 4, 20, true, false), .5);
+    }
+
+    public void testOutlier() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        ride(filter, 5, 30, true, true);
+        // A position 20 m off: the speed, measured separately, is not affected much
+        Location location = move(5, true, true);
+        location.setLatitude(location.getLatitude() + 20 / METERS_PER_DEGREE);
+        filter.update(location);
+        assertEquals(5, filter.getSpeed(), 2);
+        assertEquals(5, ride(filter, 5, 20, true, true), .5);
+    }
+
+    public void testGap() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        ride(filter, 8, 20, true, true);
+
+        // After a long gap, the filter starts over: the velocity is unknown until the next fixes
+        mTime += 15 * 1000;
+        filter.update(move(0, false, false));
+        assertEquals(0f, filter.getSpeed());
+    }
+
+    public void testReset() {
+        LocationKalmanFilter filter = new LocationKalmanFilter();
+        ride(filter, 8, 20, true, true);
+        filter.reset();
+        assertEquals(0f, filter.getSpeed());
+    }
+
+    public void testSpeedometerThreshold() {
+        Speedometer speedometer = new Speedometer();
+        assertEquals(0f, speedometer.getSpeed());
+        for (int i = 0; i < 30; i++) {
+            Location location = move(.3f, false, true);
+            location.setSpeed(.3f);
+            speedometer.onLocationChanged(location);
+        }
+        // Under the threshold
+        assertEquals(0f, speedometer.getSpeed());
+
+        for (int i = 0; i < 10; i++) {
+            speedometer.onLocationChanged(move(5, true, true));
+        }
+        assertEquals(5, speedometer.getSpeed(), 1.5);
+    }
+
+    public void testSpeedometerPosition() {
+        Speedometer speedometer = new Speedometer();
+        assertFalse(speedometer.hasPosition());
+        for (int i = 0; i < 30; i++) {
+            Location location = move(6, true, false);
+            location.setAltitude(100);
+            speedometer.onLocationChanged(location);
+        }
+        assertTrue(speedometer.hasPosition());
+        assertTrue(distance(speedometer.getLatitude(), speedometer.getLongitude()) < ACCURACY * 2);
+        assertEquals(100, speedometer.getAltitude(), 1);
+        assertEquals(90, speedometer.getHeading(), 10);
+    }
+}
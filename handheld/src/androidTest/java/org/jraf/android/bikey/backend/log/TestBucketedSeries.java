@@ -0,0 +1,79 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import junit.framework.TestCase;
+
+public class TestBucketedSeries extends TestCase {
+    public void testExpectedExtent() {
+        BucketedSeries.Accumulator accumulator = new BucketedSeries.Accumulator(BucketedSeries.Axis.TIME, 10, 100);
+        for (int i = 0; i < 100; i++) accumulator.add(i, i);
+        BucketedSeries series = accumulator.build();
+        assertEquals(10, series.getBucketCount());
+        assertEquals(10d, series.getBucketWidth());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10L, series.getCount()[i]);
+            assertEquals(i * 10f, series.getMin()[i]);
+            assertEquals(i * 10f + 4.5f, series.getAverage()[i]);
+            assertEquals(i * 10f + 9, series.getMax()[i]);
+        }
+    }
+
+    public void testLongerThanExpected() {
+        // Underestimated extent: the buckets are merged as needed, the values are not lost
+        BucketedSeries.Accumulator accumulator = new BucketedSeries.Accumulator(BucketedSeries.Axis.DISTANCE, 10, 10);
+        for (int i = 0; i < 100000; i++) accumulator.add(i, i == 54321 ? 1000 : 1);
+        BucketedSeries series = accumulator.build();
+        assertTrue(series.getBucketCount() >= 5);
+        assertTrue(series.getBucketCount() <= 10);
+        long total = 0;
+        float max = 0;
+        for (int i = 0; i < series.getBucketCount(); i++) {
+            total += series.getCount()[i];
+            max = Math.max(max, series.getMax()[i]);
+        }
+        assertEquals(100000L, total);
+        assertEquals(1000f, max);
+    }
+
+    public void testEmptyBuckets() {
+        BucketedSeries.Accumulator accumulator = new BucketedSeries.Accumulator(BucketedSeries.Axis.TIME, 4, 4);
+        accumulator.add(1.5, 3);
+        accumulator.add(3.5, 5);
+        BucketedSeries series = accumulator.build();
+        assertEquals(4, series.getBucketCount());
+        assertEquals(0L, series.getCount()[0]);
+        assertEquals(3f, series.getAverage()[0]);
+        assertEquals(0L, series.getCount()[2]);
+        assertEquals(3f, series.getAverage()[2]);
+        assertEquals(5f, series.getAverage()[3]);
+    }
+
+    public void testNoValues() {
+        BucketedSeries series = new BucketedSeries.Accumulator(BucketedSeries.Axis.TIME, 100, 0).build();
+        assertEquals(0, series.getBucketCount());
+        assertEquals(0, series.getAverage().length);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+public class TestLevelOfDetail extends TestCase {
+    private static final int COUNT = 20000;
+
+    public void testGetLevel() {
+        assertEquals(100, LevelOfDetail.getLevel(50));
+        assertEquals(100, LevelOfDetail.getLevel(100));
+        assertEquals(1000, LevelOfDetail.getLevel(101));
+        assertEquals(10000, LevelOfDetail.getLevel(100000));
+    }
+
+    public void testSimplifyTrack() {
+        Random random = new Random(1);
+        double[] lat = new double[COUNT];
+        double[] lon = new double[COUNT];
+        lat[0] = 48.85;
+        lon[0] = 2.35;
+        for (int i = 1; i < COUNT; i++) {
+            lat[i] = lat[i - 1] + random.nextGaussian() * 1e-5;
+            lon[i] = lon[i - 1] + random.nextGaussian() * 1e-5;
+        }
+
+        for (int level : LevelOfDetail.LEVELS) {
+            int[] indexes = LevelOfDetail.simplifyTrack(lat, lon, COUNT, level);
+            assertEquals(level, indexes.length);
+            assertEquals(0, indexes[0]);
+            assertEquals(COUNT - 1, indexes[indexes.length - 1]);
+            for (int i = 1; i < indexes.length; i++) assertTrue(indexes[i] > indexes[i - 1]);
+
+            List<LatLng> track = LevelOfDetail.decodeTrack(LevelOfDetail.encodeTrack(lat, lon, indexes));
+            assertEquals(level, track.size());
+            assertEquals(lat[COUNT - 1], track.get(level - 1).latitude, 1e-7);
+            assertEquals(lon[COUNT - 1], track.get(level - 1).longitude, 1e-7);
+        }
+    }
+
+    public void testSimplifyShortTrack() {
+        double[] lat = {1, 2, 3};
+        double[] lon = {1, 2, 3};
+        assertEquals(3, LevelOfDetail.simplifyTrack(lat, lon, 3, 100).length);
+        assertEquals(0, LevelOfDetail.simplifyTrack(lat, lon, 0, 100).length);
+    }
+
+    public void testDecimateSeries() {
+        Random random = new Random(1);
+        float[] values = new float[COUNT];
+        for (int i = 0; i < COUNT; i++) values[i] = 20 + (float) random.nextGaussian();
+        // Spikes must not be lost
+        values[1234] = 100;
+        values[5678] = -100;
+
+        float[] decimated = LevelOfDetail.decodeSeries(LevelOfDetail.encodeSeries(LevelOfDetail.decimateSeries(values, COUNT, 100)));
+        assertTrue(decimated.length <= 100);
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float value : decimated) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        assertEquals(-100f, min);
+        assertEquals(100f, max);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jraf.android.util.log.Log;
+
+public class TestLogArchive extends TestCase {
+    private static final long RIDE_ID = 7;
+    private static final int COUNT = 3600;
+
+    /**
+     * Logs at 1 Hz, with gaps in the optional values.
+     */
+    private static LogRow[] newLogs(int count) {
+        Random random = new Random(1);
+        LogRow[] res = new LogRow[count];
+        long id = 1000;
+        long date = 1490000000000L;
+        double lat = 48.85;
+        double lon = 2.35;
+        double ele = 35;
+        for (int i = 0; i < count; i++) {
+            LogRow log = new LogRow();
+            id += 1 + random.nextInt(2);
+            date += 1000 + random.nextInt(50);
+            lat += random.nextGaussian() * 1e-5;
+            lon += random.nextGaussian() * 1e-5;
+            ele += random.nextGaussian() * .3;
+            log.mId = id;
+            log.mRideId = RIDE_ID;
+            log.mRecordedDate = date;
+            log.mLat = lat;
+            log.mLon = lon;
+            log.mEle = ele;
+            log.mHasLogDuration = i != 0;
+            if (log.mHasLogDuration) log.mLogDuration = 1000L + random.nextInt(50);
+            log.mHasLogDistance = i != 0;
+            if (log.mHasLogDistance) log.mLogDistance = (float) (5 + random.nextDouble());
+            log.mHasSpeed = true;
+            log.mSpeed = (float) (5 + random.nextDouble());
+            log.mHasCadence = i % 3 != 0;
+            if (log.mHasCadence) log.mCadence = (float) (80 + random.nextGaussian());
+            log.mHasHeartRate = i % 5 != 0;
+            if (log.mHasHeartRate) log.mHeartRate = 120 + random.nextInt(5);
+            res[i] = log;
+        }
+        return res;
+    }
+
+    private static byte[] encode(LogRow[] logs) {
+        LogArchive.Encoder encoder = new LogArchive.Encoder();
+        for (LogRow log : logs) encoder.add(log);
+        assertEquals(logs.length, encoder.getCount());
+        return encoder.encode();
+    }
+
+    public void testRoundTrip() {
+        LogRow[] expected = newLogs(COUNT);
+        byte[] data = encode(expected);
+        Log.d(COUNT + " logs -> " + data.length + " bytes");
+        // Should be way smaller than the rows (about a hundred bytes each)
+        assertTrue(data.length < COUNT * 16);
+
+        LogArchive.RowReader actual = LogArchive.readRows(RIDE_ID, data);
+        assertEquals(COUNT, actual.getCount());
+        LogRow row = new LogRow();
+        for (LogRow log : expected) {
+            assertTrue(actual.next(row));
+            assertEquals(log.getId(), row.getId());
+            assertEquals(RIDE_ID, row.getRideId());
+            assertEquals(log.getRecordedDate(), row.getRecordedDate());
+            assertEquals(log.getLat(), row.getLat(), 1e-7);
+            assertEquals(log.getLon(), row.getLon(), 1e-7);
+            assertEquals(log.getEle(), row.getEle(), .01);
+            assertEquals(log.hasLogDuration(), row.hasLogDuration());
+            if (row.hasLogDuration()) assertEquals(log.getLogDuration(), row.getLogDuration());
+            assertEquals(log.hasLogDistance(), row.hasLogDistance());
+            if (row.hasLogDistance()) assertEquals(log.getLogDistance(), row.getLogDistance(), .001);
+            assertEquals(log.hasSpeed(), row.hasSpeed());
+            if (row.hasSpeed()) assertEquals(log.getSpeed(), row.getSpeed(), .001);
+            assertEquals(log.hasCadence(), row.hasCadence());
+            if (row.hasCadence()) assertEquals(log.getCadence(), row.getCadence(), .01);
+            assertEquals(log.hasHeartRate(), row.hasHeartRate());
+            if (row.hasHeartRate()) assertEquals(log.getHeartRate(), row.getHeartRate());
+        }
+        assertFalse(actual.next(row));
+    }
+
+    public void testChunkSize() {
+        byte[] data = encode(newLogs(LogArchive.CHUNK_SIZE));
+        // A full chunk must fit in a cursor window (2 MB), with a large margin
+        assertTrue(data.length < 512 * 1024);
+    }
+
+    public void testSlots() {
+        LogRow[] expected = newLogs(COUNT);
+        boolean[] slots = new boolean[LogRow.COLUMNS.length];
+        slots[LogRow.CADENCE] = true;
+        LogArchive.RowReader actual = LogArchive.readRows(RIDE_ID, encode(expected), slots);
+        LogRow row = new LogRow();
+        for (LogRow log : expected) {
+            assertTrue(actual.next(row));
+            // Always decoded
+            assertEquals(log.getId(), row.getId());
+            assertEquals(log.getRecordedDate(), row.getRecordedDate());
+            assertEquals(log.hasCadence(), row.hasCadence());
+            if (row.hasCadence()) assertEquals(log.getCadence(), row.getCadence(), .01);
+            // Not decoded
+            assertEquals(0d, row.getLat());
+            assertFalse(row.hasSpeed());
+        }
+        assertFalse(actual.next(row));
+    }
+
+    public void testEmpty() {
+        LogArchive.RowReader reader = LogArchive.readRows(RIDE_ID, encode(new LogRow[0]));
+        assertEquals(0, reader.getCount());
+        assertFalse(reader.next(new LogRow()));
+    }
+
+    public void testCorrupted() {
+        byte[] data = encode(newLogs(10));
+        try {
+            LogArchive.readRows(RIDE_ID, Arrays.copyOf(data, data.length / 2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
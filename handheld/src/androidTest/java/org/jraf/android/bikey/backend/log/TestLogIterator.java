@@ -0,0 +1,243 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.test.AndroidTestCase;
+
+import org.jraf.android.bikey.backend.provider.BikeyProviderSQLiteOpenHelper;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.log.LogSelection;
+
+/**
+ * Checks that {@link LogIterator} reads every log exactly once, in order, across pages and archive chunks.<br/>
+ * The logs are read from a test database, with the same page selection as {@link LogManager}.
+ */
+public class TestLogIterator extends AndroidTestCase {
+    private static final String DATABASE_NAME = "test_log_iterator.db";
+    private static final long RIDE_ID = 1;
+    private static final long FIRST_DATE = 1490000000000L;
+    private static final String[] PROJECTION = {LogColumns._ID, LogColumns.RECORDED_DATE, LogColumns.SPEED};
+
+    private SQLiteDatabase mDatabase;
+    private final List<byte[]> mChunks = new ArrayList<>();
+    private int mPageCount;
+    private int mClosedCount;
+
+    private final LogIterator.Source mSource = new LogIterator.Source() {
+        @NonNull
+        @Override
+        public Cursor queryLogPage(long rideId, @NonNull String[] projection, boolean hasKey, long lastRecordedDate, long lastId, int pageSize) {
+            mPageCount++;
+            LogSelection where = LogManager.newLogPageSelection(rideId, hasKey, lastRecordedDate, lastId, pageSize);
+            return mDatabase.query(LogColumns.TABLE_NAME, projection, where.sel(), where.args(), null, null, where.order(), String.valueOf(pageSize));
+        }
+
+        @Nullable
+        @Override
+        public LogArchive.RowReader readArchiveChunk(long rideId, int chunk, @Nullable boolean[] slots) {
+            if (chunk >= mChunks.size()) return null;
+            return LogArchive.readRows(rideId, mChunks.get(chunk), slots);
+        }
+
+        @Override
+        public void onIteratorClosed(long rideId) {
+            mClosedCount++;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        File file = getContext().getDatabasePath(DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(file, null);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG);
+        mDatabase.execSQL("CREATE INDEX idx_log_ride_id_recorded_date ON " + LogColumns.TABLE_NAME + " (" + LogColumns.RIDE_ID + ", "
+                + LogColumns.RECORDED_DATE + ")");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * The log number {@code i} has the id {@code i + 1}, and a speed of {@code i}.
+     */
+    private static LogRow newLog(int i) {
+        LogRow res = new LogRow();
+        res.mId = i + 1;
+        res.mRideId = RIDE_ID;
+        res.mRecordedDate = FIRST_DATE + i * 1000L;
+        res.mLat = 48.85;
+        res.mLon = 2.35;
+        res.mHasSpeed = true;
+        res.mSpeed = i;
+        return res;
+    }
+
+    private void insertLogs(int from, int to) {
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO " + LogColumns.TABLE_NAME + " (" + LogColumns._ID + ", " + LogColumns.RIDE_ID
+                + ", " + LogColumns.RECORDED_DATE + ", " + LogColumns.LAT + ", " + LogColumns.LON + ", " + LogColumns.ELE + ", " + LogColumns.SPEED
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                LogRow log = newLog(i);
+                insert.bindLong(1, log.mId);
+                insert.bindLong(2, log.mRideId);
+                insert.bindLong(3, log.mRecordedDate);
+                insert.bindDouble(4, log.mLat);
+                insert.bindDouble(5, log.mLon);
+                insert.bindDouble(6, log.mEle);
+                insert.bindDouble(7, log.mSpeed);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private void archiveLogs(int from, int to) {
+        LogArchive.Encoder encoder = new LogArchive.Encoder();
+        for (int i = from; i < to; i++) encoder.add(newLog(i));
+        mChunks.add(encoder.encode());
+    }
+
+    /**
+     * Iterates over all the logs, and checks that they are the logs {@code 0} to {@code count - 1}, in order.
+     */
+    private void assertLogs(int chunkCount, int count) {
+        LogIterator logs = new LogIterator(mSource, RIDE_ID, PROJECTION, chunkCount, count);
+        try {
+            assertEquals(count, logs.getCount());
+            LogRow log = logs.getRow();
+            for (int i = 0; i < count; i++) {
+                assertTrue(logs.next());
+                assertEquals(i + 1, log.getId());
+                assertEquals(RIDE_ID, log.getRideId());
+                assertEquals(FIRST_DATE + i * 1000L, log.getRecordedDate());
+                assertTrue(log.hasSpeed());
+                assertEquals((double) i, log.getSpeed(), .001);
+            }
+            assertFalse(logs.next());
+            assertFalse(logs.next());
+        } finally {
+            logs.close();
+        }
+        logs.close();
+        assertEquals(1, mClosedCount);
+    }
+
+    public void testEmpty() {
+        assertLogs(0, 0);
+        assertEquals(1, mPageCount);
+    }
+
+    public void testExactPage() {
+        insertLogs(0, LogIterator.PAGE_SIZE);
+        assertLogs(0, LogIterator.PAGE_SIZE);
+        // A full page can't be the last one: the next (empty) page is queried too
+        assertEquals(2, mPageCount);
+    }
+
+    public void testPages() {
+        insertLogs(0, LogIterator.PAGE_SIZE * 2 + 1);
+        assertLogs(0, LogIterator.PAGE_SIZE * 2 + 1);
+        assertEquals(3, mPageCount);
+    }
+
+    public void testSameDate() {
+        // Logs with the same date on both sides of a page boundary are neither skipped nor read twice
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO " + LogColumns.TABLE_NAME + " (" + LogColumns.RIDE_ID + ", "
+                + LogColumns.RECORDED_DATE + ", " + LogColumns.LAT + ", " + LogColumns.LON + ", " + LogColumns.ELE + ") VALUES (?, ?, 0, 0, 0)");
+        int count = LogIterator.PAGE_SIZE + 10;
+        for (int i = 0; i < count; i++) {
+            insert.bindLong(1, RIDE_ID);
+            insert.bindLong(2, FIRST_DATE + (i < LogIterator.PAGE_SIZE - 5 ? i : LogIterator.PAGE_SIZE) * 1000L);
+            insert.executeInsert();
+        }
+        LogIterator logs = new LogIterator(mSource, RIDE_ID, PROJECTION, 0, count);
+        try {
+            long previousId = 0;
+            int readCount = 0;
+            while (logs.next()) {
+                assertTrue(logs.getRow().getId() > previousId);
+                previousId = logs.getRow().getId();
+                readCount++;
+            }
+            assertEquals(count, readCount);
+        } finally {
+            logs.close();
+        }
+    }
+
+    public void testArchiveAndTable() {
+        archiveLogs(0, 300);
+        archiveLogs(300, 500);
+        insertLogs(500, 500 + LogIterator.PAGE_SIZE);
+        assertLogs(2, 500 + LogIterator.PAGE_SIZE);
+        assertEquals(2, mPageCount);
+    }
+
+    public void testArchiveOnly() {
+        archiveLogs(0, 300);
+        assertLogs(1, 300);
+        assertEquals(1, mPageCount);
+    }
+
+    public void testUnarchivedMeanwhile() {
+        // The iteration started with 2 chunks, but the ride was unarchived after the first one was read: all the logs are in the table now
+        archiveLogs(0, 300);
+        insertLogs(0, 800);
+        assertLogs(2, 800);
+    }
+
+    public void testProjection() {
+        archiveLogs(0, 10);
+        LogIterator logs = new LogIterator(mSource, RIDE_ID, new String[] {LogColumns._ID, LogColumns.RECORDED_DATE}, 1, 10);
+        try {
+            assertTrue(logs.next());
+            // Not decoded
+            assertFalse(logs.getRow().hasSpeed());
+            assertEquals(0d, logs.getRow().getLat());
+        } finally {
+            logs.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import android.test.AndroidTestCase;
+
+public class TestLogJournal extends AndroidTestCase {
+    private static final String RIDE_UUID = "8f1b6d2e-4c1a-4f7e-9a57-0d3c2b1e6f90";
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "test.journal");
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testReplay() {
+        writeJournal(5, 2);
+
+        // Read by a new instance, like after the death of the process
+        ArrayList<LogRecord> records = new ArrayList<>();
+        assertEquals(RIDE_UUID, new LogJournal(mFile).readPending(records));
+        assertEquals(3, records.size());
+        for (int i = 0; i < 3; i++) assertRecord(i + 2, records.get(i));
+    }
+
+    public void testNothingToReplay() {
+        writeJournal(5, 5);
+        ArrayList<LogRecord> records = new ArrayList<>();
+        assertNull(new LogJournal(mFile).readPending(records));
+        assertTrue(records.isEmpty());
+    }
+
+    public void testTornRecord() throws IOException {
+        writeJournal(5, 0);
+        // The last record was only partly written
+        corrupt(LogJournal.HEADER_SIZE + 4 * LogJournal.RECORD_SIZE + 10);
+
+        ArrayList<LogRecord> records = new ArrayList<>();
+        assertEquals(RIDE_UUID, new LogJournal(mFile).readPending(records));
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) assertRecord(i, records.get(i));
+    }
+
+    public void testTornHeader() throws IOException {
+        writeJournal(5, 0);
+        corrupt(LogJournal.OFFSET_WRITTEN_COUNT + 3);
+
+        // Nothing is replayed, and the journal is usable again
+        ArrayList<LogRecord> records = new ArrayList<>();
+        LogJournal journal = new LogJournal(mFile);
+        assertNull(journal.readPending(records));
+        assertTrue(records.isEmpty());
+        journal.begin(RIDE_UUID);
+        assertTrue(journal.append(newRecord(0)));
+        journal.end();
+        assertEquals(RIDE_UUID, new LogJournal(mFile).readPending(records));
+        assertEquals(1, records.size());
+    }
+
+    private void writeJournal(int count, int committedCount) {
+        LogJournal journal = new LogJournal(mFile);
+        journal.begin(RIDE_UUID);
+        for (int i = 0; i < count; i++) assertTrue(journal.append(newRecord(i)));
+        if (committedCount > 0) journal.markCommitted(committedCount);
+        journal.end();
+    }
+
+    private void corrupt(int offset) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0xFF);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static LogRecord newRecord(int i) {
+        LogRecord record = new LogRecord();
+        record.recordedDate = 1490000000000L + i * 1000L;
+        record.lat = 48.85 + i * 1e-5;
+        record.lon = 2.35 - i * 1e-5;
+        record.ele = 35 + i;
+        record.hasCadence = i % 2 == 0;
+        record.cadence = 80 + i;
+        record.hasHeartRate = true;
+        record.heartRate = 120 + i;
+        return record;
+    }
+
+    private static void assertRecord(int i, LogRecord record) {
+        LogRecord expected = newRecord(i);
+        assertEquals(expected.recordedDate, record.recordedDate);
+        assertEquals(expected.lat, record.lat);
+        assertEquals(expected.lon, record.lon);
+        assertEquals(expected.ele, record.ele);
+        assertEquals(expected.hasCadence, record.hasCadence);
+        assertEquals(expected.cadence, record.cadence);
+        assertEquals(expected.hasHeartRate, record.hasHeartRate);
+        assertEquals(expected.heartRate, record.heartRate);
+    }
+}
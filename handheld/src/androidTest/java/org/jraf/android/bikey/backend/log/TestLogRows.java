@@ -0,0 +1,46 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Creates logs for the tests of other packages (the fields of {@link LogRow} are only visible in its package).
+ */
+public class TestLogRows {
+    private TestLogRows() {}
+
+    public static LogRow newLog(long rideId, long recordedDate, double lat, double lon, double ele, @Nullable Float speed) {
+        LogRow res = new LogRow();
+        res.mRideId = rideId;
+        res.mRecordedDate = recordedDate;
+        res.mLat = lat;
+        res.mLon = lon;
+        res.mEle = ele;
+        res.mHasSpeed = speed != null;
+        if (speed != null) res.mSpeed = speed;
+        return res;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import org.jraf.android.bikey.backend.provider.BikeyProvider;
+import org.jraf.android.bikey.backend.provider.TestBikeyProvider;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.log.LogSelection;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsSelection;
+import org.jraf.android.util.log.Log;
+
+/**
+ * Checks the values of {@link RideSummary}, and compares the latency and the number of queries of {@link LogManager#computeSummary(Uri)} to the
+ * ones of the stats calls the detail screen used to make ({@link LogManager#getStats(Uri)}, {@link LogManager#getTotalDistance(Uri)},
+ * {@link LogManager#getAverageMovingSpeed(Uri)}).<br/>
+ * The first {@link LogManager#getStats(Uri)} computes the stats from the logs and saves them: it is measured separately from the stats calls.
+ */
+public class TestRideSummary extends ProviderTestCase2<TestBikeyProvider> {
+    private static final long RIDE_ID = 1;
+    private static final int[] LOG_COUNTS = {10000, 50000, 200000};
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final Uri LOG_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(LogColumns.CONTENT_URI, false);
+
+    private ContentResolver mContentResolver;
+    private LogManager mLogManager;
+
+    public TestRideSummary() {
+        super(TestBikeyProvider.class, BikeyProvider.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContentResolver = getMockContentResolver();
+        new LogSelection().delete(mContentResolver);
+        new RideStatsSelection().delete(mContentResolver);
+        mLogManager = new LogManager(getMockContext(), getProvider().newDao());
+    }
+
+    public void testAccumulator() {
+        RideSummary.Accumulator accumulator = new RideSummary.Accumulator(RIDE_ID);
+        // Up 10 m, noise, down 4 m
+        double[] ele = {100, 105, 110, 111, 110, 111, 106, 106};
+        for (int i = 0; i < ele.length; i++) {
+            LogRow log = new LogRow();
+            log.mRecordedDate = 1000 + i * 1000;
+            log.mLat = 48.85 + (i % 3) * .001;
+            log.mLon = 2.35 - i * .001;
+            log.mEle = ele[i];
+            log.mLogDuration = 1000;
+            log.mHasLogDuration = i > 0;
+            log.mLogDistance = 10;
+            log.mHasLogDistance = i > 0;
+            accumulator.add(log);
+        }
+        RideSummary summary = accumulator.build(20);
+
+        assertEquals(8L, summary.getLogCount());
+        assertEquals(20L, summary.getFixCount());
+        assertEquals(70f, summary.getDistance());
+        assertEquals(7000L, summary.getDuration());
+        assertEquals(Long.valueOf(1000), summary.getFirstLogDate());
+        assertEquals(Long.valueOf(8000), summary.getLastLogDate());
+        assertEquals(10d, summary.getElevationGain());
+        assertEquals(4d, summary.getElevationLoss());
+        assertEquals(48.85, summary.getStart().latitude);
+        assertEquals(2.35, summary.getStart().longitude);
+        assertEquals(100d, summary.getStartElevation());
+        assertEquals(48.851, summary.getEnd().latitude, 1e-9);
+        assertEquals(2.343, summary.getEnd().longitude, 1e-9);
+        assertEquals(106d, summary.getEndElevation());
+        assertEquals(48.85, summary.getBounds().southwest.latitude);
+        assertEquals(48.852, summary.getBounds().northeast.latitude, 1e-9);
+        assertEquals(2.343, summary.getBounds().southwest.longitude, 1e-9);
+        assertEquals(2.35, summary.getBounds().northeast.longitude);
+        assertNull(summary.getAverageCadence());
+        assertEquals(0L, summary.getCadenceCount());
+    }
+
+    public void testNoLogs() {
+        RideSummary summary = new RideSummary.Accumulator(RIDE_ID).build(0);
+        assertEquals(0L, summary.getLogCount());
+        assertNull(summary.getFirstLogDate());
+        assertNull(summary.getBounds());
+        assertNull(summary.getStart());
+        assertNull(summary.getEnd());
+    }
+
+    public void testSummaryVsStats() {
+        for (int i = 0; i < LOG_COUNTS.length; i++) {
+            int logCount = LOG_COUNTS[i];
+            // A new ride each time, so that neither the summary nor the stats are known yet
+            long rideId = RIDE_ID + i;
+            insertLogs(rideId, logCount);
+            Uri rideUri = ContentUris.withAppendedId(RideColumns.CONTENT_URI, rideId);
+
+            TestBikeyProvider provider = getProvider();
+            provider.resetQueryCount();
+            long start = System.nanoTime();
+            RideSummary summary = mLogManager.computeSummary(rideUri);
+            long summaryNs = System.nanoTime() - start;
+            int summaryQueryCount = provider.getQueryCount();
+
+            // The stats are computed from the logs (and saved) by the first call
+            provider.resetQueryCount();
+            start = System.nanoTime();
+            mLogManager.getStats(rideUri);
+            long computeStatsNs = System.nanoTime() - start;
+            int computeStatsQueryCount = provider.getQueryCount();
+
+            // The calls of the detail screen, once the stats are known
+            provider.resetQueryCount();
+            start = System.nanoTime();
+            RideAccumulator stats = mLogManager.getStats(rideUri);
+            float distance = mLogManager.getTotalDistance(rideUri);
+            float averageMovingSpeed = mLogManager.getAverageMovingSpeed(rideUri);
+            long statsNs = System.nanoTime() - start;
+            int statsQueryCount = provider.getQueryCount();
+
+            Log.d(String.format(Locale.US, "%d logs: computeSummary latencyMs=%.1f queries=%d - first getStats latencyMs=%.1f queries=%d"
+                            + " - getStats/getTotalDistance/getAverageMovingSpeed latencyMs=%.1f queries=%d", logCount, summaryNs / 1e6f,
+                    summaryQueryCount, computeStatsNs / 1e6f, computeStatsQueryCount, statsNs / 1e6f, statsQueryCount));
+
+            // The summary reads the logs page by page, and the stats calls don't read the logs again
+            assertTrue(summaryQueryCount >= logCount / LogIterator.PAGE_SIZE);
+            assertTrue(statsQueryCount < computeStatsQueryCount);
+
+            // Both give the same values
+            assertEquals(logCount, summary.getLogCount());
+            assertEquals(stats.getLogCount(), summary.getLogCount());
+            assertEquals(distance, summary.getDistance());
+            assertEquals(averageMovingSpeed, summary.getAverageMovingSpeed());
+            assertEquals(stats.getMovingDuration(), summary.getMovingDuration());
+            assertEquals(stats.getTrimmedMaxSpeed(), summary.getMaxSpeed());
+            assertEquals(stats.getTrimmedAverageCadence(), summary.getAverageCadence());
+            assertEquals((long) stats.getCadenceCount(), summary.getCadenceCount());
+            assertEquals(stats.getFirstLogDate(), summary.getFirstLogDate());
+            assertEquals(stats.getLastLogDate(), summary.getLastLogDate());
+        }
+    }
+
+    public void testSummaryWithSeries() {
+        insertLogs(RIDE_ID, 2000);
+        Uri rideUri = ContentUris.withAppendedId(RideColumns.CONTENT_URI, RIDE_ID);
+        String[] columns = {LogColumns.SPEED, LogColumns.CADENCE};
+        BucketedSeries[] expected = mLogManager.getBucketedSeries(rideUri, BucketedSeries.Axis.DISTANCE, 50, columns);
+
+        BucketedSeries[] series = new BucketedSeries[columns.length];
+        RideSummary summary = mLogManager.computeSummary(rideUri, BucketedSeries.Axis.DISTANCE, 50, columns, series);
+        assertSeriesEquals(expected, series);
+        assertEquals(2000L, summary.getLogCount());
+        assertSame(summary, mLogManager.computeSummary(rideUri));
+
+        // The summary is in memory: only the series are computed
+        series = new BucketedSeries[columns.length];
+        assertSame(summary, mLogManager.computeSummary(rideUri, BucketedSeries.Axis.DISTANCE, 50, columns, series));
+        assertSeriesEquals(expected, series);
+    }
+
+    private static void assertSeriesEquals(BucketedSeries[] expected, BucketedSeries[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getBucketWidth(), actual[i].getBucketWidth());
+            assertTrue(Arrays.equals(expected[i].getAverage(), actual[i].getAverage()));
+            assertTrue(Arrays.equals(expected[i].getCount(), actual[i].getCount()));
+        }
+    }
+
+    private void insertLogs(long rideId, int logCount) {
+        Random random = new Random(logCount);
+        double lat = 48.85;
+        double lon = 2.35;
+        ContentValues[] batch = new ContentValues[INSERT_BATCH_SIZE];
+        int batchSize = 0;
+        for (int i = 0; i < logCount; i++) {
+            lat += random.nextGaussian() * 1e-5;
+            lon += random.nextGaussian() * 1e-5;
+            float speed = Math.max(0, 5 + (float) random.nextGaussian() * 2);
+            ContentValues values = new ContentValues(10);
+            values.put(LogColumns.RIDE_ID, rideId);
+            values.put(LogColumns.RECORDED_DATE, 1490000000000L + i * 1000L);
+            values.put(LogColumns.LAT, lat);
+            values.put(LogColumns.LON, lon);
+            values.put(LogColumns.ELE, 100 + 50 * Math.sin(i / 500d) + random.nextGaussian());
+            values.put(LogColumns.LOG_DURATION, 1000);
+            values.put(LogColumns.LOG_DISTANCE, speed);
+            values.put(LogColumns.SPEED, speed);
+            // No cadence sensor for the second half of the ride
+            if (i < logCount / 2) values.put(LogColumns.CADENCE, 80 + random.nextGaussian() * 10);
+            values.put(LogColumns.HEART_RATE, 120 + random.nextInt(40));
+            batch[batchSize++] = values;
+            if (batchSize == INSERT_BATCH_SIZE || i == logCount - 1) {
+                mContentResolver.bulkInsert(LOG_CONTENT_URI_NO_NOTIFY, Arrays.copyOf(batch, batchSize));
+                batchSize = 0;
+            }
+        }
+    }
+}
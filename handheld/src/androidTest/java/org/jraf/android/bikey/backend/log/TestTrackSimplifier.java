@@ -0,0 +1,126 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import junit.framework.TestCase;
+
+public class TestTrackSimplifier extends TestCase {
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+    private static final double LAT = 48.85;
+    private static final double LON = 2.35;
+    private static final float TOLERANCE = 3;
+
+    private TrackSimplifier mSimplifier;
+    private boolean mHasPrevious;
+    private long mPreviousDate;
+    private double mPreviousLat;
+    private double mPreviousLon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSimplifier = new TrackSimplifier();
+        mSimplifier.setTolerance(TOLERANCE);
+        mHasPrevious = false;
+    }
+
+    /**
+     * Offer a fix at the given position, in meters east / north of a fixed origin.
+     */
+    private boolean offer(long date, double east, double north) {
+        double lat = LAT + north / METERS_PER_DEGREE;
+        double lon = LON + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+        boolean res = mSimplifier.offer(date, lat, lon, mHasPrevious, mPreviousDate, mPreviousLat, mPreviousLon);
+        mHasPrevious = true;
+        mPreviousDate = date;
+        mPreviousLat = lat;
+        mPreviousLon = lon;
+        return res;
+    }
+
+    public void testNoTolerance() {
+        mSimplifier.setTolerance(0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(offer(i * 1000, i * 5, 0));
+        }
+    }
+
+    public void testStraightLine() {
+        // The first fix has no velocity: the second one is needed to predict the next ones
+        assertTrue(offer(0, 0, 0));
+        assertTrue(offer(1000, 5, 0));
+        int stored = 0;
+        for (int i = 2; i < 31; i++) {
+            if (offer(i * 1000, i * 5, 0)) stored++;
+        }
+        assertEquals(0, stored);
+        // Stored anyway after 30 seconds
+        assertTrue(offer(31 * 1000, 31 * 5, 0));
+        assertFalse(offer(32 * 1000, 32 * 5, 0));
+    }
+
+    public void testTolerance() {
+        assertTrue(offer(0, 0, 0));
+        assertTrue(offer(1000, 5, 0));
+
+        // Just within the tolerance of the predicted position (10, 0)
+        assertFalse(offer(2000, 10, TOLERANCE - .1));
+        // The prediction is still made from the stored fixes: (15, 0)
+        assertFalse(offer(3000, 15 + TOLERANCE - .1, 0));
+        assertFalse(offer(4000, 20, -(TOLERANCE - .1)));
+
+        // Just over the tolerance
+        assertTrue(offer(5000, 25, TOLERANCE + .1));
+    }
+
+    public void testTurn() {
+        assertTrue(offer(0, 0, 0));
+        assertTrue(offer(1000, 5, 0));
+        assertFalse(offer(2000, 10, 0));
+
+        // Turn north: the first fix off the line is stored, with the velocity from the previous fix, which predicts the next ones
+        assertTrue(offer(3000, 10, 5));
+        assertFalse(offer(4000, 10, 10));
+        assertFalse(offer(5000, 10, 15));
+        assertFalse(offer(6000, 10, 20));
+    }
+
+    public void testStopped() {
+        assertTrue(offer(0, 0, 0));
+        for (int i = 1; i < 30; i++) {
+            // GPS noise under the tolerance
+            assertFalse(offer(i * 1000, i % 2, i % 3));
+        }
+        assertTrue(offer(30 * 1000, 0, 0));
+    }
+
+    public void testReset() {
+        assertTrue(offer(0, 0, 0));
+        assertTrue(offer(1000, 5, 0));
+        assertFalse(offer(2000, 10, 0));
+        mSimplifier.reset();
+        assertTrue(offer(3000, 15, 0));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import org.jraf.android.bikey.backend.log.TestLogRows;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+
+/**
+ * Checks the writes and counts of {@link BikeyDao}, on a test database.
+ */
+public class TestBikeyDao extends AndroidTestCase {
+    private static final long RIDE_ID = 1;
+    private static final long OTHER_RIDE_ID = 2;
+
+    private TestBikeySQLiteOpenHelper mOpenHelper;
+    private BikeyDao mDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOpenHelper = new TestBikeySQLiteOpenHelper(getContext());
+        getContext().deleteDatabase(mOpenHelper.getDatabaseName());
+        mDao = new BikeyDao(getContext(), mOpenHelper);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        for (long rideId : new long[] {RIDE_ID, OTHER_RIDE_ID}) {
+            ContentValues values = new ContentValues();
+            values.put(RideColumns._ID, rideId);
+            values.put(RideColumns.UUID, "ride-" + rideId);
+            values.put(RideColumns.CREATED_DATE, rideId);
+            values.put(RideColumns.STATE, 2);
+            values.put(RideColumns.DURATION, 0);
+            values.put(RideColumns.DISTANCE, 0);
+            db.insertOrThrow(RideColumns.TABLE_NAME, null, values);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOpenHelper.close();
+        getContext().deleteDatabase(mOpenHelper.getDatabaseName());
+        super.tearDown();
+    }
+
+    public void testInsertLog() {
+        BikeyDao.Batch batch = mDao.beginBatch(false);
+        long id;
+        try {
+            id = batch.insertLog(TestLogRows.newLog(RIDE_ID, 1000, 48.85, 2.35, 35, 5.5f));
+            batch.insertLog(TestLogRows.newLog(RIDE_ID, 2000, 48.86, 2.36, 36, null));
+            batch.updateRideDistance(RIDE_ID, 12.5f);
+            batch.setSuccessful();
+        } finally {
+            batch.close();
+        }
+        assertEquals(2, mDao.countLogs(RIDE_ID));
+
+        Cursor c = mOpenHelper.getReadableDatabase().query(LogColumns.TABLE_NAME, null, LogColumns._ID + "=" + id, null, null, null, null);
+        try {
+            assertTrue(c.moveToNext());
+            assertEquals(RIDE_ID, c.getLong(c.getColumnIndexOrThrow(LogColumns.RIDE_ID)));
+            assertEquals(1000, c.getLong(c.getColumnIndexOrThrow(LogColumns.RECORDED_DATE)));
+            assertEquals(48.85, c.getDouble(c.getColumnIndexOrThrow(LogColumns.LAT)));
+            assertEquals(5.5, c.getDouble(c.getColumnIndexOrThrow(LogColumns.SPEED)), 1e-6);
+            // Not set
+            assertTrue(c.isNull(c.getColumnIndexOrThrow(LogColumns.LOG_DURATION)));
+            assertTrue(c.isNull(c.getColumnIndexOrThrow(LogColumns.HEART_RATE)));
+        } finally {
+            c.close();
+        }
+
+        c = mOpenHelper.getReadableDatabase().query(RideColumns.TABLE_NAME, new String[] {RideColumns.DISTANCE},
+                RideColumns._ID + "=" + RIDE_ID, null, null, null, null);
+        try {
+            assertTrue(c.moveToNext());
+            assertEquals(12.5f, c.getFloat(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testRollback() {
+        BikeyDao.Batch batch = mDao.beginBatch(false);
+        try {
+            batch.insertLog(TestLogRows.newLog(RIDE_ID, 1000, 48.85, 2.35, 35, 5.5f));
+            batch.updateRideDistance(RIDE_ID, 12.5f);
+            // No setSuccessful()
+        } finally {
+            batch.close();
+        }
+        // Closing twice is harmless
+        batch.close();
+        assertEquals(0, mDao.countLogs(RIDE_ID));
+
+        Cursor c = mOpenHelper.getReadableDatabase().query(RideColumns.TABLE_NAME, new String[] {RideColumns.DISTANCE}, RideColumns._ID + "=" + RIDE_ID,
+                null, null, null, null);
+        try {
+            assertTrue(c.moveToNext());
+            assertEquals(0f, c.getFloat(0));
+        } finally {
+            c.close();
+        }
+
+        // The next batch is not affected
+        batch = mDao.beginBatch(false);
+        try {
+            batch.insertLog(TestLogRows.newLog(RIDE_ID, 1000, 48.85, 2.35, 35, 5.5f));
+            batch.setSuccessful();
+        } finally {
+            batch.close();
+        }
+        assertEquals(1, mDao.countLogs(RIDE_ID));
+    }
+
+    public void testCountLogs() {
+        assertEquals(0, mDao.countLogs(RIDE_ID));
+        BikeyDao.Batch batch = mDao.beginBatch(false);
+        try {
+            for (int i = 0; i < 10; i++) batch.insertLog(TestLogRows.newLog(RIDE_ID, i * 1000, 48.85, 2.35, 35, 5f));
+            for (int i = 0; i < 3; i++) batch.insertLog(TestLogRows.newLog(OTHER_RIDE_ID, i * 1000, 48.85, 2.35, 35, 5f));
+            // Uncommitted logs are seen by the writer
+            assertEquals(10, mDao.countLogs(RIDE_ID));
+            batch.setSuccessful();
+        } finally {
+            batch.close();
+        }
+        assertEquals(10, mDao.countLogs(RIDE_ID));
+        assertEquals(3, mDao.countLogs(OTHER_RIDE_ID));
+        assertEquals(0, mDao.countLogs(42));
+    }
+
+    public void testCountArchivedLogs() {
+        assertEquals(0, mDao.countArchiveChunks(RIDE_ID));
+        assertEquals(0, mDao.countArchivedLogs(RIDE_ID));
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long[] logCounts = {10000, 2500};
+        for (int chunk = 0; chunk < logCounts.length; chunk++) {
+            ContentValues values = new ContentValues();
+            values.put(LogArchiveColumns.RIDE_ID, RIDE_ID);
+            values.put(LogArchiveColumns.ARCHIVE_CHUNK, chunk);
+            values.put(LogArchiveColumns.ARCHIVE_LOG_COUNT, logCounts[chunk]);
+            values.put(LogArchiveColumns.ARCHIVE_DATA, new byte[] {2, 0});
+            db.insertOrThrow(LogArchiveColumns.TABLE_NAME, null, values);
+        }
+        assertEquals(2, mDao.countArchiveChunks(RIDE_ID));
+        assertEquals(12500, mDao.countArchivedLogs(RIDE_ID));
+        assertEquals(0, mDao.countArchiveChunks(OTHER_RIDE_ID));
+        assertEquals(0, mDao.countArchivedLogs(OTHER_RIDE_ID));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+
+public class TestBikeyNotifier extends AndroidTestCase {
+    public void testCoalesce() {
+        BikeyNotifier notifier = BikeyNotifier.getInstance(getContext());
+        Uri uri = Uri.withAppendedPath(BikeyNotifier.RIDE_LIST_URI, "test" + System.nanoTime());
+        long notifiedCount = notifier.getNotifiedCount();
+        long suppressedCount = notifier.getSuppressedCount();
+
+        // First one is notified right away, second one is scheduled at the end of the window, the others are suppressed
+        for (int i = 0; i < 10; i++) notifier.notifyChange(uri);
+
+        assertEquals(notifiedCount + 1, notifier.getNotifiedCount());
+        assertEquals(suppressedCount + 8, notifier.getSuppressedCount());
+    }
+
+    public void testRideListColumns() throws InterruptedException {
+        BikeyNotifier notifier = BikeyNotifier.getInstance(getContext());
+        // Not an existing ride: only the notifications are tested
+        long rideId = 1000000;
+        final CountDownLatch changed = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed.countDown();
+            }
+        };
+        getContext().getContentResolver().registerContentObserver(BikeyNotifier.RIDE_LIST_URI, false, observer);
+        try {
+            // Not shown in the list
+            notifier.notifyRideChange(rideId, Collections.singleton(RideColumns.FIRST_ACTIVATED_DATE));
+            assertFalse(changed.await(500, TimeUnit.MILLISECONDS));
+
+            // Shown in the list (the notification may be delayed until the end of the window of the list URI)
+            notifier.notifyRideChange(rideId, Collections.singleton(RideColumns.DISTANCE));
+            assertTrue(changed.await(3, TimeUnit.SECONDS));
+        } finally {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+}
@@ -24,15 +24,66 @@
  */
 package org.jraf.android.bikey.backend.provider;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.support.annotation.NonNull;
 
 /**
  * Mock our provider.  For now, this just replaces the SqLiteOpenHelper
  * with another one, to avoid changing real user data when running tests.
  */
-public class TestBikeyProvider extends BikeyProvider {
+public class TestBikeyProvider extends CoalescingBikeyProvider {
+    private SQLiteOpenHelper mOpenHelper;
+    private final AtomicInteger mQueryCount = new AtomicInteger();
+
     @Override
     protected SQLiteOpenHelper createSqLiteOpenHelper() {
-        return new TestBikeySQLiteOpenHelper(getContext());
+        mOpenHelper = new TestBikeySQLiteOpenHelper(getContext());
+        return mOpenHelper;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        mQueryCount.incrementAndGet();
+        return super.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * @return A DAO on the same test database as this provider (its count queries are included in {@link #getQueryCount()}).
+     */
+    public BikeyDao newDao() {
+        return new BikeyDao(getContext(), mOpenHelper) {
+            @Override
+            public long countLogs(long rideId) {
+                mQueryCount.incrementAndGet();
+                return super.countLogs(rideId);
+            }
+
+            @Override
+            public int countArchiveChunks(long rideId) {
+                mQueryCount.incrementAndGet();
+                return super.countArchiveChunks(rideId);
+            }
+
+            @Override
+            public long countArchivedLogs(long rideId) {
+                mQueryCount.incrementAndGet();
+                return super.countArchivedLogs(rideId);
+            }
+        };
+    }
+
+    /**
+     * @return The number of queries made to this provider and to its DAOs since the last call to {@link #resetQueryCount()}.
+     */
+    public int getQueryCount() {
+        return mQueryCount.get();
+    }
+
+    public void resetQueryCount() {
+        mQueryCount.set(0);
     }
 }
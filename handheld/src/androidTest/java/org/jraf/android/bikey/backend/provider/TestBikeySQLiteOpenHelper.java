@@ -49,6 +49,10 @@ public class TestBikeySQLiteOpenHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG);
         db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE);
+        db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE_STATS);
+        db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG_ARCHIVE);
+        db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE_LOD);
+        BikeySQLiteUpgradeHelper.createIndexes(db);
     }
 
     @Override
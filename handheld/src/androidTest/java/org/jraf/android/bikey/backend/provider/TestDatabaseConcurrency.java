@@ -0,0 +1,192 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.util.log.Log;
+
+/**
+ * Measures the insert throughput of a writer committing small batches of logs (like {@code LogManager}), and the latency of a reader scanning the
+ * logs of a ride at the same time, with the default settings, and with the settings of {@link BikeySQLiteOpenHelperCallbacks#onOpen}.
+ */
+public class TestDatabaseConcurrency extends AndroidTestCase {
+    private static final String DATABASE_NAME = "test_concurrency.db";
+    private static final int RIDE_COUNT = 20;
+    private static final int EXISTING_LOG_COUNT_PER_RIDE = 2000;
+    private static final int WRITTEN_LOG_COUNT = 3000;
+    private static final int LOGS_PER_TRANSACTION = 5;
+
+    private static class Result {
+        long writeDurationNs;
+        long[] readLatenciesNs;
+
+        float getInsertsPerSecond() {
+            return WRITTEN_LOG_COUNT * 1e9f / writeDurationNs;
+        }
+
+        float getReadLatencyMs(float percentile) {
+            if (readLatenciesNs.length == 0) return Float.NaN;
+            return readLatenciesNs[(int) Math.min(readLatenciesNs.length - 1, readLatenciesNs.length * percentile)] / 1e6f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "inserts/s=%.0f reads=%d readLatencyMs(p50=%.2f p90=%.2f max=%.2f)", getInsertsPerSecond(),
+                    readLatenciesNs.length, getReadLatencyMs(.5f), getReadLatencyMs(.9f), getReadLatencyMs(1));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testConcurrentReadWrite() throws Exception {
+        Result before = run(false);
+        Log.d("Default settings: " + before);
+        Result after = run(true);
+        Log.d("Tuned settings: " + after);
+    }
+
+    public void testWalEnabled() {
+        SQLiteDatabase db = openDatabase(true);
+        try {
+            Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+            try {
+                assertTrue(c.moveToFirst());
+                assertEquals("wal", c.getString(0).toLowerCase(Locale.US));
+            } finally {
+                c.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openDatabase(boolean tuned) {
+        getContext().deleteDatabase(DATABASE_NAME);
+        File file = getContext().getDatabasePath(DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE);
+        db.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG);
+        BikeySQLiteUpgradeHelper.createIndexes(db);
+        if (tuned) new BikeySQLiteOpenHelperCallbacks().onOpen(getContext(), db);
+        return db;
+    }
+
+    private Result run(boolean tuned) throws InterruptedException {
+        SQLiteDatabase db = openDatabase(tuned);
+        try {
+            // Existing rides
+            db.beginTransaction();
+            try {
+                for (long rideId = 1; rideId <= RIDE_COUNT; rideId++) {
+                    ContentValues values = new ContentValues();
+                    values.put(RideColumns._ID, rideId);
+                    values.put(RideColumns.UUID, "ride-" + rideId);
+                    values.put(RideColumns.CREATED_DATE, rideId);
+                    values.put(RideColumns.STATE, 2);
+                    values.put(RideColumns.DURATION, 0);
+                    values.put(RideColumns.DISTANCE, 0);
+                    db.insertOrThrow(RideColumns.TABLE_NAME, null, values);
+                    for (int i = 0; i < EXISTING_LOG_COUNT_PER_RIDE; i++) {
+                        db.insertOrThrow(LogColumns.TABLE_NAME, null, newLog(rideId, i));
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            // Writer: small transactions on the last ride, like a recording
+            Result res = new Result();
+            Thread writer = new Thread(() -> {
+                long start = System.nanoTime();
+                for (int i = 0; i < WRITTEN_LOG_COUNT; i += LOGS_PER_TRANSACTION) {
+                    db.beginTransaction();
+                    try {
+                        for (int j = 0; j < LOGS_PER_TRANSACTION; j++) {
+                            db.insertOrThrow(LogColumns.TABLE_NAME, null, newLog(RIDE_COUNT, EXISTING_LOG_COUNT_PER_RIDE + i + j));
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+                res.writeDurationNs = System.nanoTime() - start;
+            });
+
+            // Reader: full scans of the other rides, while the writer runs
+            long[] latencies = new long[100000];
+            int readCount = 0;
+            writer.start();
+            while (writer.isAlive() && readCount < latencies.length) {
+                long rideId = 1 + readCount % (RIDE_COUNT - 1);
+                long start = System.nanoTime();
+                Cursor c = db.query(LogColumns.TABLE_NAME, new String[] {LogColumns.SPEED, LogColumns.LOG_DISTANCE}, LogColumns.RIDE_ID + "=?",
+                        new String[] {String.valueOf(rideId)}, null, null, LogColumns.RECORDED_DATE);
+                try {
+                    while (c.moveToNext()) {
+                        c.getFloat(0);
+                    }
+                } finally {
+                    c.close();
+                }
+                latencies[readCount++] = System.nanoTime() - start;
+            }
+            writer.join();
+            res.readLatenciesNs = Arrays.copyOf(latencies, readCount);
+            Arrays.sort(res.readLatenciesNs);
+            return res;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static ContentValues newLog(long rideId, int index) {
+        ContentValues values = new ContentValues();
+        values.put(LogColumns.RIDE_ID, rideId);
+        values.put(LogColumns.RECORDED_DATE, 1490000000000L + index * 1000L);
+        values.put(LogColumns.LAT, 48.85 + index * 1e-5);
+        values.put(LogColumns.LON, 2.35 + index * 1e-5);
+        values.put(LogColumns.ELE, 35.0);
+        values.put(LogColumns.LOG_DURATION, 1000);
+        values.put(LogColumns.LOG_DISTANCE, 5f);
+        values.put(LogColumns.SPEED, 5f);
+        return values;
+    }
+}
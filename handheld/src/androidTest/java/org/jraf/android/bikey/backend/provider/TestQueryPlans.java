@@ -0,0 +1,154 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import junit.framework.TestCase;
+
+import org.jraf.android.bikey.backend.googledrive.GoogleDriveSyncManager;
+import org.jraf.android.bikey.backend.log.LogIterator;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.log.LogSelection;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveSelection;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideSelection;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodColumns;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodSelection;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsColumns;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsSelection;
+import org.jraf.android.bikey.backend.ride.RideManager;
+import org.jraf.android.util.log.Log;
+
+/**
+ * Checks that the queries made by {@link LogManager}, {@link RideManager} and the Google Drive sync use an index, instead of scanning a whole
+ * table.
+ * The selections are the ones built by these classes.
+ */
+public class TestQueryPlans extends TestCase {
+    private static final long RIDE_ID = 42;
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE_STATS);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_LOG_ARCHIVE);
+        mDatabase.execSQL(BikeyProviderSQLiteOpenHelper.SQL_CREATE_TABLE_RIDE_LOD);
+        BikeySQLiteUpgradeHelper.createIndexes(mDatabase);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testLogQuery() {
+        // LogManager.archive, RideManager.merge
+        LogSelection where = LogManager.newLogSelection(RIDE_ID);
+        assertNoFullScan(LogColumns.TABLE_NAME, where.order(), where.sel(), where.args(), LogColumns.ALL_COLUMNS);
+    }
+
+    public void testLogPage() {
+        // LogIterator pages
+        LogSelection where = LogManager.newLogPageSelection(RIDE_ID, false, 0, 0, LogIterator.PAGE_SIZE);
+        assertNoFullScan(LogColumns.TABLE_NAME, where.order(), where.sel(), where.args(), LogColumns.LAT, LogColumns.LON);
+        where = LogManager.newLogPageSelection(RIDE_ID, true, 1490000000000L, 1000, LogIterator.PAGE_SIZE);
+        assertNoFullScan(LogColumns.TABLE_NAME, where.order(), where.sel(), where.args(), LogColumns.LAT, LogColumns.LON);
+    }
+
+    public void testLogArchive() {
+        // LogManager.unarchive / deleteArchives
+        LogArchiveSelection where = LogManager.newLogArchiveSelection(RIDE_ID);
+        assertNoFullScan(LogArchiveColumns.TABLE_NAME, where.order(), where.sel(), where.args(), LogArchiveColumns._ID);
+        // LogManager.readArchiveChunk
+        where = LogManager.newLogArchiveChunkSelection(RIDE_ID, 0);
+        assertNoFullScan(LogArchiveColumns.TABLE_NAME, LogArchiveColumns.DEFAULT_ORDER, where.sel(), where.args(), LogArchiveColumns.ARCHIVE_DATA);
+    }
+
+    public void testDaoCounts() {
+        // BikeyDao.countLogs, countArchiveChunks, countArchivedLogs
+        String[] args = {String.valueOf(RIDE_ID)};
+        assertNoFullScan(LogColumns.TABLE_NAME, null, LogColumns.RIDE_ID + "=?", args, "COUNT(*)");
+        assertNoFullScan(LogArchiveColumns.TABLE_NAME, null, LogArchiveColumns.RIDE_ID + "=?", args, "COUNT(*)");
+        assertNoFullScan(LogArchiveColumns.TABLE_NAME, null, LogArchiveColumns.RIDE_ID + "=?", args, "SUM(" + LogArchiveColumns.ARCHIVE_LOG_COUNT + ")");
+    }
+
+    public void testRideLod() {
+        // LogManager.getLevelOfDetail
+        RideLodSelection where = LogManager.newRideLodSelection(RIDE_ID, 1000);
+        assertNoFullScan(RideLodColumns.TABLE_NAME, null, where.sel(), where.args(), RideLodColumns.LOD_LOG_COUNT, RideLodColumns.LOD_TRACK);
+    }
+
+    public void testLogSeveralRides() {
+        // RideManager.delete / merge
+        LogSelection where = LogManager.newLogSelection(RIDE_ID, RIDE_ID + 1, RIDE_ID + 2);
+        assertNoFullScan(LogColumns.TABLE_NAME, null, where.sel(), where.args(), LogColumns._ID);
+    }
+
+    public void testRideStats() {
+        RideStatsSelection where = LogManager.newRideStatsSelection(RIDE_ID);
+        assertNoFullScan(RideStatsColumns.TABLE_NAME, RideStatsColumns.DEFAULT_ORDER, where.sel(), where.args(), RideStatsColumns.ALL_COLUMNS);
+    }
+
+    public void testRideByUuid() {
+        RideSelection where = RideManager.newRideByUuidSelection("4a1b3c70-6a0b-4bb1-8f5a-1d2a6f0e3b9c");
+        assertNoFullScan(RideColumns.TABLE_NAME, null, where.sel(), where.args(), RideColumns._ID);
+    }
+
+    public void testRideDeleted() {
+        RideSelection where = GoogleDriveSyncManager.newDeletedRidesSelection();
+        assertNoFullScan(RideColumns.TABLE_NAME, RideColumns.DEFAULT_ORDER, where.sel(), where.args(), RideColumns.ALL_COLUMNS);
+    }
+
+    private void assertNoFullScan(String table, String orderBy, String selection, String[] selectionArgs, String... projection) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection, null, null, orderBy, null);
+        // A "SCAN" step on the table (even if it uses a covering index) means every row is read
+        Pattern fullScan = Pattern.compile("^SCAN (TABLE )?" + table + "( |$)");
+        Cursor c = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumn = c.getColumnIndexOrThrow("detail");
+            assertTrue("No plan for " + sql, c.getCount() > 0);
+            while (c.moveToNext()) {
+                String detail = c.getString(detailColumn);
+                Log.d(sql + " -> " + detail);
+                assertFalse("Full scan of " + table + " (" + detail + ") for " + sql, fullScan.matcher(detail).find());
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -30,6 +30,8 @@ import android.os.StrictMode;
 import android.support.multidex.MultiDex;
 
 import org.jraf.android.bikey.BuildConfig;
+import org.jraf.android.bikey.backend.log.LogJournal;
+import org.jraf.android.bikey.backend.log.LogManager;
 import org.jraf.android.bikey.common.Constants;
 import org.jraf.android.bikey.common.UnitUtil;
 import org.jraf.android.bikey.common.wear.WearCommHelper;
@@ -39,6 +41,7 @@ import com.crashlytics.android.Crashlytics;
 
 import fr.nicolaspomepuy.androidwearcrashreport.mobile.CrashReport;
 import io.fabric.sdk.android.Fabric;
+import io.reactivex.schedulers.Schedulers;
 
 public class Application extends android.app.Application {
     /**
@@ -81,6 +84,13 @@ public class Application extends android.app.Application {
         // Connect Google Play Services in wear communication helper
         WearCommHelper.get().connect(this);
 
+        Schedulers.io().scheduleDirect(() -> {
+            // Write the fixes that were journaled but not committed before the process died (if any)
+            LogJournal.get().replay();
+            // Pack the logs of the rides that have not been recorded for a while
+            LogManager.get().archiveIdleRides();
+        });
+
         // Strict mode
         if (BuildConfig.STRICT_MODE) setupStrictMode();
     }
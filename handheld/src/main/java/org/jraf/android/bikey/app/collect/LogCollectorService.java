@@ -24,6 +24,9 @@
  */
 package org.jraf.android.bikey.app.collect;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -51,7 +54,9 @@ import org.jraf.android.bikey.backend.cadence.CadenceManager;
 import org.jraf.android.bikey.backend.heartrate.HeartRateListener;
 import org.jraf.android.bikey.backend.heartrate.HeartRateManager;
 import org.jraf.android.bikey.backend.location.LocationManager;
+import org.jraf.android.bikey.backend.log.LogJournal;
 import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.LogWriter;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.bikey.common.Constants;
 import org.jraf.android.util.log.Log;
@@ -63,10 +68,17 @@ public class LogCollectorService extends Service {
     public static final String ACTION_STOP_COLLECTING = PREFIX + "ACTION_STOP_COLLECTING";
 
     private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Starting and stopping are done in order on this single thread, so a start never sees the writer of a stop that is still in progress.
+     */
+    private static final ExecutorService COLLECT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Only accessed from COLLECT_EXECUTOR
     private Uri mCollectingRideUri;
-    protected Location mLastLocation;
-    private Float mLastCadence;
-    private Integer mLastHeartRate;
+    private final LogWriter mLogWriter = new LogWriter();
+    private volatile Float mLastCadence;
+    private volatile Integer mLastHeartRate;
     private SharedPreferences mPreferences;
     private AndroidWearSender mAndroidWearSender = null;
 
@@ -84,19 +96,21 @@ public class LogCollectorService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d("intent=" + StringUtil.toString(intent));
+        // Write the fixes that were journaled but not committed before the process died (if any)
+        Schedulers.io().scheduleDirect(() -> LogJournal.get().replay());
         if (intent == null) return Service.START_STICKY;
         String action = intent.getAction();
         if (ACTION_START_COLLECTING.equals(action)) {
-            startCollecting(intent.getData());
+            startCollecting(intent.getData(), startId);
         } else if (ACTION_STOP_COLLECTING.equals(action)) {
-            stopCollecting(intent.getData());
+            stopCollecting(intent.getData(), startId);
         }
         return Service.START_STICKY;
     }
 
-    private void startCollecting(Uri rideUri) {
+    private void startCollecting(Uri rideUri, int startId) {
         Context context = getApplicationContext();
-        Schedulers.io().scheduleDirect(() -> {
+        COLLECT_EXECUTOR.execute(() -> {
             // Smartwatches support (if enabled in prefs)
             if (mPreferences.getBoolean(Constants.PREF_ANDROID_WEAR, Constants.PREF_ANDROID_WEAR_DEFAULT)) {
                 mAndroidWearSender = new AndroidWearSender();
@@ -105,14 +119,20 @@ public class LogCollectorService extends Service {
 
             // First, pause current ride if any
             if (mCollectingRideUri != null) {
+                LocationManager.get().removeLocationListener(mLocationListener);
+                mLogWriter.stop();
                 RideManager.get().pause(mCollectingRideUri);
+
+                // Precompute the levels of detail of the paused ride, without delaying the new one
+                Uri pausedRideUri = mCollectingRideUri;
+                Schedulers.io().scheduleDirect(() -> LogManager.get().buildLevelsOfDetail(pausedRideUri));
             }
 
             // Check if the ride still exists (it may have been deleted)
             boolean rideExists = RideManager.get().isExistingRide(rideUri);
             Log.d("rideExists=" + rideExists);
             if (!rideExists) {
-                stopSelf();
+                stopSelf(startId);
                 return;
             }
 
@@ -122,6 +142,7 @@ public class LogCollectorService extends Service {
             // Now collect for the new current ride
             mCollectingRideUri = rideUri;
             RideManager.get().activate(mCollectingRideUri);
+            mLogWriter.start(mCollectingRideUri);
 
             // Show notification
             Notification notification = createNotification();
@@ -143,18 +164,28 @@ public class LogCollectorService extends Service {
         });
     }
 
-    private void stopCollecting(Uri rideUri) {
-        Schedulers.io().scheduleDirect(() -> RideManager.get().pause(rideUri));
+    private void stopCollecting(Uri rideUri, int startId) {
+        // Done on the executor too, so that a start still queued can't add the listeners back after they are removed
+        COLLECT_EXECUTOR.execute(() -> {
+            // Stop receiving fixes before flushing, so the last ones are not lost
+            LocationManager.get().removeLocationListener(mLocationListener);
+            CadenceManager.get().removeListener(mCadenceListener);
+            HeartRateManager.get().removeListener(mHeartRateListener);
+
+            // Write all the pending logs before pausing the ride
+            mLogWriter.stop();
+            RideManager.get().pause(rideUri);
+            mCollectingRideUri = null;
 
-        // Dismiss notification
-        dismissNotification();
+            // Precompute the levels of detail, so the ride displays quickly (without delaying a following start)
+            Schedulers.io().scheduleDirect(() -> LogManager.get().buildLevelsOfDetail(rideUri));
 
-        LocationManager.get().removeLocationListener(mLocationListener);
-        CadenceManager.get().removeListener(mCadenceListener);
-        HeartRateManager.get().removeListener(mHeartRateListener);
+            // Dismiss notification
+            dismissNotification();
 
-        mCollectingRideUri = null;
-        stopSelf();
+            // Only if no start was received since this stop
+            stopSelf(startId);
+        });
     }
 
     /*
@@ -164,10 +195,7 @@ public class LogCollectorService extends Service {
     private LocationListener mLocationListener = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
-            Schedulers.io().scheduleDirect(() -> {
-                LogManager.get().add(mCollectingRideUri, location, mLastLocation, mLastCadence, mLastHeartRate);
-                mLastLocation = location;
-            });
+            mLogWriter.enqueue(location, mLastCadence, mLastHeartRate);
         }
 
         @Override
@@ -187,7 +215,7 @@ public class LogCollectorService extends Service {
 
     private CadenceListener mCadenceListener = new CadenceListener() {
         @Override
-        public void onCadenceChanged(Float cadence, float[][] rawData) {
+        public void onCadenceChanged(Float cadence, float confidence, float[][] rawData) {
             mLastCadence = cadence;
         }
     };
@@ -26,21 +26,26 @@ package org.jraf.android.bikey.app.display.fragment;
 
 import android.net.Uri;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.annotation.WorkerThread;
 
-import io.reactivex.Maybe;
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
-import org.jraf.android.bikey.backend.log.LogListener;
 import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideMetrics;
 import org.jraf.android.bikey.backend.provider.ride.RideState;
 import org.jraf.android.bikey.backend.ride.RideListener;
 import org.jraf.android.bikey.backend.ride.RideManager;
 
+/**
+ * Displays a value computed from the {@link RideMetrics} of the current ride, updated live while it is recorded.
+ */
 public abstract class LogDisplayFragment extends SimpleDisplayFragment {
+    private Disposable mMetricsDisposable;
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
@@ -53,27 +58,10 @@ public abstract class LogDisplayFragment extends SimpleDisplayFragment {
         Uri rideUri = getRideUri();
         if (rideUri == null) return;
 
-        Single.fromCallable(() -> readLogDisplayInfo(rideUri))
+        Single.fromCallable(() -> RideManager.get().getState(rideUri) == RideState.ACTIVE)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(logDisplayInfo -> {
-                    setTextEnabled(logDisplayInfo.isActive);
-                    setText(logDisplayInfo.value);
-                });
-
-    }
-
-    private static class LogDisplayInfo {
-        boolean isActive;
-        CharSequence value;
-    }
-
-    @WorkerThread
-    private LogDisplayInfo readLogDisplayInfo(Uri rideUri) {
-        LogDisplayInfo result = new LogDisplayInfo();
-        result.isActive = RideManager.get().getState(rideUri) == RideState.ACTIVE;
-        result.value = queryValue();
-        return result;
+                .subscribe(this::setTextEnabled);
     }
 
     @Override
@@ -88,15 +76,23 @@ public abstract class LogDisplayFragment extends SimpleDisplayFragment {
     public void onStart() {
         super.onStart();
 
-        // Log updates
-        LogManager logManager = LogManager.get();
-        logManager.addListener(mLogListener);
+        // Metrics updates
+        Uri rideUri = getRideUri();
+        if (rideUri == null) return;
+        mMetricsDisposable = LogManager.get().getLiveMetrics(rideUri)
+                // Only the latest metrics are shown if several were published while the main thread was busy
+                .toFlowable(BackpressureStrategy.LATEST)
+                .observeOn(AndroidSchedulers.mainThread(), false, 1)
+                .subscribe(metrics -> setText(formatValue(metrics)));
     }
 
     @Override
     public void onStop() {
-        // Log updates
-        LogManager.get().removeListener(mLogListener);
+        // Metrics updates
+        if (mMetricsDisposable != null) {
+            mMetricsDisposable.dispose();
+            mMetricsDisposable = null;
+        }
 
         super.onStop();
     }
@@ -115,16 +111,5 @@ public abstract class LogDisplayFragment extends SimpleDisplayFragment {
         }
     };
 
-    private LogListener mLogListener = rideUri -> {
-        if (!rideUri.equals(getRideUri())) return;
-        if (!isAdded()) return;
-
-        Maybe.fromCallable(this::queryValue)
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(this::setText);
-    };
-
-    @WorkerThread
-    protected abstract @Nullable CharSequence queryValue();
+    protected abstract @Nullable CharSequence formatValue(@NonNull RideMetrics metrics);
 }
@@ -24,11 +24,11 @@
  */
 package org.jraf.android.bikey.app.display.fragment.averagemovingspeed;
 
-import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.jraf.android.bikey.app.display.fragment.LogDisplayFragment;
-import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideMetrics;
 import org.jraf.android.bikey.common.UnitUtil;
 
 public class AverageMovingSpeedDisplayFragment extends LogDisplayFragment {
@@ -37,9 +37,7 @@ public class AverageMovingSpeedDisplayFragment extends LogDisplayFragment {
     }
 
     @Override
-    protected @Nullable CharSequence queryValue() {
-        Uri rideUri = getRideUri();
-        if (rideUri == null) return null;
-        return UnitUtil.formatSpeed((float) LogManager.get().getAverageMovingSpeed(rideUri));
+    protected @Nullable CharSequence formatValue(@NonNull RideMetrics metrics) {
+        return UnitUtil.formatSpeed(metrics.getAverageMovingSpeed());
     }
 }
@@ -48,7 +48,7 @@ public class CadenceDisplayFragment extends SimpleDisplayFragment {
         super.onStop();
     }
 
-    private CadenceListener mCadenceListener = (cadence, rawData) -> {
+    private CadenceListener mCadenceListener = (cadence, confidence, rawData) -> {
         setText(UnitUtil.formatCadence(cadence));
         setValues(0, rawData[0]);
         setValues(1, rawData[1]);
@@ -24,11 +24,11 @@
  */
 package org.jraf.android.bikey.app.display.fragment.totaldistance;
 
-import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.jraf.android.bikey.app.display.fragment.LogDisplayFragment;
-import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideMetrics;
 import org.jraf.android.bikey.common.UnitUtil;
 
 public class TotalDistanceDisplayFragment extends LogDisplayFragment {
@@ -37,9 +37,7 @@ public class TotalDistanceDisplayFragment extends LogDisplayFragment {
     }
 
     @Override
-    protected @Nullable CharSequence queryValue() {
-        Uri rideUri = getRideUri();
-        if (rideUri == null) return null;
-        return UnitUtil.formatDistance((float) LogManager.get().getTotalDistance(rideUri));
+    protected @Nullable CharSequence formatValue(@NonNull RideMetrics metrics) {
+        return UnitUtil.formatDistance(metrics.getDistance());
     }
 }
@@ -58,6 +58,7 @@ public class MainPreferenceFragment extends PreferenceFragment {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.preferences);
         updateListPreferenceSummary(Constants.PREF_UNITS);
+        updateListPreferenceSummary(Constants.PREF_TRACK_SIMPLIFICATION);
 
         // Show heart rate section only if supported
         boolean heartRateSupported = getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE);
@@ -158,7 +159,7 @@ public class MainPreferenceFragment extends PreferenceFragment {
     };
 
     private void updateListPreferenceSummary(String key) {
-        if (Constants.PREF_UNITS.equals(key)) {
+        if (Constants.PREF_UNITS.equals(key) || Constants.PREF_TRACK_SIMPLIFICATION.equals(key)) {
             ListPreference pref = (ListPreference) getPreferenceManager().findPreference(key);
             CharSequence entry = pref.getEntry();
             pref.setSummary(entry);
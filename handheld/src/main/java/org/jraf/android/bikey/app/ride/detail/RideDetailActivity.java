@@ -58,7 +58,10 @@ import org.jraf.android.bikey.backend.export.bikey.BikeyExporter;
 import org.jraf.android.bikey.backend.export.genymotion.GenymotionExporter;
 import org.jraf.android.bikey.backend.export.gpx.GpxExporter;
 import org.jraf.android.bikey.backend.export.kml.KmlExporter;
+import org.jraf.android.bikey.backend.log.BucketedSeries;
 import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideSummary;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
 import org.jraf.android.bikey.backend.provider.ride.RideCursor;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.bikey.common.UnitUtil;
@@ -66,18 +69,17 @@ import org.jraf.android.bikey.databinding.RideDetailBinding;
 import org.jraf.android.util.app.base.BaseAppCompatActivity;
 import org.jraf.android.util.async.Task;
 import org.jraf.android.util.async.TaskFragment;
-import org.jraf.android.util.collection.CollectionUtil;
 import org.jraf.android.util.datetime.DateTimeUtil;
 import org.jraf.android.util.dialog.AlertDialogFragment;
 import org.jraf.android.util.dialog.AlertDialogListener;
 import org.jraf.android.util.handler.HandlerUtil;
 import org.jraf.android.util.log.Log;
-import org.jraf.android.util.math.MathUtil;
 
 public class RideDetailActivity extends BaseAppCompatActivity implements AlertDialogListener {
     private static final String FRAGMENT_RETAINED_STATE = "FRAGMENT_RETAINED_STATE";
 
-    private static final int POINTS_TO_GRAPH = 100;
+    private static final int POINTS_TO_MAP = 100;
+    private static final int GRAPH_PIXELS_PER_BUCKET = 2;
 
     private static final int DIALOG_CONFIRM_DELETE = 0;
     private static final int DIALOG_SHARE = 1;
@@ -162,15 +164,25 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
             private Float mAverageCadence;
             private float mMaxCadence;
             private List<LatLng> mLatLngArray;
+            private LatLng mStart;
+            private LatLng mEnd;
+            private LatLngBounds mBounds;
             private float[] mSpeedArray;
             private float[] mCadenceArray;
             private float mMinHeartRate;
             private float mMaxHeartRate;
             private Float mAverageHeartRate;
             private float[] mHeartRateArray;
+            private long mLogCount;
+            private long mFixCount;
+            private int mBucketCount;
 
             @Override
             protected void onPreExecute() {
+                // One bucket per few pixels of the graphs (they may not be laid out yet, the first time)
+                int graphWidth = mBinding.grpSpeed.getWidth();
+                if (graphWidth == 0) graphWidth = getResources().getDisplayMetrics().widthPixels;
+                mBucketCount = Math.max(graphWidth / GRAPH_PIXELS_PER_BUCKET, 1);
                 mBinding.pgbLoading.setVisibility(View.VISIBLE);
                 mBinding.conRoot.setVisibility(View.INVISIBLE);
             }
@@ -188,28 +200,31 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
                 rideCursor.close();
 
                 LogManager logManager = LogManager.get();
-                mAverageMovingSpeed = logManager.getAverageMovingSpeed(rideUri);
-                mMaxSpeed = logManager.getMaxSpeed(rideUri);
-                mMovingDuration = logManager.getMovingDuration(rideUri);
-                mAverageCadence = logManager.getAverageCadence(rideUri);
-                mMaxCadence = logManager.getMaxCadence(rideUri);
-                mMinHeartRate = logManager.getMinHeartRate(rideUri);
-                mMaxHeartRate = logManager.getMaxHeartRate(rideUri);
-                mAverageHeartRate = logManager.getAverageHeartRate(rideUri);
-
-                mLatLngArray = logManager.getLatLngArray(rideUri, POINTS_TO_GRAPH);
-
-                List<Float> speedList = logManager.getSpeedArray(rideUri, POINTS_TO_GRAPH);
-                mSpeedArray = CollectionUtil.unwrap(speedList.toArray(new Float[speedList.size()]));
-                mSpeedArray = MathUtil.getMovingAverage(mSpeedArray, mSpeedArray.length / 10);
-
-                List<Float> cadenceList = logManager.getCadenceArray(rideUri, POINTS_TO_GRAPH);
-                mCadenceArray = CollectionUtil.unwrap(cadenceList.toArray(new Float[cadenceList.size()]));
-                mCadenceArray = MathUtil.getMovingAverage(mCadenceArray, mCadenceArray.length / 10);
-
-                List<Float> heartRateList = logManager.getHeartRateArray(rideUri, POINTS_TO_GRAPH);
-                mHeartRateArray = CollectionUtil.unwrap(heartRateList.toArray(new Float[heartRateList.size()]));
-                mHeartRateArray = MathUtil.getMovingAverage(mHeartRateArray, mHeartRateArray.length / 10);
+                // Graphs: average per bucket of active time (pauses are not shown), filled with the same pass over the logs as the summary
+                BucketedSeries[] series = new BucketedSeries[3];
+                RideSummary summary = logManager.computeSummary(rideUri, BucketedSeries.Axis.TIME, mBucketCount,
+                        new String[] {LogColumns.SPEED, LogColumns.CADENCE, LogColumns.HEART_RATE}, series);
+                mAverageMovingSpeed = summary.getAverageMovingSpeed();
+                mMaxSpeed = summary.getMaxSpeed();
+                mMovingDuration = summary.getMovingDuration() == 0 ? null : summary.getMovingDuration();
+                mAverageCadence = summary.getAverageCadence();
+                mMaxCadence = summary.getMaxCadence();
+                mMinHeartRate = summary.getMinHeartRate();
+                mMaxHeartRate = summary.getMaxHeartRate();
+                mAverageHeartRate = summary.getAverageHeartRate();
+                mLogCount = summary.getLogCount();
+                mFixCount = summary.getFixCount();
+                // Exact start / end points and bounds (the mapped track is simplified)
+                mStart = summary.getStart();
+                mEnd = summary.getEnd();
+                mBounds = summary.getBounds();
+
+                mSpeedArray = series[0].getAverage();
+                mCadenceArray = series[1].getAverage();
+                mHeartRateArray = series[2].getAverage();
+
+                // Simplified track (the levels of detail are saved, so this usually doesn't read the logs)
+                mLatLngArray = logManager.getLatLngArray(rideUri, POINTS_TO_MAP);
 
                 // Make sure the map is actually available (this is blocking for a few seconds)
                 getMap();
@@ -229,7 +244,7 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
                         .setText(DateUtils.formatDateTime(a, mCreatedDate.getTime(), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY
                         | DateUtils.FORMAT_SHOW_YEAR));
 
-                if (mLatLngArray.isEmpty()) {
+                if (mBounds == null) {
                     // Special case: we have no points. Show empty screen.
                     a.mBinding.conMap.setVisibility(View.GONE);
                     a.mBinding.conDetailedInfo.setVisibility(View.GONE);
@@ -244,6 +259,8 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
                 if (mMovingDuration != null) mBinding.txtDurationMoving.setText(DateTimeUtil.formatDuration(a, mMovingDuration));
                 mBinding.txtDurationTotal.setText(DateTimeUtil.formatDuration(a, mDuration));
                 mBinding.txtDistanceTotal.setText(UnitUtil.formatDistance(mDistance, true, .85f, false));
+                // Compression of the track (see the track simplification preference)
+                mBinding.txtDistancePoints.setText(a.getString(R.string.ride_detail_distance_points_value, mLogCount, mFixCount));
 
                 mBinding.txtSpeedAverage.setText(UnitUtil.formatSpeed(mAverageMovingSpeed, true, .85f, false));
                 mBinding.txtSpeedMax.setText(UnitUtil.formatSpeed(mMaxSpeed, true, .85f, false));
@@ -267,7 +284,7 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
 
                 // Map
                 a.getMap().getUiSettings().setMapToolbarEnabled(false);
-                if (mLatLngArray.size() > 0) {
+                if (mBounds != null) {
                     // Polyline
                     PolylineOptions polylineOptions = new PolylineOptions().addAll(mLatLngArray);
                     polylineOptions.color(getResources().getColor(R.color.map_polyline));
@@ -275,18 +292,13 @@ public class RideDetailActivity extends BaseAppCompatActivity implements AlertDi
 
                     // Start / finish markers
                     a.getMap().addMarker(new MarkerOptions()
-                            .position(mLatLngArray.get(0)).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN)));
+                            .position(mStart).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN)));
 
                     a.getMap().addMarker(new MarkerOptions()
-                            .position(mLatLngArray.get(mLatLngArray.size() - 1)).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
+                            .position(mEnd).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
 
-                    // Calculate bounds
-                    LatLngBounds bounds = new LatLngBounds(mLatLngArray.get(0), mLatLngArray.get(0));
-                    for (LatLng latLng : mLatLngArray) {
-                        bounds = bounds.including(latLng);
-                    }
                     int padding = getResources().getDimensionPixelSize(R.dimen.ride_detail_map_padding);
-                    a.getMap().moveCamera(CameraUpdateFactory.newLatLngBounds(bounds, padding));
+                    a.getMap().moveCamera(CameraUpdateFactory.newLatLngBounds(mBounds, padding));
 
                     a.mBinding.conMap.setVisibility(View.VISIBLE);
                 }
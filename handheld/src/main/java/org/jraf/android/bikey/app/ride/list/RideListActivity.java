@@ -225,9 +225,32 @@ public class RideListActivity extends BaseAppCompatActivity implements AlertDial
         new TaskFragment(new Task<RideListActivity>() {
             @Override
             protected void doInBackground() throws Throwable {
-                RideManager.get().merge(ids);
+                RideManager.get().merge(ids, (progress, total) -> {
+                    RideListActivity activity = getActivity();
+                    if (activity != null) activity.runOnUiThread(() -> activity.showMergeProgress(progress, total));
+                });
             }
-        }).execute(getSupportFragmentManager());
+
+            @Override
+            protected void onPostExecuteOk() {
+                super.onPostExecuteOk();
+                getActivity().hideMergeProgress();
+            }
+
+            @Override
+            protected void onPostExecuteFail() {
+                super.onPostExecuteFail();
+                getActivity().hideMergeProgress();
+            }
+        }.toastFail(R.string.ride_list_mergeFailToast)).execute(getSupportFragmentManager());
+    }
+
+    private void showMergeProgress(int progress, int total) {
+        getSupportActionBar().setSubtitle(getString(R.string.ride_list_mergeProgress, progress, total));
+    }
+
+    private void hideMergeProgress() {
+        getSupportActionBar().setSubtitle(null);
     }
 
 
@@ -42,6 +42,7 @@ import android.widget.AbsListView.MultiChoiceModeListener;
 import android.widget.ListView;
 
 import org.jraf.android.bikey.R;
+import org.jraf.android.bikey.backend.provider.BikeyNotifier;
 import org.jraf.android.bikey.backend.provider.ride.RideColumns;
 import org.jraf.android.bikey.backend.provider.ride.RideCursor;
 import org.jraf.android.bikey.backend.provider.ride.RideSelection;
@@ -150,7 +151,10 @@ public class RideListFragment extends ListFragment implements LoaderCallbacks<Cu
         return new CursorLoader(getActivity(), RideColumns.CONTENT_URI, null, selection.sel(), selection.args(), RideColumns.CREATED_DATE + " desc") {
             @Override
             public Cursor loadInBackground() {
-                return new RideCursor(super.loadInBackground());
+                Cursor cursor = super.loadInBackground();
+                // Only be notified of the changes that are visible in the list (not the ones of the ride being recorded, every second)
+                cursor.setNotificationUri(getContext().getContentResolver(), BikeyNotifier.RIDE_LIST_URI);
+                return new RideCursor(cursor);
             }
         };
     }
@@ -62,6 +62,8 @@ import org.jraf.android.util.async.TaskFragment;
 import org.jraf.android.util.handler.HandlerUtil;
 
 public class RideMapActivity extends BaseAppCompatActivity {
+    private static final int POINTS_TO_MAP = 1000;
+
     private RideMapBinding mBinding;
 
     private Uri mRideUri;
@@ -203,7 +205,7 @@ public class RideMapActivity extends BaseAppCompatActivity {
 
                 LogManager logManager = LogManager.get();
 
-                mLatLngArray = logManager.getLatLngArray(rideUri, 100);
+                mLatLngArray = logManager.getLatLngArray(rideUri, POINTS_TO_MAP);
 
                 // Make sure the map is actually available
                 getMap();
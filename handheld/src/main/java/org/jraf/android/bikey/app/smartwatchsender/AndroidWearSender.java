@@ -26,7 +26,7 @@ package org.jraf.android.bikey.app.smartwatchsender;
 
 import android.content.Context;
 
-import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideMetrics;
 import org.jraf.android.bikey.common.wear.WearCommHelper;
 import org.jraf.android.util.log.Log;
 
@@ -59,7 +59,8 @@ public class AndroidWearSender extends SmartwatchSender {
     @Override
     protected void sendValues() {
         Log.d();
-        float totalDistance = LogManager.get().getTotalDistance(mActiveRideUri);
+        RideMetrics metrics = mMetrics;
+        float totalDistance = metrics == null ? 0 : metrics.getDistance();
         long startDateOffset = mInitialDuration - mActivatedDate;
         float speed = mSpeedometer.getSpeed();
         mWearCommHelper.updateRideValues(startDateOffset, speed, totalDistance, 0); // TODO heart rate
@@ -7,9 +7,12 @@ import java.util.concurrent.TimeUnit;
 import android.content.Context;
 import android.net.Uri;
 
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 import org.jraf.android.bikey.backend.location.Speedometer;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideMetrics;
 import org.jraf.android.bikey.backend.ride.RideListener;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.util.log.Log;
@@ -25,6 +28,11 @@ public abstract class SmartwatchSender {
     protected long mActivatedDate;
     protected ScheduledExecutorService mScheduledExecutorService;
     protected Speedometer mSpeedometer = new Speedometer();
+    /**
+     * Latest metrics of the active ride (values are sent at a fixed rate, so only the latest one is kept).
+     */
+    protected volatile RideMetrics mMetrics;
+    private Disposable mMetricsDisposable;
 
     public void startSending(Context context) {
         Log.d();
@@ -45,6 +53,9 @@ public abstract class SmartwatchSender {
         // Speed updates
         mSpeedometer.stopListening();
 
+        // Metrics updates
+        disposeMetrics();
+
         // Stop the scheduled task
         if (mScheduledExecutorService != null) {
             mScheduledExecutorService.shutdown();
@@ -57,6 +68,8 @@ public abstract class SmartwatchSender {
         public void onActivated(Uri rideUri) {
             Log.d();
             mActiveRideUri = rideUri;
+            disposeMetrics();
+            mMetricsDisposable = LogManager.get().getLiveMetrics(rideUri).subscribe(metrics -> mMetrics = metrics);
             Schedulers.io().scheduleDirect(() -> {
                         mInitialDuration = RideManager.get().getDuration(rideUri);
                         mActivatedDate = RideManager.get().getActivatedDate(rideUri).getTime();
@@ -73,9 +86,18 @@ public abstract class SmartwatchSender {
         @Override
         public void onPaused(Uri rideUri) {
             mActiveRideUri = null;
+            disposeMetrics();
         }
     };
 
+    private void disposeMetrics() {
+        if (mMetricsDisposable != null) {
+            mMetricsDisposable.dispose();
+            mMetricsDisposable = null;
+        }
+        mMetrics = null;
+    }
+
 
     private Runnable mSendValueRunnable = new Runnable() {
         @Override
@@ -27,7 +27,9 @@ package org.jraf.android.bikey.backend.cadence;
 public interface CadenceListener {
     /**
      * @param cadence The cadence, in revolutions per minute.
+     * @param confidence How clearly the cadence stands out from the rest of the movement, between {@code 0} and {@code 1} ({@code 0} if there
+     * is no cadence).
      * @param rawData The rotations values that were used to calculate the cadence.
      */
-    void onCadenceChanged(Float cadence, float[][] rawData);
+    void onCadenceChanged(Float cadence, float confidence, float[][] rawData);
 }
@@ -24,8 +24,6 @@
  */
 package org.jraf.android.bikey.backend.cadence;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -33,45 +31,54 @@ import java.util.concurrent.TimeUnit;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.support.annotation.NonNull;
 
 import org.jraf.android.bikey.app.Application;
+import org.jraf.android.bikey.backend.sensor.BatchedSensorListener;
 import org.jraf.android.util.listeners.Listeners;
 import org.jraf.android.util.log.Log;
-import org.jraf.android.util.math.MathUtil;
 import org.jraf.android.util.object.ObjectUtil;
 
 public class CadenceManager {
     private static final CadenceManager INSTANCE = new CadenceManager();
 
-    private static final long BROADCAST_CURRENT_VALUE_RATE_S = 2;
+    /**
+     * The estimator is updated with each sensor value, so broadcasting often costs nothing more than the broadcast itself.
+     */
+    private static final long BROADCAST_CURRENT_VALUE_RATE_MS = 1000;
     protected static final long LOG_SIZE_MS = 5 * 1000;
 
-    private static final float SANITY_CHECK_MAX = 170;
-    private static final float SANITY_CHECK_MIN = 30;
+    /**
+     * Rotation sensor sampling period: 20 Hz, so the estimator can resample the values at 10 Hz.
+     */
+    private static final int SENSOR_SAMPLING_PERIOD_US = 50 * 1000;
 
-    private static final float MIN_AMPLITUDE = .3f;
+    /**
+     * Let the sensor batch its values for up to one broadcast period.
+     */
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = (int) (BROADCAST_CURRENT_VALUE_RATE_MS * 1000);
 
-    private static class Entry {
-        long timestamp;
-        float[] values;
+    /**
+     * Under this confidence, the cadence is not reported.
+     */
+    private static final float MIN_CONFIDENCE = .2f;
 
-        Entry(float[] values) {
-            this.values = values;
-            timestamp = System.currentTimeMillis();
-        }
-    }
+    /**
+     * Enough for {@link #LOG_SIZE_MS} of samples at up to 200 Hz.
+     */
+    private static final int SAMPLE_CAPACITY = 1024;
 
     public static CadenceManager get() {
         return INSTANCE;
     }
 
     private Context mContext;
-    private ArrayDeque<Entry> mValues = new ArrayDeque<>(200);
+    private final SampleRing mSamples = new SampleRing(SAMPLE_CAPACITY);
+    private final SlidingDftCadenceEstimator mEstimator = new SlidingDftCadenceEstimator();
     private ScheduledExecutorService mScheduledExecutorService;
     protected Float mLastValue = -1f;
-    private float[][] mLastRawData;
+    private float mLastConfidence = -1f;
 
     private Listeners<CadenceListener> mListeners = new Listeners<CadenceListener>() {
         @Override
@@ -100,171 +107,107 @@ public class CadenceManager {
 
     protected void startListening() {
         Log.d();
+        mSamples.clear();
+        mEstimator.reset();
         SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        sensorManager.registerListener(mRotationSensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR),
-                SensorManager.SENSOR_DELAY_NORMAL);
+        mRotationSensorEventListener.register(sensorManager, sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR), SENSOR_SAMPLING_PERIOD_US,
+                SENSOR_MAX_REPORT_LATENCY_US);
 
         if (mScheduledExecutorService == null) {
             mScheduledExecutorService = Executors.newScheduledThreadPool(1);
         }
-        mScheduledExecutorService.scheduleAtFixedRate(mBroadcastCurrentValueRunnable, BROADCAST_CURRENT_VALUE_RATE_S, BROADCAST_CURRENT_VALUE_RATE_S,
-                TimeUnit.SECONDS);
+        mScheduledExecutorService.scheduleAtFixedRate(mBroadcastCurrentValueRunnable, BROADCAST_CURRENT_VALUE_RATE_MS, BROADCAST_CURRENT_VALUE_RATE_MS,
+                TimeUnit.MILLISECONDS);
     }
 
     protected void stopListening() {
         Log.d();
-        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        sensorManager.unregisterListener(mRotationSensorEventListener);
+        mRotationSensorEventListener.unregister();
         if (mScheduledExecutorService != null) {
             mScheduledExecutorService.shutdown();
             mScheduledExecutorService = null;
         }
     }
 
-    private SensorEventListener mRotationSensorEventListener = new SensorEventListener() {
+    private BatchedSensorListener mRotationSensorEventListener = new BatchedSensorListener("cadence") {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            // Keep only logs for a specific duration (discard old logs)
-            while (mValues.size() >= 2 && mValues.peekLast().timestamp - mValues.peekFirst().timestamp >= LOG_SIZE_MS) {
-                mValues.removeFirst();
-            }
-            float[] values = event.values.clone();
-            synchronized (mValues) {
-                mValues.add(new Entry(values));
-            }
+        protected void onSensorEvent(@NonNull SensorEvent event, long timestamp) {
+            // Old samples are overwritten by the ring itself: nothing to discard here
+            mSamples.add(timestamp, event.values[0], event.values[1], event.values[2]);
+            mEstimator.add(timestamp, event.values[0], event.values[1], event.values[2]);
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
     };
 
-    private static class ValuesAsArray {
-        float[][] values;
-        long[] times;
-    }
-
-    private ValuesAsArray getValuesAsFloatArray() {
-        float[][] values = new float[3][mValues.size()];
-        long[] timestamps = new long[mValues.size()];
-        int i = 0;
-
-        for (Entry e : mValues) {
-            float valX = e.values[0];
-            float valY = e.values[1];
-            float valZ = e.values[2];
-
-            values[0][i] = valX;
-            values[1][i] = valY;
-            values[2][i] = valZ;
-
-            timestamps[i] = e.timestamp;
-
-            i++;
-        }
-        ValuesAsArray res = new ValuesAsArray();
-        res.values = values;
-        res.times = timestamps;
-        return res;
-    }
-
     /**
-     * Get the current cadence.
-     * 
+     * Get the current cadence, as estimated by the {@link SlidingDftCadenceEstimator}.
+     *
      * @return The current cadence in revolutions per minute, or {@code null} if the information is not available.
      */
-    private Float getCurrentCadence() {
-        if (mListeners.size() == 0) throw new IllegalStateException("There must be at least one listener prior to calling getCurrentCadence");
-        ValuesAsArray valuesAsArrays;
-        long durationMs;
-        int len;
-        synchronized (mValues) {
-            len = mValues.size();
-            if (len < 2) return null;
-            valuesAsArrays = getValuesAsFloatArray();
-            durationMs = mValues.peekLast().timestamp - mValues.peekFirst().timestamp;
-        }
-        mLastRawData = valuesAsArrays.values;
+    private Float getCurrentCadence(long result) {
+        float revPerMin = SlidingDftCadenceEstimator.getCadence(result);
+        if (Float.isNaN(revPerMin)) return null;
+        float confidence = SlidingDftCadenceEstimator.getConfidence(result);
+        Log.d("revPerMin=" + revPerMin + " confidence=" + confidence);
 
-        float[] vX = valuesAsArrays.values[0];
-        float[] vY = valuesAsArrays.values[1];
-        float[] vZ = valuesAsArrays.values[2];
-
-        float amplitudeX = MathUtil.getAmplitude(vX);
-        float amplitudeY = MathUtil.getAmplitude(vY);
-        float amplitudeZ = MathUtil.getAmplitude(vZ);
-
-        // Use the values with the highest amplitude
-        float maxAmplitude = MathUtil.getMinMax(amplitudeX, amplitudeY, amplitudeZ)[1];
-
-        if (maxAmplitude < MIN_AMPLITUDE) {
-            Log.d("Amplitude to small: returning null");
+        // Sanity checks
+        if (confidence < MIN_CONFIDENCE) {
+            Log.d("Confidence too low: returning null");
             return null;
         }
-
-        float[] values;
-        String logValues;
-        if (maxAmplitude == amplitudeX) {
-            values = vX;
-            logValues = "x";
-        } else if (maxAmplitude == amplitudeY) {
-            values = vY;
-            logValues = "y";
-        } else {
-            values = vZ;
-            logValues = "z";
-        }
-
-        // Average
-        float average = MathUtil.getAverage(values);
-        ArrayList<Long> periods = new ArrayList<>();
-        long lastTime = -1;
-        for (int i = 1; i < len; i++) {
-            if (values[i - 1] < average && values[i] >= average) {
-                // Going up
-                if (lastTime != -1) {
-                    long duration = valuesAsArrays.times[i] - lastTime;
-                    periods.add(duration);
-                }
-                lastTime = valuesAsArrays.times[i];
-            }
-        }
-        int periodCount = periods.size();
-        if (periodCount == 0) {
-            Log.d("No periods: returning null");
+        if (revPerMin > SlidingDftCadenceEstimator.MAX_RPM || revPerMin < SlidingDftCadenceEstimator.MIN_RPM) {
+            Log.d("Invalid value " + revPerMin + ": returning null");
             return null;
         }
+        return revPerMin;
+    }
 
-        // Average of the rev per ms for each period
-        float revPerMs = 0;
-        for (Long t : periods) {
-            revPerMs += 1f / t;
+    /**
+     * Get the raw values of the last {@link #LOG_SIZE_MS}, read directly from the ring.
+     */
+    private float[][] getLastRawData() {
+        while (true) {
+            long end = mSamples.getCount();
+            if (end == 0) return new float[3][0];
+            long oldest = mSamples.getOldestIndex(end);
+            long lastTimestamp = mSamples.getTimestamp(end - 1);
+            long start = end - 1;
+            while (start > oldest && lastTimestamp - mSamples.getTimestamp(start - 1) < LOG_SIZE_MS) {
+                start--;
+            }
+            float[][] res = getRawData(start, (int) (end - start));
+            // The first samples may have been overwritten while they were copied: start over with the new ones
+            if (mSamples.isAvailable(start)) return res;
         }
-        revPerMs /= periodCount;
-
-        float revPerMin = revPerMs * 60000f;
-
-        Log.d("durationMs=" + durationMs + " revPerMin=" + revPerMin + " periods=" + periods + " values=" + logValues + " maxAmplitude=" + maxAmplitude);
+    }
 
-        // Sanity checks
-        if (revPerMin > SANITY_CHECK_MAX || revPerMin < SANITY_CHECK_MIN) {
-            Log.d("Invalid value " + revPerMin + ": returning null");
-            return null;
+    /**
+     * Copy of the given samples, for the listeners (which may keep them after the call).
+     */
+    private float[][] getRawData(long start, int len) {
+        float[][] res = new float[3][len];
+        for (int axis = 0; axis < 3; axis++) {
+            for (int i = 0; i < len; i++) {
+                res[axis][i] = mSamples.getValue(axis, start + i);
+            }
         }
-
-        return revPerMin;
+        return res;
     }
 
     private Runnable mBroadcastCurrentValueRunnable = new Runnable() {
         @Override
         public void run() {
-            Float value = getCurrentCadence();
-            if (ObjectUtil.equals(mLastValue, value)) {
+            if (mListeners.size() == 0) return;
+            long result = mEstimator.getResult();
+            Float value = getCurrentCadence(result);
+            float confidence = value == null ? 0 : SlidingDftCadenceEstimator.getConfidence(result);
+            if (ObjectUtil.equals(mLastValue, value) && mLastConfidence == confidence) {
                 // Skip if the value was the same
-                mLastValue = value;
                 return;
             }
             mLastValue = value;
-            mListeners.dispatch(listener -> listener.onCadenceChanged(value, mLastRawData));
+            mLastConfidence = confidence;
+            float[][] rawData = getLastRawData();
+            mListeners.dispatch(listener -> listener.onCadenceChanged(value, confidence, rawData));
         }
     };
 }
@@ -0,0 +1,121 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.cadence;
+
+/**
+ * Fixed capacity ring of 3 axis sensor samples, stored in primitive arrays.<br/>
+ * There must be a single producer thread, calling {@link #add(long, float, float, float)}, which never blocks or allocates. The oldest samples are
+ * overwritten when the ring is full.
+ * Consumers read the samples in place, by index (an index is the number of samples added before it). Since a sample can be overwritten while it
+ * is being read, a consumer must check with {@link #isAvailable(long)} that the oldest index it read is still available after reading, and read
+ * again otherwise. The slot of the oldest sample is the one being written by the next {@link #add(long, float, float, float)}, so at most
+ * {@code capacity - 1} samples can be read.
+ */
+class SampleRing {
+    private final int mCapacity;
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+
+    /**
+     * Number of samples added so far. Writing it publishes the sample added last.
+     */
+    private volatile long mCount;
+
+    /**
+     * @param capacity Must be a power of 2.
+     */
+    SampleRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2");
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mTimestamps = new long[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mZ = new float[capacity];
+    }
+
+    /**
+     * Must only be called by the producer thread.
+     */
+    void add(long timestamp, float x, float y, float z) {
+        long count = mCount;
+        int i = (int) (count & mMask);
+        mTimestamps[i] = timestamp;
+        mX[i] = x;
+        mY[i] = y;
+        mZ[i] = z;
+        mCount = count + 1;
+    }
+
+    /**
+     * Remove all the samples. Must not be called while samples are being added.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * @return The number of samples added so far, which is also the index of the next sample.
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return {@code true} if the sample at the given index has not been overwritten yet, and is not being overwritten.
+     */
+    boolean isAvailable(long index) {
+        return mCount - index < mCapacity;
+    }
+
+    /**
+     * @return The index of the oldest sample that can be read (see {@link #isAvailable(long)}), given the current count.
+     */
+    long getOldestIndex(long count) {
+        return Math.max(0, count - mCapacity + 1);
+    }
+
+    long getTimestamp(long index) {
+        return mTimestamps[(int) (index & mMask)];
+    }
+
+    /**
+     * @param axis 0 for x, 1 for y, 2 for z.
+     */
+    float getValue(int axis, long index) {
+        int i = (int) (index & mMask);
+        switch (axis) {
+            case 0:
+                return mX[i];
+            case 1:
+                return mY[i];
+            default:
+                return mZ[i];
+        }
+    }
+}
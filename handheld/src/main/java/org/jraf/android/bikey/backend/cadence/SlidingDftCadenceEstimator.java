@@ -0,0 +1,321 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.cadence;
+
+/**
+ * Estimates the cadence from the rotation sensor values, by finding the dominant frequency of their movement in the cadence band.<br/>
+ * The values are resampled at a fixed rate, and their spectrum over the last {@link #WINDOW_SIZE} samples is maintained with a sliding DFT, for
+ * each of the 3 axes and for frequencies between {@link #MIN_RPM} and {@link #MAX_RPM}. Each sample costs the same, whatever the window
+ * size, and nothing is allocated.
+ * Samples are fed by a single thread ({@link #add(long, float, float, float)}), and the latest estimate can be read from any thread
+ * ({@link #getResult()}).
+ */
+class SlidingDftCadenceEstimator {
+    /**
+     * Resampling period (10 Hz, which is enough for cadences up to 300 rpm).
+     */
+    static final long SAMPLE_PERIOD_MS = 100;
+
+    /**
+     * Number of samples in the window (5 s).
+     */
+    static final int WINDOW_SIZE = 50;
+
+    static final float MIN_RPM = 30;
+    static final float MAX_RPM = 170;
+    private static final float RPM_STEP = 2;
+    private static final int BIN_COUNT = (int) ((MAX_RPM - MIN_RPM) / RPM_STEP) + 1;
+
+    /**
+     * Half width of the main lobe of a bin, in bins (the lobe is 2 / window duration wide, i.e. 24 rpm for 5 s).
+     */
+    private static final int LOBE_HALF_WIDTH = (int) (60f * 1000 / (SAMPLE_PERIOD_MS * WINDOW_SIZE) / RPM_STEP);
+
+    /**
+     * Minimum peak to peak amplitude of the movement for the cadence to be reported.
+     */
+    private static final float MIN_AMPLITUDE = .3f;
+
+    /**
+     * After this duration without values, the window starts over.
+     */
+    private static final long MAX_GAP_MS = 1000;
+
+    /**
+     * The sums are recomputed from the window this often, in samples, so rounding errors don't accumulate.
+     */
+    private static final int RESYNC_INTERVAL = WINDOW_SIZE * 20;
+
+    private static final long NO_RESULT = pack(Float.NaN, 0);
+
+    // Per bin constants
+    private final double[] mStepCos = new double[BIN_COUNT];
+    private final double[] mStepSin = new double[BIN_COUNT];
+    private final double[] mWindowCos = new double[BIN_COUNT];
+    private final double[] mWindowSin = new double[BIN_COUNT];
+    private final double[] mGainSquared = new double[BIN_COUNT];
+
+    // e^(-i.w.n) for each bin, n being the current sample index
+    private final double[] mPhasorRe = new double[BIN_COUNT];
+    private final double[] mPhasorIm = new double[BIN_COUNT];
+
+    // Sum of x(m).e^(-i.w.m) over the window, for each axis and bin
+    private final double[][] mSumRe = new double[3][BIN_COUNT];
+    private final double[][] mSumIm = new double[3][BIN_COUNT];
+    private final double[][] mPower = new double[3][BIN_COUNT];
+
+    // Last WINDOW_SIZE differentiated samples, for each axis
+    private final float[][] mWindow = new float[3][WINDOW_SIZE];
+    private long mSampleIndex;
+
+    // Resampling
+    private boolean mHasLastValue;
+    private long mLastTimestamp;
+    private final float[] mLastValue = new float[3];
+    private long mNextSampleTimestamp;
+    private boolean mHasPreviousSample;
+    private final float[] mPreviousSample = new float[3];
+    private final float[] mSample = new float[3];
+
+    private volatile long mResult = NO_RESULT;
+
+    SlidingDftCadenceEstimator() {
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            double omega = getOmega(bin);
+            mStepCos[bin] = Math.cos(omega);
+            mStepSin[bin] = Math.sin(omega);
+            mWindowCos[bin] = Math.cos(omega * WINDOW_SIZE);
+            mWindowSin[bin] = Math.sin(omega * WINDOW_SIZE);
+            // The samples are differentiated (to remove their constant part), which multiplies the amplitude at w by 2.sin(w / 2)
+            double gain = 2 * Math.sin(omega / 2);
+            mGainSquared[bin] = gain * gain;
+        }
+        reset();
+    }
+
+    /**
+     * @return The angular frequency of the given bin, in radians per sample.
+     */
+    private static double getOmega(int bin) {
+        float rpm = MIN_RPM + bin * RPM_STEP;
+        return 2 * Math.PI * rpm / 60 * SAMPLE_PERIOD_MS / 1000;
+    }
+
+    /**
+     * Forget all the values. Must not be called while values are being added.
+     */
+    void reset() {
+        mHasLastValue = false;
+        mHasPreviousSample = false;
+        mSampleIndex = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int i = 0; i < WINDOW_SIZE; i++) {
+                mWindow[axis][i] = 0;
+            }
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                mSumRe[axis][bin] = 0;
+                mSumIm[axis][bin] = 0;
+            }
+        }
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            mPhasorRe[bin] = 1;
+            mPhasorIm[bin] = 0;
+        }
+        mResult = NO_RESULT;
+    }
+
+    /**
+     * Add sensor values. Must always be called from the same thread.
+     *
+     * @param timestamp Time of the values, in milliseconds.
+     */
+    void add(long timestamp, float x, float y, float z) {
+        if (mHasLastValue && (timestamp - mLastTimestamp > MAX_GAP_MS || timestamp < mLastTimestamp)) {
+            reset();
+        }
+        if (!mHasLastValue) {
+            mHasLastValue = true;
+            mLastTimestamp = timestamp;
+            mLastValue[0] = x;
+            mLastValue[1] = y;
+            mLastValue[2] = z;
+            mNextSampleTimestamp = timestamp;
+        }
+
+        // Linear interpolation of the values at each sampling time
+        while (mNextSampleTimestamp <= timestamp) {
+            float ratio = timestamp == mLastTimestamp ? 1 : (float) (mNextSampleTimestamp - mLastTimestamp) / (timestamp - mLastTimestamp);
+            mSample[0] = mLastValue[0] + (x - mLastValue[0]) * ratio;
+            mSample[1] = mLastValue[1] + (y - mLastValue[1]) * ratio;
+            mSample[2] = mLastValue[2] + (z - mLastValue[2]) * ratio;
+            addSample();
+            mNextSampleTimestamp += SAMPLE_PERIOD_MS;
+        }
+        mLastTimestamp = timestamp;
+        mLastValue[0] = x;
+        mLastValue[1] = y;
+        mLastValue[2] = z;
+    }
+
+    private void addSample() {
+        if (!mHasPreviousSample) {
+            mHasPreviousSample = true;
+            System.arraycopy(mSample, 0, mPreviousSample, 0, 3);
+            return;
+        }
+        int windowIndex = (int) (mSampleIndex % WINDOW_SIZE);
+        for (int axis = 0; axis < 3; axis++) {
+            float value = mSample[axis] - mPreviousSample[axis];
+            float removed = mWindow[axis][windowIndex];
+            mWindow[axis][windowIndex] = value;
+            double[] sumRe = mSumRe[axis];
+            double[] sumIm = mSumIm[axis];
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                double re = mPhasorRe[bin];
+                double im = mPhasorIm[bin];
+                // e^(-i.w.(n - WINDOW_SIZE)) = e^(-i.w.n).e^(i.w.WINDOW_SIZE)
+                double removedRe = re * mWindowCos[bin] - im * mWindowSin[bin];
+                double removedIm = re * mWindowSin[bin] + im * mWindowCos[bin];
+                sumRe[bin] += value * re - removed * removedRe;
+                sumIm[bin] += value * im - removed * removedIm;
+            }
+        }
+        System.arraycopy(mSample, 0, mPreviousSample, 0, 3);
+
+        mSampleIndex++;
+        if (mSampleIndex % RESYNC_INTERVAL == 0) {
+            resync();
+        } else {
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                // e^(-i.w.(n + 1)) = e^(-i.w.n).e^(-i.w)
+                double re = mPhasorRe[bin];
+                double im = mPhasorIm[bin];
+                mPhasorRe[bin] = re * mStepCos[bin] + im * mStepSin[bin];
+                mPhasorIm[bin] = im * mStepCos[bin] - re * mStepSin[bin];
+            }
+        }
+
+        if (mSampleIndex >= WINDOW_SIZE) evaluate();
+    }
+
+    /**
+     * Recompute the phasors and sums from scratch.
+     */
+    private void resync() {
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            double omega = getOmega(bin);
+            mPhasorRe[bin] = Math.cos(omega * mSampleIndex);
+            mPhasorIm[bin] = -Math.sin(omega * mSampleIndex);
+            for (int axis = 0; axis < 3; axis++) {
+                double re = 0;
+                double im = 0;
+                for (long n = mSampleIndex - WINDOW_SIZE; n < mSampleIndex; n++) {
+                    float value = mWindow[axis][(int) (n % WINDOW_SIZE)];
+                    re += value * Math.cos(omega * n);
+                    im -= value * Math.sin(omega * n);
+                }
+                mSumRe[axis][bin] = re;
+                mSumIm[axis][bin] = im;
+            }
+        }
+    }
+
+    private void evaluate() {
+        // Find the strongest frequency, on all the axes
+        double maxPower = -1;
+        int maxAxis = 0;
+        int maxBin = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                double re = mSumRe[axis][bin];
+                double im = mSumIm[axis][bin];
+                double power = (re * re + im * im) / mGainSquared[bin];
+                mPower[axis][bin] = power;
+                if (power > maxPower) {
+                    maxPower = power;
+                    maxAxis = axis;
+                    maxBin = bin;
+                }
+            }
+        }
+
+        // The magnitude of a sinusoid of amplitude a is a.WINDOW_SIZE / 2
+        float amplitude = (float) (4 * Math.sqrt(maxPower) / WINDOW_SIZE);
+        if (amplitude < MIN_AMPLITUDE) {
+            mResult = NO_RESULT;
+            return;
+        }
+
+        // Refine the frequency between the bins (parabolic interpolation of the magnitudes)
+        double[] power = mPower[maxAxis];
+        double delta = 0;
+        if (maxBin > 0 && maxBin < BIN_COUNT - 1) {
+            double previous = Math.sqrt(power[maxBin - 1]);
+            double current = Math.sqrt(power[maxBin]);
+            double next = Math.sqrt(power[maxBin + 1]);
+            double denominator = previous - 2 * current + next;
+            if (denominator < 0) delta = .5 * (previous - next) / denominator;
+        }
+        float cadence = (float) (MIN_RPM + (maxBin + delta) * RPM_STEP);
+
+        // Confidence: part of the power of the band which is around the peak (relative to what it would be for white noise)
+        double totalPower = 0;
+        double lobePower = 0;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            totalPower += power[bin];
+            if (Math.abs(bin - maxBin) <= LOBE_HALF_WIDTH) lobePower += power[bin];
+        }
+        float noiseRatio = (2f * LOBE_HALF_WIDTH + 1) / BIN_COUNT;
+        float confidence = (float) ((lobePower / totalPower - noiseRatio) / (1 - noiseRatio));
+        confidence = Math.max(0, Math.min(1, confidence));
+
+        mResult = pack(cadence, confidence);
+    }
+
+    /**
+     * @return The latest estimate, to read with {@link #getCadence(long)} and {@link #getConfidence(long)}.
+     */
+    long getResult() {
+        return mResult;
+    }
+
+    private static long pack(float cadence, float confidence) {
+        return ((long) Float.floatToRawIntBits(cadence) << 32) | (Float.floatToRawIntBits(confidence) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return The cadence in revolutions per minute, or {@code NaN} if there is no cadence.
+     */
+    static float getCadence(long result) {
+        return Float.intBitsToFloat((int) (result >>> 32));
+    }
+
+    /**
+     * @return How clearly the cadence stands out from the rest of the movement, between {@code 0} and {@code 1}.
+     */
+    static float getConfidence(long result) {
+        return Float.intBitsToFloat((int) result);
+    }
+}
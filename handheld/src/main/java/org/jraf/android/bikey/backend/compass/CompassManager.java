@@ -27,17 +27,47 @@ package org.jraf.android.bikey.backend.compass;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
 
 import org.jraf.android.bikey.app.Application;
+import org.jraf.android.bikey.backend.sensor.BatchedSensorListener;
 import org.jraf.android.util.listeners.Listeners;
 import org.jraf.android.util.log.Log;
 
+/**
+ * Computes the heading of the device from the rotation vector sensor (fused by the platform) when available, or else from the geomagnetic rotation
+ * vector sensor, or else from the accelerometer and magnetic field sensors.<br/>
+ * The heading is smoothed with a low-pass filter on the circle (driven by the event timestamps), and listeners are only called when it changed
+ * by more than {@link #MIN_HEADING_CHANGE_DEG} degrees, at most once every {@link #RATE} ms.
+ * Nothing is allocated per event.
+ */
 public class CompassManager {
     private static final CompassManager INSTANCE = new CompassManager();
     public static final int RATE = 400;
 
+    /**
+     * Sensor sampling period (about the same as {@link SensorManager#SENSOR_DELAY_UI}).
+     */
+    private static final int SENSOR_SAMPLING_PERIOD_US = 60 * 1000;
+
+    /**
+     * Let the sensors batch their values for up to one compass update.
+     */
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = RATE * 1000;
+
+    /**
+     * Time constant of the low-pass filter on the heading.
+     */
+    private static final double FILTER_TIME_CONSTANT_MS = 300;
+
+    /**
+     * Only call the listeners when the heading changed by more than this angle.
+     */
+    private static final float MIN_HEADING_CHANGE_DEG = 2;
+
     public static CompassManager get() {
         return INSTANCE;
     }
@@ -55,7 +85,26 @@ public class CompassManager {
         }
     };
 
-    protected float[] mLastAccelerometerValues;
+    // Preallocated computation buffers
+    private final float[] mRotationVector3 = new float[3];
+    private final float[] mRotationVector4 = new float[4];
+    private final float[] mLastAccelerometerValues = new float[3];
+    private final float[] mLastMagneticFieldValues = new float[3];
+    private final float[] mInR = new float[16];
+    private final float[] mOutR = new float[16];
+    private final float[] mDeviceOrientation = new float[3];
+    private boolean mHasAccelerometerValues;
+
+    // Filter
+    private boolean mHasHeading;
+    private long mLastTimestamp;
+    private double mFilteredSin;
+    private double mFilteredCos;
+
+    // Dispatch
+    private boolean mHasDispatched;
+    private long mLastDispatchTimestamp;
+    private double mLastDispatchedAzimuth;
 
     private CompassManager() {
         mContext = Application.getApplication();
@@ -71,57 +120,116 @@ public class CompassManager {
 
     protected void startListening() {
         Log.d();
+        mHasAccelerometerValues = false;
+        mHasHeading = false;
+        mHasDispatched = false;
         SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        sensorManager.registerListener(mAccelerometerSensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                SensorManager.SENSOR_DELAY_UI);
-        sensorManager.registerListener(mMagneticFieldSensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                SensorManager.SENSOR_DELAY_UI);
+        Sensor rotationVectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (rotationVectorSensor == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            rotationVectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR);
+        }
+        if (rotationVectorSensor != null) {
+            mRotationVectorSensorEventListener.register(sensorManager, rotationVectorSensor, SENSOR_SAMPLING_PERIOD_US, SENSOR_MAX_REPORT_LATENCY_US);
+        } else {
+            Log.d("No rotation vector sensor: using accelerometer and magnetic field");
+            mAccelerometerSensorEventListener.register(sensorManager, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
+                    SENSOR_SAMPLING_PERIOD_US, SENSOR_MAX_REPORT_LATENCY_US);
+            mMagneticFieldSensorEventListener.register(sensorManager, sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
+                    SENSOR_SAMPLING_PERIOD_US, SENSOR_MAX_REPORT_LATENCY_US);
+        }
     }
 
     protected void stopListening() {
         Log.d();
-        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        sensorManager.unregisterListener(mAccelerometerSensorEventListener);
-        sensorManager.unregisterListener(mMagneticFieldSensorEventListener);
+        mRotationVectorSensorEventListener.unregister();
+        mAccelerometerSensorEventListener.unregister();
+        mMagneticFieldSensorEventListener.unregister();
     }
 
-    private SensorEventListener mAccelerometerSensorEventListener = new SensorEventListener() {
+    private BatchedSensorListener mRotationVectorSensorEventListener = new BatchedSensorListener("compass rotation vector") {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            mLastAccelerometerValues = event.values.clone();
+        protected void onSensorEvent(@NonNull SensorEvent event, long timestamp) {
+            // Some devices give more than 4 values, which getRotationMatrixFromVector doesn't accept on all versions
+            float[] rotationVector;
+            if (event.values.length >= 4) {
+                System.arraycopy(event.values, 0, mRotationVector4, 0, 4);
+                rotationVector = mRotationVector4;
+            } else {
+                System.arraycopy(event.values, 0, mRotationVector3, 0, 3);
+                rotationVector = mRotationVector3;
+            }
+            SensorManager.getRotationMatrixFromVector(mInR, rotationVector);
+            onRotationMatrix(timestamp);
         }
 
         @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        protected void onBatchDelivered() {
+            dispatchIfChanged();
+        }
     };
 
-    private SensorEventListener mMagneticFieldSensorEventListener = new SensorEventListener() {
-        private float[] mInR = new float[16];
-        private float[] mOutR = new float[16];
-        private long mLastDate;
+    private BatchedSensorListener mAccelerometerSensorEventListener = new BatchedSensorListener("compass accelerometer") {
+        @Override
+        protected void onSensorEvent(@NonNull SensorEvent event, long timestamp) {
+            System.arraycopy(event.values, 0, mLastAccelerometerValues, 0, 3);
+            mHasAccelerometerValues = true;
+        }
+    };
 
+    private BatchedSensorListener mMagneticFieldSensorEventListener = new BatchedSensorListener("compass magnetic field") {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            //            Log.d();
-            //            if (event.accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) return;
-            if (System.currentTimeMillis() - mLastDate < RATE) return;
-            float[] values = event.values.clone();
-            mLastDate = System.currentTimeMillis();
-
-            if (mLastAccelerometerValues == null) return;
-            boolean ok = SensorManager.getRotationMatrix(mInR, null, mLastAccelerometerValues, values);
-            if (ok) {
-                SensorManager.remapCoordinateSystem(mInR, SensorManager.AXIS_X, SensorManager.AXIS_Z, mOutR);
-                float[] deviceOrientation = new float[3];
-                SensorManager.getOrientation(mOutR, deviceOrientation);
-                float azimuth = deviceOrientation[0];
-                float value = 1f - (float) (azimuth / (2 * Math.PI));
-
-                mListeners.dispatch(listener -> listener.onCompassChange(value));
-            }
+        protected void onSensorEvent(@NonNull SensorEvent event, long timestamp) {
+            if (!mHasAccelerometerValues) return;
+            System.arraycopy(event.values, 0, mLastMagneticFieldValues, 0, 3);
+            if (SensorManager.getRotationMatrix(mInR, null, mLastAccelerometerValues, mLastMagneticFieldValues)) onRotationMatrix(timestamp);
         }
 
         @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        protected void onBatchDelivered() {
+            dispatchIfChanged();
+        }
     };
+
+    /**
+     * Feed the azimuth of the rotation matrix in {@link #mInR} to the filter.
+     */
+    @MainThread
+    private void onRotationMatrix(long timestamp) {
+        SensorManager.remapCoordinateSystem(mInR, SensorManager.AXIS_X, SensorManager.AXIS_Z, mOutR);
+        SensorManager.getOrientation(mOutR, mDeviceOrientation);
+        double azimuth = mDeviceOrientation[0];
+
+        // Filter the sine and cosine rather than the angle, so that going from 359 to 1 degree doesn't go through 180
+        double sin = Math.sin(azimuth);
+        double cos = Math.cos(azimuth);
+        if (!mHasHeading) {
+            mHasHeading = true;
+            mFilteredSin = sin;
+            mFilteredCos = cos;
+        } else {
+            long dt = Math.max(0, timestamp - mLastTimestamp);
+            double alpha = dt / (FILTER_TIME_CONSTANT_MS + dt);
+            mFilteredSin += alpha * (sin - mFilteredSin);
+            mFilteredCos += alpha * (cos - mFilteredCos);
+        }
+        mLastTimestamp = timestamp;
+    }
+
+    @MainThread
+    private void dispatchIfChanged() {
+        if (!mHasHeading) return;
+        if (mHasDispatched && mLastTimestamp - mLastDispatchTimestamp < RATE) return;
+        double azimuth = Math.atan2(mFilteredSin, mFilteredCos);
+        if (mHasDispatched) {
+            double change = Math.abs(Math.toDegrees(azimuth - mLastDispatchedAzimuth)) % 360;
+            if (change > 180) change = 360 - change;
+            if (change < MIN_HEADING_CHANGE_DEG) return;
+        }
+        mHasDispatched = true;
+        mLastDispatchTimestamp = mLastTimestamp;
+        mLastDispatchedAzimuth = azimuth;
+
+        float value = 1f - (float) (azimuth / (2 * Math.PI));
+        mListeners.dispatch(listener -> listener.onCompassChange(value));
+    }
 }
@@ -33,6 +33,7 @@ import java.util.UUID;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderOperation.Builder;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
@@ -40,9 +41,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.RemoteException;
 
+import org.jraf.android.bikey.backend.log.LogManager;
 import org.jraf.android.bikey.backend.provider.BikeyProvider;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
 import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideCursor;
+import org.jraf.android.bikey.backend.provider.ride.RideSelection;
 import org.jraf.android.util.file.FileUtil;
 import org.jraf.android.util.io.IoUtil;
 import org.jraf.android.util.log.Log;
@@ -89,7 +94,38 @@ public class DatabaseImporter {
         insertUri = new Uri.Builder().authority(BikeyProvider.AUTHORITY).appendPath(LogColumns.TABLE_NAME)
                 .appendQueryParameter(BikeyProvider.QUERY_NOTIFY, "false").build();
         buildInsertOperations(context, dbImport, insertUri, LogColumns.TABLE_NAME, operations);
+        // The log archive table only exists since DB version 11
+        if (hasTable(dbImport, LogArchiveColumns.TABLE_NAME)) {
+            insertUri = new Uri.Builder().authority(BikeyProvider.AUTHORITY).appendPath(LogArchiveColumns.TABLE_NAME)
+                    .appendQueryParameter(BikeyProvider.QUERY_NOTIFY, "false").build();
+            buildInsertOperations(context, dbImport, insertUri, LogArchiveColumns.TABLE_NAME, operations);
+        }
         dbImport.close();
+        // The stats of the imported rides will be computed from their logs when needed
+        LogManager.get().invalidateAccumulator();
+        // The levels of detail are not imported: build them now, rather than when each ride is first displayed
+        buildLevelsOfDetail(context);
+    }
+
+    private static void buildLevelsOfDetail(Context context) {
+        ArrayList<Long> rideIds = new ArrayList<>();
+        RideCursor c = new RideSelection().query(context, new String[] {RideColumns._ID});
+        try {
+            while (c.moveToNext()) rideIds.add(c.getId());
+        } finally {
+            c.close();
+        }
+        LogManager logManager = LogManager.get();
+        for (long rideId : rideIds) logManager.buildLevelsOfDetail(ContentUris.withAppendedId(RideColumns.CONTENT_URI, rideId));
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name=?", new String[] {table});
+        try {
+            return c.moveToNext();
+        } finally {
+            c.close();
+        }
     }
 
     /**
@@ -107,7 +143,8 @@ public class DatabaseImporter {
                         Builder builder = ContentProviderOperation.newInsert(uri);
                         for (int i = 0; i < columnCount; i++) {
                             String columnName = c.getColumnName(i);
-                            Object value = c.getString(i);
+                            // Blobs (log archives) can't be read as strings
+                            Object value = c.getType(i) == Cursor.FIELD_TYPE_BLOB ? c.getBlob(i) : c.getString(i);
                             // The distance and duration columns of the log table
                             // were renamed to log_distance and log_duration,
                             // in DB version 5.
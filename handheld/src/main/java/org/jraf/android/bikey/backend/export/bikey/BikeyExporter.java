@@ -28,7 +28,6 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import android.content.ContentUris;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
@@ -36,9 +35,10 @@ import android.support.annotation.WorkerThread;
 
 import org.jraf.android.bikey.R;
 import org.jraf.android.bikey.backend.export.Exporter;
+import org.jraf.android.bikey.backend.log.LogIterator;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.LogRow;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
-import org.jraf.android.bikey.backend.provider.log.LogCursor;
-import org.jraf.android.bikey.backend.provider.log.LogSelection;
 import org.jraf.android.bikey.backend.provider.ride.RideCursor;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.util.datetime.DateTimeUtil;
@@ -71,12 +71,9 @@ public class BikeyExporter extends Exporter {
         String creationDate = DateTimeUtil.toIso8601(System.currentTimeMillis(), true);
 
         // Query
-        long rideId = ContentUris.parseId(getRideUri());
-        LogSelection logSelection = new LogSelection();
-        logSelection.rideId(rideId);
-        LogCursor logCursor = logSelection.query(getContext(), LogColumns.ALL_COLUMNS);
+        LogIterator logs = LogManager.get().iterateLogs(getRideUri());
 
-        int logCount = logCursor.getCount();
+        int logCount = logs.getCount();
         out.println(getString(R.string.export_bikey_begin, appVersion, creationDate, logCount));
 
         RideCursor rideCursor = RideManager.get().query(getRideUri());
@@ -86,12 +83,16 @@ public class BikeyExporter extends Exporter {
         // Logs
         out.println(getString(R.string.export_bikey_logs_begin));
 
-        while (logCursor.moveToNext()) {
-            out.println(getString(R.string.export_bikey_log_begin));
-            exportCursorRow(logCursor, out);
-            out.println(getString(R.string.export_bikey_log_end));
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                out.println(getString(R.string.export_bikey_log_begin));
+                exportLogRow(log, out);
+                out.println(getString(R.string.export_bikey_log_end));
+            }
+        } finally {
+            logs.close();
         }
-        logCursor.close();
 
         // End
         out.println(getString(R.string.export_bikey_logs_end));
@@ -106,7 +107,6 @@ public class BikeyExporter extends Exporter {
         for (int i = 0; i < rideCursorColumnCount; i++) {
             String rideColumnName = cursor.getColumnName(i);
             int rideColumnType = cursor.getType(i);
-            out.print("<" + rideColumnName + " type=\"" + rideColumnType + "\">");
             String value = null;
             switch (rideColumnType) {
                 case Cursor.FIELD_TYPE_NULL:
@@ -125,8 +125,54 @@ public class BikeyExporter extends Exporter {
                     value = String.valueOf(cursor.getLong(i));
                     break;
             }
-            out.print(value);
-            out.println("</" + rideColumnName + ">");
+            exportValue(rideColumnName, rideColumnType, value, out);
+        }
+    }
+
+    /**
+     * Same as {@link #exportCursorRow(Cursor, PrintWriter)}, with the types that the columns would have in a cursor.
+     */
+    private static void exportLogRow(LogRow log, PrintWriter out) {
+        exportValue(LogColumns._ID, Cursor.FIELD_TYPE_INTEGER, String.valueOf(log.getId()), out);
+        exportValue(LogColumns.RIDE_ID, Cursor.FIELD_TYPE_INTEGER, String.valueOf(log.getRideId()), out);
+        exportValue(LogColumns.RECORDED_DATE, Cursor.FIELD_TYPE_INTEGER, String.valueOf(log.getRecordedDate()), out);
+        exportValue(LogColumns.LAT, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getLat()), out);
+        exportValue(LogColumns.LON, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getLon()), out);
+        exportValue(LogColumns.ELE, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getEle()), out);
+        if (log.hasLogDuration()) {
+            exportValue(LogColumns.LOG_DURATION, Cursor.FIELD_TYPE_INTEGER, String.valueOf(log.getLogDuration()), out);
+        } else {
+            exportNull(LogColumns.LOG_DURATION, out);
+        }
+        if (log.hasLogDistance()) {
+            exportValue(LogColumns.LOG_DISTANCE, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getLogDistance()), out);
+        } else {
+            exportNull(LogColumns.LOG_DISTANCE, out);
+        }
+        if (log.hasSpeed()) {
+            exportValue(LogColumns.SPEED, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getSpeed()), out);
+        } else {
+            exportNull(LogColumns.SPEED, out);
         }
+        if (log.hasCadence()) {
+            exportValue(LogColumns.CADENCE, Cursor.FIELD_TYPE_FLOAT, String.valueOf(log.getCadence()), out);
+        } else {
+            exportNull(LogColumns.CADENCE, out);
+        }
+        if (log.hasHeartRate()) {
+            exportValue(LogColumns.HEART_RATE, Cursor.FIELD_TYPE_INTEGER, String.valueOf(log.getHeartRate()), out);
+        } else {
+            exportNull(LogColumns.HEART_RATE, out);
+        }
+    }
+
+    private static void exportNull(String columnName, PrintWriter out) {
+        exportValue(columnName, Cursor.FIELD_TYPE_NULL, "null", out);
+    }
+
+    private static void exportValue(String columnName, int columnType, String value, PrintWriter out) {
+        out.print("<" + columnName + " type=\"" + columnType + "\">");
+        out.print(value);
+        out.println("</" + columnName + ">");
     }
 }
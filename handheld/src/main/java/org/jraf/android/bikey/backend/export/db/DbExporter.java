@@ -32,6 +32,7 @@ import android.support.annotation.WorkerThread;
 
 import org.jraf.android.bikey.backend.export.Exporter;
 import org.jraf.android.bikey.backend.provider.BikeyProviderSQLiteOpenHelper;
+import org.jraf.android.bikey.backend.provider.BikeySQLiteOpenHelperCallbacks;
 import org.jraf.android.util.file.FileUtil;
 
 public class DbExporter extends Exporter {
@@ -47,6 +48,8 @@ public class DbExporter extends Exporter {
     @Override
     @WorkerThread
     public void export() throws IOException {
+        // The latest transactions may still be in the write-ahead log, next to the database file
+        BikeySQLiteOpenHelperCallbacks.checkpoint(getContext());
         File dbFile = getContext().getDatabasePath(BikeyProviderSQLiteOpenHelper.DATABASE_FILE_NAME);
         FileUtil.copy(dbFile, getExportFile());
     }
@@ -27,13 +27,14 @@ package org.jraf.android.bikey.backend.export.genymotion;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import android.content.ContentUris;
 import android.net.Uri;
 import android.support.annotation.WorkerThread;
 
 import org.jraf.android.bikey.backend.export.Exporter;
+import org.jraf.android.bikey.backend.log.LogIterator;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.LogRow;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
-import org.jraf.android.bikey.backend.provider.log.LogCursor;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.util.file.FileUtil;
 import org.jraf.android.util.io.IoUtil;
@@ -52,22 +53,20 @@ public class GenymotionExporter extends Exporter {
     @WorkerThread
     public void export() throws IOException {
         PrintWriter out = new PrintWriter(getOutputStream());
-        long rideId = ContentUris.parseId(getRideUri());
-        String selection = LogColumns.RIDE_ID + "=?";
-        String[] selectionArgs = { String.valueOf(rideId) };
-        LogCursor c = new LogCursor(getContext().getContentResolver().query(LogColumns.CONTENT_URI, null, selection, selectionArgs, null));
+        LogIterator logs = LogManager.get().iterateLogs(getRideUri(), LogColumns.LAT, LogColumns.LON, LogColumns.ELE);
         try {
-            while (c.moveToNext()) {
-                String lat = String.valueOf(c.getLat());
-                String lon = String.valueOf(c.getLon());
-                String ele = String.valueOf(c.getEle());
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                String lat = String.valueOf(log.getLat());
+                String lon = String.valueOf(log.getLon());
+                String ele = String.valueOf(log.getEle());
                 out.println("gps setlatitude " + lat);
                 out.println("gps setlongitude " + lon);
                 out.println("gps setaltitude " + ele);
                 out.println("pause 1");
             }
         } finally {
-            c.close();
+            logs.close();
         }
         IoUtil.closeSilently(out);
     }
@@ -27,14 +27,15 @@ package org.jraf.android.bikey.backend.export.gpx;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import android.content.ContentUris;
 import android.net.Uri;
 import android.support.annotation.WorkerThread;
 
 import org.jraf.android.bikey.R;
 import org.jraf.android.bikey.backend.export.Exporter;
+import org.jraf.android.bikey.backend.log.LogIterator;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.LogRow;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
-import org.jraf.android.bikey.backend.provider.log.LogCursor;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.util.datetime.DateTimeUtil;
 import org.jraf.android.util.file.FileUtil;
@@ -61,14 +62,12 @@ public class GpxExporter extends Exporter {
         String rideName = RideManager.get().getDisplayName(getRideUri());
         out.println(getString(R.string.export_gpx_begin, appName, rideName));
 
-        long rideId = ContentUris.parseId(getRideUri());
-        String selection = LogColumns.RIDE_ID + "=?";
-        String[] selectionArgs = { String.valueOf(rideId) };
         Long previousRecordedDate = null;
-        LogCursor c = new LogCursor(getContext().getContentResolver().query(LogColumns.CONTENT_URI, null, selection, selectionArgs, null));
+        LogIterator logs = LogManager.get().iterateLogs(getRideUri(), LogColumns.LAT, LogColumns.LON, LogColumns.ELE);
         try {
-            while (c.moveToNext()) {
-                long recordedDate = c.getRecordedDate().getTime();
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                long recordedDate = log.getRecordedDate();
                 // Track segment
                 if (previousRecordedDate == null) {
                     out.println(getString(R.string.export_gpx_trackSegment_begin));
@@ -78,16 +77,16 @@ public class GpxExporter extends Exporter {
                 }
 
                 // Track point
-                String lat = String.valueOf(c.getLat());
-                String lon = String.valueOf(c.getLon());
-                String ele = String.valueOf(c.getEle());
+                String lat = String.valueOf(log.getLat());
+                String lon = String.valueOf(log.getLon());
+                String ele = String.valueOf(log.getEle());
                 String dateTime = DateTimeUtil.toIso8601(recordedDate, true);
                 out.println(getString(R.string.export_gpx_trackPoint, lat, lon, ele, dateTime));
 
                 previousRecordedDate = recordedDate;
             }
         } finally {
-            c.close();
+            logs.close();
         }
         out.println(getString(R.string.export_gpx_trackSegment_end));
         out.println(getString(R.string.export_gpx_end));
@@ -28,14 +28,16 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
 
-import android.content.ContentUris;
 import android.net.Uri;
 import android.support.annotation.WorkerThread;
 
 import org.jraf.android.bikey.R;
 import org.jraf.android.bikey.backend.export.Exporter;
+import org.jraf.android.bikey.backend.log.LogIterator;
+import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.LogRow;
+import org.jraf.android.bikey.backend.log.RideSummary;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
-import org.jraf.android.bikey.backend.provider.log.LogCursor;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.util.datetime.DateTimeUtil;
 import org.jraf.android.util.file.FileUtil;
@@ -43,7 +45,6 @@ import org.jraf.android.util.io.IoUtil;
 import org.jraf.android.util.log.Log;
 
 public class KmlExporter extends Exporter {
-
     public KmlExporter(Uri rideUri) {
         super(rideUri);
     }
@@ -67,60 +68,50 @@ public class KmlExporter extends Exporter {
         String timestampNow = new Date().toString();
         String created = getString(R.string.export_kml_created, timestampNow);
         out.println(getString(R.string.export_kml_timestamp, created));
-        long rideId = ContentUris.parseId(rideUri);
-        String selection = LogColumns.RIDE_ID + "=?";
-        String[] selectionArgs = { String.valueOf(rideId) };
-        LogCursor c = new LogCursor(getContext().getContentResolver().query(LogColumns.CONTENT_URI, null, selection, selectionArgs, null));
-        try {
-            c.moveToFirst();
-            // Write the LookAt element, which contains the start and end timestamps, and the first coordinate.
-            long rideBeginDate = c.getRecordedDate().getTime();
-            long rideEndDate = rideBeginDate + RideManager.get().getDuration(rideUri);
-            String timestampBegin = DateTimeUtil.toIso8601(rideBeginDate, false);
-            String timestampEnd = DateTimeUtil.toIso8601(rideEndDate, false);
-            double firstLatitude = c.getLat();
-            double firstLongitude = c.getLon();
-            double range = 500;
-            out.println(getString(R.string.export_kml_look_at, timestampBegin, timestampEnd, firstLongitude, firstLatitude, range));
-
-            // Write the KML elements leading up to the list of track points.
-            out.println(getString(R.string.export_kml_style));
-            out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_folder_name)));
-
-            // Write out the Placemark for the track.
-            c.moveToPosition(-1);
-            writeTrackPlacemark(c, out, timestampBegin);
-
-            // Write out the Placemark for the LineString.
-            c.moveToPosition(-1);
-            writeLineStringPlacemark(c, out, timestampBegin);
-
-            // Write out the Placemark for the end Point.
-            c.moveToPosition(-1);
-            String placemarkName = getString(R.string.export_kml_point_name);
-            RideExtendedData rideExtendedData = new RideExtendedData(getContext(), rideUri);
-            c.moveToLast();
-            writePointPlacemark(rideExtendedData, c, out, placemarkName, Style.DEFAULT);
-
-            // Write out the cadence as a set of Placemarks
-            writeCadence(rideId, out);
-
-            // Write out the heart rate logs as a set of Placemarks
-            writeHeartRate(rideId, out);
-
-            // Write the KML elements to close the document.
-            out.println(getString(R.string.export_kml_folder_end));
-            out.println(getString(R.string.export_kml_document_end));
-        } finally {
-            c.close();
-        }
+        // Write the LookAt element, which contains the start and end timestamps, and the first coordinate.
+        RideSummary summary = LogManager.get().computeSummary(rideUri);
+        if (summary.getLogCount() == 0) throw new IOException("Ride " + rideUri + " has no logs");
+        long rideBeginDate = summary.getFirstLogDate();
+        double firstLatitude = summary.getStart().latitude;
+        double firstLongitude = summary.getStart().longitude;
+        long rideEndDate = rideBeginDate + RideManager.get().getDuration(rideUri);
+        String timestampBegin = DateTimeUtil.toIso8601(rideBeginDate, false);
+        String timestampEnd = DateTimeUtil.toIso8601(rideEndDate, false);
+        double range = 500;
+        out.println(getString(R.string.export_kml_look_at, timestampBegin, timestampEnd, firstLongitude, firstLatitude, range));
+
+        // Write the KML elements leading up to the list of track points.
+        out.println(getString(R.string.export_kml_style));
+        out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_folder_name)));
+
+        // Write out the Placemark for the track.
+        writeTrackPlacemark(rideUri, out, timestampBegin);
+
+        // Write out the Placemark for the LineString.
+        writeLineStringPlacemark(rideUri, out, timestampBegin);
+
+        // Write out the Placemark for the end Point.
+        String placemarkName = getString(R.string.export_kml_point_name);
+        RideExtendedData rideExtendedData = new RideExtendedData(getContext(), rideUri, summary);
+        writePointPlacemark(rideExtendedData, summary.getEnd().latitude, summary.getEnd().longitude, summary.getEndElevation(), out, placemarkName,
+                Style.DEFAULT);
+
+        // Write out the cadence as a set of Placemarks
+        writeCadence(rideUri, summary, out);
+
+        // Write out the heart rate logs as a set of Placemarks
+        writeHeartRate(rideUri, summary, out);
+
+        // Write the KML elements to close the document.
+        out.println(getString(R.string.export_kml_folder_end));
+        out.println(getString(R.string.export_kml_document_end));
         IoUtil.closeSilently(out);
     }
 
     /**
      * Write a Placemark which contains a gx:Track element
      */
-    private void writeTrackPlacemark(LogCursor c, PrintWriter out, String timestampBegin) {
+    private void writeTrackPlacemark(Uri rideUri, PrintWriter out, String timestampBegin) {
         Log.d();
         out.println(getString(R.string.export_kml_placemark_begin));
         String trackName = getString(R.string.export_kml_track_name, timestampBegin);
@@ -129,19 +120,26 @@ public class KmlExporter extends Exporter {
         out.println(getString(R.string.export_kml_track_begin));
 
         // Write the timestamps for each track point
-        while (c.moveToNext()) {
-            long recordedDate = c.getRecordedDate().getTime();
-            String dateTime = DateTimeUtil.toIso8601(recordedDate, true);
-            out.println(getString(R.string.export_kml_when, dateTime));
+        LogIterator logs = LogManager.get().iterateLogs(rideUri, LogColumns.RECORDED_DATE);
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                String dateTime = DateTimeUtil.toIso8601(log.getRecordedDate(), true);
+                out.println(getString(R.string.export_kml_when, dateTime));
+            }
+        } finally {
+            logs.close();
         }
 
         // Write the coordinates for each track point
-        c.moveToPosition(-1);
-        while (c.moveToNext()) {
-            double latitude = c.getLat();
-            double longitude = c.getLon();
-            double elevation = c.getEle();
-            out.println(getString(R.string.export_kml_coord, longitude, latitude, elevation));
+        logs = LogManager.get().iterateLogs(rideUri, LogColumns.LAT, LogColumns.LON, LogColumns.ELE);
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                out.println(getString(R.string.export_kml_coord, log.getLon(), log.getLat(), log.getEle()));
+            }
+        } finally {
+            logs.close();
         }
 
         out.println(getString(R.string.export_kml_track_end));
@@ -151,36 +149,36 @@ public class KmlExporter extends Exporter {
     /**
      * Write a Placemark which contains a LineString element.
      */
-    private void writeLineStringPlacemark(LogCursor c, PrintWriter out, String timestampBegin) {
+    private void writeLineStringPlacemark(Uri rideUri, PrintWriter out, String timestampBegin) {
         Log.d();
         out.println(getString(R.string.export_kml_placemark_begin));
         String linestringName = getString(R.string.export_kml_linestring_name, timestampBegin);
         out.println(getString(R.string.export_kml_name, linestringName));
         out.println(getString(R.string.export_kml_track_style_url));
         out.println(getString(R.string.export_kml_linestring_begin));
-        c.moveToPosition(-1);
-        while (c.moveToNext()) {
-            double latitude = c.getLat();
-            double longitude = c.getLon();
-            double elevation = c.getEle();
-            out.println(longitude + "," + latitude + "," + elevation + " ");
+        LogIterator logs = LogManager.get().iterateLogs(rideUri, LogColumns.LAT, LogColumns.LON, LogColumns.ELE);
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                out.println(log.getLon() + "," + log.getLat() + "," + log.getEle() + " ");
+            }
+        } finally {
+            logs.close();
         }
         out.println(getString(R.string.export_kml_linestring_end));
         out.println(getString(R.string.export_kml_placemark_end));
     }
 
     /**
-     * Write a Placemark which contains a Point element corresponding to the last track point.
+     * Write a Placemark which contains a Point element.
      */
-    private void writePointPlacemark(RideExtendedData rideExtendedData, LogCursor c, PrintWriter out, String placemarkName, Style style) {
+    private void writePointPlacemark(RideExtendedData rideExtendedData, double latitude, double longitude, double elevation, PrintWriter out,
+                                     String placemarkName, Style style) {
         Log.d();
         out.println(getString(R.string.export_kml_placemark_begin));
         out.println(getString(R.string.export_kml_name, placemarkName));
         if (style != Style.DEFAULT) out.println(getString(style.getResId()));
         out.println(getString(R.string.export_kml_point_begin));
-        double latitude = c.getLat();
-        double longitude = c.getLon();
-        double elevation = c.getEle();
         out.println(longitude + "," + latitude + "," + elevation + " ");
         out.println(getString(R.string.export_kml_point_end));
         if (rideExtendedData != null) out.println(rideExtendedData.toString());
@@ -190,64 +188,58 @@ public class KmlExporter extends Exporter {
     /**
      * Write a folder containing all the cadence points
      */
-    private void writeCadence(long rideId, PrintWriter out) {
+    private void writeCadence(Uri rideUri, RideSummary summary, PrintWriter out) {
         Log.d();
-        String selection = LogColumns.RIDE_ID + "=? AND " + LogColumns.CADENCE + " NOT NULL";
-        String[] selectionArgs = { String.valueOf(rideId) };
-        LogCursor c = new LogCursor(getContext().getContentResolver().query(LogColumns.CONTENT_URI, null, selection, selectionArgs, LogColumns.RECORDED_DATE));
-        if (c != null) {
-            try {
-                // Only write out cadence if we have enough values.
-                if (c.getCount() < 5) return;
-                out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_cadence_folder_name)));
-                int previousCadence = 0;
-                while (c.moveToNext()) {
-                    int cadence = c.getCadence().intValue();
-                    if (cadence != previousCadence) {
-                        Style style = Style.RED;
-                        if (cadence > 80) style = Style.GREEN;
-                        else if (cadence >= 60) style = Style.YELLOW;
-                        writePointPlacemark(null, c, out, String.valueOf(cadence), style);
-                        previousCadence = cadence;
-                    }
+        // Only write out cadence if we have enough values.
+        if (summary.getCadenceCount() < 5) return;
+        out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_cadence_folder_name)));
+        int previousCadence = 0;
+        LogIterator logs = LogManager.get().iterateLogs(rideUri, LogColumns.LAT, LogColumns.LON, LogColumns.ELE, LogColumns.CADENCE);
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                if (!log.hasCadence()) continue;
+                int cadence = (int) log.getCadence();
+                if (cadence != previousCadence) {
+                    Style style = Style.RED;
+                    if (cadence > 80) style = Style.GREEN;
+                    else if (cadence >= 60) style = Style.YELLOW;
+                    writePointPlacemark(null, log.getLat(), log.getLon(), log.getEle(), out, String.valueOf(cadence), style);
+                    previousCadence = cadence;
                 }
-                out.println(getString(R.string.export_kml_folder_end));
-            } finally {
-                c.close();
             }
+        } finally {
+            logs.close();
         }
-
+        out.println(getString(R.string.export_kml_folder_end));
     }
 
     /**
      * Write a folder containing all the heart rate points
      */
-    private void writeHeartRate(long rideId, PrintWriter out) {
+    private void writeHeartRate(Uri rideUri, RideSummary summary, PrintWriter out) {
         Log.d();
-        String selection = LogColumns.RIDE_ID + "=? AND " + LogColumns.HEART_RATE + " NOT NULL";
-        String[] selectionArgs = { String.valueOf(rideId) };
-        LogCursor c = new LogCursor(getContext().getContentResolver().query(LogColumns.CONTENT_URI, null, selection, selectionArgs, LogColumns.RECORDED_DATE));
-        if (c != null) {
-            try {
-                // Only write out heart rate if we have enough values.
-                if (c.getCount() < 5) return;
-                out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_heart_rate_folder_name)));
-                int previousHeartRate = 0;
-                while (c.moveToNext()) {
-                    int heartRate = c.getHeartRate();
-                    if (heartRate != previousHeartRate) {
-                        Style style = Style.RED;
-                        if (heartRate > 100) style = Style.GREEN;
-                        else if (heartRate >= 60) style = Style.YELLOW;
-                        writePointPlacemark(null, c, out, String.valueOf(heartRate), style);
-                        previousHeartRate = heartRate;
-                    }
+        // Only write out heart rate if we have enough values.
+        if (summary.getHeartRateCount() < 5) return;
+        out.println(getString(R.string.export_kml_folder_begin, getString(R.string.export_kml_heart_rate_folder_name)));
+        int previousHeartRate = 0;
+        LogIterator logs = LogManager.get().iterateLogs(rideUri, LogColumns.LAT, LogColumns.LON, LogColumns.ELE, LogColumns.HEART_RATE);
+        try {
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                if (!log.hasHeartRate()) continue;
+                int heartRate = log.getHeartRate();
+                if (heartRate != previousHeartRate) {
+                    Style style = Style.RED;
+                    if (heartRate > 100) style = Style.GREEN;
+                    else if (heartRate >= 60) style = Style.YELLOW;
+                    writePointPlacemark(null, log.getLat(), log.getLon(), log.getEle(), out, String.valueOf(heartRate), style);
+                    previousHeartRate = heartRate;
                 }
-                out.println(getString(R.string.export_kml_folder_end));
-            } finally {
-                c.close();
             }
+        } finally {
+            logs.close();
         }
-
+        out.println(getString(R.string.export_kml_folder_end));
     }
 }
@@ -28,7 +28,7 @@ import android.content.Context;
 import android.net.Uri;
 
 import org.jraf.android.bikey.R;
-import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.log.RideSummary;
 import org.jraf.android.bikey.backend.ride.RideManager;
 import org.jraf.android.bikey.common.UnitUtil;
 import org.jraf.android.util.datetime.DateTimeUtil;
@@ -45,12 +45,12 @@ class RideExtendedData {
     private final float avgMovingSpeed;
     private final Context context;
 
-    RideExtendedData(Context context, Uri rideUri) {
+    RideExtendedData(Context context, Uri rideUri, RideSummary summary) {
         this.context = context;
         displayName = RideManager.get().getDisplayName(rideUri);
-        totalDistance = LogManager.get().getTotalDistance(rideUri);
+        totalDistance = summary.getDistance();
         duration = RideManager.get().getDuration(rideUri);
-        avgMovingSpeed = LogManager.get().getAverageMovingSpeed(rideUri);
+        avgMovingSpeed = summary.getAverageMovingSpeed();
     }
 
     @Override
@@ -33,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import android.content.ContentUris;
 import android.content.Context;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 
@@ -209,8 +210,7 @@ public class GoogleDriveSyncManager {
     @WorkerThread
     private ArrayList<String> getLocallyDeletedItems() {
         Log.d();
-        RideSelection rideSelection = new RideSelection();
-        rideSelection.state(RideState.DELETED);
+        RideSelection rideSelection = newDeletedRidesSelection();
         RideCursor c = rideSelection.query(mContext);
         ArrayList<String> res = new ArrayList<>();
         while (c.moveToNext()) {
@@ -272,11 +272,20 @@ public class GoogleDriveSyncManager {
         return true;
     }
 
+    /**
+     * Selects the rides deleted locally (also checked by TestQueryPlans, which makes sure it doesn't scan the table).
+     */
+    @NonNull
+    public static RideSelection newDeletedRidesSelection() {
+        RideSelection res = new RideSelection();
+        res.state(RideState.DELETED);
+        return res;
+    }
+
     @WorkerThread
     private void purgeLocallyDeletedItems() {
         Log.d();
-        RideSelection rideSelection = new RideSelection();
-        rideSelection.state(RideState.DELETED);
+        RideSelection rideSelection = newDeletedRidesSelection();
         rideSelection.delete(mContext);
     }
 
@@ -0,0 +1,114 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+/**
+ * Request fixes less often when going slowly, and rarely when stationary.<br/>
+ * <ul>
+ * <li>While moving, the interval is chosen so that there are about {@link #TARGET_DISTANCE_M} meters between fixes, within
+ * [{@link #MOVING_INTERVAL_MIN_MS}, {@link #MOVING_INTERVAL_MAX_MS}].</li>
+ * <li>After {@link #STATIONARY_DELAY_MS} under {@link LocationManager#SPEED_MIN_THRESHOLD_M_S}, the device is considered stationary and the
+ * stationary interval is used.</li>
+ * <li>As soon as a fix is over the threshold, or motion is detected, the minimum interval is used again.</li>
+ * </ul>
+ * The speed is estimated with a {@link LocationKalmanFilter}, so a single noisy fix doesn't change the interval.
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy {
+    private static final long MOVING_INTERVAL_MIN_MS = 1000;
+    private static final long MOVING_INTERVAL_MAX_MS = 3000;
+    private static final float TARGET_DISTANCE_M = 8;
+    private static final long STATIONARY_DELAY_MS = 60 * 1000;
+
+    private final long mStationaryInterval;
+    private final LocationKalmanFilter mFilter = new LocationKalmanFilter();
+
+    private long mInterval;
+    private boolean mStationary;
+    private long mSlowSince;
+
+    /**
+     * @param stationaryInterval Interval to use when stationary, in milliseconds.
+     */
+    public AdaptiveSamplingPolicy(long stationaryInterval) {
+        mStationaryInterval = stationaryInterval;
+        reset(0);
+    }
+
+    @Override
+    public void reset(long now) {
+        mInterval = MOVING_INTERVAL_MIN_MS;
+        mStationary = false;
+        mSlowSince = now;
+        mFilter.reset();
+    }
+
+    @Override
+    public void onLocation(@NonNull Location location, long now) {
+        mFilter.update(location);
+        float speed = mFilter.getSpeed();
+
+        if (speed < LocationManager.SPEED_MIN_THRESHOLD_M_S) {
+            if (mStationary) return;
+            if (now - mSlowSince >= STATIONARY_DELAY_MS) {
+                mStationary = true;
+                mInterval = mStationaryInterval;
+            } else {
+                mInterval = MOVING_INTERVAL_MIN_MS;
+            }
+            return;
+        }
+
+        mStationary = false;
+        mSlowSince = now;
+        long interval = (long) (TARGET_DISTANCE_M / speed * 1000);
+        mInterval = Math.max(MOVING_INTERVAL_MIN_MS, Math.min(MOVING_INTERVAL_MAX_MS, interval));
+    }
+
+    @Override
+    public void onMotion(long now) {
+        if (!mStationary) return;
+        mStationary = false;
+        mSlowSince = now;
+        mInterval = MOVING_INTERVAL_MIN_MS;
+    }
+
+    @Override
+    public long getInterval() {
+        return mInterval;
+    }
+
+    @Override
+    public boolean isStationary() {
+        return mStationary;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveSamplingPolicy [mStationaryInterval=" + mStationaryInterval + ", mInterval=" + mInterval + ", mStationary=" + mStationary + "]";
+    }
+}
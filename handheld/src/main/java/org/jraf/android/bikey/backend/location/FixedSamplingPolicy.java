@@ -0,0 +1,63 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+/**
+ * Always request fixes at the same interval.
+ */
+public class FixedSamplingPolicy implements SamplingPolicy {
+    private final long mInterval;
+
+    public FixedSamplingPolicy(long interval) {
+        mInterval = interval;
+    }
+
+    @Override
+    public void reset(long now) {}
+
+    @Override
+    public void onLocation(@NonNull Location location, long now) {}
+
+    @Override
+    public void onMotion(long now) {}
+
+    @Override
+    public long getInterval() {
+        return mInterval;
+    }
+
+    @Override
+    public boolean isStationary() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedSamplingPolicy [mInterval=" + mInterval + "]";
+    }
+}
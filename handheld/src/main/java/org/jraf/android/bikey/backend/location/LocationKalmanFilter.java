@@ -0,0 +1,240 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+/**
+ * Constant velocity Kalman filter estimating the position and velocity from GPS fixes.<br/>
+ * Positions are converted to meters on a plane tangent to the Earth around a local origin, and each axis (east, north, altitude) is filtered
+ * independently, with a {position, velocity} state.
+ * The reported accuracy of each fix is used as the variance of its position, and its speed / bearing (when present) are used as a velocity
+ * measurement.<br/>
+ * All the state is kept in primitive fields: updating the filter doesn't allocate.
+ * This class is not thread safe.
+ */
+class LocationKalmanFilter {
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    /**
+     * Standard deviation of the acceleration, in m/s². Higher values follow speed changes faster, but smooth less.
+     */
+    private static final double ACCELERATION_STD_DEV = 1.5;
+    private static final double ACCELERATION_VARIANCE = ACCELERATION_STD_DEV * ACCELERATION_STD_DEV;
+
+    /**
+     * Accuracy used for fixes that don't have one, in meters.
+     */
+    private static final float DEFAULT_ACCURACY_M = 20;
+
+    /**
+     * Altitudes given by GPS are less accurate than horizontal positions.
+     */
+    private static final double ALTITUDE_ACCURACY_FACTOR = 1.5;
+
+    /**
+     * Variance of the speed reported by the GPS (which is measured from the Doppler shift, and more accurate than the position), in (m/s)².
+     */
+    private static final double SPEED_VARIANCE = 1;
+
+    /**
+     * After this duration without fixes, the filter starts over.
+     */
+    private static final long MAX_GAP_MS = 10 * 1000;
+
+    /**
+     * The origin is moved when the estimated position is further than this, to keep the plane approximation valid.
+     */
+    private static final double MAX_DISTANCE_FROM_ORIGIN_M = 5000;
+
+    /**
+     * State and covariance of one axis.
+     */
+    private static class Axis {
+        double position;
+        double velocity;
+        double p00;
+        double p01;
+        double p11;
+
+        void init(double position, double positionVariance) {
+            this.position = position;
+            velocity = 0;
+            p00 = positionVariance;
+            p01 = 0;
+            // Nothing is known about the velocity yet
+            p11 = 100;
+        }
+
+        void predict(double dt) {
+            position += velocity * dt;
+            double dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + ACCELERATION_VARIANCE * dt2 * dt / 3;
+            p01 += dt * p11 + ACCELERATION_VARIANCE * dt2 / 2;
+            p11 += ACCELERATION_VARIANCE * dt;
+        }
+
+        void updatePosition(double measured, double variance) {
+            double s = p00 + variance;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double innovation = measured - position;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+
+        void updateVelocity(double measured, double variance) {
+            double s = p11 + variance;
+            double k0 = p01 / s;
+            double k1 = p11 / s;
+            double innovation = measured - velocity;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p00 -= k0 * p01;
+            p01 -= k1 * p01;
+            p11 -= k1 * p11;
+        }
+    }
+
+    private final Axis mEast = new Axis();
+    private final Axis mNorth = new Axis();
+    private final Axis mAltitude = new Axis();
+
+    private boolean mHasEstimate;
+    private long mLastTime;
+    private double mOriginLat;
+    private double mOriginLon;
+    private double mMetersPerDegreeLon;
+
+    /**
+     * Forget the current estimate: the next fix is taken as is.
+     */
+    void reset() {
+        mHasEstimate = false;
+    }
+
+    void update(@NonNull Location location) {
+        long time = location.getTime();
+        double accuracy = location.hasAccuracy() ? location.getAccuracy() : DEFAULT_ACCURACY_M;
+        double variance = accuracy * accuracy;
+        double altitudeVariance = variance * ALTITUDE_ACCURACY_FACTOR * ALTITUDE_ACCURACY_FACTOR;
+
+        if (!mHasEstimate || Math.abs(time - mLastTime) > MAX_GAP_MS) {
+            setOrigin(location.getLatitude(), location.getLongitude());
+            mEast.init(0, variance);
+            mNorth.init(0, variance);
+            mAltitude.init(location.getAltitude(), altitudeVariance);
+            mHasEstimate = true;
+            mLastTime = time;
+        } else {
+            if (time > mLastTime) {
+                double dt = (time - mLastTime) / 1000d;
+                mEast.predict(dt);
+                mNorth.predict(dt);
+                mAltitude.predict(dt);
+                mLastTime = time;
+            }
+            mEast.updatePosition((location.getLongitude() - mOriginLon) * mMetersPerDegreeLon, variance);
+            mNorth.updatePosition((location.getLatitude() - mOriginLat) * METERS_PER_DEGREE, variance);
+            if (location.hasAltitude()) mAltitude.updatePosition(location.getAltitude(), altitudeVariance);
+        }
+
+        if (location.hasSpeed()) {
+            double speed = location.getSpeed();
+            if (location.hasBearing()) {
+                double bearing = Math.toRadians(location.getBearing());
+                mEast.updateVelocity(speed * Math.sin(bearing), SPEED_VARIANCE);
+                mNorth.updateVelocity(speed * Math.cos(bearing), SPEED_VARIANCE);
+            } else {
+                // No direction: use the estimated one
+                double estimatedSpeed = getSpeedInternal();
+                if (estimatedSpeed > LocationManager.SPEED_MIN_THRESHOLD_M_S) {
+                    mEast.updateVelocity(speed * mEast.velocity / estimatedSpeed, SPEED_VARIANCE);
+                    mNorth.updateVelocity(speed * mNorth.velocity / estimatedSpeed, SPEED_VARIANCE);
+                }
+            }
+        }
+
+        if (Math.abs(mEast.position) > MAX_DISTANCE_FROM_ORIGIN_M || Math.abs(mNorth.position) > MAX_DISTANCE_FROM_ORIGIN_M) {
+            setOrigin(getLatitude(), getLongitude());
+            mEast.position = 0;
+            mNorth.position = 0;
+        }
+    }
+
+    private void setOrigin(double lat, double lon) {
+        mOriginLat = lat;
+        mOriginLon = lon;
+        mMetersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+    }
+
+    private double getSpeedInternal() {
+        return Math.sqrt(mEast.velocity * mEast.velocity + mNorth.velocity * mNorth.velocity);
+    }
+
+    boolean hasEstimate() {
+        return mHasEstimate;
+    }
+
+    /**
+     * @return The estimated horizontal speed, in m/s.
+     */
+    float getSpeed() {
+        if (!mHasEstimate) return 0;
+        return (float) getSpeedInternal();
+    }
+
+    /**
+     * @return The estimated heading, in degrees east of true north, in [0, 360[.
+     */
+    float getHeading() {
+        if (!mHasEstimate) return 0;
+        double heading = Math.toDegrees(Math.atan2(mEast.velocity, mNorth.velocity));
+        if (heading < 0) heading += 360;
+        return (float) heading;
+    }
+
+    double getLatitude() {
+        return mOriginLat + mNorth.position / METERS_PER_DEGREE;
+    }
+
+    double getLongitude() {
+        return mOriginLon + mEast.position / mMetersPerDegreeLon;
+    }
+
+    double getAltitude() {
+        return mAltitude.position;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationKalmanFilter [speed=" + getSpeed() + ", heading=" + getHeading() + ", lat=" + getLatitude() + ", lon=" + getLongitude()
+                + ", alt=" + getAltitude() + "]";
+    }
+}
@@ -24,13 +24,19 @@
  */
 package org.jraf.android.bikey.backend.location;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.content.Context;
 import android.location.Location;
 import android.location.LocationListener;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
 
 import org.jraf.android.bikey.app.Application;
+import org.jraf.android.bikey.util.AtomicListeners;
 import org.jraf.android.util.handler.HandlerUtil;
 import org.jraf.android.util.listeners.Listeners;
 import org.jraf.android.util.log.Log;
@@ -44,9 +50,15 @@ public class LocationManager {
         void onActivityRecognized(int activityType, int confidence);
     }
 
+    public static interface SamplingListener {
+        void onSamplingChanged(long interval, boolean stationary);
+    }
+
     private static final LocationManager INSTANCE = new LocationManager();
 
     private static final int INTERVAL_LOC_REQUEST = 1000;
+    private static final long INTERVAL_STATIONARY = 30 * 1000;
+    private static final long INTERVAL_STATIONARY_NO_MOTION_SENSOR = 10 * 1000;
     private static final int ALLOWED_LOC_MISSES = 8;
 
     protected static final float ACCURACY_THRESHOLD_M = 20;
@@ -68,9 +80,18 @@ public class LocationManager {
     private Handler mHandler;
     private boolean mActive = false;
     private int mIgnoreLocationCount = IGNORE_LOCATION_COUNT;
+    private final SignificantMotionDetector mSignificantMotionDetector;
+    private volatile SamplingPolicy mSamplingPolicy;
+    private volatile long mInterval = INTERVAL_LOC_REQUEST;
+    private boolean mStationary;
+    private final AtomicInteger mGpsUsers = new AtomicInteger();
+    private boolean mGpsRequested;
 
     private LocationManager() {
         mContext = Application.getApplication();
+        mSignificantMotionDetector = new SignificantMotionDetector(mContext, this::onMotion);
+        mSamplingPolicy = new AdaptiveSamplingPolicy(
+                mSignificantMotionDetector.isAvailable() ? INTERVAL_STATIONARY : INTERVAL_STATIONARY_NO_MOTION_SENSOR);
     }
 
 
@@ -79,69 +100,21 @@ public class LocationManager {
      */
 
     public void addLocationListener(LocationListener listener) {
-        mLocationListeners.add(listener);
+        if (mLocationListeners.add(listener)) {
+            Log.d("First location listener");
+            mIgnoreLocationCount = IGNORE_LOCATION_COUNT;
+            acquireGps();
+        }
     }
 
     public void removeLocationListener(LocationListener listener) {
-        mLocationListeners.remove(listener);
-    }
-
-    private Listeners<LocationListener> mLocationListeners = new Listeners<LocationListener>() {
-        @Override
-        protected void onFirstListener() {
-            Log.d("First location listener, start location listener");
-            startLocationListener();
-        }
-
-        @Override
-        protected void onNoMoreListeners() {
-            Log.d("No more location listeners, stop location listener");
-            stopLocationListener();
+        if (mLocationListeners.remove(listener)) {
+            Log.d("No more location listeners");
+            releaseGps();
         }
-    };
-
-    private void startLocationListener() {
-        Log.d();
-        mIgnoreLocationCount = IGNORE_LOCATION_COUNT;
-        HandlerUtil.getMainHandler().post(() -> {
-            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-            locationManager.removeUpdates(mGpsLocationListener);
-            locationManager.requestLocationUpdates(android.location.LocationManager.GPS_PROVIDER, INTERVAL_LOC_REQUEST, 0, mGpsLocationListener);
-        });
     }
 
-    private void stopLocationListener() {
-        Log.d();
-        HandlerUtil.getMainHandler().post(() -> {
-            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-            locationManager.removeUpdates(mGpsLocationListener);
-        });
-    }
-
-    private android.location.LocationListener mGpsLocationListener = new android.location.LocationListener() {
-        @Override
-        public void onStatusChanged(String provider, int status, Bundle extras) {
-            Log.d("status=" + status);
-        }
-
-        @Override
-        public void onProviderEnabled(String provider) {
-            Log.d("provider=" + provider);
-        }
-
-        @Override
-        public void onProviderDisabled(String provider) {
-            Log.d("provider=" + provider);
-        }
-
-        @Override
-        public void onLocationChanged(Location location) {
-            // For some reason, the time seems to have a 1 second precision.
-            // Use the system time instead.
-            location.setTime(System.currentTimeMillis());
-            mLocationListener.onLocationChanged(location);
-        }
-    };
+    private final AtomicListeners<LocationListener> mLocationListeners = new AtomicListeners<>();
 
     private LocationListener mLocationListener = new LocationListener() {
         @Override
@@ -159,7 +132,7 @@ public class LocationManager {
             }
 
             // Dispatch to listeners
-            mLocationListeners.dispatch(listener -> listener.onLocationChanged(location));
+            mLocationListeners.dispatch(LocationListener::onLocationChanged, location);
         }
 
         @Override
@@ -178,46 +151,104 @@ public class LocationManager {
      */
 
     public void addStatusListener(StatusListener listener) {
-        mStatusListeners.add(listener);
+        if (mStatusListeners.add(listener)) {
+            Log.d("First status listener");
+            setActive(false);
+            acquireGps();
+        }
     }
 
     public void removeStatusListener(StatusListener listener) {
-        mStatusListeners.remove(listener);
+        if (mStatusListeners.remove(listener)) {
+            Log.d("No more status listeners");
+            releaseGps();
+        }
     }
 
-    private Listeners<StatusListener> mStatusListeners = new Listeners<StatusListener>() {
-        @Override
-        protected void onFirstListener() {
-            Log.d("First status listener, start gps location listener");
-            startGpsLocationListener();
+    private final AtomicListeners<StatusListener> mStatusListeners = new AtomicListeners<>();
+
+    private void onFix() {
+        mLastFixDate = System.currentTimeMillis();
+        // We just received a fix so we're active
+        setActive(true);
+
+        // Schedule to check if we're still active
+        getHandler().removeCallbacks(mCheckForActiveRunnable);
+        getHandler().postDelayed(mCheckForActiveRunnable, mInterval * ALLOWED_LOC_MISSES);
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler();
         }
+        return mHandler;
+    }
 
+    protected Runnable mCheckForActiveRunnable = new Runnable() {
         @Override
-        protected void onNoMoreListeners() {
-            Log.d("No more status listeners, stop gps location listener");
-            stopGpsLocationListener();
+        public void run() {
+            if (System.currentTimeMillis() - mLastFixDate >= mInterval * ALLOWED_LOC_MISSES) {
+                setActive(false);
+            }
         }
     };
 
-    private void startGpsLocationListener() {
-        Log.d();
-        setActive(false);
-        HandlerUtil.getMainHandler().post(() -> {
-            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-            locationManager.removeUpdates(mGpsStatusLocationListener);
-            locationManager.requestLocationUpdates(android.location.LocationManager.GPS_PROVIDER, INTERVAL_LOC_REQUEST, 0, mGpsStatusLocationListener);
-        });
+    protected void setActive(boolean active) {
+        if (mActive != active) {
+            // Dispatch to listeners
+            mStatusListeners.dispatch(StatusListener::onStatusChanged, active);
+        }
+        mActive = active;
     }
 
-    private void stopGpsLocationListener() {
-        Log.d();
-        HandlerUtil.getMainHandler().post(() -> {
-            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-            locationManager.removeUpdates(mGpsStatusLocationListener);
-        });
+
+    /*
+     * Gps.
+     * There is a single GPS subscription, shared by the location and status listeners.
+     */
+
+    /**
+     * Called when a list of listeners gets its first listener.
+     */
+    private void acquireGps() {
+        // Only bother the main thread when the subscription needs to be started
+        if (mGpsUsers.getAndIncrement() == 0) HandlerUtil.getMainHandler().post(mUpdateGpsSubscriptionRunnable);
+    }
+
+    /**
+     * Called when a list of listeners loses its last listener.
+     */
+    private void releaseGps() {
+        // Only bother the main thread when the subscription needs to be stopped
+        if (mGpsUsers.decrementAndGet() == 0) HandlerUtil.getMainHandler().post(mUpdateGpsSubscriptionRunnable);
     }
 
-    private android.location.LocationListener mGpsStatusLocationListener = new android.location.LocationListener() {
+    /**
+     * Start or stop the subscription according to the current number of users.<br/>
+     * This doesn't depend on the order in which it is posted, so concurrent acquire / release calls can't leave it in the wrong state.
+     */
+    private final Runnable mUpdateGpsSubscriptionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean needed = mGpsUsers.get() > 0;
+            if (needed == mGpsRequested) return;
+            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+            if (needed) {
+                Log.d("Start gps location listener");
+                mGpsRequested = true;
+                resetSampling();
+                locationManager.requestLocationUpdates(android.location.LocationManager.GPS_PROVIDER, mInterval, 0, mGpsLocationListener);
+            } else {
+                Log.d("Stop gps location listener");
+                mGpsRequested = false;
+                locationManager.removeUpdates(mGpsLocationListener);
+                mSignificantMotionDetector.stop();
+                getHandler().removeCallbacks(mCheckForActiveRunnable);
+            }
+        }
+    };
+
+    private android.location.LocationListener mGpsLocationListener = new android.location.LocationListener() {
         @Override
         public void onStatusChanged(String provider, int status, Bundle extras) {
             Log.d("status=" + status);
@@ -235,37 +266,96 @@ public class LocationManager {
 
         @Override
         public void onLocationChanged(Location location) {
-            mLastFixDate = System.currentTimeMillis();
-            // We just received a fix so we're active
-            setActive(true);
-
-            // Schedule to check if we're still active
-            getHandler().removeCallbacks(mCheckForActiveRunnable);
-            getHandler().postDelayed(mCheckForActiveRunnable, INTERVAL_LOC_REQUEST * ALLOWED_LOC_MISSES);
+            // For some reason, the time seems to have a 1 second precision.
+            // Use the system time instead.
+            location.setTime(System.currentTimeMillis());
+            onSample(location);
+            onFix();
+            if (mLocationListeners.size() > 0) mLocationListener.onLocationChanged(location);
         }
     };
 
-    private Handler getHandler() {
-        if (mHandler == null) {
-            mHandler = new Handler();
-        }
-        return mHandler;
+
+    /*
+     * Sampling.
+     */
+
+    /**
+     * Change the policy deciding how often fixes are requested.
+     */
+    public void setSamplingPolicy(@NonNull SamplingPolicy samplingPolicy) {
+        HandlerUtil.getMainHandler().post(() -> {
+            Log.d("samplingPolicy=" + samplingPolicy);
+            mSamplingPolicy = samplingPolicy;
+            resetSampling();
+        });
     }
 
-    protected Runnable mCheckForActiveRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (System.currentTimeMillis() - mLastFixDate >= INTERVAL_LOC_REQUEST * ALLOWED_LOC_MISSES) {
-                setActive(false);
-            }
+    @NonNull
+    public SamplingPolicy getSamplingPolicy() {
+        return mSamplingPolicy;
+    }
+
+    /**
+     * @return the interval at which fixes are currently requested, in milliseconds.
+     */
+    public long getSamplingInterval() {
+        return mInterval;
+    }
+
+    public void addSamplingListener(SamplingListener listener) {
+        mSamplingListeners.add(listener);
+    }
+
+    public void removeSamplingListener(SamplingListener listener) {
+        mSamplingListeners.remove(listener);
+    }
+
+    private Listeners<SamplingListener> mSamplingListeners = Listeners.newInstance();
+
+    @MainThread
+    private void resetSampling() {
+        mSamplingPolicy.reset(SystemClock.elapsedRealtime());
+        updateSampling();
+    }
+
+    @MainThread
+    private void onSample(Location location) {
+        mSamplingPolicy.onLocation(location, SystemClock.elapsedRealtime());
+        updateSampling();
+    }
+
+    @MainThread
+    private void onMotion() {
+        Log.d("Motion detected");
+        mSamplingPolicy.onMotion(SystemClock.elapsedRealtime());
+        updateSampling();
+    }
+
+    @MainThread
+    private void updateSampling() {
+        long interval = mSamplingPolicy.getInterval();
+        boolean stationary = mSamplingPolicy.isStationary();
+        if (stationary && mGpsRequested) {
+            mSignificantMotionDetector.start();
+        } else {
+            mSignificantMotionDetector.stop();
         }
-    };
+        if (interval == mInterval && stationary == mStationary) return;
+        Log.d("interval=" + interval + " stationary=" + stationary);
+        mInterval = interval;
+        mStationary = stationary;
 
-    protected void setActive(boolean active) {
-        if (mActive != active) {
-            // Dispatch to listeners
-            mStatusListeners.dispatch(listener -> listener.onStatusChanged(active));
+        if (mGpsRequested) {
+            // Request updates again with the new interval
+            android.location.LocationManager locationManager = (android.location.LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+            locationManager.requestLocationUpdates(android.location.LocationManager.GPS_PROVIDER, mInterval, 0, mGpsLocationListener);
+            // The check for active must take the new interval into account
+            getHandler().removeCallbacks(mCheckForActiveRunnable);
+            getHandler().postDelayed(mCheckForActiveRunnable, mInterval * ALLOWED_LOC_MISSES);
         }
-        mActive = active;
+
+        // Dispatch to listeners
+        mSamplingListeners.dispatch(listener -> listener.onSamplingChanged(interval, stationary));
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+/**
+ * Decides how often GPS fixes are requested.<br/>
+ * All the methods receive the current time, so that a policy can also be driven by the logs of a recorded ride (e.g. to compare policies).
+ */
+public interface SamplingPolicy {
+    /**
+     * Called when GPS updates are (re)started.
+     */
+    void reset(long now);
+
+    /**
+     * Called for each received fix.
+     */
+    void onLocation(@NonNull Location location, long now);
+
+    /**
+     * Called when a motion sensor detects that the device moved.
+     */
+    void onMotion(long now);
+
+    /**
+     * @return the interval, in milliseconds, at which fixes should be requested.
+     */
+    long getInterval();
+
+    /**
+     * @return {@code true} if the device is considered stationary (in that case, motion sensors are monitored to call {@link #onMotion(long)}).
+     */
+    boolean isStationary();
+}
@@ -0,0 +1,97 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.location;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import org.jraf.android.util.log.Log;
+
+/**
+ * Wraps the significant motion sensor (a low power, one-shot sensor), if the device has one.
+ */
+class SignificantMotionDetector {
+    interface Callback {
+        void onMotion();
+    }
+
+    private final Callback mCallback;
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private Object mTriggerEventListener;
+
+    SignificantMotionDetector(@NonNull Context context, @NonNull Callback callback) {
+        mCallback = callback;
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        } else {
+            mSensor = null;
+        }
+        Log.d("significantMotionSensor=" + mSensor);
+    }
+
+    boolean isAvailable() {
+        return mSensor != null;
+    }
+
+    @MainThread
+    void start() {
+        if (mSensor == null || mTriggerEventListener != null) return;
+        requestTrigger();
+    }
+
+    @MainThread
+    void stop() {
+        if (mTriggerEventListener == null) return;
+        cancelTrigger();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void requestTrigger() {
+        TriggerEventListener triggerEventListener = new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                // The sensor is disabled after it has triggered
+                mTriggerEventListener = null;
+                mCallback.onMotion();
+            }
+        };
+        if (mSensorManager.requestTriggerSensor(triggerEventListener, mSensor)) mTriggerEventListener = triggerEventListener;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void cancelTrigger() {
+        mSensorManager.cancelTriggerSensor((TriggerEventListener) mTriggerEventListener, mSensor);
+        mTriggerEventListener = null;
+    }
+}
@@ -24,54 +24,21 @@
  */
 package org.jraf.android.bikey.backend.location;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-
 import android.location.Location;
 import android.location.LocationListener;
 import android.os.Bundle;
 
-import org.jraf.android.util.log.Log;
-
 /**
- * Keeps a log of mDistance/mDuration. The size of the log depends on the last measured speed.
+ * Estimates the current speed, heading and position from the received fixes, using a {@link LocationKalmanFilter}.<br/>
+ * The estimates can be read from any thread.
  */
 public class Speedometer implements LocationListener {
-    /**
-     * Number of entries to keep when going slow.
-     */
-    private static final int LOG_SIZE_SLOW = 3;
-
-    /**
-     * Number of entries to keep when going at medium speed.
-     */
-    private static final int LOG_SIZE_MEDIUM = 4;
-
-    /**
-     * Number of entries to keep when going fast.
-     */
-    private static final int LOG_SIZE_MAX = 5;
-
-    /**
-     * Below this speed, we only keep LOG_SIZE_SLOW log entries.
-     */
-    private static final float SPEED_MEDIUM_M_S = 10f / 3.6f;
-
-    /**
-     * Below this speed, we only keep LOG_SIZE_MEDIUM log entries.
-     */
-    private static final float SPEED_FAST_M_S = 20f / 3.6f;
-
-    public static class DebugInfo {
-        public LocationPair lastLocationPair;
-    }
-
-    private Location mLastLocation = null;
-    private Deque<LocationPair> mLog = new ArrayDeque<>(LOG_SIZE_MAX);
-    private int mLogSize = LOG_SIZE_SLOW;
-    public DebugInfo mDebugInfo = new DebugInfo();
+    private final LocationKalmanFilter mFilter = new LocationKalmanFilter();
 
     public void startListening() {
+        synchronized (mFilter) {
+            mFilter.reset();
+        }
         LocationManager.get().addLocationListener(this);
     }
 
@@ -81,71 +48,58 @@ public class Speedometer implements LocationListener {
 
     @Override
     public void onLocationChanged(Location location) {
-        if (mLastLocation != null) {
-            LocationPair locationPair = new LocationPair(mLastLocation, location);
-            float lastSpeed = locationPair.getSpeed();
-
-            if (mLog.size() >= mLogSize) {
-                // Make room for the new value
-                mLog.removeLast();
-
-                if (mLog.size() >= mLogSize) {
-                    // Remove one item to account for the log size which depends on the last measured speed
-                    mLog.removeLast();
-                }
-            }
-
-            mDebugInfo.lastLocationPair = locationPair;
-
-            if (lastSpeed < LocationManager.SPEED_MIN_THRESHOLD_M_S) {
-                Log.d("Speed under threshold: rounding to 0");
-                locationPair.setDistance(0);
-            }
-            Log.d("Adding speed:" + lastSpeed * 3.6f);
-            mLog.addFirst(locationPair);
+        synchronized (mFilter) {
+            mFilter.update(location);
+        }
+    }
 
-            if (lastSpeed < SPEED_MEDIUM_M_S) {
-                Log.d("Slow speed: keep " + LOG_SIZE_SLOW + " values");
-                mLogSize = LOG_SIZE_SLOW;
-            } else if (lastSpeed < SPEED_FAST_M_S) {
-                Log.d("Medium speed: keep " + LOG_SIZE_MEDIUM + " values");
-                mLogSize = LOG_SIZE_MEDIUM;
-            } else {
-                Log.d("Fast speed: keep  " + LOG_SIZE_MAX + " values");
-                mLogSize = LOG_SIZE_MAX;
-            }
+    /**
+     * @return The estimated speed in m/s, or {@code 0} if it is under {@link LocationManager#SPEED_MIN_THRESHOLD_M_S}.
+     */
+    public float getSpeed() {
+        float speed;
+        synchronized (mFilter) {
+            speed = mFilter.getSpeed();
         }
+        if (speed < LocationManager.SPEED_MIN_THRESHOLD_M_S) return 0f;
+        return speed;
+    }
 
-        mLastLocation = location;
+    /**
+     * @return The estimated heading, in degrees east of true north, in [0, 360[ (only meaningful if {@link #getSpeed()} is not {@code 0}).
+     */
+    public float getHeading() {
+        synchronized (mFilter) {
+            return mFilter.getHeading();
+        }
     }
 
-    public float getSpeed() {
-        Log.d("mLog=" + mLog);
-        int count = 0;
-        float avgSpeed = 0;
-        float maxSpeed = 0;
-        for (LocationPair locationPair : mLog) {
-            float speed = locationPair.getSpeed();
-            avgSpeed += speed;
-            count++;
-            if (speed > maxSpeed) maxSpeed = speed;
+    /**
+     * @return {@code true} if at least one fix was received, in which case {@link #getLatitude()}, {@link #getLongitude()} and
+     * {@link #getAltitude()} return the estimated position.
+     */
+    public boolean hasPosition() {
+        synchronized (mFilter) {
+            return mFilter.hasEstimate();
         }
+    }
 
-        if (count == 0) return 0f;
+    public double getLatitude() {
+        synchronized (mFilter) {
+            return mFilter.getLatitude();
+        }
+    }
 
-        // If we have at least 3 values, remove the max (to smooth the result)
-        if (count >= 3) {
-            avgSpeed -= maxSpeed;
-            count--;
+    public double getLongitude() {
+        synchronized (mFilter) {
+            return mFilter.getLongitude();
         }
+    }
 
-        avgSpeed /= count;
-        Log.d("res=" + avgSpeed);
-        if (avgSpeed < LocationManager.SPEED_MIN_THRESHOLD_M_S) {
-            Log.d("Speed under threshold: return 0");
-            return 0f;
+    public double getAltitude() {
+        synchronized (mFilter) {
+            return mFilter.getAltitude();
         }
-        return avgSpeed;
     }
 
     @Override
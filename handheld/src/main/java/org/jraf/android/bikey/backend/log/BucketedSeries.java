@@ -0,0 +1,218 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.util.Arrays;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Values of a log column aggregated (min / average / max) in buckets of the same width, along the active time or the distance of a ride.<br/>
+ * Buckets without any value (e.g. no cadence sensor for a while) have a count of 0, and repeat the values of the previous bucket (or of the next one
+ * at the start), so they can be graphed as is.
+ */
+public class BucketedSeries {
+    public enum Axis {
+        /**
+         * Cumulative duration of the logs, in milliseconds: pauses don't take any room.
+         */
+        TIME,
+
+        /**
+         * Cumulative distance of the logs, in meters.
+         */
+        DISTANCE,
+    }
+
+    private final Axis mAxis;
+    private final double mBucketWidth;
+    private final float[] mMin;
+    private final float[] mAverage;
+    private final float[] mMax;
+    private final long[] mCount;
+
+    private BucketedSeries(Axis axis, double bucketWidth, float[] min, float[] average, float[] max, long[] count) {
+        mAxis = axis;
+        mBucketWidth = bucketWidth;
+        mMin = min;
+        mAverage = average;
+        mMax = max;
+        mCount = count;
+    }
+
+    @NonNull
+    public Axis getAxis() {
+        return mAxis;
+    }
+
+    /**
+     * @return the width of the buckets, in the unit of the axis (bucket {@code i} starts at {@code i * getBucketWidth()}).
+     */
+    public double getBucketWidth() {
+        return mBucketWidth;
+    }
+
+    public int getBucketCount() {
+        return mCount.length;
+    }
+
+    /**
+     * Note: the returned array must not be modified.
+     */
+    @NonNull
+    public float[] getMin() {
+        return mMin;
+    }
+
+    /**
+     * Note: the returned array must not be modified.
+     */
+    @NonNull
+    public float[] getAverage() {
+        return mAverage;
+    }
+
+    /**
+     * Note: the returned array must not be modified.
+     */
+    @NonNull
+    public float[] getMax() {
+        return mMax;
+    }
+
+    /**
+     * Note: the returned array must not be modified.
+     */
+    @NonNull
+    public long[] getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * Aggregates values in a single pass, with a memory that only depends on the number of buckets.<br/>
+     * The bucket width is first estimated from the expected extent of the axis; when a value falls after the last bucket, adjacent buckets are merged
+     * two by two and the width is doubled. So at the end, at least half of the buckets (and at most all of them) are used.
+     */
+    static class Accumulator {
+        private final Axis mAxis;
+        private final int mBucketCount;
+        private double mBucketWidth;
+        private final float[] mMin;
+        private final float[] mMax;
+        private final double[] mSum;
+        private final long[] mCount;
+        private int mLastBucket = -1;
+
+        Accumulator(@NonNull Axis axis, int bucketCount, double expectedExtent) {
+            mAxis = axis;
+            mBucketCount = Math.max(bucketCount, 1);
+            mBucketWidth = expectedExtent > 0 ? expectedExtent / mBucketCount : 1;
+            mMin = new float[mBucketCount];
+            mMax = new float[mBucketCount];
+            mSum = new double[mBucketCount];
+            mCount = new long[mBucketCount];
+        }
+
+        void add(double position, float value) {
+            int bucket = (int) (position / mBucketWidth);
+            while (bucket >= mBucketCount) {
+                compact();
+                bucket = (int) (position / mBucketWidth);
+            }
+            if (bucket < 0) bucket = 0;
+            if (mCount[bucket] == 0) {
+                mMin[bucket] = value;
+                mMax[bucket] = value;
+            } else {
+                if (value < mMin[bucket]) mMin[bucket] = value;
+                if (value > mMax[bucket]) mMax[bucket] = value;
+            }
+            mSum[bucket] += value;
+            mCount[bucket]++;
+            if (bucket > mLastBucket) mLastBucket = bucket;
+        }
+
+        private void compact() {
+            int lastBucket = -1;
+            for (int i = 0; i < mBucketCount; i++) {
+                int from = i * 2;
+                if (from >= mBucketCount) {
+                    mCount[i] = 0;
+                    mSum[i] = 0;
+                    continue;
+                }
+                float min = mMin[from];
+                float max = mMax[from];
+                double sum = mSum[from];
+                long count = mCount[from];
+                int other = from + 1;
+                if (other < mBucketCount && mCount[other] > 0) {
+                    if (count == 0 || mMin[other] < min) min = mMin[other];
+                    if (count == 0 || mMax[other] > max) max = mMax[other];
+                    sum += mSum[other];
+                    count += mCount[other];
+                }
+                mMin[i] = min;
+                mMax[i] = max;
+                mSum[i] = sum;
+                mCount[i] = count;
+                if (count > 0) lastBucket = i;
+            }
+            mLastBucket = lastBucket;
+            mBucketWidth *= 2;
+        }
+
+        @NonNull
+        BucketedSeries build() {
+            int bucketCount = mLastBucket + 1;
+            float[] min = new float[bucketCount];
+            float[] average = new float[bucketCount];
+            float[] max = new float[bucketCount];
+            long[] count = Arrays.copyOf(mCount, bucketCount);
+            int firstNonEmpty = -1;
+            for (int i = 0; i < bucketCount; i++) {
+                if (count[i] == 0) {
+                    if (firstNonEmpty == -1) continue;
+                    min[i] = min[i - 1];
+                    average[i] = average[i - 1];
+                    max[i] = max[i - 1];
+                } else {
+                    if (firstNonEmpty == -1) firstNonEmpty = i;
+                    min[i] = mMin[i];
+                    average[i] = (float) (mSum[i] / count[i]);
+                    max[i] = mMax[i];
+                }
+            }
+            // Leading empty buckets
+            for (int i = 0; i < firstNonEmpty; i++) {
+                min[i] = min[firstNonEmpty];
+                average[i] = average[firstNonEmpty];
+                max[i] = max[firstNonEmpty];
+            }
+            return new BucketedSeries(mAxis, mBucketWidth, min, average, max, count);
+        }
+    }
+}
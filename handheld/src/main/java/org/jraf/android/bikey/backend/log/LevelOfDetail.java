@@ -0,0 +1,238 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Reduced versions of the track and value series of a ride, to display them without reading all the logs.<br/>
+ * The track is simplified by repeatedly removing the point that makes the smallest triangle with its neighbors (Visvalingam-Whyatt), which keeps
+ * the turns and the overall shape, unlike sampling.
+ * The series are decimated by keeping the min and max of each bucket (in their original order), so spikes are not lost.
+ */
+final class LevelOfDetail {
+    /**
+     * Point counts of the levels, from the coarsest to the finest.
+     */
+    static final int[] LEVELS = {100, 1000, 10000};
+
+    private static final double FIXED_POINT_SCALE = 1e7;
+
+    private LevelOfDetail() {}
+
+    /**
+     * @return the smallest level with at least {@code maxPoints} points (or the finest level).
+     */
+    static int getLevel(int maxPoints) {
+        for (int level : LEVELS) {
+            if (level >= maxPoints) return level;
+        }
+        return LEVELS[LEVELS.length - 1];
+    }
+
+
+    /*
+     * Track.
+     */
+
+    private static class Vertex {
+        final int index;
+        double area;
+        Vertex previous;
+        Vertex next;
+        boolean removed;
+        // Incremented each time the area changes, to ignore the stale queue entries
+        int version;
+
+        Vertex(int index) {
+            this.index = index;
+        }
+
+    }
+
+    private static class QueueEntry implements Comparable<QueueEntry> {
+        final Vertex vertex;
+        final double area;
+        final int version;
+
+        QueueEntry(Vertex vertex) {
+            this.vertex = vertex;
+            area = vertex.area;
+            version = vertex.version;
+        }
+
+        @Override
+        public int compareTo(@NonNull QueueEntry other) {
+            return Double.compare(area, other.area);
+        }
+    }
+
+    /**
+     * @return the (ordered) indexes of the points to keep, at most {@code target}, always including the first and last ones.
+     */
+    @NonNull
+    static int[] simplifyTrack(@NonNull double[] lat, @NonNull double[] lon, int count, int target) {
+        if (count <= target) {
+            int[] res = new int[count];
+            for (int i = 0; i < count; i++) res[i] = i;
+            return res;
+        }
+
+        // Project on a plane (equirectangular projection around the first point is enough to compare areas)
+        double cosLat = Math.cos(Math.toRadians(lat[0]));
+        Vertex[] vertices = new Vertex[count];
+        for (int i = 0; i < count; i++) {
+            vertices[i] = new Vertex(i);
+            if (i > 0) {
+                vertices[i].previous = vertices[i - 1];
+                vertices[i - 1].next = vertices[i];
+            }
+        }
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>(count);
+        for (int i = 1; i < count - 1; i++) {
+            vertices[i].area = area(lat, lon, cosLat, vertices[i]);
+            queue.add(new QueueEntry(vertices[i]));
+        }
+
+        int remaining = count;
+        while (remaining > target) {
+            QueueEntry entry = queue.poll();
+            Vertex vertex = entry.vertex;
+            if (vertex.removed || entry.version != vertex.version) continue;
+            vertex.removed = true;
+            remaining--;
+            Vertex previous = vertex.previous;
+            Vertex next = vertex.next;
+            previous.next = next;
+            next.previous = previous;
+            // The areas of the neighbors can't become smaller than the one just removed, so the points are removed in a consistent order
+            if (previous.previous != null) update(lat, lon, cosLat, previous, entry.area, queue);
+            if (next.next != null) update(lat, lon, cosLat, next, entry.area, queue);
+        }
+
+        int[] res = new int[remaining];
+        int i = 0;
+        for (Vertex vertex = vertices[0]; vertex != null; vertex = vertex.next) res[i++] = vertex.index;
+        return res;
+    }
+
+    private static void update(double[] lat, double[] lon, double cosLat, Vertex vertex, double minArea, PriorityQueue<QueueEntry> queue) {
+        vertex.area = Math.max(area(lat, lon, cosLat, vertex), minArea);
+        vertex.version++;
+        queue.add(new QueueEntry(vertex));
+    }
+
+    private static double area(double[] lat, double[] lon, double cosLat, Vertex vertex) {
+        int a = vertex.previous.index;
+        int b = vertex.index;
+        int c = vertex.next.index;
+        double ax = lon[a] * cosLat;
+        double bx = lon[b] * cosLat;
+        double cx = lon[c] * cosLat;
+        return Math.abs((bx - ax) * (lat[c] - lat[a]) - (cx - ax) * (lat[b] - lat[a])) / 2;
+    }
+
+    @NonNull
+    static byte[] encodeTrack(@NonNull double[] lat, @NonNull double[] lon, @NonNull int[] indexes) {
+        ByteBuffer buffer = ByteBuffer.allocate(indexes.length * 8);
+        for (int index : indexes) {
+            buffer.putInt((int) Math.round(lat[index] * FIXED_POINT_SCALE));
+            buffer.putInt((int) Math.round(lon[index] * FIXED_POINT_SCALE));
+        }
+        return buffer.array();
+    }
+
+    @NonNull
+    static List<LatLng> decodeTrack(@NonNull byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int count = data.length / 8;
+        ArrayList<LatLng> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = buffer.getInt() / FIXED_POINT_SCALE;
+            double lon = buffer.getInt() / FIXED_POINT_SCALE;
+            res.add(new LatLng(lat, lon));
+        }
+        return res;
+    }
+
+
+    /*
+     * Series.
+     */
+
+    /**
+     * @return at most {@code target} values: the min and max of each of {@code target / 2} buckets, in their original order.
+     */
+    @NonNull
+    static float[] decimateSeries(@NonNull float[] values, int count, int target) {
+        if (count <= target) return Arrays.copyOf(values, count);
+        int bucketCount = target / 2;
+        float[] res = new float[bucketCount * 2];
+        int resCount = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            int start = (int) ((long) bucket * count / bucketCount);
+            int end = (int) ((long) (bucket + 1) * count / bucketCount);
+            int minIndex = start;
+            int maxIndex = start;
+            for (int i = start + 1; i < end; i++) {
+                if (values[i] < values[minIndex]) minIndex = i;
+                if (values[i] > values[maxIndex]) maxIndex = i;
+            }
+            if (minIndex == maxIndex) {
+                res[resCount++] = values[minIndex];
+            } else if (minIndex < maxIndex) {
+                res[resCount++] = values[minIndex];
+                res[resCount++] = values[maxIndex];
+            } else {
+                res[resCount++] = values[maxIndex];
+                res[resCount++] = values[minIndex];
+            }
+        }
+        return Arrays.copyOf(res, resCount);
+    }
+
+    @NonNull
+    static byte[] encodeSeries(@NonNull float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (float value : values) buffer.putFloat(value);
+        return buffer.array();
+    }
+
+    @NonNull
+    static float[] decodeSeries(@NonNull byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        float[] res = new float[data.length / 4];
+        for (int i = 0; i < res.length; i++) res[i] = buffer.getFloat();
+        return res;
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Packs logs into a compact blob, and back.<br/>
+ * The values are stored column by column, each value as the zigzag varint of its difference with the previous value of the column, and each
+ * column is deflated on its own. For nullable columns, 0 means {@code null}, and the difference is with the previous non null value.
+ * Decimal values are stored as fixed point numbers, with a precision well below what the sensors measure:
+ * 1e-7 degree (about 1 cm) for latitude / longitude, 1 cm for elevation, 1 mm for distance, 1 mm/s for speed and 0.01 rpm for cadence.
+ * The logs of a ride are archived in chunks of at most {@link #CHUNK_SIZE} logs (one row of the log_archive table each), so that a blob always
+ * fits in a cursor window, and archiving more logs only encodes the new ones.
+ * <p/>
+ * Since the columns are deflated separately, they are inflated while they are read, a few KB at a time, and only the columns that are read are
+ * inflated.
+ */
+final class LogArchive {
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum number of logs per chunk (about 3 hours at 1 Hz, i.e. a few hundred KB before compression).
+     */
+    static final int CHUNK_SIZE = 10000;
+
+    /**
+     * The slots of {@link LogRow} stored in a blob, in order.
+     */
+    private static final int[] SLOTS = {LogRow.ID, LogRow.RECORDED_DATE, LogRow.LAT, LogRow.LON, LogRow.ELE, LogRow.LOG_DURATION, LogRow.LOG_DISTANCE,
+            LogRow.SPEED, LogRow.CADENCE, LogRow.HEART_RATE};
+
+    private static final double LAT_LON_SCALE = 1e7;
+    private static final double ELE_SCALE = 1e2;
+    private static final double DISTANCE_SCALE = 1e3;
+    private static final double SPEED_SCALE = 1e3;
+    private static final double CADENCE_SCALE = 1e2;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private LogArchive() {}
+
+    /**
+     * Decodes all the columns of the given blob, one log at a time.
+     */
+    @NonNull
+    static RowReader readRows(long rideId, @NonNull byte[] data) {
+        return new RowReader(rideId, data, null);
+    }
+
+    /**
+     * Decodes the given columns of the given blob, one log at a time ({@code _id} and {@code recorded_date} are always decoded).<br/>
+     * Only the blob, and a small buffer per decoded column, are kept in memory.
+     *
+     * @param slots The slots of {@link LogRow} to decode, indexed by slot, or {@code null} for all of them.
+     */
+    @NonNull
+    static RowReader readRows(long rideId, @NonNull byte[] data, @Nullable boolean[] slots) {
+        return new RowReader(rideId, data, slots);
+    }
+
+
+    /*
+     * Encoding.
+     */
+
+    /**
+     * Encodes logs as they are added (all the columns of each log are read): each column is written to its own buffer, and the buffers are
+     * deflated and put together by {@link #encode()}.
+     */
+    static class Encoder {
+        private int mCount;
+        private final ColumnWriter mId = new ColumnWriter();
+        private final ColumnWriter mRecordedDate = new ColumnWriter();
+        private final ColumnWriter mLat = new ColumnWriter();
+        private final ColumnWriter mLon = new ColumnWriter();
+        private final ColumnWriter mEle = new ColumnWriter();
+        private final ColumnWriter mLogDuration = new ColumnWriter();
+        private final ColumnWriter mLogDistance = new ColumnWriter();
+        private final ColumnWriter mSpeed = new ColumnWriter();
+        private final ColumnWriter mCadence = new ColumnWriter();
+        private final ColumnWriter mHeartRate = new ColumnWriter();
+
+        void add(@NonNull LogRow row) {
+            mCount++;
+            mId.write(row.mId);
+            mRecordedDate.write(row.mRecordedDate);
+            mLat.write(toFixed(row.mLat, LAT_LON_SCALE));
+            mLon.write(toFixed(row.mLon, LAT_LON_SCALE));
+            mEle.write(toFixed(row.mEle, ELE_SCALE));
+            mLogDuration.writeNullable(row.mHasLogDuration, row.mLogDuration);
+            mLogDistance.writeNullable(row.mHasLogDistance, toFixed(row.mLogDistance, DISTANCE_SCALE));
+            mSpeed.writeNullable(row.mHasSpeed, toFixed(row.mSpeed, SPEED_SCALE));
+            mCadence.writeNullable(row.mHasCadence, toFixed(row.mCadence, CADENCE_SCALE));
+            mHeartRate.writeNullable(row.mHasHeartRate, row.mHeartRate);
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        /**
+         * The columns are in the order of {@link #SLOTS}, each one as its deflated size followed by its deflated data.
+         */
+        @NonNull
+        byte[] encode() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(mCount * 8 + 64);
+            writeVarint(out, VERSION);
+            writeVarint(out, mCount);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                for (ColumnWriter column : new ColumnWriter[] {mId, mRecordedDate, mLat, mLon, mEle, mLogDuration, mLogDistance, mSpeed, mCadence,
+                        mHeartRate}) {
+                    byte[] data = deflate(deflater, buffer, column.mOut.toByteArray());
+                    writeVarint(out, data.length);
+                    out.write(data, 0, data.length);
+                    deflater.reset();
+                }
+            } finally {
+                deflater.end();
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class ColumnWriter {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private long mPrevious;
+
+        void write(long value) {
+            writeVarint(mOut, zigzag(value - mPrevious));
+            mPrevious = value;
+        }
+
+        void writeNullable(boolean hasValue, long value) {
+            if (!hasValue) {
+                writeVarint(mOut, 0);
+                return;
+            }
+            writeVarint(mOut, zigzag(value - mPrevious) + 1);
+            mPrevious = value;
+        }
+    }
+
+    private static long toFixed(double value, double scale) {
+        return Math.round(value * scale);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] buffer, byte[] data) {
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+
+    /*
+     * Decoding.
+     */
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Must be closed if not all the logs are read (the columns are inflated with native resources, that are freed after the last log).
+     */
+    static class RowReader {
+        private final long mRideId;
+        private final int mCount;
+        private int mReadCount;
+        // Indexed by slot of LogRow, null for the slots that are not decoded
+        private final ColumnReader[] mColumns = new ColumnReader[LogRow.COLUMNS.length];
+
+        private RowReader(long rideId, byte[] data, @Nullable boolean[] slots) {
+            mRideId = rideId;
+            ByteReader in = new ByteReader(data, 0);
+            int version = (int) in.readVarint();
+            if (version != VERSION) throw new IllegalArgumentException("Unknown archive version " + version);
+            mCount = (int) in.readVarint();
+            // The columns are one after the other: find where each one starts
+            for (int slot : SLOTS) {
+                boolean read = slots == null || slot == LogRow.ID || slot == LogRow.RECORDED_DATE || slots[slot];
+                int length = (int) in.readVarint();
+                if (in.mPosition + length > data.length) throw new IllegalArgumentException("Truncated archive");
+                if (read) mColumns[slot] = new ColumnReader(new InflatingReader(data, in.mPosition, length));
+                in.mPosition += length;
+            }
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Reads the next log into the given row (only the decoded columns are set).
+         *
+         * @return {@code false} if all the logs have been read.
+         */
+        boolean next(@NonNull LogRow row) {
+            if (mReadCount == mCount) {
+                close();
+                return false;
+            }
+            mReadCount++;
+            ColumnReader[] columns = mColumns;
+            row.mId = columns[LogRow.ID].read();
+            row.mRideId = mRideId;
+            row.mRecordedDate = columns[LogRow.RECORDED_DATE].read();
+            ColumnReader column = columns[LogRow.LAT];
+            if (column != null) row.mLat = column.read() / LAT_LON_SCALE;
+            column = columns[LogRow.LON];
+            if (column != null) row.mLon = column.read() / LAT_LON_SCALE;
+            column = columns[LogRow.ELE];
+            if (column != null) row.mEle = column.read() / ELE_SCALE;
+            column = columns[LogRow.LOG_DURATION];
+            if (column != null) {
+                row.mHasLogDuration = column.readNullable();
+                row.mLogDuration = column.mPrevious;
+            }
+            column = columns[LogRow.LOG_DISTANCE];
+            if (column != null) {
+                row.mHasLogDistance = column.readNullable();
+                row.mLogDistance = column.mPrevious / DISTANCE_SCALE;
+            }
+            column = columns[LogRow.SPEED];
+            if (column != null) {
+                row.mHasSpeed = column.readNullable();
+                row.mSpeed = column.mPrevious / SPEED_SCALE;
+            }
+            column = columns[LogRow.CADENCE];
+            if (column != null) {
+                row.mHasCadence = column.readNullable();
+                row.mCadence = column.mPrevious / CADENCE_SCALE;
+            }
+            column = columns[LogRow.HEART_RATE];
+            if (column != null) {
+                row.mHasHeartRate = column.readNullable();
+                row.mHeartRate = (int) column.mPrevious;
+            }
+            return true;
+        }
+
+        void close() {
+            for (ColumnReader column : mColumns) {
+                if (column != null) column.mIn.close();
+            }
+        }
+    }
+
+    /**
+     * Reads bytes from a byte array.
+     */
+    private static class ByteReader {
+        final byte[] mData;
+        int mPosition;
+
+        ByteReader(byte[] data, int position) {
+            mData = data;
+            mPosition = position;
+        }
+
+        int readByte() {
+            if (mPosition == mData.length) throw new IllegalArgumentException("Truncated archive");
+            return mData[mPosition++];
+        }
+
+        long readVarint() {
+            long res = 0;
+            int shift = 0;
+            while (true) {
+                int b = readByte();
+                res |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return res;
+                shift += 7;
+            }
+        }
+
+        void close() {}
+    }
+
+    /**
+     * Reads bytes by inflating a part of a byte array, one buffer at a time.
+     */
+    private static class InflatingReader extends ByteReader {
+        private Inflater mInflater = new Inflater();
+        private int mLength;
+
+        InflatingReader(byte[] data, int offset, int length) {
+            super(new byte[BUFFER_SIZE], 0);
+            mInflater.setInput(data, offset, length);
+        }
+
+        @Override
+        int readByte() {
+            if (mPosition == mLength) fill();
+            return mData[mPosition++];
+        }
+
+        private void fill() {
+            if (mInflater == null) throw new IllegalStateException("Reader is closed");
+            try {
+                mLength = mInflater.inflate(mData);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Corrupted archive", e);
+            }
+            if (mLength == 0) throw new IllegalArgumentException("Truncated archive");
+            mPosition = 0;
+        }
+
+        @Override
+        void close() {
+            if (mInflater == null) return;
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+
+    /**
+     * Reads the values of a column one at a time (as fixed point numbers).
+     */
+    private static class ColumnReader {
+        private final ByteReader mIn;
+        private long mPrevious;
+
+        ColumnReader(ByteReader in) {
+            mIn = in;
+        }
+
+        long read() {
+            mPrevious += unzigzag(mIn.readVarint());
+            return mPrevious;
+        }
+
+        /**
+         * @return {@code false} if the value is {@code null}, otherwise the value is in {@link #mPrevious}.
+         */
+        boolean readNullable() {
+            long value = mIn.readVarint();
+            if (value == 0) return false;
+            mPrevious += unzigzag(value - 1);
+            return true;
+        }
+    }
+}
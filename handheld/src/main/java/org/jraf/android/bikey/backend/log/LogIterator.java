@@ -0,0 +1,223 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.Closeable;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+/**
+ * Iterates over the logs of a ride in {@code recorded_date} order, reading them by pages, so that the memory used doesn't depend on the size of
+ * the ride.<br/>
+ * Each page is a new query that starts right after the last log read (by {@code recorded_date}, then {@code _id}), so pages are never re-read
+ * or skipped, and no cursor is ever moved backward.
+ * The archived logs of the ride (if any) are read first, directly from the archive, one chunk at a time (only the columns of the projection are
+ * decoded).
+ * <p/>
+ * Must be closed (see {@link LogManager#iterateLogs(android.net.Uri, String...)}).
+ */
+public class LogIterator implements Closeable {
+    public static final int PAGE_SIZE = 500;
+
+    /**
+     * Where the logs are read from ({@link LogManager}, or a test database).
+     */
+    interface Source {
+        /**
+         * Queries a page of the logs of the given ride: the ones that come after the given log (in {@code recorded_date}, then {@code _id} order).
+         */
+        @NonNull
+        Cursor queryLogPage(long rideId, @NonNull String[] projection, boolean hasKey, long lastRecordedDate, long lastId, int pageSize);
+
+        /**
+         * @return {@code null} if the chunk does not exist (e.g. the ride has been unarchived).
+         */
+        @Nullable
+        LogArchive.RowReader readArchiveChunk(long rideId, int chunk, @Nullable boolean[] slots);
+
+        void onIteratorClosed(long rideId);
+    }
+
+    private final Source mSource;
+    private final long mRideId;
+    private final String[] mProjection;
+    private final int mCount;
+    private final LogRow mRow = new LogRow();
+
+    // Indexed by slot of LogRow: the columns to decode from the archive
+    private final boolean[] mArchiveSlots;
+    private final int mArchiveChunkCount;
+    private int mArchiveChunk;
+    private LogArchive.RowReader mArchiveReader;
+    private Cursor mPage;
+    private int[] mPageIndexes;
+    private boolean mLastPage;
+    private boolean mHasKey;
+    private long mLastRecordedDate;
+    private long mLastId;
+    private boolean mClosed;
+
+    /**
+     * @param archiveChunkCount The number of chunks of the archive of the ride ({@code 0} to only read the log table).
+     * @param count The number of logs of the ride (archived or not).
+     */
+    LogIterator(@NonNull Source source, long rideId, @NonNull String[] projection, int archiveChunkCount, int count) {
+        mSource = source;
+        mRideId = rideId;
+        mProjection = projection;
+        mArchiveChunkCount = archiveChunkCount;
+        mArchiveSlots = new boolean[LogRow.COLUMNS.length];
+        for (String column : projection) {
+            int slot = LogRow.getSlot(column);
+            if (slot != -1) mArchiveSlots[slot] = true;
+        }
+        mCount = count;
+        mRow.mRideId = rideId;
+    }
+
+    /**
+     * @return the number of logs of the ride, when the iteration started.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Moves to the next log.
+     *
+     * @return {@code false} if there are no more logs.
+     */
+    @WorkerThread
+    public boolean next() {
+        if (mClosed) throw new IllegalStateException("Iterator is closed");
+        while (mArchiveChunk < mArchiveChunkCount) {
+            if (mArchiveReader == null) {
+                mArchiveReader = mSource.readArchiveChunk(mRideId, mArchiveChunk, mArchiveSlots);
+                if (mArchiveReader == null) {
+                    // The ride has been unarchived meanwhile: the remaining logs are read from the log table, after the last one read
+                    mArchiveChunk = mArchiveChunkCount;
+                    break;
+                }
+            }
+            if (mArchiveReader.next(mRow)) {
+                setKey();
+                return true;
+            }
+            mArchiveReader = null;
+            mArchiveChunk++;
+        }
+
+        while (true) {
+            if (mPage != null && mPage.moveToNext()) {
+                readRow();
+                setKey();
+                return true;
+            }
+            if (mPage != null) {
+                mPage.close();
+                mPage = null;
+            }
+            if (mLastPage) return false;
+            mPage = mSource.queryLogPage(mRideId, mProjection, mHasKey, mLastRecordedDate, mLastId, PAGE_SIZE);
+            if (mPageIndexes == null) {
+                mPageIndexes = new int[LogRow.COLUMNS.length];
+                for (int i = 0; i < LogRow.COLUMNS.length; i++) mPageIndexes[i] = mPage.getColumnIndex(LogRow.COLUMNS[i]);
+            }
+            // A short page is the last one
+            mLastPage = mPage.getCount() < PAGE_SIZE;
+        }
+    }
+
+    /**
+     * @return the current log (the same instance is returned for all the logs).
+     */
+    @NonNull
+    public LogRow getRow() {
+        return mRow;
+    }
+
+    private void setKey() {
+        mHasKey = true;
+        mLastRecordedDate = mRow.mRecordedDate;
+        mLastId = mRow.mId;
+    }
+
+    private void readRow() {
+        Cursor c = mPage;
+        int[] indexes = mPageIndexes;
+        LogRow row = mRow;
+        row.mId = c.getLong(indexes[LogRow.ID]);
+        row.mRecordedDate = c.getLong(indexes[LogRow.RECORDED_DATE]);
+        int index = indexes[LogRow.LAT];
+        if (index != -1) row.mLat = c.getDouble(index);
+        index = indexes[LogRow.LON];
+        if (index != -1) row.mLon = c.getDouble(index);
+        index = indexes[LogRow.ELE];
+        if (index != -1) row.mEle = c.getDouble(index);
+        index = indexes[LogRow.LOG_DURATION];
+        if (index != -1) {
+            row.mHasLogDuration = !c.isNull(index);
+            row.mLogDuration = c.getLong(index);
+        }
+        index = indexes[LogRow.LOG_DISTANCE];
+        if (index != -1) {
+            row.mHasLogDistance = !c.isNull(index);
+            row.mLogDistance = c.getDouble(index);
+        }
+        index = indexes[LogRow.SPEED];
+        if (index != -1) {
+            row.mHasSpeed = !c.isNull(index);
+            row.mSpeed = c.getDouble(index);
+        }
+        index = indexes[LogRow.CADENCE];
+        if (index != -1) {
+            row.mHasCadence = !c.isNull(index);
+            row.mCadence = c.getDouble(index);
+        }
+        index = indexes[LogRow.HEART_RATE];
+        if (index != -1) {
+            row.mHasHeartRate = !c.isNull(index);
+            row.mHeartRate = c.getInt(index);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mClosed) return;
+        mClosed = true;
+        if (mArchiveReader != null) {
+            mArchiveReader.close();
+            mArchiveReader = null;
+        }
+        if (mPage != null) {
+            mPage.close();
+            mPage = null;
+        }
+        mSource.onIteratorClosed(mRideId);
+    }
+}
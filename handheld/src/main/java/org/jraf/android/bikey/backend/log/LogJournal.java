@@ -0,0 +1,379 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import org.jraf.android.bikey.app.Application;
+import org.jraf.android.bikey.backend.provider.BikeyProviderSQLiteOpenHelper;
+import org.jraf.android.bikey.backend.ride.RideManager;
+import org.jraf.android.util.log.Log;
+
+/**
+ * Append-only, memory-mapped journal of the fixes of the ride being recorded, that have not been committed to the database yet.<br/>
+ * Fixes are appended at fix time (which only costs a few memory writes), and marked as committed once {@link LogWriter} has written them.
+ * If the process dies in between, the remaining fixes are replayed into the right ride (found by its uuid) by {@link #replay()}.<br/>
+ * The file lives next to the database and has a fixed size: a header, followed by {@link #CAPACITY} fixed-size records.
+ * The header and each record carry a CRC32, so that a write torn by a crash of the system is detected (and not replayed) instead of producing
+ * garbage fixes. The writer thread forces the journal to the storage (see {@link #sync()}).
+ */
+public class LogJournal {
+    private static final LogJournal INSTANCE = new LogJournal();
+
+    private static final String FILE_NAME = "bikey_provider.journal";
+    private static final int MAGIC = 0x424B4A4C;
+    private static final int VERSION = 2;
+
+    /**
+     * Maximum number of uncommitted fixes that can be journaled (more than one hour at one fix per second).
+     */
+    private static final int CAPACITY = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int UUID_MAX_LENGTH = 64;
+
+    // Header
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    static final int OFFSET_WRITTEN_COUNT = 8;
+    private static final int OFFSET_COMMITTED_COUNT = 12;
+    private static final int OFFSET_UUID_LENGTH = 16;
+    private static final int OFFSET_UUID = 20;
+    // CRC32 of everything before it
+    private static final int OFFSET_HEADER_CHECKSUM = OFFSET_UUID + UUID_MAX_LENGTH;
+    static final int HEADER_SIZE = 128;
+
+    // Records
+    private static final int RECORD_OFFSET_RECORDED_DATE = 0;
+    private static final int RECORD_OFFSET_LAT = 8;
+    private static final int RECORD_OFFSET_LON = 16;
+    private static final int RECORD_OFFSET_ELE = 24;
+    private static final int RECORD_OFFSET_CADENCE = 32;
+    private static final int RECORD_OFFSET_HEART_RATE = 36;
+    private static final int RECORD_OFFSET_FLAGS = 40;
+    // CRC32 of everything before it
+    private static final int RECORD_OFFSET_CHECKSUM = 44;
+    static final int RECORD_SIZE = 48;
+
+    private static final int FLAG_CADENCE = 1;
+    private static final int FLAG_HEART_RATE = 1 << 1;
+
+    public static LogJournal get() {
+        return INSTANCE;
+    }
+
+    private File mFile;
+    private MappedByteBuffer mBuffer;
+    private int mWrittenCount;
+    private int mCommittedCount;
+    private byte[] mUuidBytes = new byte[0];
+    private boolean mActive;
+    // Records and header are prepared here, then copied to the file at once
+    private final byte[] mScratchBytes = new byte[HEADER_SIZE];
+    private final ByteBuffer mScratch = ByteBuffer.wrap(mScratchBytes);
+    private final CRC32 mCrc = new CRC32();
+
+    private LogJournal() {}
+
+    /**
+     * Journal in the given file (for tests).
+     */
+    LogJournal(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Map the journal file if needed.
+     *
+     * @return {@code false} if the file could not be mapped (in that case the journal is simply not used).
+     */
+    @WorkerThread
+    private boolean open() {
+        if (mBuffer != null) return true;
+        if (mFile == null) {
+            mFile = new File(Application.getApplication().getDatabasePath(BikeyProviderSQLiteOpenHelper.DATABASE_FILE_NAME).getParentFile(), FILE_NAME);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mFile.getParentFile().mkdirs();
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+            try {
+                // The mapping stays valid after the channel is closed
+                mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + CAPACITY * RECORD_SIZE);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e("Could not map journal " + mFile, e);
+            return false;
+        }
+        if (!readHeader()) {
+            Log.w("New, unknown or corrupted journal: resetting it");
+            reset(null);
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the header is not valid.
+     */
+    private boolean readHeader() {
+        mBuffer.position(0);
+        mBuffer.get(mScratchBytes, 0, OFFSET_HEADER_CHECKSUM);
+        mCrc.reset();
+        mCrc.update(mScratchBytes, 0, OFFSET_HEADER_CHECKSUM);
+        if (mBuffer.getInt(OFFSET_HEADER_CHECKSUM) != (int) mCrc.getValue()) return false;
+        if (mBuffer.getInt(OFFSET_MAGIC) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != VERSION) return false;
+        int writtenCount = mBuffer.getInt(OFFSET_WRITTEN_COUNT);
+        int committedCount = mBuffer.getInt(OFFSET_COMMITTED_COUNT);
+        int uuidLength = mBuffer.getShort(OFFSET_UUID_LENGTH);
+        if (writtenCount < 0 || writtenCount > CAPACITY || committedCount < 0 || committedCount > writtenCount) return false;
+        if (uuidLength < 0 || uuidLength > UUID_MAX_LENGTH) return false;
+        mWrittenCount = writtenCount;
+        mCommittedCount = committedCount;
+        mUuidBytes = new byte[uuidLength];
+        System.arraycopy(mScratchBytes, OFFSET_UUID, mUuidBytes, 0, uuidLength);
+        return true;
+    }
+
+    /**
+     * Write the whole header, followed by its checksum.
+     */
+    private void writeHeader() {
+        mScratch.clear();
+        mScratch.putInt(OFFSET_MAGIC, MAGIC);
+        mScratch.putInt(OFFSET_VERSION, VERSION);
+        mScratch.putInt(OFFSET_WRITTEN_COUNT, mWrittenCount);
+        mScratch.putInt(OFFSET_COMMITTED_COUNT, mCommittedCount);
+        mScratch.putShort(OFFSET_UUID_LENGTH, (short) mUuidBytes.length);
+        for (int i = 0; i < UUID_MAX_LENGTH; i++) {
+            mScratchBytes[OFFSET_UUID + i] = i < mUuidBytes.length ? mUuidBytes[i] : 0;
+        }
+        mCrc.reset();
+        mCrc.update(mScratchBytes, 0, OFFSET_HEADER_CHECKSUM);
+        mScratch.putInt(OFFSET_HEADER_CHECKSUM, (int) mCrc.getValue());
+        mBuffer.position(0);
+        mBuffer.put(mScratchBytes, 0, OFFSET_HEADER_CHECKSUM + 4);
+    }
+
+    private void reset(@Nullable String rideUuid) {
+        byte[] uuidBytes = rideUuid == null ? new byte[0] : rideUuid.getBytes(UTF_8);
+        if (uuidBytes.length > UUID_MAX_LENGTH) throw new IllegalArgumentException("Uuid too long: " + rideUuid);
+        mWrittenCount = 0;
+        mCommittedCount = 0;
+        mUuidBytes = uuidBytes;
+        writeHeader();
+    }
+
+    /**
+     * Start journaling the fixes of the given ride.<br/>
+     * If the journal still contains uncommitted fixes (of any ride), they are replayed first.
+     */
+    @WorkerThread
+    public void begin(@NonNull Uri rideUri) {
+        begin(RideManager.get().getUuid(rideUri));
+    }
+
+    @WorkerThread
+    synchronized void begin(@NonNull String rideUuid) {
+        mActive = false;
+        if (!open()) return;
+        if (mCommittedCount < mWrittenCount) replay();
+        reset(rideUuid);
+        mActive = true;
+    }
+
+    /**
+     * Append a fix to the journal. This is only a few memory writes, and can be called from any thread.
+     *
+     * @return {@code false} if the fix could not be journaled, because the journal is not active or full.
+     */
+    public synchronized boolean append(@NonNull LogRecord record) {
+        if (!mActive) return false;
+        if (mWrittenCount == CAPACITY) {
+            Log.w("Journal full: fix not journaled");
+            return false;
+        }
+        mScratch.clear();
+        mScratch.putLong(RECORD_OFFSET_RECORDED_DATE, record.recordedDate);
+        mScratch.putDouble(RECORD_OFFSET_LAT, record.lat);
+        mScratch.putDouble(RECORD_OFFSET_LON, record.lon);
+        mScratch.putDouble(RECORD_OFFSET_ELE, record.ele);
+        mScratch.putFloat(RECORD_OFFSET_CADENCE, record.cadence);
+        mScratch.putInt(RECORD_OFFSET_HEART_RATE, record.heartRate);
+        mScratch.putInt(RECORD_OFFSET_FLAGS, (record.hasCadence ? FLAG_CADENCE : 0) | (record.hasHeartRate ? FLAG_HEART_RATE : 0));
+        mCrc.reset();
+        mCrc.update(mScratchBytes, 0, RECORD_OFFSET_CHECKSUM);
+        mScratch.putInt(RECORD_OFFSET_CHECKSUM, (int) mCrc.getValue());
+        mBuffer.position(HEADER_SIZE + mWrittenCount * RECORD_SIZE);
+        mBuffer.put(mScratchBytes, 0, RECORD_SIZE);
+        // The count is written last: a record only becomes visible once it is complete
+        mWrittenCount++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the record is not valid (torn write).
+     */
+    private boolean read(int index, @NonNull LogRecord record) {
+        mBuffer.position(HEADER_SIZE + index * RECORD_SIZE);
+        mBuffer.get(mScratchBytes, 0, RECORD_SIZE);
+        mCrc.reset();
+        mCrc.update(mScratchBytes, 0, RECORD_OFFSET_CHECKSUM);
+        if (mScratch.getInt(RECORD_OFFSET_CHECKSUM) != (int) mCrc.getValue()) return false;
+        record.recordedDate = mScratch.getLong(RECORD_OFFSET_RECORDED_DATE);
+        record.lat = mScratch.getDouble(RECORD_OFFSET_LAT);
+        record.lon = mScratch.getDouble(RECORD_OFFSET_LON);
+        record.ele = mScratch.getDouble(RECORD_OFFSET_ELE);
+        record.cadence = mScratch.getFloat(RECORD_OFFSET_CADENCE);
+        record.heartRate = mScratch.getInt(RECORD_OFFSET_HEART_RATE);
+        int flags = mScratch.getInt(RECORD_OFFSET_FLAGS);
+        record.hasCadence = (flags & FLAG_CADENCE) != 0;
+        record.hasHeartRate = (flags & FLAG_HEART_RATE) != 0;
+        return true;
+    }
+
+    /**
+     * Mark the given number of journaled fixes as committed to the database.<br/>
+     * Once all the journaled fixes are committed, the journal is emptied.
+     */
+    public synchronized void markCommitted(int count) {
+        if (!mActive) return;
+        mCommittedCount = Math.min(mCommittedCount + count, mWrittenCount);
+        if (mCommittedCount == mWrittenCount) {
+            // Everything is in the database: start over at the beginning of the file
+            mWrittenCount = 0;
+            mCommittedCount = 0;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Force the journal to the storage, so that the fixes appended so far survive a crash of the system (the mapped memory already survives the
+     * death of the process).<br/>
+     * This is a blocking write: it must be called from the writer thread, not from {@link #append(LogRecord)}.
+     */
+    @WorkerThread
+    public void sync() {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (!mActive) return;
+            buffer = mBuffer;
+        }
+        buffer.force();
+    }
+
+    /**
+     * Stop journaling. Fixes that were not marked as committed are kept, to be replayed by {@link #replay()}.
+     */
+    public synchronized void end() {
+        if (!mActive) return;
+        mActive = false;
+        if (mCommittedCount == mWrittenCount) reset(null);
+        mBuffer.force();
+    }
+
+    /**
+     * Read the uncommitted fixes left in the journal, stopping at the first invalid one (if any).
+     *
+     * @return the uuid of the ride they belong to, or {@code null} if there are no uncommitted fixes.
+     */
+    @WorkerThread
+    @Nullable
+    synchronized String readPending(@NonNull List<LogRecord> records) {
+        if (mActive) return null;
+        if (!open()) return null;
+        if (mCommittedCount == mWrittenCount || mUuidBytes.length == 0) return null;
+        for (int i = mCommittedCount; i < mWrittenCount; i++) {
+            LogRecord record = new LogRecord();
+            if (!read(i, record)) {
+                Log.w("Journaled fix " + i + " is corrupted: discarding it and the following ones");
+                break;
+            }
+            records.add(record);
+        }
+        return new String(mUuidBytes, UTF_8);
+    }
+
+    /**
+     * Write the uncommitted fixes left in the journal (if any) to the database, into the ride they belong to.<br/>
+     * This does nothing while a ride is being journaled.
+     */
+    @WorkerThread
+    public synchronized void replay() {
+        ArrayList<LogRecord> records = new ArrayList<>();
+        String rideUuid = readPending(records);
+        if (rideUuid == null) return;
+        Uri rideUri = RideManager.get().getRideByUuid(rideUuid);
+        if (rideUri == null) {
+            Log.w("Ride " + rideUuid + " not found: discarding " + records.size() + " journaled fixes");
+            reset(null);
+            return;
+        }
+        Log.d("Replaying " + records.size() + " journaled fixes into " + rideUri);
+
+        LogManager logManager = LogManager.get();
+        // Make sure the totals are reloaded from the database
+        logManager.invalidateAccumulator(new long[] {ContentUris.parseId(rideUri)});
+        // Fixes may have been committed without being marked as such: skip them
+        Long lastLogDate = logManager.getLastLogDate(rideUri);
+        LogRecord previous = null;
+        if (mCommittedCount > 0) {
+            previous = new LogRecord();
+            if (!read(mCommittedCount - 1, previous)) previous = null;
+        }
+        boolean segmentStarted = false;
+        for (LogRecord record : records) {
+            if (lastLogDate != null && record.recordedDate <= lastLogDate) {
+                previous = record;
+                continue;
+            }
+            if (!segmentStarted) {
+                logManager.startSegment(rideUri, previous);
+                segmentStarted = true;
+            }
+            logManager.stage(rideUri, record);
+        }
+        // The ride was interrupted here
+        logManager.finishSegment(rideUri);
+        if (logManager.commit()) reset(null);
+    }
+}
@@ -25,397 +25,1230 @@
 package org.jraf.android.bikey.backend.log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.location.Location;
 import android.net.Uri;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
+import android.util.LruCache;
 
 import com.google.android.gms.maps.model.LatLng;
 
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
+
 import org.jraf.android.bikey.app.Application;
 import org.jraf.android.bikey.backend.location.LocationManager;
-import org.jraf.android.bikey.backend.location.LocationPair;
+import org.jraf.android.bikey.backend.provider.BikeyDao;
+import org.jraf.android.bikey.backend.provider.BikeyProvider;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
 import org.jraf.android.bikey.backend.provider.log.LogContentValues;
-import org.jraf.android.bikey.backend.provider.log.LogCursor;
 import org.jraf.android.bikey.backend.provider.log.LogSelection;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveContentValues;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveCursor;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveSelection;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideState;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodColumns;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodContentValues;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodSelection;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsColumns;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsContentValues;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsCursor;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsSelection;
 import org.jraf.android.bikey.backend.ride.RideManager;
+import org.jraf.android.bikey.common.Constants;
 import org.jraf.android.util.listeners.Listeners;
 import org.jraf.android.util.log.Log;
 
 public class LogManager {
     private static final LogManager INSTANCE = new LogManager();
 
+    private static final Uri LOG_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(LogColumns.CONTENT_URI, false);
+    private static final Uri RIDE_STATS_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(RideStatsColumns.CONTENT_URI, false);
+    private static final Uri LOG_ARCHIVE_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(LogArchiveColumns.CONTENT_URI, false);
+    private static final Uri RIDE_LOD_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(RideLodColumns.CONTENT_URI, false);
+
+    /**
+     * Rides whose last log is older than this (and that are not being recorded) are archived (see {@link #archiveIdleRides()}).
+     */
+    private static final long ARCHIVE_IDLE_DELAY_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Number of ride summaries kept in memory (see {@link #computeSummary(Uri)}).
+     */
+    private static final int SUMMARY_CACHE_SIZE = 8;
+
     public static LogManager get() {
         return INSTANCE;
     }
 
     private final Context mContext;
+    private final BikeyDao mDao;
     private Listeners<LogListener> mListeners = Listeners.newInstance();
+    private final BehaviorSubject<RideMetrics> mLiveMetrics = BehaviorSubject.create();
+    private final Subject<RideMetrics> mLiveMetricsSerialized = mLiveMetrics.toSerialized();
+    private final Object mAccumulatorLock = new Object();
+    // Held while reading / moving the logs of a ride between the log and log_archive tables
+    private final Object mArchiveLock = new Object();
+    // Number of open iterators per ride (guarded by mArchiveLock): these rides are not archived, so their logs don't move while being read
+    private final HashMap<Long, Integer> mIteratedRideIds = new HashMap<>();
+    private RideAccumulator mAccumulator;
+    private ArrayList<LogRow> mPendingLogs = new ArrayList<>();
+    private Uri mStagedRideUri;
+    private final float[] mDistanceResult = new float[1];
+    private final TrackSimplifier mTrackSimplifier = new TrackSimplifier();
+    // Last fix skipped by the simplifier, written if the segment ends with it (see finishSegment)
+    private final LogRecord mHeldRecord = new LogRecord();
+    private Uri mHeldRideUri;
+    // Moving distance / duration since the last written log
+    private long mPendingDuration;
+    private float mPendingDistance;
+    private boolean mHasPendingDistance;
+    // Where the log iterators read the pages of logs and the archive chunks from
+    private final LogIterator.Source mLogSource = new LogIterator.Source() {
+        @NonNull
+        @Override
+        public Cursor queryLogPage(long rideId, @NonNull String[] projection, boolean hasKey, long lastRecordedDate, long lastId, int pageSize) {
+            return newLogPageSelection(rideId, hasKey, lastRecordedDate, lastId, pageSize).query(mContext, projection);
+        }
+
+        @Nullable
+        @Override
+        public LogArchive.RowReader readArchiveChunk(long rideId, int chunk, @Nullable boolean[] slots) {
+            return LogManager.this.readArchiveChunk(rideId, chunk, slots);
+        }
+
+        @Override
+        public void onIteratorClosed(long rideId) {
+            synchronized (mArchiveLock) {
+                Integer iteratorCount = mIteratedRideIds.get(rideId);
+                if (iteratorCount == null || iteratorCount == 1) {
+                    mIteratedRideIds.remove(rideId);
+                } else {
+                    mIteratedRideIds.put(rideId, iteratorCount - 1);
+                }
+            }
+        }
+    };
+
+    // Summaries of the last rides asked for (guarded by itself), and a counter incremented each time they are invalidated
+    private final LruCache<Long, RideSummary> mSummaries = new LruCache<>(SUMMARY_CACHE_SIZE);
+    private long mSummaryGeneration;
 
     private LogManager() {
-        mContext = Application.getApplication();
+        this(Application.getApplication(), BikeyDao.getInstance(Application.getApplication()));
+    }
+
+    /**
+     * For tests: a manager using the content resolver of the given context (e.g. a mock one) and the given DAO, instead of the ones of the
+     * application.
+     */
+    LogManager(@NonNull Context context, @NonNull BikeyDao dao) {
+        mContext = context;
+        mDao = dao;
     }
 
+    /**
+     * Prepare a log for the given ride, without writing it yet (see {@link #commit()}).<br/>
+     * The distance / duration of the log are computed relative to the previously staged log of the same segment (see {@link #startSegment(Uri)}).
+     * The fix is always accounted for in the ride stats, but it is only written as a log if the {@link TrackSimplifier} needs it: in that case, the log
+     * carries the distance / duration of all the fixes skipped since the previous log.
+     * This must only be called by a single writer thread.
+     */
     @WorkerThread
-    public Uri add(@NonNull Uri rideUri, Location location, Location previousLocation, Float cadence, Integer heartRate) {
-        // Add a log
-        LogContentValues values = new LogContentValues();
+    public void stage(@NonNull Uri rideUri, @NonNull LogRecord record) {
         long rideId = ContentUris.parseId(rideUri);
-        values.putRideId(rideId);
-        values.putRecordedDate(location.getTime());
-        values.putLat(location.getLatitude());
-        values.putLon(location.getLongitude());
-        values.putEle(location.getAltitude());
-        if (previousLocation != null) {
-            LocationPair locationPair = new LocationPair(previousLocation, location);
-            float speed = locationPair.getSpeed();
-            if (speed < LocationManager.SPEED_MIN_THRESHOLD_M_S) {
-                Log.d("Speed under threshold, not logging it");
+        synchronized (mAccumulatorLock) {
+            if (mHeldRideUri != null && !mHeldRideUri.equals(rideUri)) finishSegment(mHeldRideUri);
+            if (mStagedRideUri != null && !mStagedRideUri.equals(rideUri)) {
+                Log.w("Staging a log for " + rideUri + " while logs for " + mStagedRideUri + " are pending: commit them first");
+                commit();
+            }
+            RideAccumulator accumulator = getAccumulator(rideId);
+
+            Long logDuration = null;
+            Float logDistance = null;
+            Float logSpeed = null;
+            if (accumulator.hasLastFix()) {
+                long duration = record.recordedDate - accumulator.getLastRecordedDate();
+                Location.distanceBetween(accumulator.getLastLat(), accumulator.getLastLon(), record.lat, record.lon, mDistanceResult);
+                float distance = mDistanceResult[0];
+                float speed = duration == 0 ? 0f : distance / (duration / 1000f);
+                if (speed < LocationManager.SPEED_MIN_THRESHOLD_M_S) {
+                    Log.d("Speed under threshold, not logging it");
+                } else {
+                    logDuration = duration;
+                    logDistance = distance;
+                    logSpeed = speed;
+                    mPendingDuration += duration;
+                    mPendingDistance += distance;
+                    mHasPendingDistance = true;
+                }
+            } else {
+                // First fix of a segment: always write it
+                mTrackSimplifier.reset();
+            }
+            Float cadence = record.getCadence();
+            Integer heartRate = record.getHeartRate();
+            boolean write = mTrackSimplifier.offer(record.recordedDate, record.lat, record.lon, accumulator.hasLastFix(),
+                    accumulator.getLastRecordedDate(), accumulator.getLastLat(), accumulator.getLastLon());
+
+            accumulator.add(record.recordedDate, logDuration, logDistance, logSpeed, cadence, heartRate);
+            accumulator.setLastFix(record.recordedDate, record.lat, record.lon);
+            mStagedRideUri = rideUri;
+            mLiveMetricsSerialized.onNext(new RideMetrics(rideUri, accumulator));
+
+            if (write) {
+                stageLog(rideUri, accumulator, record);
             } else {
-                values.putLogDuration(locationPair.getDuration());
-                values.putLogDistance(locationPair.getDistance());
-                values.putSpeed(speed);
+                mHeldRecord.set(record);
+                mHeldRideUri = rideUri;
             }
         }
-        values.putCadence(cadence);
-        values.putHeartRate(heartRate);
+    }
 
-        Uri res = values.insert(mContext);
+    /**
+     * Must be called with {@link #mAccumulatorLock} held.
+     */
+    private void stageLog(@NonNull Uri rideUri, @NonNull RideAccumulator accumulator, @NonNull LogRecord record) {
+        LogRow log = new LogRow();
+        log.mRideId = accumulator.getRideId();
+        log.mRecordedDate = record.recordedDate;
+        log.mLat = record.lat;
+        log.mLon = record.lon;
+        log.mEle = record.ele;
+        if (mHasPendingDistance) {
+            log.mHasLogDuration = true;
+            log.mLogDuration = mPendingDuration;
+            log.mHasLogDistance = true;
+            log.mLogDistance = mPendingDistance;
+            log.mHasSpeed = true;
+            log.mSpeed = mPendingDuration == 0 ? 0f : mPendingDistance / (mPendingDuration / 1000f);
+        }
+        Float cadence = record.getCadence();
+        if (cadence != null) {
+            log.mHasCadence = true;
+            log.mCadence = cadence;
+        }
+        Integer heartRate = record.getHeartRate();
+        if (heartRate != null) {
+            log.mHasHeartRate = true;
+            log.mHeartRate = heartRate;
+        }
+        mPendingLogs.add(log);
+        accumulator.addLog();
+        mStagedRideUri = rideUri;
 
-        // Update total distance for ride
-        float totalDistance = getTotalDistance(rideUri);
-        RideManager.get().updateTotalDistance(rideUri, totalDistance);
+        mPendingDuration = 0;
+        mPendingDistance = 0;
+        mHasPendingDistance = false;
+        mHeldRideUri = null;
+    }
 
-        // Dispatch to listeners
-        mListeners.dispatch(listener -> listener.onLogAdded(rideUri));
-        return res;
+    /**
+     * End the current segment of the given ride: if its last fix was skipped by the {@link TrackSimplifier}, it is staged now, so the written
+     * track ends where the ride actually stopped.
+     *
+     * @return {@code true} if a log was staged.
+     */
+    @WorkerThread
+    public boolean finishSegment(@NonNull Uri rideUri) {
+        synchronized (mAccumulatorLock) {
+            if (mHeldRideUri == null || !mHeldRideUri.equals(rideUri)) return false;
+            stageLog(rideUri, getAccumulator(ContentUris.parseId(rideUri)), mHeldRecord);
+            return true;
+        }
     }
 
+    /**
+     * Write all the staged logs, as well as the updated ride stats and total distance, in a single transaction.<br/>
+     * If this fails, the logs stay staged and will be written by the next call.
+     *
+     * @return {@code true} if the staged logs (if any) were written.
+     */
     @WorkerThread
-    public float getTotalDistance(@NonNull Uri rideUri) {
-        long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"sum(" + LogColumns.LOG_DISTANCE + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId);
-        Cursor c = where.query(mContext, projection);
+    public boolean commit() {
+        ArrayList<LogRow> logs;
+        ContentValues statsValues = null;
+        float distance = 0;
+        Uri rideUri;
+        long rideId;
+        synchronized (mAccumulatorLock) {
+            // Nothing staged (note that the stats may have changed even if no log was staged)
+            if (mStagedRideUri == null) return true;
+            logs = mPendingLogs;
+            mPendingLogs = new ArrayList<>(logs.size());
+            rideUri = mStagedRideUri;
+            mStagedRideUri = null;
+            rideId = ContentUris.parseId(rideUri);
+            if (mAccumulator != null && mAccumulator.getRideId() == rideId) {
+                statsValues = toContentValues(mAccumulator).values();
+                distance = mAccumulator.getDistance();
+            }
+        }
+
+        // Written directly (not through the provider), in a single transaction.
+        // The changes are notified once per commit (coalesced, see BikeyNotifier), so the ride list shows the distance of the ride being recorded
+        BikeyDao.Batch batch = mDao.beginBatch(true);
         try {
-            if (!c.moveToNext()) return 0;
-            return c.getFloat(0);
+            for (LogRow log : logs) batch.insertLog(log);
+            if (statsValues != null) {
+                // Update stats and total distance for ride
+                batch.insertRideStats(statsValues);
+                batch.updateRideDistance(rideId, distance);
+            }
+            batch.setSuccessful();
+        } catch (SQLException e) {
+            Log.e("Could not commit " + logs.size() + " logs for " + rideUri, e);
+            synchronized (mAccumulatorLock) {
+                // Put the logs back in front of the ones staged in the meantime (if any), to retry later
+                if (mStagedRideUri == null || mStagedRideUri.equals(rideUri)) {
+                    mPendingLogs.addAll(0, logs);
+                    mStagedRideUri = rideUri;
+                }
+            }
+            return false;
         } finally {
-            c.close();
+            batch.close();
         }
+        invalidateSummaries(new long[] {rideId});
+
+        // Dispatch to listeners
+        mListeners.dispatch(listener -> listener.onLogAdded(rideUri));
+        return true;
     }
 
     /**
-     * Note: the top 10% points are discarded to account for imprecise values.
+     * Start a new segment for the given ride: the next staged log will not have a distance / duration relative to the previous one.
      */
     @WorkerThread
-    public float getAverageMovingSpeed(@NonNull Uri rideUri) {
-        // First get the max
-        float max = getMaxSpeed(rideUri);
+    public void startSegment(@NonNull Uri rideUri) {
+        startSegment(rideUri, null);
+    }
 
+    /**
+     * Start a new segment for the given ride, continuing from the given fix: the next staged log will have a distance / duration relative to it.
+     */
+    @WorkerThread
+    public void startSegment(@NonNull Uri rideUri, @Nullable LogRecord previous) {
         long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"sum(" + LogColumns.LOG_DISTANCE + ")/sum(" + LogColumns.LOG_DURATION + ")*1000"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId).and().speedGt(LocationManager.SPEED_MIN_THRESHOLD_M_S).and().speedLtEq(max);
-        Cursor c = where.query(mContext, projection);
+        synchronized (mAccumulatorLock) {
+            if (mHeldRideUri != null) finishSegment(mHeldRideUri);
+            mTrackSimplifier.reset();
+            mTrackSimplifier.setTolerance(getTrackSimplificationTolerance());
+            RideAccumulator accumulator = getAccumulator(rideId);
+            if (previous == null) {
+                accumulator.clearLastFix();
+            } else {
+                accumulator.setLastFix(previous.recordedDate, previous.lat, previous.lon);
+            }
+            mLiveMetricsSerialized.onNext(new RideMetrics(rideUri, accumulator));
+        }
+    }
+
+    private float getTrackSimplificationTolerance() {
+        String tolerance = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(Constants.PREF_TRACK_SIMPLIFICATION, Constants.PREF_TRACK_SIMPLIFICATION_DEFAULT);
         try {
-            if (!c.moveToNext()) return 0;
-            return c.getFloat(0);
-        } finally {
-            c.close();
+            return Float.parseFloat(tolerance);
+        } catch (NumberFormatException e) {
+            Log.w("Invalid track simplification tolerance: " + tolerance, e);
+            return 0;
         }
     }
 
     /**
-     * Note: the top 10% points are discarded to account for imprecise values.
+     * Returns the accumulator of the given ride, loading it if it is not the one currently in memory.
+     * Must be called with {@link #mAccumulatorLock} held.
      */
     @WorkerThread
-    public Float getAverageCadence(@NonNull Uri rideUri) {
-        // First get the min and max
-        float min = getMinCadence(rideUri);
-        float max = getMaxCadence(rideUri);
+    private RideAccumulator getAccumulator(long rideId) {
+        if (mAccumulator != null && mAccumulator.getRideId() == rideId) return mAccumulator;
+        mAccumulator = loadStats(rideId);
+        return mAccumulator;
+    }
 
-        long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"avg(" + LogColumns.CADENCE + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId).and().cadenceGtEq(min).and().cadenceLtEq(max);
-        Cursor c = where.query(mContext, projection);
+    /**
+     * Reads the stats of the given ride from the {@code ride_stats} table.<br/>
+     * If they are not there yet (e.g. imported ride), they are computed from the logs, and saved.
+     * Must be called with {@link #mAccumulatorLock} held.
+     */
+    @WorkerThread
+    private RideAccumulator loadStats(long rideId) {
+        RideAccumulator res = new RideAccumulator(rideId);
+        RideStatsCursor statsCursor = newRideStatsSelection(rideId).query(mContext);
         try {
-            if (!c.moveToNext()) return null;
-            if (c.isNull(0)) return null;
-            return c.getFloat(0);
+            if (statsCursor.moveToNext()) {
+                Date firstLogDate = statsCursor.getStatsFirstLogDate();
+                Date lastLogDate = statsCursor.getStatsLastLogDate();
+                res.set(statsCursor.getStatsLogCount(), statsCursor.getStatsFixCount(), statsCursor.getStatsDistance(), statsCursor.getStatsMovingDuration(),
+                        statsCursor.getStatsMovingDistance(), statsCursor.getStatsMaxSpeed(), statsCursor.getStatsCadenceCount(),
+                        statsCursor.getStatsCadenceSum(), statsCursor.getStatsHeartRateCount(), statsCursor.getStatsHeartRateSum(),
+                        firstLogDate == null ? 0 : firstLogDate.getTime(), lastLogDate == null ? 0 : lastLogDate.getTime());
+                byte[] speedHistogram = statsCursor.getStatsSpeedHistogram();
+                byte[] cadenceHistogram = statsCursor.getStatsCadenceHistogram();
+                byte[] heartRateHistogram = statsCursor.getStatsHeartRateHistogram();
+                if (speedHistogram != null && cadenceHistogram != null && heartRateHistogram != null
+                        && res.setHistograms(speedHistogram, cadenceHistogram, heartRateHistogram)) {
+                    return res;
+                }
+            }
         } finally {
-            c.close();
+            statsCursor.close();
         }
+
+        // Not there yet, or saved before the histograms existed: compute everything with a single scan of the logs
+        res = new RideAccumulator(rideId);
+        LogIterator logs = iterateLogs(rideId, LogColumns.LOG_DURATION, LogColumns.LOG_DISTANCE, LogColumns.SPEED, LogColumns.CADENCE,
+                LogColumns.HEART_RATE);
+        try {
+            while (logs.next()) {
+                res.add(logs.getRow());
+                res.addLog();
+            }
+        } finally {
+            logs.close();
+        }
+        Log.d("Computed " + res);
+        // Only save stats for rides that have logs (a ride without logs may not exist anymore)
+        if (res.getLogCount() > 0) mContext.getContentResolver().insert(RIDE_STATS_CONTENT_URI_NO_NOTIFY, toContentValues(res).values());
+        return res;
+    }
+
+    private static RideStatsContentValues toContentValues(@NonNull RideAccumulator accumulator) {
+        RideStatsContentValues values = new RideStatsContentValues();
+        values.putRideId(accumulator.getRideId());
+        values.putStatsLogCount(accumulator.getLogCount());
+        values.putStatsFixCount(accumulator.getFixCount());
+        values.putStatsDistance(accumulator.getDistance());
+        values.putStatsMovingDuration(accumulator.getMovingDuration());
+        values.putStatsMovingDistance(accumulator.getMovingDistance());
+        values.putStatsMaxSpeed(accumulator.getMaxSpeed());
+        values.putStatsCadenceCount(accumulator.getCadenceCount());
+        values.putStatsCadenceSum(accumulator.getCadenceSum());
+        values.putStatsHeartRateCount(accumulator.getHeartRateCount());
+        values.putStatsHeartRateSum(accumulator.getHeartRateSum());
+        values.putStatsFirstLogDate(accumulator.getFirstLogDate());
+        values.putStatsLastLogDate(accumulator.getLastLogDate());
+        values.putStatsSpeedHistogram(accumulator.getSpeedHistogram().toByteArray());
+        values.putStatsCadenceHistogram(accumulator.getCadenceHistogram().toByteArray());
+        values.putStatsHeartRateHistogram(accumulator.getHeartRateHistogram().toByteArray());
+        return values;
+    }
+
+    /**
+     * Returns the stats of the given ride (this is a single row read).
+     */
+    @WorkerThread
+    @NonNull
+    public RideAccumulator getStats(@NonNull Uri rideUri) {
+        long rideId = ContentUris.parseId(rideUri);
+        synchronized (mAccumulatorLock) {
+            if (mAccumulator != null && mAccumulator.getRideId() == rideId) return new RideAccumulator(rideId, mAccumulator);
+            return loadStats(rideId);
+        }
+    }
+
+    /**
+     * Combine the stats of the given rides into the stats of the master ride, as an operation to be applied in the same batch as the one moving the
+     * logs of the rides to the master ride.<br/>
+     * {@link #invalidateAccumulator(long[])} must be called once the batch has been applied.
+     *
+     * @return {@code null} if the rides have no logs.
+     */
+    @WorkerThread
+    @Nullable
+    public ContentProviderOperation newMergeStatsOperation(long masterRideId, @NonNull long[] rideIds) {
+        synchronized (mAccumulatorLock) {
+            RideAccumulator merged = new RideAccumulator(masterRideId);
+            for (long rideId : rideIds) {
+                if (mAccumulator != null && mAccumulator.getRideId() == rideId) {
+                    merged.merge(mAccumulator);
+                } else {
+                    merged.merge(loadStats(rideId));
+                }
+            }
+            if (merged.getLogCount() == 0) return null;
+            return ContentProviderOperation.newInsert(RIDE_STATS_CONTENT_URI_NO_NOTIFY).withValues(toContentValues(merged).values()).build();
+        }
+    }
+
+    /**
+     * Delete the stats of the given rides (to be called when their logs are deleted).
+     */
+    @WorkerThread
+    public void deleteStats(@NonNull long[] rideIds) {
+        synchronized (mAccumulatorLock) {
+            invalidateAccumulator(rideIds);
+            newRideStatsSelection(rideIds).delete(mContext);
+        }
+    }
+
+    /**
+     * Forget the in-memory totals of the given rides (to be called when their logs are modified by something else than {@link #stage}).
+     */
+    public void invalidateAccumulator(@NonNull long[] rideIds) {
+        invalidateSummaries(rideIds);
+        synchronized (mAccumulatorLock) {
+            if (mAccumulator == null) return;
+            for (long rideId : rideIds) {
+                if (mAccumulator.getRideId() == rideId) {
+                    mAccumulator = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the in-memory totals of all rides (to be called when the whole database is replaced).
+     */
+    public void invalidateAccumulator() {
+        synchronized (mSummaries) {
+            mSummaryGeneration++;
+            mSummaries.evictAll();
+        }
+        synchronized (mAccumulatorLock) {
+            mAccumulator = null;
+        }
+    }
+
+    private void invalidateSummaries(@NonNull long[] rideIds) {
+        synchronized (mSummaries) {
+            mSummaryGeneration++;
+            for (long rideId : rideIds) mSummaries.remove(rideId);
+        }
+    }
+
+    @WorkerThread
+    public float getTotalDistance(@NonNull Uri rideUri) {
+        return getStats(rideUri).getDistance();
     }
 
     /**
      * Note: the top 10% points are discarded to account for imprecise values.
      */
     @WorkerThread
+    public float getAverageMovingSpeed(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedAverageMovingSpeed();
+    }
+
+    /**
+     * Note: the top and bottom 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
+    public Float getAverageCadence(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedAverageCadence();
+    }
+
+    /**
+     * Note: the top and bottom 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
     public Float getAverageHeartRate(@NonNull Uri rideUri) {
-        // First get the min and max
-        float min = getMinHeartRate(rideUri);
-        float max = getMaxHeartRate(rideUri);
+        return getStats(rideUri).getTrimmedAverageHeartRate();
+    }
+
+    @WorkerThread
+    public Long getMovingDuration(@NonNull Uri rideUri) {
+        RideAccumulator stats = getStats(rideUri);
+        if (stats.getMovingDuration() == 0) return null;
+        return stats.getMovingDuration();
+    }
+
+    /**
+     * Note: the top 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
+    public float getMaxSpeed(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedMaxSpeed();
+    }
+
+    /**
+     * Note: the top 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
+    public float getMaxCadence(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedMaxCadence();
+    }
+
+    /**
+     * Note: the top 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
+    public float getMaxHeartRate(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedMaxHeartRate();
+    }
+
+    /**
+     * Note: the bottom 10% points are discarded to account for imprecise values.
+     */
+    @WorkerThread
+    public float getMinHeartRate(@NonNull Uri rideUri) {
+        return getStats(rideUri).getTrimmedMinHeartRate();
+    }
+
+    @WorkerThread
+    public Long getFirstLogDate(@NonNull Uri rideUri) {
+        return getStats(rideUri).getFirstLogDate();
+    }
+
+    @WorkerThread
+    public Long getLastLogDate(@NonNull Uri rideUri) {
+        return getStats(rideUri).getLastLogDate();
+    }
+
+    /**
+     * Returns the summary of the given ride, computed with a single ordered pass over its logs.<br/>
+     * It is kept in memory until new logs are written for the ride (or its logs are modified, see {@link #invalidateAccumulator(long[])}), so asking
+     * for it again (e.g. detail screen, then export) doesn't read the logs again.
+     */
+    @WorkerThread
+    @NonNull
+    public RideSummary computeSummary(@NonNull Uri rideUri) {
+        return computeSummary(rideUri, null);
+    }
+
+    /**
+     * Same as {@link #computeSummary(Uri)}, and also fills the series of the given columns (see
+     * {@link #getBucketedSeries(Uri, BucketedSeries.Axis, int, String...)}) with the same pass over the logs.<br/>
+     * If the summary is already in memory, only the columns of the series are read.
+     *
+     * @param series Filled with the series of each column, in the order of {@code seriesColumns}.
+     */
+    @WorkerThread
+    @NonNull
+    public RideSummary computeSummary(@NonNull Uri rideUri, @NonNull BucketedSeries.Axis axis, int bucketCount, @NonNull String[] seriesColumns,
+                                      @NonNull BucketedSeries[] series) {
+        SeriesAccumulator seriesAccumulator = new SeriesAccumulator(axis, bucketCount, getExpectedExtent(rideUri, axis), seriesColumns);
+        RideSummary res = computeSummary(rideUri, seriesAccumulator);
+        seriesAccumulator.build(series);
+        return res;
+    }
 
+    @WorkerThread
+    @NonNull
+    private RideSummary computeSummary(@NonNull Uri rideUri, @Nullable SeriesAccumulator seriesAccumulator) {
         long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"avg(" + LogColumns.HEART_RATE + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId).and().heartRateGtEq((int) min).and().heartRateLtEq((int) max);
-        Cursor c = where.query(mContext, projection);
+        RideSummary cached;
+        long generation;
+        synchronized (mSummaries) {
+            cached = mSummaries.get(rideId);
+            generation = mSummaryGeneration;
+        }
+        if (cached != null) {
+            if (seriesAccumulator != null) fillSeries(rideId, seriesAccumulator);
+            return cached;
+        }
+
+        RideSummary.Accumulator accumulator = new RideSummary.Accumulator(rideId);
+        // All the numeric columns are read, so this also covers the columns of the series
+        LogIterator logs = iterateLogs(rideId, LogColumns.LAT, LogColumns.LON, LogColumns.ELE, LogColumns.LOG_DURATION, LogColumns.LOG_DISTANCE,
+                LogColumns.SPEED, LogColumns.CADENCE, LogColumns.HEART_RATE);
         try {
-            if (!c.moveToNext()) return null;
-            if (c.isNull(0)) return null;
-            return c.getFloat(0);
+            LogRow log = logs.getRow();
+            while (logs.next()) {
+                accumulator.add(log);
+                if (seriesAccumulator != null) seriesAccumulator.add(log);
+            }
         } finally {
-            c.close();
+            logs.close();
         }
+        RideSummary res = accumulator.build(getFixCount(rideId));
+        Log.d("Computed " + res);
+
+        synchronized (mSummaries) {
+            // Don't keep it if the logs changed in the meantime
+            if (generation == mSummaryGeneration) mSummaries.put(rideId, res);
+        }
+        return res;
     }
 
+    /**
+     * Returns the number of fixes of the given ride (in memory, or from the {@code ride_stats} table), without computing the stats if they are not
+     * there.
+     *
+     * @return {@code 0} if unknown.
+     */
     @WorkerThread
-    public Long getMovingDuration(@NonNull Uri rideUri) {
-        long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"sum(" + LogColumns.LOG_DURATION + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId).and().speedGt(LocationManager.SPEED_MIN_THRESHOLD_M_S);
-        Cursor c = where.query(mContext, projection);
+    private long getFixCount(long rideId) {
+        synchronized (mAccumulatorLock) {
+            if (mAccumulator != null && mAccumulator.getRideId() == rideId) return mAccumulator.getFixCount();
+        }
+        RideStatsCursor statsCursor = newRideStatsSelection(rideId).query(mContext, new String[] {RideStatsColumns.STATS_FIX_COUNT});
         try {
-            if (!c.moveToNext()) return null;
-            if (c.isNull(0)) return null;
-            return c.getLong(0);
+            if (!statsCursor.moveToNext()) return 0;
+            return statsCursor.getStatsFixCount();
         } finally {
-            c.close();
+            statsCursor.close();
         }
     }
 
     /**
-     * Note: the top 10% points are discarded to account for imprecise values.
+     * Aggregates the values of a column of the logs of the given ride in buckets along the given axis, with a single scan of the logs.<br/>
+     * Logs where the column is {@code null} are skipped.
+     *
+     * @param column One of the numeric columns of {@link LogColumns} (e.g. {@link LogColumns#SPEED}).
+     * @param bucketCount The maximum number of buckets (typically, the width in pixels of the graph, or a fraction of it).
      */
     @WorkerThread
-    private float getMax(@NonNull Uri rideUri, @NonNull String column) {
-        // Get the point count to discard the top 10% values
-        Integer count = getLogCount(rideUri);
-        if (count == null) return 0;
+    @NonNull
+    public BucketedSeries getBucketedSeries(@NonNull Uri rideUri, @NonNull String column, @NonNull BucketedSeries.Axis axis, int bucketCount) {
+        return getBucketedSeries(rideUri, axis, bucketCount, column)[0];
+    }
 
-        long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {column};
-        LogSelection where = new LogSelection()
-                .rideId(rideId).and().addRaw(column + " IS NOT NULL")
-                .orderBy(column, true)
-                .limit(count / 10);
-        Cursor c = where.query(mContext, projection);
+    /**
+     * Same as {@link #getBucketedSeries(Uri, String, BucketedSeries.Axis, int)}, for several columns at once: they are all filled with the same
+     * scan of the logs.
+     *
+     * @return the series of each column, in the order of {@code columns}.
+     */
+    @WorkerThread
+    @NonNull
+    public BucketedSeries[] getBucketedSeries(@NonNull Uri rideUri, @NonNull BucketedSeries.Axis axis, int bucketCount, @NonNull String... columns) {
+        SeriesAccumulator seriesAccumulator = new SeriesAccumulator(axis, bucketCount, getExpectedExtent(rideUri, axis), columns);
+        fillSeries(ContentUris.parseId(rideUri), seriesAccumulator);
+        BucketedSeries[] res = new BucketedSeries[columns.length];
+        seriesAccumulator.build(res);
+        return res;
+    }
+
+    @WorkerThread
+    private double getExpectedExtent(@NonNull Uri rideUri, @NonNull BucketedSeries.Axis axis) {
+        // The time axis only advances by the log durations (mostly the moving ones), not by the wall clock duration of the ride
+        RideAccumulator stats = getStats(rideUri);
+        return axis == BucketedSeries.Axis.TIME ? stats.getMovingDuration() : stats.getDistance();
+    }
+
+    @WorkerThread
+    private void fillSeries(long rideId, @NonNull SeriesAccumulator seriesAccumulator) {
+        LogIterator logs = iterateLogs(rideId, seriesAccumulator.getProjection());
         try {
-            if (!c.moveToLast()) return 0;
-            return c.getFloat(0);
+            LogRow log = logs.getRow();
+            while (logs.next()) seriesAccumulator.add(log);
         } finally {
-            c.close();
+            logs.close();
         }
     }
 
     /**
-     * Note: the bottom 10% points are discarded to account for imprecise values.
+     * Aggregates the values of several columns of the logs of a ride in buckets along an axis, one log at a time (see
+     * {@link #getBucketedSeries(Uri, BucketedSeries.Axis, int, String...)}).
      */
-    @WorkerThread
-    private float getMin(@NonNull Uri rideUri, @NonNull String column) {
-        long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {column};
-        LogSelection where = new LogSelection()
-                .rideId(rideId).and().addRaw(column + " IS NOT NULL")
-                .orderBy(column);
-        Cursor c = where.query(mContext, projection);
-        try {
-            if (!c.moveToFirst()) return 0;
-            int count = c.getCount();
-            // Discard the first 10%
-            int index = count / 10;
-            c.moveToPosition(index);
-            return c.getFloat(0);
-        } finally {
-            c.close();
+    private static class SeriesAccumulator {
+        private final String[] mProjection;
+        private final int mAxisSlot;
+        private final int[] mValueSlots;
+        private final BucketedSeries.Accumulator[] mAccumulators;
+        private double mPosition;
+
+        SeriesAccumulator(@NonNull BucketedSeries.Axis axis, int bucketCount, double expectedExtent, @NonNull String[] columns) {
+            int columnCount = columns.length;
+            mValueSlots = new int[columnCount];
+            mAccumulators = new BucketedSeries.Accumulator[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                mValueSlots[i] = LogRow.getSlot(columns[i]);
+                if (mValueSlots[i] < LogRow.LAT) throw new IllegalArgumentException("Not a numeric column: " + columns[i]);
+                mAccumulators[i] = new BucketedSeries.Accumulator(axis, bucketCount, expectedExtent);
+            }
+            String axisColumn = axis == BucketedSeries.Axis.TIME ? LogColumns.LOG_DURATION : LogColumns.LOG_DISTANCE;
+            mAxisSlot = LogRow.getSlot(axisColumn);
+            mProjection = Arrays.copyOf(columns, columnCount + 1);
+            mProjection[columnCount] = axisColumn;
+        }
+
+        @NonNull
+        String[] getProjection() {
+            return mProjection;
+        }
+
+        /**
+         * The logs must be given in order.
+         */
+        void add(@NonNull LogRow log) {
+            // The first log after a pause has no duration / distance
+            if (log.hasValue(mAxisSlot)) mPosition += log.getValue(mAxisSlot);
+            for (int i = 0; i < mValueSlots.length; i++) {
+                if (log.hasValue(mValueSlots[i])) mAccumulators[i].add(mPosition, (float) log.getValue(mValueSlots[i]));
+            }
+        }
+
+        /**
+         * @param res Filled with the series of each column.
+         */
+        void build(@NonNull BucketedSeries[] res) {
+            for (int i = 0; i < mAccumulators.length; i++) res[i] = mAccumulators[i].build();
         }
     }
 
+    /**
+     * Returns the track of the given ride, simplified to at most the points of the level of detail matching {@code maxPoints} (see
+     * {@link LevelOfDetail#getLevel(int)}).
+     */
     @WorkerThread
-    public float getMaxSpeed(@NonNull Uri rideUri) {
-        return getMax(rideUri, LogColumns.SPEED);
+    @NonNull
+    public List<LatLng> getLatLngArray(@NonNull Uri rideUri, int maxPoints) {
+        return LevelOfDetail.decodeTrack(getLevelOfDetail(rideUri, maxPoints, RideLodColumns.LOD_TRACK));
     }
 
     @WorkerThread
-    public float getMaxCadence(@NonNull Uri rideUri) {
-        return getMax(rideUri, LogColumns.CADENCE);
+    @NonNull
+    public List<Float> getSpeedArray(@NonNull Uri rideUri, int maxPoints) {
+        return toList(LevelOfDetail.decodeSeries(getLevelOfDetail(rideUri, maxPoints, RideLodColumns.LOD_SPEED)));
     }
 
-    private float getMinCadence(@NonNull Uri rideUri) {
-        return getMin(rideUri, LogColumns.CADENCE);
+    @WorkerThread
+    @NonNull
+    public List<Float> getCadenceArray(@NonNull Uri rideUri, int maxPoints) {
+        return toList(LevelOfDetail.decodeSeries(getLevelOfDetail(rideUri, maxPoints, RideLodColumns.LOD_CADENCE)));
     }
 
     @WorkerThread
-    public float getMaxHeartRate(@NonNull Uri rideUri) {
-        return getMax(rideUri, LogColumns.HEART_RATE);
+    @NonNull
+    public List<Float> getHeartRateArray(@NonNull Uri rideUri, int maxPoints) {
+        return toList(LevelOfDetail.decodeSeries(getLevelOfDetail(rideUri, maxPoints, RideLodColumns.LOD_HEART_RATE)));
     }
 
-    @WorkerThread
-    public float getMinHeartRate(@NonNull Uri rideUri) {
-        return getMin(rideUri, LogColumns.HEART_RATE);
+    private static List<Float> toList(float[] values) {
+        ArrayList<Float> res = new ArrayList<>(values.length);
+        for (float value : values) res.add(value);
+        return res;
     }
 
 
+    /*
+     * Levels of detail.
+     */
+
+    /**
+     * Reads the given column of the level of detail of the given ride matching {@code maxPoints}.<br/>
+     * The level of detail is (re)built first if it doesn't exist yet, or if logs were added to the ride since it was built.
+     * While the ride is being recorded, only that level is built: the others are built when the ride is paused.
+     */
     @WorkerThread
-    public Long getFirstLogDate(@NonNull Uri rideUri) {
+    @NonNull
+    private byte[] getLevelOfDetail(@NonNull Uri rideUri, int maxPoints, @NonNull String column) {
         long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"min(" + LogColumns.RECORDED_DATE + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId);
-        Cursor c = where.query(mContext, projection);
+        int level = LevelOfDetail.getLevel(maxPoints);
+        long logCount = getStats(rideUri).getLogCount();
+        byte[] res = queryLevelOfDetail(rideId, level, logCount, column);
+        if (res != null) return res;
+
+        int[] levels = RideManager.get().getState(rideUri) == RideState.ACTIVE ? new int[] {level} : LevelOfDetail.LEVELS;
+        RideLodContentValues[] built = buildLevelsOfDetail(rideUri, levels);
+        // Use the data just built: the saved levels may already be stale if logs were added meanwhile
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == level) return built[i].values().getAsByteArray(column);
+        }
+        throw new AssertionError("Level " + level + " not built");
+    }
+
+    /**
+     * @return {@code null} if the level of detail does not exist, or was built with a different number of logs.
+     */
+    @WorkerThread
+    @Nullable
+    private byte[] queryLevelOfDetail(long rideId, int level, long logCount, @NonNull String column) {
+        Cursor c = newRideLodSelection(rideId, level).query(mContext, new String[] {RideLodColumns.LOD_LOG_COUNT, column});
         try {
             if (!c.moveToNext()) return null;
-            if (c.isNull(0)) return null;
-            return c.getLong(0);
+            if (c.getLong(0) != logCount) return null;
+            return c.getBlob(1);
         } finally {
             c.close();
         }
     }
 
+    /**
+     * Builds all the levels of detail of the given ride, with a single scan of its logs.<br/>
+     * This is called when the ride is paused, imported or merged, but can be called at any time: the levels are rebuilt when needed if logs are
+     * added later.
+     */
     @WorkerThread
-    public Long getLastLogDate(@NonNull Uri rideUri) {
+    public void buildLevelsOfDetail(@NonNull Uri rideUri) {
+        buildLevelsOfDetail(rideUri, LevelOfDetail.LEVELS);
+    }
+
+    /**
+     * Builds and saves the given levels of detail of the given ride, with a single scan of its logs.
+     *
+     * @return the values of the levels, in the order of {@code levels}.
+     */
+    @WorkerThread
+    @NonNull
+    private RideLodContentValues[] buildLevelsOfDetail(@NonNull Uri rideUri, @NonNull int[] levels) {
         long rideId = ContentUris.parseId(rideUri);
-        String[] projection = {"max(" + LogColumns.RECORDED_DATE + ")"};
-        LogSelection where = new LogSelection();
-        where.rideId(rideId);
-        Cursor c = where.query(mContext, projection);
+        // Read before the logs, so logs added meanwhile make the levels stale rather than missing
+        long logCount = getStats(rideUri).getLogCount();
+        int count;
+        double[] lat;
+        double[] lon;
+        float[] speed;
+        float[] cadence;
+        float[] heartRate;
+        int speedCount = 0;
+        int cadenceCount = 0;
+        int heartRateCount = 0;
+        LogIterator logs = iterateLogs(rideId, LogColumns.LAT, LogColumns.LON, LogColumns.SPEED, LogColumns.CADENCE, LogColumns.HEART_RATE);
         try {
-            if (!c.moveToNext()) return null;
-            if (c.isNull(0)) return null;
-            return c.getLong(0);
+            int capacity = logs.getCount();
+            lat = new double[capacity];
+            lon = new double[capacity];
+            speed = new float[capacity];
+            cadence = new float[capacity];
+            heartRate = new float[capacity];
+            for (count = 0; logs.next(); count++) {
+                if (count == capacity) {
+                    // Logs were added since the iteration started
+                    capacity = capacity * 3 / 2 + 1;
+                    lat = Arrays.copyOf(lat, capacity);
+                    lon = Arrays.copyOf(lon, capacity);
+                    speed = Arrays.copyOf(speed, capacity);
+                    cadence = Arrays.copyOf(cadence, capacity);
+                    heartRate = Arrays.copyOf(heartRate, capacity);
+                }
+                LogRow log = logs.getRow();
+                lat[count] = log.getLat();
+                lon[count] = log.getLon();
+                // Logs without a value are skipped in the series
+                if (log.hasSpeed()) speed[speedCount++] = (float) log.getSpeed();
+                if (log.hasCadence()) cadence[cadenceCount++] = (float) log.getCadence();
+                if (log.hasHeartRate()) heartRate[heartRateCount++] = log.getHeartRate();
+            }
         } finally {
-            c.close();
+            logs.close();
         }
+
+        RideLodContentValues[] res = new RideLodContentValues[levels.length];
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(levels.length);
+        for (int i = 0; i < levels.length; i++) {
+            int level = levels[i];
+            RideLodContentValues values = new RideLodContentValues();
+            values.putRideId(rideId);
+            values.putLodLevel(level);
+            values.putLodLogCount(logCount);
+            values.putLodTrack(LevelOfDetail.encodeTrack(lat, lon, LevelOfDetail.simplifyTrack(lat, lon, count, level)));
+            values.putLodSpeed(LevelOfDetail.encodeSeries(LevelOfDetail.decimateSeries(speed, speedCount, level)));
+            values.putLodCadence(LevelOfDetail.encodeSeries(LevelOfDetail.decimateSeries(cadence, cadenceCount, level)));
+            values.putLodHeartRate(LevelOfDetail.encodeSeries(LevelOfDetail.decimateSeries(heartRate, heartRateCount, level)));
+            res[i] = values;
+            // The previous level (if any) is replaced (unique constraint)
+            operations.add(ContentProviderOperation.newInsert(RIDE_LOD_CONTENT_URI_NO_NOTIFY).withValues(values.values()).build());
+        }
+        try {
+            mContext.getContentResolver().applyBatch(BikeyProvider.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.w("Could not save the levels of detail of ride " + rideId, e);
+        }
+        Log.d("Built " + levels.length + " levels of detail of ride " + rideId + " (" + count + " logs)");
+        return res;
     }
 
-    private Integer getLogCount(@NonNull Uri rideUri) {
-        String[] projection = {"count(*)"};
-        long rideId = ContentUris.parseId(rideUri);
-        LogSelection where = new LogSelection();
-        where.rideId(rideId);
-        int count;
-        Cursor c = where.query(mContext, projection);
+
+    /*
+     * Archive.
+     */
+
+    /**
+     * Returns an iterator over the logs of the given ride, in {@code recorded_date} order, that reads them by pages (see {@link LogIterator}).<br/>
+     * The logs are read from the archive of the ride (see {@link #archive(long)}) if there is one, followed by the logs that are still in the log
+     * table.
+     * The memory used doesn't depend on the number of logs.
+     * Do not forget to call {@link LogIterator#close()} on the returned iterator.
+     *
+     * @param projection The columns to read ({@code _id} and {@code recorded_date} are always read), or none for all the columns.
+     */
+    @WorkerThread
+    @NonNull
+    public LogIterator iterateLogs(@NonNull Uri rideUri, @NonNull String... projection) {
+        return iterateLogs(ContentUris.parseId(rideUri), projection);
+    }
+
+    @WorkerThread
+    @NonNull
+    private LogIterator iterateLogs(long rideId, @NonNull String... projection) {
+        if (projection.length == 0) {
+            projection = LogRow.COLUMNS;
+        } else {
+            ArrayList<String> columns = new ArrayList<>(projection.length + 2);
+            columns.add(LogColumns._ID);
+            columns.add(LogColumns.RECORDED_DATE);
+            for (String column : projection) {
+                if (!columns.contains(column)) columns.add(column);
+            }
+            projection = columns.toArray(new String[columns.size()]);
+        }
+        synchronized (mArchiveLock) {
+            long count = mDao.countArchivedLogs(rideId) + mDao.countLogs(rideId);
+            return newLogIterator(rideId, projection, mDao.countArchiveChunks(rideId), (int) count);
+        }
+    }
+
+    /**
+     * Must be called with {@link #mArchiveLock} held: the ride is not archived until the returned iterator is closed.
+     */
+    @NonNull
+    private LogIterator newLogIterator(long rideId, @NonNull String[] projection, int archiveChunkCount, int count) {
+        Integer iteratorCount = mIteratedRideIds.get(rideId);
+        mIteratedRideIds.put(rideId, iteratorCount == null ? 1 : iteratorCount + 1);
+        return new LogIterator(mLogSource, rideId, projection, archiveChunkCount, count);
+    }
+
+    /**
+     * Reads the given chunk of the archive of the given ride.
+     *
+     * @param slots The slots of {@link LogRow} to decode, indexed by slot, or {@code null} for all of them.
+     * @return {@code null} if the chunk does not exist (e.g. the ride has been unarchived).
+     */
+    @WorkerThread
+    @Nullable
+    private LogArchive.RowReader readArchiveChunk(long rideId, int chunk, @Nullable boolean[] slots) {
+        LogArchiveCursor c = newLogArchiveChunkSelection(rideId, chunk).query(mContext, new String[] {LogArchiveColumns.ARCHIVE_DATA});
         try {
             if (!c.moveToNext()) return null;
-            count = c.getInt(0);
+            return LogArchive.readRows(rideId, c.getArchiveData(), slots);
         } finally {
             c.close();
         }
-        return count;
     }
 
     @WorkerThread
-    public List<LatLng> getLatLngArray(@NonNull Uri rideUri, int max) {
-        // Get the point count to determine the ratio to apply to not get more than max values
-        Integer count = getLogCount(rideUri);
-        if (count == null) return null;
-        int ratio = count / max;
-        if (ratio == 0) ratio = 1;
+    private int getUnarchivedLogCount(long rideId) {
+        return (int) mDao.countLogs(rideId);
+    }
 
-        ArrayList<LatLng> res = new ArrayList<>(max);
-        // Get the values
-        String[] projection = new String[] {LogColumns.LAT, LogColumns.LON};
-        LogSelection where = new LogSelection();
-        // Get at most max rows by applying a modulo on the id
-        long rideId = ContentUris.parseId(rideUri);
-        where.rideId(rideId).and().addRaw(LogColumns._ID + "%" + ratio + "=0");
-        LogCursor cursor = where.query(mContext, projection);
+    /**
+     * Archives the rides that are not being recorded, and whose last log is older than {@link #ARCHIVE_IDLE_DELAY_MS}.
+     */
+    @WorkerThread
+    public void archiveIdleRides() {
+        RideStatsSelection statsSelection = new RideStatsSelection();
+        statsSelection.statsLastLogDateBefore(new Date(System.currentTimeMillis() - ARCHIVE_IDLE_DELAY_MS));
+        RideStatsCursor c = statsSelection.query(mContext, new String[] {RideStatsColumns.RIDE_ID});
+        List<Long> rideIds = new ArrayList<>(c.getCount());
         try {
-            while (cursor.moveToNext()) {
-                res.add(new LatLng(cursor.getLat(), cursor.getLon()));
-            }
+            while (c.moveToNext()) rideIds.add(c.getRideId());
         } finally {
-            cursor.close();
+            c.close();
+        }
+
+        RideManager rideManager = RideManager.get();
+        for (long rideId : rideIds) {
+            Uri rideUri = ContentUris.withAppendedId(RideColumns.CONTENT_URI, rideId);
+            if (!rideManager.isExistingRide(rideUri)) continue;
+            RideState state = rideManager.getState(rideUri);
+            if (state == RideState.ACTIVE || state == RideState.DELETED) continue;
+            try {
+                archive(rideId);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.w("Could not archive ride " + rideId, e);
+            }
         }
-        return res;
     }
 
+    /**
+     * Packs the logs of the given ride that are in the log table into its archive, and deletes them from the log table.<br/>
+     * The logs are appended to the archive as new chunks of at most {@link LogArchive#CHUNK_SIZE} logs (one row of the log_archive table each):
+     * if the ride was already archived, only the logs added since then are encoded.
+     *
+     * @return {@code true} if the ride was archived, {@code false} if it had no logs to archive, or if they are being read by a {@link LogIterator}.
+     */
     @WorkerThread
-    public List<Float> getSpeedArray(@NonNull Uri rideUri, int max) {
-        // Get the point count to determine the ratio to apply to not get more than max values
-        Integer count = getLogCount(rideUri);
-        if (count == null) return null;
-        int ratio = count / max;
-        if (ratio == 0) ratio = 1;
+    public boolean archive(long rideId) throws RemoteException, OperationApplicationException {
+        synchronized (mArchiveLock) {
+            if (mIteratedRideIds.containsKey(rideId)) {
+                Log.d("Ride " + rideId + " is being read, not archiving it now");
+                return false;
+            }
+            int unarchivedLogCount = getUnarchivedLogCount(rideId);
+            if (unarchivedLogCount == 0) return false;
 
-        ArrayList<Float> res = new ArrayList<>(max);
-        // Get the values
-        String[] projection = new String[] {LogColumns.SPEED};
-        LogSelection where = new LogSelection();
-        // Get at most max rows by applying a modulo on the id
-        long rideId = ContentUris.parseId(rideUri);
-        where.rideId(rideId).and().speedNot((Float) null).and().addRaw(LogColumns._ID + "%" + ratio + "=0");
-        LogCursor cursor = where.query(mContext, projection);
-        try {
-            while (cursor.moveToNext()) {
-                res.add(cursor.getSpeed());
+            int chunk = mDao.countArchiveChunks(rideId);
+            int firstChunk = chunk;
+            long size = 0;
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(unarchivedLogCount / LogArchive.CHUNK_SIZE + 2);
+            LogArchive.Encoder encoder = new LogArchive.Encoder();
+            int archivedLogCount = 0;
+            long lastArchivedId = 0;
+            // Only the log table is read (by pages)
+            LogIterator logs = newLogIterator(rideId, LogRow.COLUMNS, 0, unarchivedLogCount);
+            try {
+                while (logs.next()) {
+                    LogRow log = logs.getRow();
+                    encoder.add(log);
+                    archivedLogCount++;
+                    if (log.mId > lastArchivedId) lastArchivedId = log.mId;
+                    if (encoder.getCount() == LogArchive.CHUNK_SIZE) {
+                        size += addArchiveChunk(operations, rideId, chunk++, encoder);
+                        encoder = new LogArchive.Encoder();
+                    }
+                }
+            } finally {
+                logs.close();
             }
-        } finally {
-            cursor.close();
+            if (encoder.getCount() > 0) size += addArchiveChunk(operations, rideId, chunk++, encoder);
+
+            // Logs may have been committed meanwhile (the ride was resumed): only delete the ones that were encoded (logs get increasing ids)
+            LogSelection where = new LogSelection();
+            where.rideId(rideId).and().addRaw(LogColumns._ID + "<=" + lastArchivedId);
+            operations.add(ContentProviderOperation.newDelete(LOG_CONTENT_URI_NO_NOTIFY).withSelection(where.sel(), where.args()).build());
+            mContext.getContentResolver().applyBatch(BikeyProvider.AUTHORITY, operations);
+            Log.d("Archived " + archivedLogCount + " logs of ride " + rideId + " (" + (chunk - firstChunk) + " chunks, " + size + " bytes)");
+            return true;
         }
-        return res;
     }
 
+    /**
+     * @return the size of the encoded chunk.
+     */
+    private static int addArchiveChunk(@NonNull ArrayList<ContentProviderOperation> operations, long rideId, int chunk,
+                                       @NonNull LogArchive.Encoder encoder) {
+        byte[] archiveData = encoder.encode();
+        LogArchiveContentValues values = new LogArchiveContentValues();
+        values.putRideId(rideId);
+        values.putArchiveChunk(chunk);
+        values.putArchiveLogCount((long) encoder.getCount());
+        values.putArchiveData(archiveData);
+        operations.add(ContentProviderOperation.newInsert(LOG_ARCHIVE_CONTENT_URI_NO_NOTIFY).withValues(values.values()).build());
+        return archiveData.length;
+    }
+
+    /**
+     * Moves the archived logs of the given rides (if any) back into the log table.<br/>
+     * This must be called before modifying the logs of the rides with a selection on the log table (e.g. to merge rides).
+     */
     @WorkerThread
-    public List<Float> getCadenceArray(@NonNull Uri rideUri, int max) {
-        // Get the point count to determine the ratio to apply to not get more than max values
-        Integer count = getLogCount(rideUri);
-        if (count == null) return null;
-        int ratio = count / max;
-        if (ratio == 0) ratio = 1;
+    public void unarchive(@NonNull long[] rideIds) throws RemoteException, OperationApplicationException {
+        synchronized (mArchiveLock) {
+            LogRow log = new LogRow();
+            for (long rideId : rideIds) {
+                int chunkCount = mDao.countArchiveChunks(rideId);
+                if (chunkCount == 0) continue;
 
-        ArrayList<Float> res = new ArrayList<>(max);
-        // Get the values
-        String[] projection = new String[] {LogColumns.CADENCE};
-        LogSelection where = new LogSelection();
-        // Get at most max rows by applying a modulo on the id
-        long rideId = ContentUris.parseId(rideUri);
-        where.rideId(rideId).and().cadenceNot((Float) null).and().addRaw(LogColumns._ID + "%" + ratio + "=0");
-        LogCursor cursor = where.query(mContext, projection);
-        try {
-            while (cursor.moveToNext()) {
-                res.add(cursor.getCadence());
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>((int) mDao.countArchivedLogs(rideId) + 1);
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    LogArchive.RowReader reader = readArchiveChunk(rideId, chunk, null);
+                    while (reader.next(log)) {
+                        operations.add(ContentProviderOperation.newInsert(LOG_CONTENT_URI_NO_NOTIFY).withValues(toContentValues(log)).build());
+                    }
+                }
+                LogArchiveSelection where = newLogArchiveSelection(rideId);
+                operations.add(ContentProviderOperation.newDelete(LOG_ARCHIVE_CONTENT_URI_NO_NOTIFY).withSelection(where.sel(), where.args()).build());
+                mContext.getContentResolver().applyBatch(BikeyProvider.AUTHORITY, operations);
+                Log.d("Unarchived " + (operations.size() - 1) + " logs of ride " + rideId);
             }
-        } finally {
-            cursor.close();
         }
+    }
+
+    /**
+     * The logs keep their id.
+     */
+    @NonNull
+    private static ContentValues toContentValues(@NonNull LogRow log) {
+        LogContentValues values = new LogContentValues();
+        values.putRideId(log.getRideId());
+        values.putRecordedDate(new Date(log.getRecordedDate()));
+        values.putLat(log.getLat());
+        values.putLon(log.getLon());
+        values.putEle(log.getEle());
+        values.putLogDuration(log.hasLogDuration() ? log.getLogDuration() : null);
+        values.putLogDistance(log.hasLogDistance() ? (float) log.getLogDistance() : null);
+        values.putSpeed(log.hasSpeed() ? (float) log.getSpeed() : null);
+        values.putCadence(log.hasCadence() ? (float) log.getCadence() : null);
+        values.putHeartRate(log.hasHeartRate() ? log.getHeartRate() : null);
+        ContentValues res = values.values();
+        res.put(LogColumns._ID, log.getId());
         return res;
     }
 
+    /**
+     * Delete the archived logs of the given rides (to be called when their logs are deleted).
+     */
     @WorkerThread
-    public List<Float> getHeartRateArray(@NonNull Uri rideUri, int max) {
-        // Get the point count to determine the ratio to apply to not get more than max values
-        Integer count = getLogCount(rideUri);
-        if (count == null) return null;
-        int ratio = count / max;
-        if (ratio == 0) ratio = 1;
+    public void deleteArchives(@NonNull long[] rideIds) {
+        synchronized (mArchiveLock) {
+            LogArchiveSelection where = newLogArchiveSelection(rideIds);
+            mContext.getContentResolver().delete(LOG_ARCHIVE_CONTENT_URI_NO_NOTIFY, where.sel(), where.args());
+        }
+    }
 
-        ArrayList<Float> res = new ArrayList<>(max);
-        // Get the values
-        String[] projection = new String[] {LogColumns.HEART_RATE};
-        LogSelection where = new LogSelection();
-        // Get at most max rows by applying a modulo on the id
-        long rideId = ContentUris.parseId(rideUri);
-        where.rideId(rideId).and().heartRateNot((Integer) null).and().addRaw(LogColumns._ID + "%" + ratio + "=0");
-        LogCursor cursor = where.query(mContext, projection);
-        try {
-            while (cursor.moveToNext()) {
-                res.add(Float.valueOf(cursor.getHeartRate()));
-            }
-        } finally {
-            cursor.close();
+
+    /*
+     * Selections (they are also checked by TestQueryPlans, which makes sure they don't scan a whole table).
+     */
+
+    /**
+     * Selects the logs of the given rides, in {@code recorded_date} order.
+     */
+    @NonNull
+    public static LogSelection newLogSelection(@NonNull long... rideIds) {
+        LogSelection res = new LogSelection();
+        res.rideId(rideIds).orderBy(LogColumns.RECORDED_DATE);
+        return res;
+    }
+
+    /**
+     * Selects a page of the logs of the given ride: the ones that come after the given log (in {@code recorded_date}, then {@code _id} order).
+     */
+    @NonNull
+    public static LogSelection newLogPageSelection(long rideId, boolean hasKey, long lastRecordedDate, long lastId, int pageSize) {
+        LogSelection res = new LogSelection();
+        res.rideId(rideId);
+        if (hasKey) {
+            // The first condition is redundant, but lets the (ride_id, recorded_date) index be used for a range
+            res.and().addRaw(LogColumns.RECORDED_DATE + ">=" + lastRecordedDate + " AND (" + LogColumns.RECORDED_DATE + ">" + lastRecordedDate + " OR "
+                    + LogColumns._ID + ">" + lastId + ")");
         }
+        res.orderBy(LogColumns.RECORDED_DATE).orderBy(LogColumns._ID).limit(pageSize);
+        return res;
+    }
+
+    /**
+     * Selects the archive chunks of the given rides, in chunk order.
+     */
+    @NonNull
+    public static LogArchiveSelection newLogArchiveSelection(@NonNull long... rideIds) {
+        LogArchiveSelection res = new LogArchiveSelection();
+        res.rideId(rideIds).orderBy(LogArchiveColumns.ARCHIVE_CHUNK);
+        return res;
+    }
+
+    @NonNull
+    public static LogArchiveSelection newLogArchiveChunkSelection(long rideId, int chunk) {
+        LogArchiveSelection res = new LogArchiveSelection();
+        res.rideId(rideId).and().archiveChunk(chunk);
+        return res;
+    }
+
+    @NonNull
+    public static RideLodSelection newRideLodSelection(long rideId, int level) {
+        RideLodSelection res = new RideLodSelection();
+        res.rideId(rideId).and().lodLevel(level);
+        return res;
+    }
+
+    @NonNull
+    public static RideStatsSelection newRideStatsSelection(@NonNull long... rideIds) {
+        RideStatsSelection res = new RideStatsSelection();
+        res.rideId(rideIds);
         return res;
     }
 
@@ -424,6 +1257,21 @@ public class LogManager {
      * Listeners.
      */
 
+    /**
+     * Stats of the given ride, updated each time a fix is added to it.<br/>
+     * They are computed once per fix from the in-memory stats of the ride being recorded, so subscribers don't read the database during a ride.
+     * The latest value is given right away to new subscribers (read from the database if the ride is not the one being recorded).
+     */
+    @NonNull
+    public Observable<RideMetrics> getLiveMetrics(@NonNull Uri rideUri) {
+        return Observable.defer(() -> {
+            Observable<RideMetrics> live = mLiveMetrics.filter(metrics -> metrics.getRideUri().equals(rideUri));
+            RideMetrics latest = mLiveMetrics.getValue();
+            if (latest != null && latest.getRideUri().equals(rideUri)) return live;
+            return live.startWith(Observable.fromCallable(() -> new RideMetrics(rideUri, getStats(rideUri))).subscribeOn(Schedulers.io()));
+        });
+    }
+
     public void addListener(@NonNull LogListener listener) {
         mListeners.add(listener);
     }
@@ -0,0 +1,82 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A single fix, waiting to be written as a log.<br/>
+ * Instances are meant to be preallocated and reused, which is why nullable values are represented with a flag instead of a boxed type.
+ */
+public class LogRecord {
+    public long recordedDate;
+    public double lat;
+    public double lon;
+    public double ele;
+    public boolean hasCadence;
+    public float cadence;
+    public boolean hasHeartRate;
+    public int heartRate;
+
+    public void set(@NonNull Location location, @Nullable Float cadence, @Nullable Integer heartRate) {
+        recordedDate = location.getTime();
+        lat = location.getLatitude();
+        lon = location.getLongitude();
+        ele = location.getAltitude();
+        hasCadence = cadence != null;
+        this.cadence = hasCadence ? cadence : 0;
+        hasHeartRate = heartRate != null;
+        this.heartRate = hasHeartRate ? heartRate : 0;
+    }
+
+    public void set(@NonNull LogRecord other) {
+        recordedDate = other.recordedDate;
+        lat = other.lat;
+        lon = other.lon;
+        ele = other.ele;
+        hasCadence = other.hasCadence;
+        cadence = other.cadence;
+        hasHeartRate = other.hasHeartRate;
+        heartRate = other.heartRate;
+    }
+
+    @Nullable
+    public Float getCadence() {
+        return hasCadence ? cadence : null;
+    }
+
+    @Nullable
+    public Integer getHeartRate() {
+        return hasHeartRate ? heartRate : null;
+    }
+
+    @Override
+    public String toString() {
+        return "LogRecord [recordedDate=" + recordedDate + ", lat=" + lat + ", lon=" + lon + ", ele=" + ele + ", cadence=" + getCadence() + ", heartRate="
+                + getHeartRate() + "]";
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+
+/**
+ * A log, as read by a {@link LogIterator}.<br/>
+ * The same instance is reused for all the logs of an iteration, so values must be copied if they need to be kept.
+ * The values of the columns that were not part of the projection are undefined.
+ */
+public class LogRow {
+    /**
+     * Columns of the log table, indexed by the slots below.
+     */
+    static final String[] COLUMNS = {LogColumns._ID, LogColumns.RIDE_ID, LogColumns.RECORDED_DATE, LogColumns.LAT, LogColumns.LON, LogColumns.ELE,
+            LogColumns.LOG_DURATION, LogColumns.LOG_DISTANCE, LogColumns.SPEED, LogColumns.CADENCE, LogColumns.HEART_RATE};
+
+    static final int ID = 0;
+    static final int RIDE_ID = 1;
+    static final int RECORDED_DATE = 2;
+    static final int LAT = 3;
+    static final int LON = 4;
+    static final int ELE = 5;
+    static final int LOG_DURATION = 6;
+    static final int LOG_DISTANCE = 7;
+    static final int SPEED = 8;
+    static final int CADENCE = 9;
+    static final int HEART_RATE = 10;
+
+    long mId;
+    long mRideId;
+    long mRecordedDate;
+    double mLat;
+    double mLon;
+    double mEle;
+    long mLogDuration;
+    boolean mHasLogDuration;
+    double mLogDistance;
+    boolean mHasLogDistance;
+    double mSpeed;
+    boolean mHasSpeed;
+    double mCadence;
+    boolean mHasCadence;
+    int mHeartRate;
+    boolean mHasHeartRate;
+
+    LogRow() {}
+
+    /**
+     * @return the slot of the given column (see {@link #COLUMNS}), or {@code -1} if it is not a column of the log table.
+     */
+    static int getSlot(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot One of the numeric slots, from {@link #LAT} to {@link #HEART_RATE}.
+     * @return {@code false} if the value of the given slot is {@code null}.
+     */
+    boolean hasValue(int slot) {
+        switch (slot) {
+            case LOG_DURATION:
+                return mHasLogDuration;
+            case LOG_DISTANCE:
+                return mHasLogDistance;
+            case SPEED:
+                return mHasSpeed;
+            case CADENCE:
+                return mHasCadence;
+            case HEART_RATE:
+                return mHasHeartRate;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @param slot One of the numeric slots, from {@link #LAT} to {@link #HEART_RATE}.
+     */
+    double getValue(int slot) {
+        switch (slot) {
+            case LAT:
+                return mLat;
+            case LON:
+                return mLon;
+            case ELE:
+                return mEle;
+            case LOG_DURATION:
+                return mLogDuration;
+            case LOG_DISTANCE:
+                return mLogDistance;
+            case SPEED:
+                return mSpeed;
+            case CADENCE:
+                return mCadence;
+            case HEART_RATE:
+                return mHeartRate;
+            default:
+                throw new IllegalArgumentException("Not a numeric slot: " + slot);
+        }
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public long getRideId() {
+        return mRideId;
+    }
+
+    public long getRecordedDate() {
+        return mRecordedDate;
+    }
+
+    public double getLat() {
+        return mLat;
+    }
+
+    public double getLon() {
+        return mLon;
+    }
+
+    public double getEle() {
+        return mEle;
+    }
+
+    public boolean hasLogDuration() {
+        return mHasLogDuration;
+    }
+
+    public long getLogDuration() {
+        return mLogDuration;
+    }
+
+    public boolean hasLogDistance() {
+        return mHasLogDistance;
+    }
+
+    public double getLogDistance() {
+        return mLogDistance;
+    }
+
+    public boolean hasSpeed() {
+        return mHasSpeed;
+    }
+
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    public boolean hasCadence() {
+        return mHasCadence;
+    }
+
+    public double getCadence() {
+        return mCadence;
+    }
+
+    public boolean hasHeartRate() {
+        return mHasHeartRate;
+    }
+
+    public int getHeartRate() {
+        return mHeartRate;
+    }
+}
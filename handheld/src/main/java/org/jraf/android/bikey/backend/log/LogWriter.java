@@ -0,0 +1,201 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.location.Location;
+import android.net.Uri;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import org.jraf.android.util.log.Log;
+
+/**
+ * Writes the logs of a ride from a single dedicated thread.<br/>
+ * Fixes are put in a preallocated ring buffer by {@link #enqueue(Location, Float, Integer)}, and the writer thread commits them to the database in one
+ * transaction every {@link #BATCH_SIZE} fixes or every {@link #BATCH_DELAY_MS} ms, whichever comes first.<br/>
+ * Each fix is also appended to the {@link LogJournal} when it is enqueued, so it is not lost if the process dies before it is committed.
+ */
+public class LogWriter {
+    /**
+     * Maximum number of fixes waiting to be handled by the writer thread.
+     */
+    private static final int CAPACITY = 256;
+
+    /**
+     * Commit as soon as this number of logs are staged.
+     */
+    private static final int BATCH_SIZE = 10;
+
+    /**
+     * Commit staged logs at least this often.
+     */
+    private static final long BATCH_DELAY_MS = 10 * 1000;
+
+    private final LogJournal mJournal = LogJournal.get();
+    private final Object mLock = new Object();
+    private final LogRecord[] mRing = new LogRecord[CAPACITY];
+    private final LogRecord[] mDrained = new LogRecord[CAPACITY];
+    private int mHead;
+    private int mCount;
+    private boolean mStopRequested;
+    private Thread mThread;
+    private Uri mRideUri;
+
+    public LogWriter() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mRing[i] = new LogRecord();
+            mDrained[i] = new LogRecord();
+        }
+    }
+
+    /**
+     * Start the writer thread for the given ride.
+     */
+    @WorkerThread
+    public void start(@NonNull Uri rideUri) {
+        synchronized (mLock) {
+            if (mThread != null) throw new IllegalStateException("Already started for " + mRideUri);
+            mRideUri = rideUri;
+            mHead = 0;
+            mCount = 0;
+            mStopRequested = false;
+            mThread = new Thread(this::writeLoop, "LogWriter");
+        }
+        mJournal.begin(rideUri);
+        // Do not link the first log to the last one recorded before the ride was paused
+        LogManager.get().startSegment(rideUri);
+        mThread.start();
+    }
+
+    /**
+     * Add a fix to the buffer. This never blocks.
+     *
+     * @return {@code false} if the fix was dropped, because the writer is not started or the buffer is full.
+     */
+    public boolean enqueue(@NonNull Location location, @Nullable Float cadence, @Nullable Integer heartRate) {
+        synchronized (mLock) {
+            if (mThread == null || mStopRequested) {
+                Log.w("Writer not started: dropping fix");
+                return false;
+            }
+            if (mCount == CAPACITY) {
+                Log.w("Buffer full: dropping fix");
+                return false;
+            }
+            LogRecord record = mRing[(mHead + mCount) % CAPACITY];
+            record.set(location, cadence, heartRate);
+            mJournal.append(record);
+            mCount++;
+            mLock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Commit all the fixes enqueued so far, and stop the writer thread.
+     */
+    @WorkerThread
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            if (thread == null) return;
+            mStopRequested = true;
+            mLock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Log.w("Interrupted while waiting for the writer thread to finish", e);
+        }
+        synchronized (mLock) {
+            mThread = null;
+        }
+    }
+
+    private void writeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        LogManager logManager = LogManager.get();
+        int stagedCount = 0;
+        long firstStagedDate = 0;
+        while (true) {
+            int drainedCount;
+            boolean stopRequested;
+            synchronized (mLock) {
+                while (mCount == 0 && !mStopRequested) {
+                    long waitMs = 0;
+                    if (stagedCount > 0) {
+                        waitMs = firstStagedDate + BATCH_DELAY_MS - System.currentTimeMillis();
+                        if (waitMs <= 0) break;
+                    }
+                    try {
+                        mLock.wait(waitMs);
+                    } catch (InterruptedException e) {
+                        Log.w("Interrupted while waiting for fixes", e);
+                    }
+                }
+
+                // Take everything that is in the buffer
+                drainedCount = mCount;
+                for (int i = 0; i < drainedCount; i++) {
+                    mDrained[i].set(mRing[(mHead + i) % CAPACITY]);
+                }
+                mHead = (mHead + drainedCount) % CAPACITY;
+                mCount = 0;
+                stopRequested = mStopRequested;
+            }
+
+            // Make sure the journaled fixes survive a crash of the system (this is done here rather than when appending, as it blocks)
+            if (drainedCount > 0) mJournal.sync();
+
+            for (int i = 0; i < drainedCount; i++) {
+                if (stagedCount == 0) firstStagedDate = System.currentTimeMillis();
+                logManager.stage(mRideUri, mDrained[i]);
+                stagedCount++;
+            }
+
+            // Write the last fix of the ride, even if it was skipped by the track simplifier
+            boolean segmentFinished = stopRequested && logManager.finishSegment(mRideUri);
+
+            if ((stagedCount > 0 || segmentFinished) && (stopRequested || stagedCount >= BATCH_SIZE || System.currentTimeMillis() - firstStagedDate >= BATCH_DELAY_MS)) {
+                Log.d("Committing " + stagedCount + " logs");
+                if (logManager.commit()) {
+                    mJournal.markCommitted(stagedCount);
+                    stagedCount = 0;
+                } else {
+                    // The logs are still staged (and journaled): retry later
+                    firstStagedDate = System.currentTimeMillis();
+                }
+            }
+
+            if (stopRequested) {
+                mJournal.end();
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jraf.android.bikey.backend.location.LocationManager;
+
+/**
+ * Running totals of a ride.<br/>
+ * This is kept in memory while a ride is being recorded, so that adding a log doesn't need to re-read all the logs of the ride, and is persisted in
+ * the {@code ride_stats} table along with the logs.
+ */
+public class RideAccumulator {
+    /**
+     * Speeds histogram: 0.1 m/s bins, up to 50 m/s.
+     */
+    private static final float SPEED_BIN_WIDTH = .1f;
+    private static final int SPEED_BIN_COUNT = 500;
+
+    /**
+     * Cadence / heart rate histograms: 1 rpm / bpm bins, up to 250.
+     */
+    private static final float CADENCE_BIN_WIDTH = 1f;
+    private static final int CADENCE_BIN_COUNT = 250;
+    private static final float HEART_RATE_BIN_WIDTH = 1f;
+    private static final int HEART_RATE_BIN_COUNT = 250;
+
+    private final long mRideId;
+
+    private long mLogCount;
+    private long mFixCount;
+    private float mDistance;
+    private long mMovingDuration;
+    private float mMovingDistance;
+    private float mMaxSpeed;
+    private int mCadenceCount;
+    private double mCadenceSum;
+    private int mHeartRateCount;
+    private double mHeartRateSum;
+    private long mFirstLogDate;
+    private long mLastLogDate;
+    private final ValueHistogram mSpeedHistogram = new ValueHistogram(SPEED_BIN_WIDTH, SPEED_BIN_COUNT);
+    private final ValueHistogram mCadenceHistogram = new ValueHistogram(CADENCE_BIN_WIDTH, CADENCE_BIN_COUNT);
+    private final ValueHistogram mHeartRateHistogram = new ValueHistogram(HEART_RATE_BIN_WIDTH, HEART_RATE_BIN_COUNT);
+
+    private boolean mHasLastFix;
+    private long mLastRecordedDate;
+    private double mLastLat;
+    private double mLastLon;
+
+    RideAccumulator(long rideId) {
+        mRideId = rideId;
+    }
+
+    RideAccumulator(long rideId, @NonNull RideAccumulator other) {
+        mRideId = rideId;
+        merge(other);
+    }
+
+    void set(long logCount, long fixCount, float distance, long movingDuration, float movingDistance, float maxSpeed, int cadenceCount, double cadenceSum,
+             int heartRateCount, double heartRateSum, long firstLogDate, long lastLogDate) {
+        mLogCount = logCount;
+        mFixCount = fixCount;
+        mDistance = distance;
+        mMovingDuration = movingDuration;
+        mMovingDistance = movingDistance;
+        mMaxSpeed = maxSpeed;
+        mCadenceCount = cadenceCount;
+        mCadenceSum = cadenceSum;
+        mHeartRateCount = heartRateCount;
+        mHeartRateSum = heartRateSum;
+        mFirstLogDate = firstLogDate;
+        mLastLogDate = lastLogDate;
+    }
+
+    /**
+     * @return {@code false} if one of the histograms could not be read.
+     */
+    boolean setHistograms(@NonNull byte[] speedHistogram, @NonNull byte[] cadenceHistogram, @NonNull byte[] heartRateHistogram) {
+        return mSpeedHistogram.readFrom(speedHistogram) && mCadenceHistogram.readFrom(cadenceHistogram)
+                && mHeartRateHistogram.readFrom(heartRateHistogram);
+    }
+
+    void add(long recordedDate, @Nullable Long logDuration, @Nullable Float logDistance, @Nullable Float speed, @Nullable Float cadence,
+             @Nullable Integer heartRate) {
+        add(recordedDate, logDuration != null, logDuration == null ? 0 : logDuration, logDistance != null, logDistance == null ? 0 : logDistance,
+                speed != null, speed == null ? 0 : speed, cadence != null, cadence == null ? 0 : cadence, heartRate != null,
+                heartRate == null ? 0 : heartRate);
+    }
+
+    /**
+     * Same as {@link #add(long, Long, Float, Float, Float, Integer)} with the values of a log, without boxing them (this is called for every log
+     * when the stats are computed from the logs).
+     */
+    void add(@NonNull LogRow log) {
+        add(log.getRecordedDate(), log.hasLogDuration(), log.getLogDuration(), log.hasLogDistance(), (float) log.getLogDistance(), log.hasSpeed(),
+                (float) log.getSpeed(), log.hasCadence(), (float) log.getCadence(), log.hasHeartRate(), log.getHeartRate());
+    }
+
+    private void add(long recordedDate, boolean hasLogDuration, long logDuration, boolean hasLogDistance, float logDistance, boolean hasSpeed,
+                     float speed, boolean hasCadence, float cadence, boolean hasHeartRate, int heartRate) {
+        if (mFixCount == 0 || recordedDate < mFirstLogDate) mFirstLogDate = recordedDate;
+        if (mFixCount == 0 || recordedDate > mLastLogDate) mLastLogDate = recordedDate;
+        mFixCount++;
+        if (hasLogDistance) mDistance += logDistance;
+        if (hasSpeed) {
+            if (speed > LocationManager.SPEED_MIN_THRESHOLD_M_S) {
+                if (hasLogDuration) mMovingDuration += logDuration;
+                if (hasLogDistance) mMovingDistance += logDistance;
+            }
+            if (speed > mMaxSpeed) mMaxSpeed = speed;
+            // Weight the speeds by duration, so the average of a range of speeds is distance / duration
+            mSpeedHistogram.add(speed, hasLogDuration ? logDuration : 0);
+        }
+        if (hasCadence) {
+            mCadenceCount++;
+            mCadenceSum += cadence;
+            mCadenceHistogram.add(cadence, 1);
+        }
+        if (hasHeartRate) {
+            mHeartRateCount++;
+            mHeartRateSum += heartRate;
+            mHeartRateHistogram.add(heartRate, 1);
+        }
+    }
+
+    /**
+     * Count a log actually written to the database (see {@link TrackSimplifier}: some fixes are accounted for in the totals, but not written).
+     */
+    void addLog() {
+        mLogCount++;
+    }
+
+    /**
+     * Add the totals of another ride to this one (the last fix is not affected).
+     */
+    void merge(@NonNull RideAccumulator other) {
+        if (other.mFixCount == 0) return;
+        if (mFixCount == 0 || other.mFirstLogDate < mFirstLogDate) mFirstLogDate = other.mFirstLogDate;
+        if (mFixCount == 0 || other.mLastLogDate > mLastLogDate) mLastLogDate = other.mLastLogDate;
+        mLogCount += other.mLogCount;
+        mFixCount += other.mFixCount;
+        mDistance += other.mDistance;
+        mMovingDuration += other.mMovingDuration;
+        mMovingDistance += other.mMovingDistance;
+        if (other.mMaxSpeed > mMaxSpeed) mMaxSpeed = other.mMaxSpeed;
+        mCadenceCount += other.mCadenceCount;
+        mCadenceSum += other.mCadenceSum;
+        mHeartRateCount += other.mHeartRateCount;
+        mHeartRateSum += other.mHeartRateSum;
+        mSpeedHistogram.merge(other.mSpeedHistogram);
+        mCadenceHistogram.merge(other.mCadenceHistogram);
+        mHeartRateHistogram.merge(other.mHeartRateHistogram);
+    }
+
+    void setLastFix(long recordedDate, double lat, double lon) {
+        mHasLastFix = true;
+        mLastRecordedDate = recordedDate;
+        mLastLat = lat;
+        mLastLon = lon;
+    }
+
+    /**
+     * Forget the last fix, so that the next one doesn't get a distance / duration relative to it (e.g. after a pause).
+     */
+    void clearLastFix() {
+        mHasLastFix = false;
+    }
+
+    boolean hasLastFix() {
+        return mHasLastFix;
+    }
+
+    long getLastRecordedDate() {
+        return mLastRecordedDate;
+    }
+
+    double getLastLat() {
+        return mLastLat;
+    }
+
+    double getLastLon() {
+        return mLastLon;
+    }
+
+    public long getRideId() {
+        return mRideId;
+    }
+
+    /**
+     * @return The number of logs written to the database.
+     */
+    public long getLogCount() {
+        return mLogCount;
+    }
+
+    /**
+     * @return The number of fixes received, including the ones that were not written to the database.
+     */
+    public long getFixCount() {
+        return mFixCount;
+    }
+
+    /**
+     * In meters.
+     */
+    public float getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * In milliseconds.
+     */
+    public long getMovingDuration() {
+        return mMovingDuration;
+    }
+
+    /**
+     * In meters.
+     */
+    public float getMovingDistance() {
+        return mMovingDistance;
+    }
+
+    /**
+     * In meters/second (this is the absolute max, nothing is discarded).
+     */
+    public float getMaxSpeed() {
+        return mMaxSpeed;
+    }
+
+    /**
+     * In meters/second.
+     */
+    public float getAverageMovingSpeed() {
+        if (mMovingDuration == 0) return 0;
+        return mMovingDistance / (mMovingDuration / 1000f);
+    }
+
+    @Nullable
+    public Float getAverageCadence() {
+        if (mCadenceCount == 0) return null;
+        return (float) (mCadenceSum / mCadenceCount);
+    }
+
+    @Nullable
+    public Float getAverageHeartRate() {
+        if (mHeartRateCount == 0) return null;
+        return (float) (mHeartRateSum / mHeartRateCount);
+    }
+
+    int getCadenceCount() {
+        return mCadenceCount;
+    }
+
+    double getCadenceSum() {
+        return mCadenceSum;
+    }
+
+    int getHeartRateCount() {
+        return mHeartRateCount;
+    }
+
+    double getHeartRateSum() {
+        return mHeartRateSum;
+    }
+
+    @Nullable
+    public Long getFirstLogDate() {
+        if (mFixCount == 0) return null;
+        return mFirstLogDate;
+    }
+
+    @Nullable
+    public Long getLastLogDate() {
+        if (mFixCount == 0) return null;
+        return mLastLogDate;
+    }
+
+    ValueHistogram getSpeedHistogram() {
+        return mSpeedHistogram;
+    }
+
+    ValueHistogram getCadenceHistogram() {
+        return mCadenceHistogram;
+    }
+
+    ValueHistogram getHeartRateHistogram() {
+        return mHeartRateHistogram;
+    }
+
+
+    /*
+     * Trimmed values.
+     * To account for imprecise values, the top 10% values are discarded (relative to the total number of fixes, so nothing is kept if there are less
+     * than 10 logs), as well as the bottom 10% values (relative to the number of values).
+     */
+
+    private int getTrimmedMaxBin(@NonNull ValueHistogram histogram) {
+        long rank = mFixCount / 10;
+        if (rank == 0) return -1;
+        return histogram.getBinFromTop(rank);
+    }
+
+    private static int getTrimmedMinBin(@NonNull ValueHistogram histogram) {
+        return histogram.getBinFromBottom(histogram.getCount() / 10);
+    }
+
+    private float getTrimmedMax(@NonNull ValueHistogram histogram) {
+        int bin = getTrimmedMaxBin(histogram);
+        if (bin == -1) return 0;
+        return histogram.getBinValue(bin);
+    }
+
+    private static float getTrimmedMin(@NonNull ValueHistogram histogram) {
+        int bin = getTrimmedMinBin(histogram);
+        if (bin == -1) return 0;
+        return histogram.getBinValue(bin);
+    }
+
+    @Nullable
+    private Float getTrimmedAverage(@NonNull ValueHistogram histogram) {
+        int minBin = getTrimmedMinBin(histogram);
+        int maxBin = getTrimmedMaxBin(histogram);
+        if (minBin == -1 || maxBin == -1) return null;
+        return histogram.getWeightedAverage(minBin, maxBin);
+    }
+
+    /**
+     * In meters/second.
+     */
+    public float getTrimmedMaxSpeed() {
+        return getTrimmedMax(mSpeedHistogram);
+    }
+
+    /**
+     * In meters/second.
+     */
+    public float getTrimmedAverageMovingSpeed() {
+        int maxBin = getTrimmedMaxBin(mSpeedHistogram);
+        if (maxBin == -1) return 0;
+        Float res = mSpeedHistogram.getWeightedAverage(mSpeedHistogram.getBin(LocationManager.SPEED_MIN_THRESHOLD_M_S), maxBin);
+        return res == null ? 0 : res;
+    }
+
+    public float getTrimmedMaxCadence() {
+        return getTrimmedMax(mCadenceHistogram);
+    }
+
+    public float getTrimmedMinCadence() {
+        return getTrimmedMin(mCadenceHistogram);
+    }
+
+    @Nullable
+    public Float getTrimmedAverageCadence() {
+        return getTrimmedAverage(mCadenceHistogram);
+    }
+
+    public float getTrimmedMaxHeartRate() {
+        return getTrimmedMax(mHeartRateHistogram);
+    }
+
+    public float getTrimmedMinHeartRate() {
+        return getTrimmedMin(mHeartRateHistogram);
+    }
+
+    @Nullable
+    public Float getTrimmedAverageHeartRate() {
+        return getTrimmedAverage(mHeartRateHistogram);
+    }
+
+    @Override
+    public String toString() {
+        return "RideAccumulator [mRideId=" + mRideId + ", mLogCount=" + mLogCount + ", mFixCount=" + mFixCount + ", mDistance=" + mDistance + ", mMovingDuration=" + mMovingDuration
+                + ", mMaxSpeed=" + mMaxSpeed + "]";
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Snapshot of the stats of a ride, published by {@link LogManager#getLiveMetrics(Uri)} each time a fix is added to it.<br/>
+ * Averages and maximums are trimmed (see {@link RideAccumulator}).
+ */
+public class RideMetrics {
+    private final Uri mRideUri;
+    private final float mDistance;
+    private final long mMovingDuration;
+    private final float mAverageMovingSpeed;
+    private final float mMaxSpeed;
+    private final Float mAverageCadence;
+    private final Float mAverageHeartRate;
+    private final long mFixCount;
+
+    RideMetrics(@NonNull Uri rideUri, @NonNull RideAccumulator accumulator) {
+        mRideUri = rideUri;
+        mDistance = accumulator.getDistance();
+        mMovingDuration = accumulator.getMovingDuration();
+        mAverageMovingSpeed = accumulator.getTrimmedAverageMovingSpeed();
+        mMaxSpeed = accumulator.getTrimmedMaxSpeed();
+        mAverageCadence = accumulator.getTrimmedAverageCadence();
+        mAverageHeartRate = accumulator.getTrimmedAverageHeartRate();
+        mFixCount = accumulator.getFixCount();
+    }
+
+    @NonNull
+    public Uri getRideUri() {
+        return mRideUri;
+    }
+
+    public float getDistance() {
+        return mDistance;
+    }
+
+    public long getMovingDuration() {
+        return mMovingDuration;
+    }
+
+    public float getAverageMovingSpeed() {
+        return mAverageMovingSpeed;
+    }
+
+    public float getMaxSpeed() {
+        return mMaxSpeed;
+    }
+
+    @Nullable
+    public Float getAverageCadence() {
+        return mAverageCadence;
+    }
+
+    @Nullable
+    public Float getAverageHeartRate() {
+        return mAverageHeartRate;
+    }
+
+    public long getFixCount() {
+        return mFixCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RideMetrics [mRideUri=" + mRideUri + ", mDistance=" + mDistance + ", mAverageMovingSpeed=" + mAverageMovingSpeed + ", mFixCount="
+                + mFixCount + "]";
+    }
+}
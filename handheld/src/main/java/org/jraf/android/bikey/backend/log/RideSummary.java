@@ -0,0 +1,341 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Stats of a ride, computed with a single ordered pass over its logs (see {@link LogManager#computeSummary}).<br/>
+ * Averages, minimums and maximums are trimmed (see {@link RideAccumulator}).
+ */
+public class RideSummary {
+    /**
+     * Elevation changes smaller than this are considered noise, and don't count in the elevation gain / loss (in meters).
+     */
+    private static final double ELEVATION_THRESHOLD_M = 3;
+
+    private final long mRideId;
+    private final long mLogCount;
+    private final long mFixCount;
+    private final float mDistance;
+    private final long mDuration;
+    private final long mMovingDuration;
+    private final Long mFirstLogDate;
+    private final Long mLastLogDate;
+    private final float mAverageMovingSpeed;
+    private final float mMaxSpeed;
+    private final Float mAverageCadence;
+    private final float mMinCadence;
+    private final float mMaxCadence;
+    private final long mCadenceCount;
+    private final Float mAverageHeartRate;
+    private final float mMinHeartRate;
+    private final float mMaxHeartRate;
+    private final long mHeartRateCount;
+    private final double mElevationGain;
+    private final double mElevationLoss;
+    private final LatLngBounds mBounds;
+    private final LatLng mStart;
+    private final double mStartElevation;
+    private final LatLng mEnd;
+    private final double mEndElevation;
+
+    private RideSummary(@NonNull Accumulator accumulator, long fixCount) {
+        RideAccumulator stats = accumulator.mStats;
+        mRideId = stats.getRideId();
+        mLogCount = stats.getLogCount();
+        mFixCount = Math.max(fixCount, mLogCount);
+        mDistance = stats.getDistance();
+        mDuration = accumulator.mDuration;
+        mMovingDuration = stats.getMovingDuration();
+        mFirstLogDate = stats.getFirstLogDate();
+        mLastLogDate = stats.getLastLogDate();
+        mAverageMovingSpeed = stats.getTrimmedAverageMovingSpeed();
+        mMaxSpeed = stats.getTrimmedMaxSpeed();
+        mAverageCadence = stats.getTrimmedAverageCadence();
+        mMinCadence = stats.getTrimmedMinCadence();
+        mMaxCadence = stats.getTrimmedMaxCadence();
+        mCadenceCount = stats.getCadenceCount();
+        mAverageHeartRate = stats.getTrimmedAverageHeartRate();
+        mMinHeartRate = stats.getTrimmedMinHeartRate();
+        mMaxHeartRate = stats.getTrimmedMaxHeartRate();
+        mHeartRateCount = stats.getHeartRateCount();
+        mElevationGain = accumulator.mElevationGain;
+        mElevationLoss = accumulator.mElevationLoss;
+        if (mLogCount == 0) {
+            mBounds = null;
+            mStart = null;
+            mEnd = null;
+        } else {
+            mBounds = new LatLngBounds(new LatLng(accumulator.mMinLat, accumulator.mMinLon), new LatLng(accumulator.mMaxLat, accumulator.mMaxLon));
+            mStart = new LatLng(accumulator.mStartLat, accumulator.mStartLon);
+            mEnd = new LatLng(accumulator.mEndLat, accumulator.mEndLon);
+        }
+        mStartElevation = accumulator.mStartEle;
+        mEndElevation = accumulator.mEndEle;
+    }
+
+    public long getRideId() {
+        return mRideId;
+    }
+
+    /**
+     * @return The number of logs in the database.
+     */
+    public long getLogCount() {
+        return mLogCount;
+    }
+
+    /**
+     * @return The number of fixes received, including the ones that were not written to the database.
+     */
+    public long getFixCount() {
+        return mFixCount;
+    }
+
+    /**
+     * In meters.
+     */
+    public float getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * Sum of the durations of the logs (pauses are not included), in milliseconds.
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * In milliseconds.
+     */
+    public long getMovingDuration() {
+        return mMovingDuration;
+    }
+
+    @Nullable
+    public Long getFirstLogDate() {
+        return mFirstLogDate;
+    }
+
+    @Nullable
+    public Long getLastLogDate() {
+        return mLastLogDate;
+    }
+
+    /**
+     * In meters/second.
+     */
+    public float getAverageMovingSpeed() {
+        return mAverageMovingSpeed;
+    }
+
+    /**
+     * In meters/second.
+     */
+    public float getMaxSpeed() {
+        return mMaxSpeed;
+    }
+
+    /**
+     * @return {@code null} if the ride has no cadence values.
+     */
+    @Nullable
+    public Float getAverageCadence() {
+        return mAverageCadence;
+    }
+
+    public float getMinCadence() {
+        return mMinCadence;
+    }
+
+    public float getMaxCadence() {
+        return mMaxCadence;
+    }
+
+    /**
+     * @return The number of logs that have a cadence value.
+     */
+    public long getCadenceCount() {
+        return mCadenceCount;
+    }
+
+    /**
+     * @return {@code null} if the ride has no heart rate values.
+     */
+    @Nullable
+    public Float getAverageHeartRate() {
+        return mAverageHeartRate;
+    }
+
+    public float getMinHeartRate() {
+        return mMinHeartRate;
+    }
+
+    public float getMaxHeartRate() {
+        return mMaxHeartRate;
+    }
+
+    /**
+     * @return The number of logs that have a heart rate value.
+     */
+    public long getHeartRateCount() {
+        return mHeartRateCount;
+    }
+
+    /**
+     * In meters.
+     */
+    public double getElevationGain() {
+        return mElevationGain;
+    }
+
+    /**
+     * In meters (positive).
+     */
+    public double getElevationLoss() {
+        return mElevationLoss;
+    }
+
+    /**
+     * @return {@code null} if the ride has no logs.
+     */
+    @Nullable
+    public LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    /**
+     * @return {@code null} if the ride has no logs.
+     */
+    @Nullable
+    public LatLng getStart() {
+        return mStart;
+    }
+
+    /**
+     * In meters.
+     */
+    public double getStartElevation() {
+        return mStartElevation;
+    }
+
+    /**
+     * @return {@code null} if the ride has no logs.
+     */
+    @Nullable
+    public LatLng getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * In meters.
+     */
+    public double getEndElevation() {
+        return mEndElevation;
+    }
+
+    @Override
+    public String toString() {
+        return "RideSummary [mRideId=" + mRideId + ", mLogCount=" + mLogCount + ", mDistance=" + mDistance + ", mDuration=" + mDuration
+                + ", mElevationGain=" + mElevationGain + ", mElevationLoss=" + mElevationLoss + "]";
+    }
+
+
+    /**
+     * Gathers the summary of a ride from its logs, which must be given in order.
+     */
+    static class Accumulator {
+        private final RideAccumulator mStats;
+        private long mDuration;
+        private double mMinLat;
+        private double mMaxLat;
+        private double mMinLon;
+        private double mMaxLon;
+        private double mStartLat;
+        private double mStartLon;
+        private double mStartEle;
+        private double mEndLat;
+        private double mEndLon;
+        private double mEndEle;
+        private double mElevationGain;
+        private double mElevationLoss;
+        // Last elevation that counted in the gain / loss
+        private double mReferenceEle;
+
+        Accumulator(long rideId) {
+            mStats = new RideAccumulator(rideId);
+        }
+
+        void add(@NonNull LogRow log) {
+            double lat = log.getLat();
+            double lon = log.getLon();
+            double ele = log.getEle();
+            if (mStats.getLogCount() == 0) {
+                mMinLat = lat;
+                mMaxLat = lat;
+                mMinLon = lon;
+                mMaxLon = lon;
+                mStartLat = lat;
+                mStartLon = lon;
+                mStartEle = ele;
+                mReferenceEle = ele;
+            } else {
+                if (lat < mMinLat) mMinLat = lat;
+                if (lat > mMaxLat) mMaxLat = lat;
+                if (lon < mMinLon) mMinLon = lon;
+                if (lon > mMaxLon) mMaxLon = lon;
+                double delta = ele - mReferenceEle;
+                if (delta >= ELEVATION_THRESHOLD_M) {
+                    mElevationGain += delta;
+                    mReferenceEle = ele;
+                } else if (delta <= -ELEVATION_THRESHOLD_M) {
+                    mElevationLoss -= delta;
+                    mReferenceEle = ele;
+                }
+            }
+            mEndLat = lat;
+            mEndLon = lon;
+            mEndEle = ele;
+            if (log.hasLogDuration()) mDuration += log.getLogDuration();
+
+            mStats.add(log);
+            mStats.addLog();
+        }
+
+        /**
+         * @param fixCount The number of fixes received for the ride (some of them may not have been written, see {@link TrackSimplifier}).
+         */
+        @NonNull
+        RideSummary build(long fixCount) {
+            return new RideSummary(this, fixCount);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+/**
+ * Decides, fix after fix, which ones need to be stored to keep the shape of the track.<br/>
+ * This is a dead reckoning filter: from the last stored fix and the velocity at that time, the position of the next fixes is predicted, and a fix is
+ * only stored if it is further than the tolerance from its predicted position, or if the last stored fix is older than {@link #MAX_GAP_MS}.
+ * On straight roads at a constant speed, most fixes are skipped.
+ */
+class TrackSimplifier {
+    /**
+     * Store a fix at least this often, even if it is predicted correctly.
+     */
+    private static final long MAX_GAP_MS = 30 * 1000;
+
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    private float mTolerance;
+    private boolean mHasAnchor;
+    private long mAnchorDate;
+    private double mAnchorLat;
+    private double mAnchorLon;
+    // In degrees per millisecond
+    private double mVelocityLat;
+    private double mVelocityLon;
+
+    /**
+     * @param tolerance Maximum distance between a fix and its predicted position for the fix to be skipped, in meters. {@code 0} to store all the fixes.
+     */
+    void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Forget the last stored fix: the next one will be stored.
+     */
+    void reset() {
+        mHasAnchor = false;
+    }
+
+    /**
+     * @param hasPrevious Whether the fix received just before this one is known (it is used to know the current velocity).
+     * @return {@code true} if the fix must be stored.
+     */
+    boolean offer(long date, double lat, double lon, boolean hasPrevious, long previousDate, double previousLat, double previousLon) {
+        if (mTolerance > 0 && mHasAnchor && date - mAnchorDate < MAX_GAP_MS) {
+            long elapsed = date - mAnchorDate;
+            double deltaLat = lat - (mAnchorLat + mVelocityLat * elapsed);
+            double deltaLon = lon - (mAnchorLon + mVelocityLon * elapsed);
+            double dy = deltaLat * METERS_PER_DEGREE;
+            double dx = deltaLon * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+            if (dx * dx + dy * dy <= mTolerance * mTolerance) return false;
+        }
+
+        // This fix is stored: it becomes the new reference for the predictions
+        mHasAnchor = true;
+        mAnchorDate = date;
+        mAnchorLat = lat;
+        mAnchorLon = lon;
+        if (hasPrevious && date > previousDate) {
+            mVelocityLat = (lat - previousLat) / (date - previousDate);
+            mVelocityLon = (lon - previousLon) / (date - previousDate);
+        } else {
+            mVelocityLat = 0;
+            mVelocityLon = 0;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Fixed-width histogram of positive values, used to answer "what is the value at the top / bottom 10%" without sorting all the values.<br/>
+ * Each bin keeps its number of values, as well as the sum of the weights and of the weighted values, so that the (weighted) average of a range of bins
+ * is known exactly. Two histograms with the same bins can be merged without any loss.<br/>
+ * Values outside of the range are put in the first / last bin.
+ */
+public class ValueHistogram {
+    private static final int FORMAT_VERSION = 1;
+
+    private final float mBinWidth;
+    private final long[] mCounts;
+    private final double[] mWeightSums;
+    private final double[] mWeightedValueSums;
+    private long mCount;
+
+    public ValueHistogram(float binWidth, int binCount) {
+        mBinWidth = binWidth;
+        mCounts = new long[binCount];
+        mWeightSums = new double[binCount];
+        mWeightedValueSums = new double[binCount];
+    }
+
+    public void add(float value, float weight) {
+        int bin = getBin(value);
+        mCounts[bin]++;
+        mWeightSums[bin] += weight;
+        mWeightedValueSums[bin] += value * weight;
+        mCount++;
+    }
+
+    /**
+     * Add all the values of another histogram, which must have the same bins.
+     */
+    public void merge(@NonNull ValueHistogram other) {
+        if (other.mBinWidth != mBinWidth || other.mCounts.length != mCounts.length) throw new IllegalArgumentException("Incompatible histograms");
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] += other.mCounts[i];
+            mWeightSums[i] += other.mWeightSums[i];
+            mWeightedValueSums[i] += other.mWeightedValueSums[i];
+        }
+        mCount += other.mCount;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+            mWeightSums[i] = 0;
+            mWeightedValueSums[i] = 0;
+        }
+        mCount = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public int getBin(float value) {
+        int bin = (int) (value / mBinWidth);
+        if (bin < 0) return 0;
+        if (bin >= mCounts.length) return mCounts.length - 1;
+        return bin;
+    }
+
+    /**
+     * Returns the bin of the value of the given rank, starting from the biggest value (rank 1).<br/>
+     * If there are less values than the rank, the bin of the smallest value is returned.
+     *
+     * @return {@code -1} if the histogram is empty.
+     */
+    public int getBinFromTop(long rank) {
+        long cumulatedCount = 0;
+        int lastNonEmptyBin = -1;
+        for (int i = mCounts.length - 1; i >= 0; i--) {
+            if (mCounts[i] == 0) continue;
+            lastNonEmptyBin = i;
+            cumulatedCount += mCounts[i];
+            if (cumulatedCount >= rank) return i;
+        }
+        return lastNonEmptyBin;
+    }
+
+    /**
+     * Returns the bin of the value at the given index, starting from the smallest value (index 0).
+     *
+     * @return {@code -1} if there are not more values than the index.
+     */
+    public int getBinFromBottom(long index) {
+        long cumulatedCount = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            cumulatedCount += mCounts[i];
+            if (cumulatedCount > index) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value representing the given bin: the average of its values if it has any, or else its center.
+     */
+    public float getBinValue(int bin) {
+        if (mWeightSums[bin] != 0) return (float) (mWeightedValueSums[bin] / mWeightSums[bin]);
+        return (bin + .5f) * mBinWidth;
+    }
+
+    /**
+     * Returns the weighted average of the values in the given bins (inclusive).
+     *
+     * @return {@code null} if these bins have no weight.
+     */
+    @Nullable
+    public Float getWeightedAverage(int fromBin, int toBin) {
+        double weightSum = 0;
+        double weightedValueSum = 0;
+        for (int i = Math.max(fromBin, 0); i <= toBin && i < mCounts.length; i++) {
+            weightSum += mWeightSums[i];
+            weightedValueSum += mWeightedValueSums[i];
+        }
+        if (weightSum == 0) return null;
+        return (float) (weightedValueSum / weightSum);
+    }
+
+    /**
+     * Serializes the non empty bins.
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            int nonEmptyBinCount = 0;
+            for (long count : mCounts) {
+                if (count != 0) nonEmptyBinCount++;
+            }
+            out.writeInt(nonEmptyBinCount);
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] == 0) continue;
+                out.writeShort(i);
+                out.writeLong(mCounts[i]);
+                out.writeDouble(mWeightSums[i]);
+                out.writeDouble(mWeightedValueSums[i]);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Cannot happen with a ByteArrayOutputStream
+            throw new AssertionError(e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Replaces the contents of this histogram with the given serialized contents (see {@link #toByteArray()}).
+     *
+     * @return {@code false} if the given contents could not be read (in that case this histogram is empty).
+     */
+    public boolean readFrom(@NonNull byte[] bytes) {
+        clear();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readByte() != FORMAT_VERSION) return false;
+            int nonEmptyBinCount = in.readInt();
+            for (int n = 0; n < nonEmptyBinCount; n++) {
+                int i = in.readShort();
+                if (i < 0 || i >= mCounts.length) {
+                    clear();
+                    return false;
+                }
+                mCounts[i] = in.readLong();
+                mWeightSums[i] = in.readDouble();
+                mWeightedValueSums[i] = in.readDouble();
+                mCount += mCounts[i];
+            }
+        } catch (IOException e) {
+            clear();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.io.Closeable;
+import java.util.LinkedHashSet;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import org.jraf.android.bikey.backend.log.LogRow;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsColumns;
+
+/**
+ * Direct access to the database, for the writes / reads made often by the app itself (e.g. one per fix while recording).<br/>
+ * This goes straight to {@link BikeyProviderSQLiteOpenHelper}, with statements compiled once, instead of going through the {@link BikeyProvider}
+ * (and a {@code ContentValues} per row). The changed URIs are notified once per batch, the same way the provider would.
+ * The provider is still what everything else (loaders, other apps, imports) uses.
+ */
+public class BikeyDao {
+    private static final String SQL_INSERT_LOG = "INSERT INTO " + LogColumns.TABLE_NAME + " (" + LogColumns.RIDE_ID + ", " + LogColumns.RECORDED_DATE
+            + ", " + LogColumns.LAT + ", " + LogColumns.LON + ", " + LogColumns.ELE + ", " + LogColumns.LOG_DURATION + ", " + LogColumns.LOG_DISTANCE + ", "
+            + LogColumns.SPEED + ", " + LogColumns.CADENCE + ", " + LogColumns.HEART_RATE + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_RIDE_DISTANCE = "UPDATE " + RideColumns.TABLE_NAME + " SET " + RideColumns.DISTANCE + "=? WHERE "
+            + RideColumns._ID + "=?";
+    private static final String SQL_COUNT_LOGS = "SELECT COUNT(*) FROM " + LogColumns.TABLE_NAME + " WHERE " + LogColumns.RIDE_ID + "=?";
+    private static final String SQL_COUNT_ARCHIVE_CHUNKS = "SELECT COUNT(*) FROM " + LogArchiveColumns.TABLE_NAME + " WHERE "
+            + LogArchiveColumns.RIDE_ID + "=?";
+    private static final String SQL_COUNT_ARCHIVED_LOGS = "SELECT IFNULL(SUM(" + LogArchiveColumns.ARCHIVE_LOG_COUNT + "), 0) FROM "
+            + LogArchiveColumns.TABLE_NAME + " WHERE " + LogArchiveColumns.RIDE_ID + "=?";
+
+    private static BikeyDao sInstance;
+
+    private final Context mContext;
+    private final SQLiteOpenHelper mOpenHelper;
+    private SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertLog;
+    private SQLiteStatement mUpdateRideDistance;
+    private SQLiteStatement mCountLogs;
+    private SQLiteStatement mCountArchiveChunks;
+    private SQLiteStatement mCountArchivedLogs;
+
+    public static synchronized BikeyDao getInstance(Context context) {
+        if (sInstance == null) {
+            Context applicationContext = context.getApplicationContext();
+            sInstance = new BikeyDao(applicationContext, BikeyProviderSQLiteOpenHelper.getInstance(applicationContext));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param openHelper The database to use (tests use their own).
+     */
+    BikeyDao(Context context, SQLiteOpenHelper openHelper) {
+        mContext = context;
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Returns the database, compiling the statements the first time (or if the database was re-opened).
+     */
+    @WorkerThread
+    private synchronized SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (db != mDatabase) {
+            mDatabase = db;
+            mInsertLog = db.compileStatement(SQL_INSERT_LOG);
+            mUpdateRideDistance = db.compileStatement(SQL_UPDATE_RIDE_DISTANCE);
+            mCountLogs = db.compileStatement(SQL_COUNT_LOGS);
+            mCountArchiveChunks = db.compileStatement(SQL_COUNT_ARCHIVE_CHUNKS);
+            mCountArchivedLogs = db.compileStatement(SQL_COUNT_ARCHIVED_LOGS);
+        }
+        return db;
+    }
+
+    /**
+     * Starts a batch: everything done with it is in a single transaction, and the changed URIs are notified once, when the batch is closed.<br/>
+     * {@link Batch#setSuccessful()} must be called before {@link Batch#close()}, otherwise the changes are rolled back.
+     *
+     * @param notify {@code false} to not notify the changed URIs at all (same as {@link BikeyProvider#notify(Uri, boolean)}).
+     */
+    @WorkerThread
+    @NonNull
+    public Batch beginBatch(boolean notify) {
+        SQLiteDatabase db = getDatabase();
+        // Readers are not blocked (write-ahead logging)
+        db.beginTransactionNonExclusive();
+        return new Batch(db, notify);
+    }
+
+    /**
+     * @return the number of logs of the given ride in the log table.
+     */
+    @WorkerThread
+    public long countLogs(long rideId) {
+        getDatabase();
+        synchronized (mCountLogs) {
+            mCountLogs.bindLong(1, rideId);
+            return mCountLogs.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * @return the number of chunks of the archive of the given ride ({@code 0} if it is not archived).
+     */
+    @WorkerThread
+    public int countArchiveChunks(long rideId) {
+        getDatabase();
+        synchronized (mCountArchiveChunks) {
+            mCountArchiveChunks.bindLong(1, rideId);
+            return (int) mCountArchiveChunks.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * @return the number of logs in the archive of the given ride.
+     */
+    @WorkerThread
+    public long countArchivedLogs(long rideId) {
+        getDatabase();
+        synchronized (mCountArchivedLogs) {
+            mCountArchivedLogs.bindLong(1, rideId);
+            return mCountArchivedLogs.simpleQueryForLong();
+        }
+    }
+
+    public class Batch implements Closeable {
+        private final SQLiteDatabase mBatchDatabase;
+        private final boolean mNotify;
+        private final LinkedHashSet<Uri> mChangedUris = new LinkedHashSet<>();
+        private boolean mSuccessful;
+        private boolean mClosed;
+
+        private Batch(SQLiteDatabase db, boolean notify) {
+            mBatchDatabase = db;
+            mNotify = notify;
+        }
+
+        /**
+         * Inserts a log (its {@code _id} is ignored).
+         *
+         * @return the id of the inserted log.
+         */
+        public long insertLog(@NonNull LogRow log) {
+            SQLiteStatement statement = mInsertLog;
+            long res;
+            synchronized (statement) {
+                statement.bindLong(1, log.getRideId());
+                statement.bindLong(2, log.getRecordedDate());
+                statement.bindDouble(3, log.getLat());
+                statement.bindDouble(4, log.getLon());
+                statement.bindDouble(5, log.getEle());
+                if (log.hasLogDuration()) statement.bindLong(6, log.getLogDuration());
+                else statement.bindNull(6);
+                if (log.hasLogDistance()) statement.bindDouble(7, log.getLogDistance());
+                else statement.bindNull(7);
+                if (log.hasSpeed()) statement.bindDouble(8, log.getSpeed());
+                else statement.bindNull(8);
+                if (log.hasCadence()) statement.bindDouble(9, log.getCadence());
+                else statement.bindNull(9);
+                if (log.hasHeartRate()) statement.bindLong(10, log.getHeartRate());
+                else statement.bindNull(10);
+                res = statement.executeInsert();
+            }
+            mChangedUris.add(LogColumns.CONTENT_URI);
+            return res;
+        }
+
+        public void updateRideDistance(long rideId, float distance) {
+            SQLiteStatement statement = mUpdateRideDistance;
+            synchronized (statement) {
+                statement.bindDouble(1, distance);
+                statement.bindLong(2, rideId);
+                statement.executeUpdateDelete();
+            }
+            mChangedUris.add(ContentUris.withAppendedId(RideColumns.CONTENT_URI, rideId));
+            mChangedUris.add(BikeyNotifier.RIDE_LIST_URI);
+        }
+
+        /**
+         * Inserts the stats of a ride, replacing the previous ones (if any).
+         */
+        public void insertRideStats(@NonNull ContentValues values) {
+            mBatchDatabase.insertOrThrow(RideStatsColumns.TABLE_NAME, null, values);
+            mChangedUris.add(RideStatsColumns.CONTENT_URI);
+        }
+
+        public void setSuccessful() {
+            mBatchDatabase.setTransactionSuccessful();
+            mSuccessful = true;
+        }
+
+        /**
+         * Ends the transaction, and notifies the changed URIs (through the {@link BikeyNotifier}) if it was successful.
+         */
+        @Override
+        public void close() {
+            if (mClosed) return;
+            mClosed = true;
+            mBatchDatabase.endTransaction();
+            if (!mSuccessful || !mNotify) return;
+            BikeyNotifier notifier = BikeyNotifier.getInstance(mContext);
+            for (Uri uri : mChangedUris) notifier.notifyChange(uri);
+        }
+    }
+}
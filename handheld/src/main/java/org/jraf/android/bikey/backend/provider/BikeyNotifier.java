@@ -0,0 +1,157 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.util.HashMap;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+
+/**
+ * Coalesces the change notifications of the provider.<br/>
+ * A URI is notified right away if it was not notified during the last {@link #WINDOW_MS}; otherwise a single notification is sent at the end of the
+ * window, whatever the number of changes in the meantime (the suppressed ones are counted, see {@link #getSuppressedCount()}).
+ * <p/>
+ * Changes to a single ride are notified on the URI of the ride, which observers of the whole table still receive (e.g. {@code RideManager}). They are
+ * also notified on {@link #RIDE_LIST_URI}, but only if one of the columns shown in the ride list changed.
+ */
+public class BikeyNotifier {
+    private static final long WINDOW_MS = 1000;
+
+    /**
+     * To be used as the notification URI of ride list cursors: it is notified for changes of the whole ride table, and for changes of a single ride
+     * that affect the columns of {@link #RIDE_LIST_COLUMNS} only.
+     */
+    public static final Uri RIDE_LIST_URI = Uri.withAppendedPath(RideColumns.CONTENT_URI, "list");
+
+    /**
+     * Columns shown in the ride list.
+     */
+    private static final String[] RIDE_LIST_COLUMNS = {RideColumns.NAME, RideColumns.CREATED_DATE, RideColumns.STATE, RideColumns.DISTANCE,
+            RideColumns.DURATION};
+
+    private static BikeyNotifier sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Guarded by itself
+    private final HashMap<Uri, UriState> mUriStates = new HashMap<>();
+    private long mNotifiedCount;
+    private long mSuppressedCount;
+
+    private static class UriState {
+        long lastNotifiedTime;
+        boolean pending;
+    }
+
+    public static synchronized BikeyNotifier getInstance(Context context) {
+        if (sInstance == null) sInstance = new BikeyNotifier(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private BikeyNotifier(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Notifies the given URI now, or at the end of its current window.
+     */
+    public void notifyChange(@NonNull Uri uri) {
+        long now = SystemClock.uptimeMillis();
+        synchronized (mUriStates) {
+            UriState state = mUriStates.get(uri);
+            if (state == null) {
+                state = new UriState();
+                mUriStates.put(uri, state);
+            } else if (state.pending) {
+                // Will be notified at the end of the window anyway
+                mSuppressedCount++;
+                return;
+            } else if (now - state.lastNotifiedTime < WINDOW_MS) {
+                state.pending = true;
+                mHandler.postAtTime(() -> notifyPending(uri), state.lastNotifiedTime + WINDOW_MS);
+                return;
+            }
+            state.lastNotifiedTime = now;
+            mNotifiedCount++;
+        }
+        mContext.getContentResolver().notifyChange(uri, null);
+    }
+
+    private void notifyPending(@NonNull Uri uri) {
+        synchronized (mUriStates) {
+            UriState state = mUriStates.get(uri);
+            state.pending = false;
+            state.lastNotifiedTime = SystemClock.uptimeMillis();
+            mNotifiedCount++;
+        }
+        mContext.getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Notifies a change of the given columns of a single ride.
+     */
+    public void notifyRideChange(long rideId, @NonNull Iterable<String> columns) {
+        notifyChange(ContentUris.withAppendedId(RideColumns.CONTENT_URI, rideId));
+        for (String column : columns) {
+            if (isRideListColumn(column)) {
+                notifyChange(RIDE_LIST_URI);
+                return;
+            }
+        }
+    }
+
+    private static boolean isRideListColumn(String column) {
+        for (String rideListColumn : RIDE_LIST_COLUMNS) {
+            if (rideListColumn.equals(column)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of notifications actually sent.
+     */
+    public long getNotifiedCount() {
+        synchronized (mUriStates) {
+            return mNotifiedCount;
+        }
+    }
+
+    /**
+     * @return the number of notifications that were not sent, because the same URI was already going to be notified.
+     */
+    public long getSuppressedCount() {
+        synchronized (mUriStates) {
+            return mSuppressedCount;
+        }
+    }
+}
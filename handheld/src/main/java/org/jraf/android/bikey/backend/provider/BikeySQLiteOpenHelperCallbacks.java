@@ -25,7 +25,9 @@
 package org.jraf.android.bikey.backend.provider;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.WorkerThread;
 import android.util.Log;
 
 import org.jraf.android.bikey.BuildConfig;
@@ -34,10 +36,68 @@ import org.jraf.android.bikey.backend.provider.base.BaseSQLiteOpenHelperCallback
 public class BikeySQLiteOpenHelperCallbacks extends BaseSQLiteOpenHelperCallbacks {
     private static final String TAG = BikeySQLiteOpenHelperCallbacks.class.getSimpleName();
 
+    /**
+     * Checkpoint the write-ahead log into the database every 256 pages (1 MB with 4 KB pages) instead of 1000, so that readers have less of it to go
+     * through.
+     */
+    private static final int WAL_AUTO_CHECKPOINT_PAGES = 256;
+    /**
+     * Truncate the write-ahead log file to this size after a checkpoint (it would otherwise stay at its largest size).
+     */
+    private static final long JOURNAL_SIZE_LIMIT_BYTES = 1024 * 1024;
+    /**
+     * Page cache of the connection (negative means KB).
+     */
+    private static final int CACHE_SIZE_KB = -2048;
+    /**
+     * Memory map the first 4 MB of the database file (ignored by SQLite versions older than 3.7.17, i.e. before Lollipop).
+     */
+    private static final long MMAP_SIZE_BYTES = 4 * 1024 * 1024;
+
     @Override
     public void onOpen(Context context, SQLiteDatabase db) {
         if (BuildConfig.DEBUG) Log.d(TAG, "onOpen");
         // Insert your db open code here.
+        if (db.isReadOnly()) return;
+
+        // Write-ahead logging: the log writer no longer blocks the readers (ride list, stats, display) and vice versa
+        boolean walEnabled = db.enableWriteAheadLogging();
+        if (walEnabled) {
+            // In WAL mode, NORMAL only risks losing the last transactions on power loss (never corrupts the database), and saves a fsync per commit
+            db.execSQL("PRAGMA synchronous=NORMAL");
+            pragma(db, "wal_autocheckpoint=" + WAL_AUTO_CHECKPOINT_PAGES);
+            pragma(db, "journal_size_limit=" + JOURNAL_SIZE_LIMIT_BYTES);
+            // Checkpoint what a previous process may have left in the log, without waiting for readers
+            pragma(db, "wal_checkpoint(PASSIVE)");
+        }
+        // Note: these only apply to the primary connection (the one used for writes)
+        db.execSQL("PRAGMA cache_size=" + CACHE_SIZE_KB);
+        db.execSQL("PRAGMA temp_store=MEMORY");
+        pragma(db, "mmap_size=" + MMAP_SIZE_BYTES);
+        if (BuildConfig.DEBUG) Log.d(TAG, "onOpen walEnabled=" + walEnabled);
+    }
+
+    /**
+     * Copies all the content of the write-ahead log into the database file (e.g. before copying it), waiting for the current readers / writer if
+     * needed.
+     */
+    @WorkerThread
+    public static void checkpoint(Context context) {
+        SQLiteDatabase db = BikeyProviderSQLiteOpenHelper.getInstance(context).getWritableDatabase();
+        // Does nothing if the database is not in WAL mode
+        pragma(db, "wal_checkpoint(FULL)");
+    }
+
+    /**
+     * Runs a pragma that returns a value (these can't be run with {@link SQLiteDatabase#execSQL(String)} on all versions).
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            c.moveToFirst();
+        } finally {
+            c.close();
+        }
     }
 
     @Override
@@ -50,6 +110,7 @@ public class BikeySQLiteOpenHelperCallbacks extends BaseSQLiteOpenHelperCallback
     public void onPostCreate(Context context, SQLiteDatabase db) {
         if (BuildConfig.DEBUG) Log.d(TAG, "onPostCreate");
         // Insert your db creation code here. This is called after your tables are created.
+        BikeySQLiteUpgradeHelper.createIndexes(db);
     }
 
     @Override
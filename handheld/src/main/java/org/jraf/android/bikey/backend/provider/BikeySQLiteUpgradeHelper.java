@@ -30,8 +30,12 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import org.jraf.android.bikey.BuildConfig;
+import org.jraf.android.bikey.backend.location.LocationManager;
 import org.jraf.android.bikey.backend.provider.log.LogColumns;
+import org.jraf.android.bikey.backend.provider.logarchive.LogArchiveColumns;
 import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+import org.jraf.android.bikey.backend.provider.ridelod.RideLodColumns;
+import org.jraf.android.bikey.backend.provider.ridestats.RideStatsColumns;
 
 public class BikeySQLiteUpgradeHelper {
     private static final String TAG = BikeySQLiteUpgradeHelper.class.getSimpleName();
@@ -111,8 +115,160 @@ public class BikeySQLiteUpgradeHelper {
             + " || "
             + RideColumns._ID
             + " ;";
+
+    // 6 -> 7
+    private static final String SQL_CREATE_TABLE_RIDE_STATS_7 = "CREATE TABLE IF NOT EXISTS "
+            + RideStatsColumns.TABLE_NAME + " ( "
+            + RideStatsColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + RideStatsColumns.RIDE_ID + " INTEGER NOT NULL, "
+            + RideStatsColumns.STATS_LOG_COUNT + " INTEGER NOT NULL, "
+            + RideStatsColumns.STATS_DISTANCE + " REAL NOT NULL, "
+            + RideStatsColumns.STATS_MOVING_DURATION + " INTEGER NOT NULL, "
+            + RideStatsColumns.STATS_MOVING_DISTANCE + " REAL NOT NULL, "
+            + RideStatsColumns.STATS_MAX_SPEED + " REAL NOT NULL, "
+            + RideStatsColumns.STATS_CADENCE_COUNT + " INTEGER NOT NULL, "
+            + RideStatsColumns.STATS_CADENCE_SUM + " REAL NOT NULL, "
+            + RideStatsColumns.STATS_HEART_RATE_COUNT + " INTEGER NOT NULL, "
+            + RideStatsColumns.STATS_HEART_RATE_SUM + " REAL NOT NULL, "
+            + RideStatsColumns.STATS_FIRST_LOG_DATE + " INTEGER, "
+            + RideStatsColumns.STATS_LAST_LOG_DATE + " INTEGER "
+            + ", CONSTRAINT fk_ride_id FOREIGN KEY (" + RideStatsColumns.RIDE_ID + ") REFERENCES " + RideColumns.TABLE_NAME + " (" + RideColumns._ID + ") ON DELETE CASCADE"
+            + ", CONSTRAINT unique_ride_id UNIQUE (" + RideStatsColumns.RIDE_ID + ") ON CONFLICT REPLACE"
+            + " );";
+    private static final String SQL_MOVING_CONDITION_7 = LogColumns.SPEED + ">" + LocationManager.SPEED_MIN_THRESHOLD_M_S;
+    private static final String SQL_POPULATE_TABLE_RIDE_STATS_7 = "INSERT INTO "
+            + RideStatsColumns.TABLE_NAME
+            + " ( "
+            + RideStatsColumns.RIDE_ID + ", "
+            + RideStatsColumns.STATS_LOG_COUNT + ", "
+            + RideStatsColumns.STATS_DISTANCE + ", "
+            + RideStatsColumns.STATS_MOVING_DURATION + ", "
+            + RideStatsColumns.STATS_MOVING_DISTANCE + ", "
+            + RideStatsColumns.STATS_MAX_SPEED + ", "
+            + RideStatsColumns.STATS_CADENCE_COUNT + ", "
+            + RideStatsColumns.STATS_CADENCE_SUM + ", "
+            + RideStatsColumns.STATS_HEART_RATE_COUNT + ", "
+            + RideStatsColumns.STATS_HEART_RATE_SUM + ", "
+            + RideStatsColumns.STATS_FIRST_LOG_DATE + ", "
+            + RideStatsColumns.STATS_LAST_LOG_DATE
+            + " ) "
+            + " SELECT "
+            + LogColumns.RIDE_ID + ", "
+            + " COUNT ( * ), "
+            + " IFNULL ( SUM ( " + LogColumns.LOG_DISTANCE + " ), 0 ), "
+            + " IFNULL ( SUM ( CASE WHEN " + SQL_MOVING_CONDITION_7 + " THEN " + LogColumns.LOG_DURATION + " END ), 0 ), "
+            + " IFNULL ( SUM ( CASE WHEN " + SQL_MOVING_CONDITION_7 + " THEN " + LogColumns.LOG_DISTANCE + " END ), 0 ), "
+            + " IFNULL ( MAX ( " + LogColumns.SPEED + " ), 0 ), "
+            + " COUNT ( " + LogColumns.CADENCE + " ), "
+            + " IFNULL ( SUM ( " + LogColumns.CADENCE + " ), 0 ), "
+            + " COUNT ( " + LogColumns.HEART_RATE + " ), "
+            + " IFNULL ( SUM ( " + LogColumns.HEART_RATE + " ), 0 ), "
+            + " MIN ( " + LogColumns.RECORDED_DATE + " ), "
+            + " MAX ( " + LogColumns.RECORDED_DATE + " ) "
+            + " FROM "
+            + LogColumns.TABLE_NAME
+            + " GROUP BY "
+            + LogColumns.RIDE_ID
+            + " ;";
+
+    // 7 -> 8
+    private static final String SQL_UPGRADE_TABLE_RIDE_STATS_8_SPEED = "ALTER TABLE "
+            + RideStatsColumns.TABLE_NAME
+            + " ADD COLUMN "
+            + RideStatsColumns.STATS_SPEED_HISTOGRAM + " BLOB"
+            + " ;";
+    private static final String SQL_UPGRADE_TABLE_RIDE_STATS_8_CADENCE = "ALTER TABLE "
+            + RideStatsColumns.TABLE_NAME
+            + " ADD COLUMN "
+            + RideStatsColumns.STATS_CADENCE_HISTOGRAM + " BLOB"
+            + " ;";
+    private static final String SQL_UPGRADE_TABLE_RIDE_STATS_8_HEART_RATE = "ALTER TABLE "
+            + RideStatsColumns.TABLE_NAME
+            + " ADD COLUMN "
+            + RideStatsColumns.STATS_HEART_RATE_HISTOGRAM + " BLOB"
+            + " ;";
+
+    // 8 -> 9
+    private static final String SQL_UPGRADE_TABLE_RIDE_STATS_9 = "ALTER TABLE "
+            + RideStatsColumns.TABLE_NAME
+            + " ADD COLUMN "
+            + RideStatsColumns.STATS_FIX_COUNT + " INTEGER NOT NULL DEFAULT 0"
+            + " ;";
+    private static final String SQL_POPULATE_TABLE_RIDE_STATS_9 = "UPDATE "
+            + RideStatsColumns.TABLE_NAME
+            + " SET "
+            + RideStatsColumns.STATS_FIX_COUNT + " = " + RideStatsColumns.STATS_LOG_COUNT
+            + " ;";
+
+    // 9 -> 10
+    // Logs are always read by ride, in order (stats scan, exporters, merge, delete)
+    private static final String SQL_CREATE_INDEX_LOG_RIDE_ID_RECORDED_DATE_10 = "CREATE INDEX IF NOT EXISTS "
+            + "idx_" + LogColumns.TABLE_NAME + "_" + LogColumns.RIDE_ID + "_" + LogColumns.RECORDED_DATE
+            + " ON "
+            + LogColumns.TABLE_NAME
+            + " ( "
+            + LogColumns.RIDE_ID + ", "
+            + LogColumns.RECORDED_DATE
+            + " ) "
+            + " ;";
+    // Rides are looked up by uuid (not deleted) during the Google Drive sync
+    private static final String SQL_CREATE_INDEX_RIDE_UUID_STATE_10 = "CREATE INDEX IF NOT EXISTS "
+            + "idx_" + RideColumns.TABLE_NAME + "_" + RideColumns.UUID + "_" + RideColumns.STATE
+            + " ON "
+            + RideColumns.TABLE_NAME
+            + " ( "
+            + RideColumns.UUID + ", "
+            + RideColumns.STATE
+            + " ) "
+            + " ;";
+    // Deleted rides are listed during the Google Drive sync
+    private static final String SQL_CREATE_INDEX_RIDE_STATE_10 = "CREATE INDEX IF NOT EXISTS "
+            + "idx_" + RideColumns.TABLE_NAME + "_" + RideColumns.STATE
+            + " ON "
+            + RideColumns.TABLE_NAME
+            + " ( "
+            + RideColumns.STATE
+            + " ) "
+            + " ;";
+
+    // 10 -> 11
+    private static final String SQL_CREATE_TABLE_LOG_ARCHIVE_11 = "CREATE TABLE IF NOT EXISTS "
+            + LogArchiveColumns.TABLE_NAME + " ( "
+            + LogArchiveColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + LogArchiveColumns.RIDE_ID + " INTEGER NOT NULL, "
+            + LogArchiveColumns.ARCHIVE_CHUNK + " INTEGER NOT NULL DEFAULT '0', "
+            + LogArchiveColumns.ARCHIVE_LOG_COUNT + " INTEGER NOT NULL, "
+            + LogArchiveColumns.ARCHIVE_DATA + " BLOB NOT NULL "
+            + ", CONSTRAINT fk_ride_id FOREIGN KEY (" + LogArchiveColumns.RIDE_ID + ") REFERENCES " + RideColumns.TABLE_NAME + " (" + RideColumns._ID + ") ON DELETE CASCADE"
+            + ", CONSTRAINT unique_ride_id_archive_chunk UNIQUE (" + LogArchiveColumns.RIDE_ID + ", " + LogArchiveColumns.ARCHIVE_CHUNK + ") ON CONFLICT REPLACE"
+            + " );";
+
+    // 11 -> 12
+    private static final String SQL_CREATE_TABLE_RIDE_LOD_12 = "CREATE TABLE IF NOT EXISTS "
+            + RideLodColumns.TABLE_NAME + " ( "
+            + RideLodColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + RideLodColumns.RIDE_ID + " INTEGER NOT NULL, "
+            + RideLodColumns.LOD_LEVEL + " INTEGER NOT NULL, "
+            + RideLodColumns.LOD_LOG_COUNT + " INTEGER NOT NULL, "
+            + RideLodColumns.LOD_TRACK + " BLOB NOT NULL, "
+            + RideLodColumns.LOD_SPEED + " BLOB NOT NULL, "
+            + RideLodColumns.LOD_CADENCE + " BLOB NOT NULL, "
+            + RideLodColumns.LOD_HEART_RATE + " BLOB NOT NULL "
+            + ", CONSTRAINT fk_ride_id FOREIGN KEY (" + RideLodColumns.RIDE_ID + ") REFERENCES " + RideColumns.TABLE_NAME + " (" + RideColumns._ID + ") ON DELETE CASCADE"
+            + ", CONSTRAINT unique_ride_id_lod_level UNIQUE (" + RideLodColumns.RIDE_ID + ", " + RideLodColumns.LOD_LEVEL + ") ON CONFLICT REPLACE"
+            + " );";
     // @formatter:on
 
+    /**
+     * Creates the indexes of the current schema.<br/>
+     * Called when the database is created, and when upgrading from a version that did not have them.
+     */
+    static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_INDEX_LOG_RIDE_ID_RECORDED_DATE_10);
+        db.execSQL(SQL_CREATE_INDEX_RIDE_UUID_STATE_10);
+        db.execSQL(SQL_CREATE_INDEX_RIDE_STATE_10);
+    }
+
     void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (BuildConfig.DEBUG) Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
 
@@ -159,6 +315,53 @@ public class BikeySQLiteUpgradeHelper {
                     db.execSQL(SQL_POPULATE_TABLE_RIDE_6);
                     curVersion = 6;
                     break;
+
+                case 6:
+                    // 6 -> 7
+                    // Add new RIDE_STATS table
+                    db.execSQL(SQL_CREATE_TABLE_RIDE_STATS_7);
+                    // Populate it from the existing logs
+                    db.execSQL(SQL_POPULATE_TABLE_RIDE_STATS_7);
+                    curVersion = 7;
+                    break;
+
+                case 7:
+                    // 7 -> 8
+                    // Add new histogram columns (they are computed from the logs the first time the stats of each ride are read)
+                    db.execSQL(SQL_UPGRADE_TABLE_RIDE_STATS_8_SPEED);
+                    db.execSQL(SQL_UPGRADE_TABLE_RIDE_STATS_8_CADENCE);
+                    db.execSQL(SQL_UPGRADE_TABLE_RIDE_STATS_8_HEART_RATE);
+                    curVersion = 8;
+                    break;
+
+                case 8:
+                    // 8 -> 9
+                    // Add new fix count column (until now, all the fixes were written as logs)
+                    db.execSQL(SQL_UPGRADE_TABLE_RIDE_STATS_9);
+                    db.execSQL(SQL_POPULATE_TABLE_RIDE_STATS_9);
+                    curVersion = 9;
+                    break;
+
+                case 9:
+                    // 9 -> 10
+                    // Add indexes for the ride / log lookups
+                    createIndexes(db);
+                    curVersion = 10;
+                    break;
+
+                case 10:
+                    // 10 -> 11
+                    // Add new LOG_ARCHIVE table (rides are archived when idle, see LogManager.archiveIdleRides)
+                    db.execSQL(SQL_CREATE_TABLE_LOG_ARCHIVE_11);
+                    curVersion = 11;
+                    break;
+
+                case 11:
+                    // 11 -> 12
+                    // Add new RIDE_LOD table (it is filled when rides are paused, or when they are first displayed)
+                    db.execSQL(SQL_CREATE_TABLE_RIDE_LOD_12);
+                    curVersion = 12;
+                    break;
             }
         }
     }
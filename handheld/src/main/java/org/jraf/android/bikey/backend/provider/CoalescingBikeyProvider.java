@@ -0,0 +1,106 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.provider;
+
+import java.util.List;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import org.jraf.android.bikey.backend.provider.ride.RideColumns;
+
+/**
+ * The provider declared in the manifest: same as the generated {@link BikeyProvider}, except that the changes are notified through the
+ * {@link BikeyNotifier}, which coalesces them, and notifies the changes of a single ride on the URI of the ride.
+ */
+public class CoalescingBikeyProvider extends BikeyProvider {
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        Uri res = super.insert(withoutNotify(uri), values);
+        if (res == null) return null;
+        if (shouldNotify(uri)) notifyTableChange(uri);
+        return ContentUris.withAppendedId(withoutQuery(uri), ContentUris.parseId(res));
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        int res = super.bulkInsert(withoutNotify(uri), values);
+        if (res != 0 && shouldNotify(uri)) notifyTableChange(uri);
+        return res;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        int res = super.update(withoutNotify(uri), values, selection, selectionArgs);
+        if (res == 0 || !shouldNotify(uri)) return res;
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 2 && RideColumns.TABLE_NAME.equals(segments.get(0))) {
+            // A single ride
+            BikeyNotifier.getInstance(getContext()).notifyRideChange(ContentUris.parseId(uri), values.keySet());
+        } else {
+            BikeyNotifier.getInstance(getContext()).notifyChange(withoutQuery(uri));
+        }
+        return res;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        int res = super.delete(withoutNotify(uri), selection, selectionArgs);
+        if (res != 0 && shouldNotify(uri)) notifyTableChange(uri);
+        return res;
+    }
+
+    /**
+     * Rows were added or removed: notify the whole table (for rides, this includes {@link BikeyNotifier#RIDE_LIST_URI}).
+     */
+    private void notifyTableChange(Uri uri) {
+        String table = uri.getPathSegments().get(0);
+        Uri tableUri = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority()).appendPath(table).build();
+        BikeyNotifier.getInstance(getContext()).notifyChange(tableUri);
+    }
+
+    private static boolean shouldNotify(Uri uri) {
+        String notify = uri.getQueryParameter(QUERY_NOTIFY);
+        return notify == null || "true".equals(notify);
+    }
+
+    private static Uri withoutQuery(Uri uri) {
+        return uri.buildUpon().clearQuery().build();
+    }
+
+    /**
+     * Returns the same URI with {@code notify=false}, so that the generated provider doesn't notify it itself.
+     */
+    private static Uri withoutNotify(Uri uri) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (QUERY_NOTIFY.equals(name)) continue;
+            for (String value : uri.getQueryParameters(name)) builder.appendQueryParameter(name, value);
+        }
+        return builder.appendQueryParameter(QUERY_NOTIFY, "false").build();
+    }
+}
@@ -24,19 +24,25 @@
  */
 package org.jraf.android.bikey.backend.ride;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.UUID;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
+import android.support.v4.util.LongSparseArray;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 
@@ -44,7 +50,9 @@ import org.jraf.android.bikey.R;
 import org.jraf.android.bikey.app.Application;
 import org.jraf.android.bikey.app.collect.LogCollectorService;
 import org.jraf.android.bikey.backend.log.LogManager;
+import org.jraf.android.bikey.backend.provider.BikeyNotifier;
 import org.jraf.android.bikey.backend.provider.BikeyProvider;
+import org.jraf.android.bikey.backend.provider.log.LogColumns;
 import org.jraf.android.bikey.backend.provider.log.LogContentValues;
 import org.jraf.android.bikey.backend.provider.log.LogSelection;
 import org.jraf.android.bikey.backend.provider.ride.RideColumns;
@@ -63,11 +71,49 @@ public class RideManager {
         return INSTANCE;
     }
 
+    /**
+     * Sentinel for {@link #mCurrentRideUri}, meaning the preference has not been read yet.
+     */
+    private static final Uri CURRENT_RIDE_NOT_LOADED = Uri.EMPTY;
+
+    private static final Uri RIDE_CONTENT_URI_NO_NOTIFY = BikeyProvider.notify(RideColumns.CONTENT_URI, false);
+
     private final Context mContext;
     private Listeners<RideListener> mListeners = Listeners.newInstance();
 
+    /**
+     * Metadata of the rides read so far, keyed by ride id.  Guarded by itself.
+     */
+    private final LongSparseArray<CachedRide> mCache = new LongSparseArray<>();
+    /**
+     * Incremented (under the {@link #mCache} lock) each time entries are invalidated, so that a row read from the database concurrently with an
+     * invalidation is not put back in the cache.
+     */
+    private long mCacheGeneration;
+    private volatile Uri mCurrentRideUri = CURRENT_RIDE_NOT_LOADED;
+
+    private final ContentObserver mRideObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // The ride list is always notified along with the changed ride itself
+            if (BikeyNotifier.RIDE_LIST_URI.equals(uri)) return;
+            long rideId = getRideId(uri);
+            if (rideId == -1) {
+                invalidateAll();
+            } else {
+                invalidate(rideId);
+            }
+        }
+    };
+
     private RideManager() {
         mContext = Application.getApplication();
+        mContext.getContentResolver().registerContentObserver(RideColumns.CONTENT_URI, true, mRideObserver);
     }
 
     @WorkerThread
@@ -81,7 +127,10 @@ public class RideManager {
         values.putState(RideState.CREATED);
         values.putDuration(0L);
         values.putDistance(0f);
-        return values.insert(mContext);
+        Uri rideUri = values.insert(mContext);
+        // The new row will be read from the database on first access
+        invalidate(getRideId(rideUri));
+        return rideUri;
     }
 
     @WorkerThread
@@ -95,11 +144,17 @@ public class RideManager {
         RideContentValues rideContentValues = new RideContentValues();
         rideContentValues.putState(RideState.DELETED);
         int res = rideContentValues.update(mContext, rideSelection);
+        synchronized (mCache) {
+            for (long id : ids) {
+                CachedRide cachedRide = mCache.get(id);
+                if (cachedRide != null) cachedRide.state = RideState.DELETED;
+            }
+        }
 
         // Delete logs
-        LogSelection logSelection = new LogSelection();
-        logSelection.rideId(ids);
-        logSelection.delete(mContext);
+        LogManager.newLogSelection(ids).delete(mContext);
+        LogManager.get().deleteArchives(ids);
+        LogManager.get().deleteStats(ids);
 
         // If we just deleted the current ride, select another ride to be the current ride (if any).
         Uri currentRideUri = getCurrentRide();
@@ -116,75 +171,94 @@ public class RideManager {
         return res;
     }
 
+    /**
+     * Merges the given rides into the one created first: their logs are moved to it, their stats / distance / duration are added to its own, and
+     * they are deleted.<br/>
+     * Everything is done in a single batch (i.e. a single transaction), so an interrupted merge leaves the rides untouched.
+     *
+     * @param progressListener Notified after each ride is prepared, and after the batch is applied (can be {@code null}).
+     */
     @WorkerThread
-    public void merge(long[] ids) {
+    public void merge(long[] ids, @Nullable RideMergeProgressListener progressListener) throws RemoteException, OperationApplicationException {
+        if (ids.length < 2) return;
+        int progressTotal = ids.length + 1;
+
         // First pause any active rides in the list
         pauseRides(ids);
 
-        // Choose the master ride (the one with the earliest creation date)
-        String[] projection = {RideColumns._ID};
+        // Choose the master ride (the one with the earliest creation date), and add up the totals of all the rides
+        String[] projection = {RideColumns._ID, RideColumns.DURATION, RideColumns.DISTANCE};
         RideSelection rideSelection = new RideSelection();
         rideSelection.id(ids);
         rideSelection.orderByCreatedDate();
         ContentResolver contentResolver = mContext.getContentResolver();
         RideCursor rideCursor = rideSelection.query(contentResolver, projection);
-        long masterRideId;
+        long masterRideId = -1;
+        long[] mergedRideIds = new long[ids.length - 1];
+        long totalDuration = 0;
+        float totalDistance = 0;
         try {
-            rideCursor.moveToNext();
-            masterRideId = rideCursor.getId();
+            while (rideCursor.moveToNext()) {
+                if (rideCursor.isFirst()) {
+                    masterRideId = rideCursor.getId();
+                } else {
+                    mergedRideIds[rideCursor.getPosition() - 1] = rideCursor.getId();
+                }
+                totalDuration += rideCursor.getDuration();
+                totalDistance += rideCursor.getDistance();
+            }
+            if (rideCursor.getCount() != ids.length) throw new IllegalArgumentException("Some of the rides to merge do not exist");
         } finally {
             rideCursor.close();
         }
+        Uri masterRideUri = ContentUris.withAppendedId(RideColumns.CONTENT_URI, masterRideId);
 
-        // Calculate the total duration
-        projection = new String[] {"sum(" + RideColumns.DURATION + ")"};
-        Cursor c = contentResolver.query(RideColumns.CONTENT_URI, projection, rideSelection.sel(), rideSelection.args(), null);
-        long totalDuration = 0;
-        try {
-            if (c.moveToNext()) {
-                totalDuration = c.getLong(0);
-            }
-        } finally {
-            c.close();
+        // Logs are moved with a selection on the log table, so the archived ones must be there
+        for (int i = 0; i < ids.length; i++) {
+            LogManager.get().unarchive(new long[] {ids[i]});
+            if (progressListener != null) progressListener.onMergeProgress(i + 1, progressTotal);
         }
 
-        // Merge
-        for (long mergedRideId : ids) {
-            if (mergedRideId == masterRideId) continue;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(4);
 
-            // Update logs
-            LogSelection logSelection = new LogSelection();
-            logSelection.rideId(mergedRideId);
-            LogContentValues values = new LogContentValues();
-            values.putRideId(masterRideId);
-            values.update(contentResolver, logSelection);
+        // Move the logs
+        LogSelection logSelection = LogManager.newLogSelection(mergedRideIds);
+        LogContentValues logValues = new LogContentValues();
+        logValues.putRideId(masterRideId);
+        operations.add(ContentProviderOperation.newUpdate(BikeyProvider.notify(LogColumns.CONTENT_URI, false))
+                .withSelection(logSelection.sel(), logSelection.args()).withValues(logValues.values()).build());
 
-            // Delete merged ride
-            rideSelection = new RideSelection();
-            rideSelection.id(mergedRideId);
-            // Do not notify yet
-            Uri contentUri = BikeyProvider.notify(RideColumns.CONTENT_URI, false);
-            contentResolver.delete(contentUri, rideSelection.sel(), rideSelection.args());
-        }
+        // Combine the stats (computed before the logs are moved)
+        ContentProviderOperation mergeStatsOperation = LogManager.get().newMergeStatsOperation(masterRideId, ids);
+        if (mergeStatsOperation != null) operations.add(mergeStatsOperation);
 
-        // Rename master ride
-        Uri masterRideUri = ContentUris.withAppendedId(RideColumns.CONTENT_URI, masterRideId);
+        // Delete the merged rides (their stats are deleted by cascade)
+        rideSelection = new RideSelection();
+        rideSelection.id(mergedRideIds);
+        operations.add(ContentProviderOperation.newDelete(RIDE_CONTENT_URI_NO_NOTIFY).withSelection(rideSelection.sel(), rideSelection.args()).build());
+
+        // Rename the master ride, and update its totals
         String name = getName(masterRideUri);
         if (name == null) {
             name = mContext.getString(R.string.ride_list_mergedRide);
         } else {
             name = mContext.getString(R.string.ride_list_mergedRide_append, name);
         }
-        RideContentValues values = new RideContentValues();
-        values.putName(name);
-        contentResolver.update(masterRideUri, values.values(), null, null);
-
-        // Update master ride total distance
-        float distance = LogManager.get().getTotalDistance(masterRideUri);
-        updateTotalDistance(masterRideUri, distance);
-
-        // Update master ride total duration
-        updateDuration(masterRideUri, totalDuration);
+        RideContentValues rideValues = new RideContentValues();
+        rideValues.putName(name);
+        rideValues.putDistance(totalDistance);
+        rideValues.putDuration(totalDuration);
+        operations.add(ContentProviderOperation.newUpdate(BikeyProvider.notify(masterRideUri, false)).withValues(rideValues.values()).build());
+
+        contentResolver.applyBatch(BikeyProvider.AUTHORITY, operations);
+
+        for (long id : ids) invalidate(id);
+        LogManager.get().invalidateAccumulator(ids);
+        contentResolver.notifyChange(RideColumns.CONTENT_URI, null);
+        contentResolver.notifyChange(LogColumns.CONTENT_URI, null);
+        // The levels of detail of the merged rides were deleted (cascade), and the ones of the master ride are stale
+        LogManager.get().buildLevelsOfDetail(masterRideUri);
+        if (progressListener != null) progressListener.onMergeProgress(progressTotal, progressTotal);
     }
 
     private void pauseRides(long[] ids) {
@@ -214,25 +288,19 @@ public class RideManager {
             values.putFirstActivatedDate(now);
         }
         mContext.getContentResolver().update(rideUri, values.values(), null, null);
+        synchronized (mCache) {
+            CachedRide cachedRide = mCache.get(getRideId(rideUri));
+            if (cachedRide != null) {
+                cachedRide.state = RideState.ACTIVE;
+                cachedRide.activatedDate = now.getTime();
+                if (firstActivatedDate == null) cachedRide.firstActivatedDate = now.getTime();
+            }
+        }
 
         // Dispatch to listeners
         mListeners.dispatch(listener -> listener.onActivated(rideUri));
     }
 
-    @WorkerThread
-    public void updateTotalDistance(@NonNull Uri rideUri, float distance) {
-        RideContentValues values = new RideContentValues();
-        values.putDistance(distance);
-        mContext.getContentResolver().update(rideUri, values.values(), null, null);
-    }
-
-    @WorkerThread
-    private void updateDuration(@NonNull Uri rideUri, long duration) {
-        RideContentValues values = new RideContentValues();
-        values.putDuration(duration);
-        mContext.getContentResolver().update(rideUri, values.values(), null, null);
-    }
-
     @WorkerThread
     public void updateName(@NonNull Uri rideUri, String name) {
         RideContentValues values = new RideContentValues();
@@ -242,35 +310,46 @@ public class RideManager {
             values.putName(name);
         }
         mContext.getContentResolver().update(rideUri, values.values(), null, null);
+        synchronized (mCache) {
+            CachedRide cachedRide = mCache.get(getRideId(rideUri));
+            if (cachedRide != null) cachedRide.name = TextUtils.isEmpty(name) ? null : name;
+        }
     }
 
     @WorkerThread
     public void pause(@NonNull Uri rideUri) {
         // Get current activated date / duration
-        String[] projection = {RideColumns.ACTIVATED_DATE, RideColumns.DURATION};
-        RideCursor c = new RideCursor(mContext.getContentResolver().query(rideUri, projection, null, null, null));
-        try {
-            if (!c.moveToNext()) {
-                Log.w("Could not pause ride, uri " + rideUri + " not found");
-                return;
-            }
-            long activatedDate = c.getActivatedDate().getTime();
-            long duration = c.getDuration();
-
-            // Update duration, state, and reset activated date
-            duration += System.currentTimeMillis() - activatedDate;
+        CachedRide ride = getRide(rideUri);
+        if (ride == null) {
+            Log.w("Could not pause ride, uri " + rideUri + " not found");
+            return;
+        }
+        long activatedDate;
+        long duration;
+        synchronized (mCache) {
+            activatedDate = ride.activatedDate;
+            duration = ride.duration;
+        }
 
-            RideContentValues values = new RideContentValues();
-            values.putState(RideState.PAUSED);
-            values.putDuration(duration);
-            values.putActivatedDate(0l);
-            mContext.getContentResolver().update(rideUri, values.values(), null, null);
+        // Update duration, state, and reset activated date
+        duration += System.currentTimeMillis() - activatedDate;
 
-            // Dispatch to listeners
-            mListeners.dispatch(listener -> listener.onPaused(rideUri));
-        } finally {
-            c.close();
+        RideContentValues values = new RideContentValues();
+        values.putState(RideState.PAUSED);
+        values.putDuration(duration);
+        values.putActivatedDate(0l);
+        mContext.getContentResolver().update(rideUri, values.values(), null, null);
+        synchronized (mCache) {
+            CachedRide cachedRide = mCache.get(getRideId(rideUri));
+            if (cachedRide != null) {
+                cachedRide.state = RideState.PAUSED;
+                cachedRide.duration = duration;
+                cachedRide.activatedDate = 0L;
+            }
         }
+
+        // Dispatch to listeners
+        mListeners.dispatch(listener -> listener.onPaused(rideUri));
     }
 
     /**
@@ -290,16 +369,18 @@ public class RideManager {
     @WorkerThread
     @Nullable
     public Uri getCurrentRide() {
+        Uri currentRideUri = mCurrentRideUri;
+        if (currentRideUri != CURRENT_RIDE_NOT_LOADED) return currentRideUri;
+
         String currentRideUriStr = PreferenceManager.getDefaultSharedPreferences(mContext).getString(Constants.PREF_CURRENT_RIDE_URI, null);
-        if (!TextUtils.isEmpty(currentRideUriStr)) {
-            Uri currentRideUri = Uri.parse(currentRideUriStr);
-            return currentRideUri;
-        }
-        return null;
+        currentRideUri = TextUtils.isEmpty(currentRideUriStr) ? null : Uri.parse(currentRideUriStr);
+        mCurrentRideUri = currentRideUri;
+        return currentRideUri;
     }
 
     @WorkerThread
     public void setCurrentRide(@NonNull Uri rideUri) {
+        mCurrentRideUri = rideUri;
         PreferenceManager.getDefaultSharedPreferences(mContext).edit().putString(Constants.PREF_CURRENT_RIDE_URI, rideUri.toString()).apply();
     }
 
@@ -320,78 +401,193 @@ public class RideManager {
 
     @WorkerThread
     public Date getActivatedDate(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
-        try {
-            return c.getActivatedDate();
-        } finally {
-            c.close();
+        CachedRide ride = getExistingRide(rideUri);
+        synchronized (mCache) {
+            return toDate(ride.activatedDate);
         }
     }
 
     @WorkerThread
     private Date getFirstActivatedDate(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
-        try {
-            return c.getFirstActivatedDate();
-        } finally {
-            c.close();
+        CachedRide ride = getExistingRide(rideUri);
+        synchronized (mCache) {
+            return toDate(ride.firstActivatedDate);
         }
     }
 
     @WorkerThread
     public long getDuration(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
-        try {
-            return c.getDuration();
-        } finally {
-            c.close();
+        CachedRide ride = getExistingRide(rideUri);
+        synchronized (mCache) {
+            return ride.duration;
         }
     }
 
     @WorkerThread
     public RideState getState(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
-        try {
-            return c.getState();
-        } finally {
-            c.close();
+        CachedRide ride = getExistingRide(rideUri);
+        synchronized (mCache) {
+            return ride.state;
         }
     }
 
     @WorkerThread
     public String getDisplayName(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
-        try {
-            String name = c.getName();
-            long createdDateLong = c.getCreatedDate().getTime();
-            String createdDateTimeStr = DateUtils.formatDateTime(mContext, createdDateLong, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
-            if (name == null) {
-                return createdDateTimeStr;
-            }
-            return name + " (" + createdDateTimeStr + ")";
-        } finally {
-            c.close();
+        CachedRide ride = getExistingRide(rideUri);
+        String name;
+        synchronized (mCache) {
+            name = ride.name;
+        }
+        String createdDateTimeStr = DateUtils.formatDateTime(mContext, ride.createdDate, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+        if (name == null) {
+            return createdDateTimeStr;
         }
+        return name + " (" + createdDateTimeStr + ")";
     }
 
     @WorkerThread
     public String getName(@NonNull Uri rideUri) {
-        RideCursor c = query(rideUri);
+        CachedRide ride = getExistingRide(rideUri);
+        synchronized (mCache) {
+            return ride.name;
+        }
+    }
+
+    @WorkerThread
+    public String getUuid(@NonNull Uri rideUri) {
+        return getExistingRide(rideUri).uuid;
+    }
+
+    @WorkerThread
+    @Nullable
+    public Uri getRideByUuid(@NonNull String uuid) {
+        String[] projection = {RideColumns._ID};
+        RideCursor c = newRideByUuidSelection(uuid).query(mContext, projection);
         try {
-            return c.getName();
+            if (!c.moveToNext()) return null;
+            return ContentUris.withAppendedId(RideColumns.CONTENT_URI, c.getId());
         } finally {
             c.close();
         }
     }
 
+    /**
+     * Selects the ride with the given uuid, unless it is deleted (also checked by TestQueryPlans, which makes sure it doesn't scan the table).
+     */
+    @NonNull
+    public static RideSelection newRideByUuidSelection(@NonNull String uuid) {
+        RideSelection res = new RideSelection();
+        res.uuid(uuid).and().stateNot(RideState.DELETED);
+        return res;
+    }
+
     @WorkerThread
     public boolean isExistingRide(@NonNull Uri rideUri) {
-        Cursor c = mContext.getContentResolver().query(rideUri, null, null, null, null);
+        return getRide(rideUri) != null;
+    }
+
+
+    /*
+     * Cache.
+     */
+
+    /**
+     * Metadata of a ride, as cached by {@link RideManager}.<br/>
+     * The mutable fields must only be accessed while holding the {@link RideManager#mCache} lock.
+     * The distance is not cached, since it is updated by {@link LogManager} in batches that don't notify.
+     */
+    private static class CachedRide {
+        final String uuid;
+        final long createdDate;
+        String name;
+        RideState state;
+        Long firstActivatedDate;
+        Long activatedDate;
+        long duration;
+
+        CachedRide(RideCursor c) {
+            uuid = c.getUuid();
+            createdDate = c.getCreatedDate().getTime();
+            name = c.getName();
+            state = c.getState();
+            firstActivatedDate = toTime(c.getFirstActivatedDate());
+            activatedDate = toTime(c.getActivatedDate());
+            duration = c.getDuration();
+        }
+    }
+
+    /**
+     * Returns the cached metadata of the given ride, reading it from the database the first time.
+     *
+     * @return {@code null} if the ride does not exist.
+     */
+    @WorkerThread
+    @Nullable
+    private CachedRide getRide(@NonNull Uri rideUri) {
+        long rideId = getRideId(rideUri);
+        long generation;
+        synchronized (mCache) {
+            CachedRide cachedRide = mCache.get(rideId);
+            if (cachedRide != null) return cachedRide;
+            generation = mCacheGeneration;
+        }
+
+        RideCursor c = new RideCursor(mContext.getContentResolver().query(rideUri, null, null, null, null));
+        CachedRide ride;
         try {
-            return c.moveToNext();
+            if (!c.moveToNext()) return null;
+            ride = new CachedRide(c);
         } finally {
             c.close();
         }
+
+        synchronized (mCache) {
+            // Only cache the row if it hasn't been invalidated while we were reading it
+            if (generation == mCacheGeneration) mCache.put(rideId, ride);
+        }
+        return ride;
+    }
+
+    @WorkerThread
+    @NonNull
+    private CachedRide getExistingRide(@NonNull Uri rideUri) {
+        CachedRide ride = getRide(rideUri);
+        if (ride == null) throw new IllegalArgumentException(rideUri + " not found");
+        return ride;
+    }
+
+    private void invalidate(long rideId) {
+        synchronized (mCache) {
+            mCache.remove(rideId);
+            mCacheGeneration++;
+        }
+    }
+
+    private void invalidateAll() {
+        synchronized (mCache) {
+            mCache.clear();
+            mCacheGeneration++;
+        }
+    }
+
+    /**
+     * @return the id of the given ride uri, or {@code -1} if it is not the uri of a single ride.
+     */
+    private static long getRideId(@Nullable Uri uri) {
+        if (uri == null) return -1;
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Long toTime(@Nullable Date date) {
+        return date == null ? null : date.getTime();
+    }
+
+    private static Date toDate(@Nullable Long time) {
+        return time == null ? null : new Date(time);
     }
 
 
@@ -0,0 +1,162 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.backend.sensor;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jraf.android.util.log.Log;
+
+/**
+ * Sensor listener that lets the hardware batch events in its FIFO when it can, so the application processor is woken up once per batch instead of
+ * once per event.<br/>
+ * Each event is given to {@link #onSensorEvent(SensorEvent, long)} with its own timestamp (not the time it was delivered), and
+ * {@link #onBatchDelivered()} is called once after each delivery, so the work that doesn't need to be done for each event can be done in bulk.
+ * When batching is not available, each event is a delivery of its own.<br/>
+ * The number of deliveries per minute (i.e. of wake ups caused by the sensor) is logged when unregistering.
+ */
+public abstract class BatchedSensorListener implements SensorEventListener {
+    private final String mName;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private SensorManager mSensorManager;
+    private boolean mBatching;
+    private boolean mDeliveryPending;
+    private long mRegisteredRealtime;
+    private int mEventCount;
+    private int mDeliveryCount;
+
+    protected BatchedSensorListener(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * Register this listener, with batching if the sensor supports it.
+     *
+     * @param samplingPeriodUs Wanted delay between events, in microseconds.
+     * @param maxReportLatencyUs Maximum delay between the time an event is measured and the time it is delivered, in microseconds.
+     * @return {@code false} if the sensor is not available.
+     */
+    @MainThread
+    public boolean register(@NonNull SensorManager sensorManager, @Nullable Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+        if (sensor == null) {
+            Log.w(mName + ": sensor not available");
+            return false;
+        }
+        mSensorManager = sensorManager;
+        mEventCount = 0;
+        mDeliveryCount = 0;
+        mRegisteredRealtime = SystemClock.elapsedRealtime();
+        mBatching = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mBatching = registerBatching(sensorManager, sensor, samplingPeriodUs, maxReportLatencyUs);
+        }
+        if (!mBatching) sensorManager.registerListener(this, sensor, samplingPeriodUs);
+        Log.d(mName + ": sensor=" + sensor + " batching=" + mBatching);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean registerBatching(@NonNull SensorManager sensorManager, @NonNull Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+        // No FIFO: events would be delivered one by one anyway
+        if (sensor.getFifoMaxEventCount() == 0) return false;
+
+        // The FIFO can be shared with other sensors: only count on the part which is reserved for this one (if any) to not lose events
+        int fifoEventCount = sensor.getFifoReservedEventCount() > 0 ? sensor.getFifoReservedEventCount() : sensor.getFifoMaxEventCount();
+        long fifoDurationUs = (long) fifoEventCount * samplingPeriodUs;
+        int latencyUs = (int) Math.min(maxReportLatencyUs, fifoDurationUs);
+        return sensorManager.registerListener(this, sensor, samplingPeriodUs, latencyUs);
+    }
+
+    @MainThread
+    public void unregister() {
+        if (mSensorManager == null) return;
+        mSensorManager.unregisterListener(this);
+        mSensorManager = null;
+        mHandler.removeCallbacks(mDeliveredRunnable);
+        mDeliveryPending = false;
+        Log.d(mName + ": batching=" + mBatching + " events=" + mEventCount + " deliveries=" + mDeliveryCount + " deliveriesPerMinute="
+                + getDeliveriesPerMinute());
+    }
+
+    /**
+     * @return The number of times events were delivered per minute since the listener was registered. Each delivery wakes up the application
+     * processor.
+     */
+    public float getDeliveriesPerMinute() {
+        long durationMs = SystemClock.elapsedRealtime() - mRegisteredRealtime;
+        if (durationMs == 0) return 0;
+        return mDeliveryCount * 60000f / durationMs;
+    }
+
+    public boolean isBatching() {
+        return mBatching;
+    }
+
+    @Override
+    public final void onSensorChanged(SensorEvent event) {
+        mEventCount++;
+        if (!mDeliveryPending) {
+            // All the events of a delivery are dispatched in a row: this runs after the last one
+            mDeliveryPending = true;
+            mHandler.post(mDeliveredRunnable);
+        }
+        onSensorEvent(event, event.timestamp / 1000000);
+    }
+
+    private final Runnable mDeliveredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDeliveryPending = false;
+            mDeliveryCount++;
+            onBatchDelivered();
+        }
+    };
+
+    /**
+     * Called for each event.
+     *
+     * @param timestamp The time at which the event happened, in milliseconds (on the same clock as {@link SystemClock#elapsedRealtime()} on most
+     * devices: only use it relative to the other events).
+     */
+    protected abstract void onSensorEvent(@NonNull SensorEvent event, long timestamp);
+
+    /**
+     * Called once after all the events of a delivery were given to {@link #onSensorEvent(SensorEvent, long)}.
+     */
+    protected void onBatchDelivered() {}
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+}
@@ -0,0 +1,110 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2017 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jraf.android.bikey.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A list of listeners that can be added, removed and dispatched to from any thread without locking.<br/>
+ * The listeners are kept in an immutable array which is replaced (compare-and-set) on each change, so dispatching neither locks nor copies
+ * the list.<br/>
+ * A lambda capturing the dispatched value is allocated on each call: on frequent events, pass the value with
+ * {@link #dispatch(ArgumentDispatcher, Object)} and a method reference instead.
+ */
+public class AtomicListeners<T> {
+    public interface Dispatcher<T> {
+        void dispatch(T listener);
+    }
+
+    public interface ArgumentDispatcher<T, A> {
+        void dispatch(T listener, A argument);
+    }
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private final AtomicReference<Object[]> mListeners = new AtomicReference<>(EMPTY);
+
+    /**
+     * @return {@code true} if this is the first listener.
+     */
+    public boolean add(@NonNull T listener) {
+        while (true) {
+            Object[] listeners = mListeners.get();
+            for (Object l : listeners) {
+                if (l == listener) return false;
+            }
+            Object[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+            newListeners[listeners.length] = listener;
+            if (mListeners.compareAndSet(listeners, newListeners)) return listeners.length == 0;
+        }
+    }
+
+    /**
+     * @return {@code true} if this was the last listener.
+     */
+    public boolean remove(@NonNull T listener) {
+        while (true) {
+            Object[] listeners = mListeners.get();
+            int index = -1;
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) return false;
+            Object[] newListeners;
+            if (listeners.length == 1) {
+                newListeners = EMPTY;
+            } else {
+                newListeners = new Object[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, index);
+                System.arraycopy(listeners, index + 1, newListeners, index, listeners.length - index - 1);
+            }
+            if (mListeners.compareAndSet(listeners, newListeners)) return newListeners.length == 0;
+        }
+    }
+
+    public int size() {
+        return mListeners.get().length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void dispatch(@NonNull Dispatcher<T> dispatcher) {
+        for (Object listener : mListeners.get()) {
+            dispatcher.dispatch((T) listener);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A> void dispatch(@NonNull ArgumentDispatcher<T, A> dispatcher, A argument) {
+        for (Object listener : mListeners.get()) {
+            dispatcher.dispatch((T) listener, argument);
+        }
+    }
+}